@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the small pools of background priority threads that screens use
+ * to split loading work over several cores. Each subsystem keeps a pool of
+ * its own, so a long load on one screen never queues ahead of another's
+ * work. The threads go away when their pool has been idle for a few
+ * seconds.
+ *
+ * <p>Tasks run on a pool must not wait on other tasks of the same pool;
+ * callers that wait for their results do so from their own thread.
+ */
+public final class BackgroundExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private BackgroundExecutor() {
+    }
+
+    /**
+     * Create a pool of at most the given number of threads, and no more
+     * than there are cores. Threads are named after the pool.
+     */
+    public static ThreadPoolExecutor newPool(final String name, int maxThreads) {
+        final int numThreads = Math.max(1, Math.min(maxThreads,
+                Runtime.getRuntime().availableProcessors()));
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, name + " #" + mCount.getAndIncrement());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
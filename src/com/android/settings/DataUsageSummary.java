@@ -131,6 +131,7 @@ import com.android.internal.telephony.Phone;
 import com.android.settings.drawable.InsetBoundsDrawable;
 import com.android.settings.net.ChartData;
 import com.android.settings.net.ChartDataLoader;
+import com.android.settings.net.DataUsageCache;
 import com.android.settings.net.DataUsageMeteredSettings;
 import com.android.settings.net.NetworkPolicyEditor;
 import com.android.settings.net.SummaryForAllUidLoader;
@@ -241,6 +242,13 @@ public class DataUsageSummary extends Fragment {
     private NetworkTemplate mTemplate;
     private ChartData mChartData;
 
+    private DataUsageCache mUsageCache;
+    /** Cache generation and range that loaders were last started for. */
+    private int mChartGeneration;
+    private int mSummaryGeneration;
+    private long mSummaryStart;
+    private long mSummaryEnd;
+
     private AppItem mCurrentApp = null;
 
     private Intent mAppSettingsIntent;
@@ -276,6 +284,8 @@ public class DataUsageSummary extends Fragment {
         mPolicyEditor = new NetworkPolicyEditor(mPolicyManager);
         mPolicyEditor.read();
 
+        mUsageCache = new DataUsageCache();
+
         mShowWifi = mPrefs.getBoolean(PREF_SHOW_WIFI, false);
         mShowEthernet = mPrefs.getBoolean(PREF_SHOW_ETHERNET, false);
 
@@ -431,6 +441,8 @@ public class DataUsageSummary extends Fragment {
             @Override
             protected void onPostExecute(Void result) {
                 if (isAdded()) {
+                    // stats were just updated, so anything cached is stale
+                    mUsageCache.invalidate();
                     updateBody();
                 }
             }
@@ -561,9 +573,10 @@ public class DataUsageSummary extends Fragment {
         mDataEnabledView = null;
         mDisableAtLimitView = null;
 
-        mUidDetailProvider.clearCache();
         mUidDetailProvider = null;
 
+        // drop any pending background loads before closing their session
+        mUsageCache.invalidate();
         TrafficStats.closeQuietly(mStatsSession);
 
         if (this.isRemoving()) {
@@ -732,16 +745,23 @@ public class DataUsageSummary extends Fragment {
             throw new IllegalStateException("unknown tab: " + currentTab);
         }
 
-        // kick off loader for network history
-        // TODO: consider chaining two loaders together instead of reloading
-        // network history when showing app detail.
-        getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                ChartDataLoader.buildArgs(mTemplate, mCurrentApp), mChartDataCallbacks);
-
         // detail mode can change visible menus, invalidate
         getActivity().invalidateOptionsMenu();
 
         mBinding = false;
+
+        // kick off loader for network history, unless we already have it
+        // TODO: consider chaining two loaders together instead of reloading
+        // network history when showing app detail.
+        final ChartData cached = isAppDetailMode() ? null : mUsageCache.getChartData(mTemplate);
+        if (cached != null) {
+            getLoaderManager().destroyLoader(LOADER_CHART_DATA);
+            bindChartData(cached);
+        } else {
+            mChartGeneration = mUsageCache.getGeneration();
+            getLoaderManager().restartLoader(LOADER_CHART_DATA,
+                    ChartDataLoader.buildArgs(mTemplate, mCurrentApp), mChartDataCallbacks);
+        }
     }
 
     private boolean isAppDetailMode() {
@@ -1160,9 +1180,19 @@ public class DataUsageSummary extends Fragment {
                 entry = mChartData.network.getValues(start, end, now, null);
             }
 
-            // kick off loader for detailed stats
-            getLoaderManager().restartLoader(LOADER_SUMMARY,
-                    SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+            // kick off loader for detailed stats, unless we already have them
+            final ArrayList<AppItem> cached = mUsageCache.getSummary(mTemplate, start, end);
+            if (cached != null) {
+                getLoaderManager().destroyLoader(LOADER_SUMMARY);
+                bindSummary(cached);
+            } else {
+                mSummaryGeneration = mUsageCache.getGeneration();
+                mSummaryStart = start;
+                mSummaryEnd = end;
+                getLoaderManager().restartLoader(LOADER_SUMMARY,
+                        SummaryForAllUidLoader.buildArgs(mTemplate, start, end),
+                        mSummaryCallbacks);
+            }
         }
 
         final long totalBytes = entry != null ? entry.rxBytes + entry.txBytes : 0;
@@ -1192,18 +1222,10 @@ public class DataUsageSummary extends Fragment {
 
         @Override
         public void onLoadFinished(Loader<ChartData> loader, ChartData data) {
-            mChartData = data;
-            mChart.bindNetworkStats(mChartData.network);
-            mChart.bindDetailNetworkStats(mChartData.detail);
-
-            // calcuate policy cycles based on available data
-            updatePolicy(true);
-            updateAppDetail();
-
-            // force scroll to top of body when showing detail
-            if (mChartData.detail != null) {
-                mListView.smoothScrollToPosition(0);
+            if (!isAppDetailMode()) {
+                mUsageCache.putChartData(mChartGeneration, mTemplate, data);
             }
+            bindChartData(data);
         }
 
         @Override
@@ -1223,10 +1245,13 @@ public class DataUsageSummary extends Fragment {
 
         @Override
         public void onLoadFinished(Loader<NetworkStats> loader, NetworkStats data) {
-            final int[] restrictedAppIds = mPolicyManager.getAppsWithPolicy(
-                    POLICY_REJECT_METERED_BACKGROUND);
-            mAdapter.bindStats(data, restrictedAppIds);
-            updateEmptyVisible();
+            final ArrayList<AppItem> items = collectAppItems(data);
+            if (data != null) {
+                mUsageCache.putSummary(
+                        mSummaryGeneration, mTemplate, mSummaryStart, mSummaryEnd, items);
+            }
+            bindSummary(items);
+            precomputeAdjacentCycles();
         }
 
         @Override
@@ -1234,12 +1259,51 @@ public class DataUsageSummary extends Fragment {
             mAdapter.bindStats(null, new int[0]);
             updateEmptyVisible();
         }
+    };
+
+    private void bindChartData(ChartData data) {
+        mChartData = data;
+        mChart.bindNetworkStats(mChartData.network);
+        mChart.bindDetailNetworkStats(mChartData.detail);
 
-        private void updateEmptyVisible() {
-            final boolean isEmpty = mAdapter.isEmpty() && !isAppDetailMode();
-            mEmpty.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+        // calcuate policy cycles based on available data
+        updatePolicy(true);
+        updateAppDetail();
+
+        // force scroll to top of body when showing detail
+        if (mChartData.detail != null) {
+            mListView.smoothScrollToPosition(0);
         }
-    };
+    }
+
+    private void bindSummary(ArrayList<AppItem> items) {
+        final int[] restrictedAppIds = mPolicyManager.getAppsWithPolicy(
+                POLICY_REJECT_METERED_BACKGROUND);
+        mAdapter.bindItems(items, restrictedAppIds);
+        updateEmptyVisible();
+    }
+
+    private void updateEmptyVisible() {
+        final boolean isEmpty = mAdapter.isEmpty() && !isAppDetailMode();
+        mEmpty.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Load summaries for the cycles on either side of the selected one in
+     * the background, so that flipping to them is instant.
+     */
+    private void precomputeAdjacentCycles() {
+        final int position = mCycleSpinner.getSelectedItemPosition();
+        for (int i = position - 1; i <= position + 1; i += 2) {
+            if (i < 0 || i >= mCycleAdapter.getCount()) continue;
+            final CycleItem cycle = mCycleAdapter.getItem(i);
+            if (cycle instanceof CycleChangeItem) continue;
+
+            final long start = mChart.getDefaultInspectStart(cycle.start, cycle.end);
+            final long end = mChart.getDefaultInspectEnd(cycle.start, cycle.end);
+            mUsageCache.precomputeSummary(mStatsSession, mTemplate, start, end);
+        }
+    }
 
     @Deprecated
     private boolean isMobilePolicySplit() {
@@ -1456,6 +1520,47 @@ public class DataUsageSummary extends Fragment {
         };
     }
 
+    /**
+     * Aggregate the given {@link NetworkStats} into one {@link AppItem} per
+     * application, plus one for the system, sorted by total usage descending.
+     */
+    public static ArrayList<AppItem> collectAppItems(NetworkStats stats) {
+        final ArrayList<AppItem> items = Lists.newArrayList();
+
+        final AppItem systemItem = new AppItem(android.os.Process.SYSTEM_UID);
+        final SparseArray<AppItem> knownUids = new SparseArray<AppItem>();
+
+        NetworkStats.Entry entry = null;
+        final int size = stats != null ? stats.size() : 0;
+        for (int i = 0; i < size; i++) {
+            entry = stats.getValues(i, entry);
+
+            final boolean isApp = UserId.isApp(entry.uid);
+            final int appId = isApp ? UserId.getAppId(entry.uid) : entry.uid;
+            if (isApp || appId == UID_REMOVED || appId == UID_TETHERING) {
+                AppItem item = knownUids.get(appId);
+                if (item == null) {
+                    item = new AppItem(appId);
+                    knownUids.put(appId, item);
+                    items.add(item);
+                }
+
+                item.total += entry.rxBytes + entry.txBytes;
+                item.addUid(entry.uid);
+            } else {
+                systemItem.total += entry.rxBytes + entry.txBytes;
+                systemItem.addUid(entry.uid);
+            }
+        }
+
+        if (systemItem.total > 0) {
+            items.add(systemItem);
+        }
+
+        Collections.sort(items);
+        return items;
+    }
+
     /**
      * Adapter of applications, sorted by total usage descending.
      */
@@ -1475,32 +1580,23 @@ public class DataUsageSummary extends Fragment {
          * Bind the given {@link NetworkStats}, or {@code null} to clear list.
          */
         public void bindStats(NetworkStats stats, int[] restrictedAppIds) {
+            bindItems(collectAppItems(stats), restrictedAppIds);
+        }
+
+        /**
+         * Bind the given list from {@link #collectAppItems(NetworkStats)}. The
+         * list itself is left untouched, so it can be cached and bound again.
+         */
+        public void bindItems(ArrayList<AppItem> items, int[] restrictedAppIds) {
             mItems.clear();
 
-            final AppItem systemItem = new AppItem(android.os.Process.SYSTEM_UID);
             final SparseArray<AppItem> knownUids = new SparseArray<AppItem>();
-
-            NetworkStats.Entry entry = null;
-            final int size = stats != null ? stats.size() : 0;
-            for (int i = 0; i < size; i++) {
-                entry = stats.getValues(i, entry);
-
-                final boolean isApp = UserId.isApp(entry.uid);
-                final int appId = isApp ? UserId.getAppId(entry.uid) : entry.uid;
-                if (isApp || appId == UID_REMOVED || appId == UID_TETHERING) {
-                    AppItem item = knownUids.get(appId);
-                    if (item == null) {
-                        item = new AppItem(appId);
-                        knownUids.put(appId, item);
-                        mItems.add(item);
-                    }
-
-                    item.total += entry.rxBytes + entry.txBytes;
-                    item.addUid(entry.uid);
-                } else {
-                    systemItem.total += entry.rxBytes + entry.txBytes;
-                    systemItem.addUid(entry.uid);
+            for (AppItem item : items) {
+                item.restricted = false;
+                if (item.appId != android.os.Process.SYSTEM_UID) {
+                    knownUids.put(item.appId, item);
                 }
+                mItems.add(item);
             }
 
             for (int appId : restrictedAppIds) {
@@ -1513,10 +1609,6 @@ public class DataUsageSummary extends Fragment {
                 item.restricted = true;
             }
 
-            if (systemItem.total > 0) {
-                mItems.add(systemItem);
-            }
-
             Collections.sort(mItems);
             mLargest = (mItems.size() > 0) ? mItems.get(0).total : 0;
             notifyDataSetChanged();
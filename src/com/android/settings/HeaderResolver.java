@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import com.android.settings.accounts.AuthenticatorHelper;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.INetworkManagementService;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.preference.PreferenceActivity.Header;
+import android.util.Log;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves everything the top-level header list needs from PackageManager,
+ * AccountManager and other services on a background thread, so that
+ * building the headers never blocks on a binder call. Results are
+ * published as immutable {@link Resolved} objects, and the last one is
+ * kept for the life of the process so later launches start from it. The
+ * system headers of the last one are also saved to preferences, so that
+ * a new process starts with them right too.
+ */
+class HeaderResolver {
+    private static final String TAG = "HeaderResolver";
+    private static final boolean DEBUG = false;
+
+    static Object sGlobalLock = new Object();
+    static HeaderResolver sInstance;
+
+    static final int MSG_REFRESH = 1;
+    static final int MSG_REFRESH_ACCOUNTS = 2;
+
+    private static final String PREFS_NAME = "header_resolver";
+    private static final String KEY_BUILD_TIME = "build_time";
+    private static final String KEY_HAS_WIFI = "has_wifi";
+    private static final String KEY_HAS_BLUETOOTH = "has_bluetooth";
+    private static final String KEY_BANDWIDTH_CONTROL = "bandwidth_control";
+    private static final String KEY_LAUNCHER_PREFERENCES = "launcher_preferences";
+    private static final String KEY_META_DATA_IDS = "meta_data_ids";
+    private static final String KEY_META_DATA_PREFIX = "meta_data_";
+
+    interface Listener {
+        /** Called on the main thread each time more headers are resolved. */
+        void onHeadersResolved(Resolved resolved);
+    }
+
+    /** Header replaced by a system activity named in its meta-data. */
+    static class MetaDataHeader {
+        final CharSequence title;
+        final CharSequence summary;
+        final Intent intent;
+
+        MetaDataHeader(CharSequence title, CharSequence summary, Intent intent) {
+            this.title = title;
+            this.summary = summary;
+            this.intent = intent;
+        }
+    }
+
+    static class AccountHeader {
+        final String accountType;
+        final CharSequence label;
+        final Account[] accounts;
+        final boolean hasPreferences;
+
+        AccountHeader(String accountType, CharSequence label, Account[] accounts,
+                boolean hasPreferences) {
+            this.accountType = accountType;
+            this.label = label;
+            this.accounts = accounts;
+            this.hasPreferences = hasPreferences;
+        }
+    }
+
+    /**
+     * Resolved state; never modified once published. Fields of a stage are
+     * only valid once its flag is set, except for the hardware features and
+     * data usage, which are shown until known. The system stage may come
+     * from the snapshot an earlier process saved.
+     */
+    static class Resolved {
+        boolean systemResolved;
+        boolean hasWifi = true;
+        boolean hasBluetooth = true;
+        boolean bandwidthControlEnabled = true;
+        /** Launcher preferences activity, or null to remove the header. */
+        Intent launcherPreferences;
+        /** Keyed by header id; a null value removes the header. */
+        HashMap<Integer, MetaDataHeader> metaDataHeaders = new HashMap<Integer, MetaDataHeader>();
+
+        boolean accountsResolved;
+        AuthenticatorHelper authHelper;
+        /** Sorted by label. */
+        ArrayList<AccountHeader> accountHeaders = new ArrayList<AccountHeader>();
+
+        Resolved() {
+        }
+
+        Resolved(Resolved other) {
+            systemResolved = other.systemResolved;
+            hasWifi = other.hasWifi;
+            hasBluetooth = other.hasBluetooth;
+            bandwidthControlEnabled = other.bandwidthControlEnabled;
+            launcherPreferences = other.launcherPreferences;
+            metaDataHeaders = other.metaDataHeaders;
+            accountsResolved = other.accountsResolved;
+            authHelper = other.authHelper;
+            accountHeaders = other.accountHeaders;
+        }
+    }
+
+    final Context mContext;
+    final Handler mHandler = new Handler();
+
+    final HandlerThread mBackgroundThread;
+    final BackgroundHandler mBackgroundHandler;
+
+    // Only touched on the main thread.
+    Listener mListener;
+
+    /** Protected by synchronizing on 'this'. */
+    Resolved mResolved = new Resolved();
+
+    static HeaderResolver getInstance(Context context) {
+        synchronized (sGlobalLock) {
+            if (sInstance == null) {
+                sInstance = new HeaderResolver(context);
+            }
+            return sInstance;
+        }
+    }
+
+    private HeaderResolver(Context context) {
+        mContext = context.getApplicationContext();
+        loadSnapshot(mResolved);
+
+        mBackgroundThread = new HandlerThread("HeaderResolver:Background",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mBackgroundThread.start();
+        mBackgroundHandler = new BackgroundHandler(mBackgroundThread.getLooper());
+    }
+
+    class BackgroundHandler extends Handler {
+        BackgroundHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            final Resolved resolved = new Resolved(getResolved());
+            switch (msg.what) {
+                case MSG_REFRESH: {
+                    @SuppressWarnings("unchecked")
+                    final Map<Integer, Intent> metaDataIntents = (Map<Integer, Intent>) msg.obj;
+                    resolveSystem(resolved, metaDataIntents);
+                    saveSnapshot(resolved);
+                    resolveAccounts(resolved);
+                } break;
+                case MSG_REFRESH_ACCOUNTS: {
+                    resolveAccounts(resolved);
+                } break;
+            }
+            publish(resolved);
+        }
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    synchronized Resolved getResolved() {
+        return mResolved;
+    }
+
+    /**
+     * Resolve all conditional headers again in the background and publish
+     * them once. The given intents of headers to be replaced from meta-data
+     * are keyed by id.
+     */
+    void refresh(Map<Integer, Intent> metaDataIntents) {
+        // A full refresh covers any pending one
+        mBackgroundHandler.removeMessages(MSG_REFRESH);
+        mBackgroundHandler.removeMessages(MSG_REFRESH_ACCOUNTS);
+        mBackgroundHandler.sendMessage(
+                mBackgroundHandler.obtainMessage(MSG_REFRESH, metaDataIntents));
+    }
+
+    /** Resolve only the account headers again, in the background. */
+    void refreshAccounts() {
+        if (!mBackgroundHandler.hasMessages(MSG_REFRESH)
+                && !mBackgroundHandler.hasMessages(MSG_REFRESH_ACCOUNTS)) {
+            mBackgroundHandler.sendEmptyMessage(MSG_REFRESH_ACCOUNTS);
+        }
+    }
+
+    private void publish(final Resolved resolved) {
+        synchronized (this) {
+            mResolved = resolved;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onHeadersResolved(resolved);
+                }
+            }
+        });
+    }
+
+    private void resolveSystem(Resolved resolved, Map<Integer, Intent> metaDataIntents) {
+        final PackageManager pm = mContext.getPackageManager();
+
+        resolved.hasWifi = pm.hasSystemFeature(PackageManager.FEATURE_WIFI);
+        resolved.hasBluetooth = pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH);
+
+        // Data usage needs the kernel module
+        final INetworkManagementService netManager = INetworkManagementService.Stub
+                .asInterface(ServiceManager.getService(Context.NETWORKMANAGEMENT_SERVICE));
+        try {
+            resolved.bandwidthControlEnabled = netManager.isBandwidthControlEnabled();
+        } catch (RemoteException e) {
+            // ignored, keep the header as before
+            resolved.bandwidthControlEnabled = true;
+        }
+
+        Intent launcherIntent = new Intent(Intent.ACTION_MAIN);
+        launcherIntent.addCategory(Intent.CATEGORY_HOME);
+        launcherIntent.addCategory(Intent.CATEGORY_DEFAULT);
+
+        Intent launcherPreferencesIntent = new Intent(Intent.ACTION_MAIN);
+        launcherPreferencesIntent.addCategory("com.cyanogenmod.category.LAUNCHER_PREFERENCES");
+
+        resolved.launcherPreferences = null;
+        ResolveInfo defaultLauncher = pm.resolveActivity(launcherIntent,
+                PackageManager.MATCH_DEFAULT_ONLY);
+        if (defaultLauncher != null) {
+            launcherPreferencesIntent.setPackage(defaultLauncher.activityInfo.packageName);
+            ResolveInfo launcherPreferences = pm.resolveActivity(launcherPreferencesIntent, 0);
+            if (launcherPreferences != null) {
+                final ActivityInfo ai = launcherPreferences.activityInfo;
+                resolved.launcherPreferences = new Intent().setClassName(ai.packageName,
+                        ai.name);
+            }
+        }
+
+        if (metaDataIntents != null) {
+            final HashMap<Integer, MetaDataHeader> metaDataHeaders =
+                    new HashMap<Integer, MetaDataHeader>();
+            for (Map.Entry<Integer, Intent> entry : metaDataIntents.entrySet()) {
+                final Header header = new Header();
+                header.intent = entry.getValue() != null ? new Intent(entry.getValue()) : null;
+                final ArrayList<Header> target = new ArrayList<Header>();
+                target.add(header);
+                Utils.updateHeaderToSpecificActivityFromMetaDataOrRemove(mContext, target,
+                        header);
+                metaDataHeaders.put(entry.getKey(), target.contains(header)
+                        ? new MetaDataHeader(header.title, header.summary, header.intent)
+                        : null);
+            }
+            resolved.metaDataHeaders = metaDataHeaders;
+        }
+
+        resolved.systemResolved = true;
+        if (DEBUG) Log.d(TAG, "resolved system headers");
+    }
+
+    private void resolveAccounts(Resolved resolved) {
+        final AuthenticatorHelper helper = new AuthenticatorHelper();
+        helper.updateAuthDescriptions(mContext);
+        helper.onAccountsUpdated(mContext, null);
+
+        final AccountManager am = AccountManager.get(mContext);
+        final ArrayList<AccountHeader> accountHeaders = new ArrayList<AccountHeader>();
+        for (String accountType : helper.getEnabledAccountTypes()) {
+            CharSequence label = helper.getLabelForType(mContext, accountType);
+            if (label == null) {
+                continue;
+            }
+            // Load the icon now so the list doesn't have to
+            helper.getDrawableForType(mContext, accountType);
+            accountHeaders.add(new AccountHeader(accountType, label,
+                    am.getAccountsByType(accountType), helper.hasAccountPreferences(accountType)));
+        }
+
+        // Sort by label
+        Collections.sort(accountHeaders, new Comparator<AccountHeader>() {
+            @Override
+            public int compare(AccountHeader h1, AccountHeader h2) {
+                return h1.label.toString().compareTo(h2.label.toString());
+            }
+        });
+
+        resolved.authHelper = helper;
+        resolved.accountHeaders = accountHeaders;
+        resolved.accountsResolved = true;
+        if (DEBUG) Log.d(TAG, "resolved " + accountHeaders.size() + " account headers");
+    }
+
+    /**
+     * Start from the system headers saved by an earlier process, unless
+     * there are none or they were saved by another build, whose header ids
+     * may differ. Account headers need the authenticators' icons, so they
+     * are always resolved afresh.
+     */
+    private void loadSnapshot(Resolved resolved) {
+        final SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME,
+                Context.MODE_PRIVATE);
+        if (prefs.getLong(KEY_BUILD_TIME, 0) != Build.TIME) {
+            return;
+        }
+        resolved.hasWifi = prefs.getBoolean(KEY_HAS_WIFI, true);
+        resolved.hasBluetooth = prefs.getBoolean(KEY_HAS_BLUETOOTH, true);
+        resolved.bandwidthControlEnabled = prefs.getBoolean(KEY_BANDWIDTH_CONTROL, true);
+        final String launcherPreferences = prefs.getString(KEY_LAUNCHER_PREFERENCES, null);
+        if (launcherPreferences != null) {
+            final ComponentName component = ComponentName.unflattenFromString(
+                    launcherPreferences);
+            if (component != null) {
+                resolved.launcherPreferences = new Intent().setComponent(component);
+            }
+        }
+        final String ids = prefs.getString(KEY_META_DATA_IDS, "");
+        for (String id : ids.split(",")) {
+            if (id.length() == 0) {
+                continue;
+            }
+            final String key = KEY_META_DATA_PREFIX + id;
+            MetaDataHeader header = null;
+            final String intent = prefs.getString(key + "_intent", null);
+            if (intent != null) {
+                try {
+                    header = new MetaDataHeader(prefs.getString(key + "_title", null),
+                            prefs.getString(key + "_summary", null),
+                            Intent.parseUri(intent, 0));
+                } catch (URISyntaxException e) {
+                    Log.w(TAG, "Dropping saved header " + id, e);
+                    continue;
+                }
+            }
+            resolved.metaDataHeaders.put(Integer.valueOf(id), header);
+        }
+        resolved.systemResolved = true;
+        if (DEBUG) Log.d(TAG, "loaded saved system headers");
+    }
+
+    /** Save the system headers for the next process. Called in the background. */
+    private void saveSnapshot(Resolved resolved) {
+        final SharedPreferences.Editor editor = mContext.getSharedPreferences(PREFS_NAME,
+                Context.MODE_PRIVATE).edit();
+        editor.clear();
+        editor.putLong(KEY_BUILD_TIME, Build.TIME);
+        editor.putBoolean(KEY_HAS_WIFI, resolved.hasWifi);
+        editor.putBoolean(KEY_HAS_BLUETOOTH, resolved.hasBluetooth);
+        editor.putBoolean(KEY_BANDWIDTH_CONTROL, resolved.bandwidthControlEnabled);
+        if (resolved.launcherPreferences != null) {
+            editor.putString(KEY_LAUNCHER_PREFERENCES,
+                    resolved.launcherPreferences.getComponent().flattenToString());
+        }
+        final StringBuilder ids = new StringBuilder();
+        for (Map.Entry<Integer, MetaDataHeader> entry : resolved.metaDataHeaders.entrySet()) {
+            final MetaDataHeader header = entry.getValue();
+            // headers without an intent can't be restored, leave them to the refresh
+            if (header != null && header.intent == null) {
+                continue;
+            }
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(entry.getKey());
+            if (header != null) {
+                final String key = KEY_META_DATA_PREFIX + entry.getKey();
+                editor.putString(key + "_title",
+                        header.title != null ? header.title.toString() : null);
+                editor.putString(key + "_summary",
+                        header.summary != null ? header.summary.toString() : null);
+                editor.putString(key + "_intent", header.intent.toUri(0));
+            }
+        }
+        editor.putString(KEY_META_DATA_IDS, ids.toString());
+        editor.apply();
+    }
+}
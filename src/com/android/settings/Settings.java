@@ -36,12 +36,8 @@ import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.INetworkManagementService;
-import android.os.RemoteException;
-import android.os.ServiceManager;
 import android.os.UserId;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
@@ -62,8 +58,6 @@ import android.widget.Switch;
 import android.widget.TextView;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 
@@ -71,7 +65,7 @@ import java.util.List;
  * Top-level settings activity to handle single pane and double pane UI layout.
  */
 public class Settings extends PreferenceActivity
-        implements ButtonBarHandler, OnAccountsUpdateListener {
+        implements ButtonBarHandler, OnAccountsUpdateListener, HeaderResolver.Listener {
 
     private static final String LOG_TAG = "Settings";
 
@@ -117,6 +111,11 @@ public class Settings extends PreferenceActivity
     private Header mLastHeader;
     private boolean mListeningToAccountUpdates;
 
+    private HeaderResolver mHeaderResolver;
+    private HeaderResolver.Resolved mResolved;
+    /** Intents of the headers replaced from meta-data, as loaded from resources. */
+    private HashMap<Integer, Intent> mMetaDataIntents;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         if (getIntent().getBooleanExtra(EXTRA_CLEAR_UI_OPTIONS, false)) {
@@ -128,9 +127,12 @@ public class Settings extends PreferenceActivity
             mEnableUserManagement = true;
         }
 
-        mAuthenticatorHelper = new AuthenticatorHelper();
-        mAuthenticatorHelper.updateAuthDescriptions(this);
-        mAuthenticatorHelper.onAccountsUpdated(this, null);
+        // Start from whatever was resolved by an earlier launch; anything
+        // else is resolved in the background and shown as it arrives.
+        mHeaderResolver = HeaderResolver.getInstance(this);
+        mResolved = mHeaderResolver.getResolved();
+        mAuthenticatorHelper = mResolved.authHelper != null
+                ? mResolved.authHelper : new AuthenticatorHelper();
 
         getMetaData();
         mInLocalHeaderSwitch = true;
@@ -192,7 +194,16 @@ public class Settings extends PreferenceActivity
         if (listAdapter instanceof HeaderAdapter) {
             ((HeaderAdapter) listAdapter).resume();
         }
-        invalidateHeaders();
+        mHeaderResolver.setListener(this);
+        // Catch up with anything published while paused; the refresh below
+        // rebuilds the headers once more when it is done
+        final HeaderResolver.Resolved resolved = mHeaderResolver.getResolved();
+        if (resolved != mResolved) {
+            onHeadersResolved(resolved);
+        }
+        if (mMetaDataIntents != null) {
+            mHeaderResolver.refresh(mMetaDataIntents);
+        }
     }
 
     @Override
@@ -203,6 +214,7 @@ public class Settings extends PreferenceActivity
         if (listAdapter instanceof HeaderAdapter) {
             ((HeaderAdapter) listAdapter).pause();
         }
+        mHeaderResolver.setListener(null);
     }
 
     @Override
@@ -372,10 +384,43 @@ public class Settings extends PreferenceActivity
     public void onBuildHeaders(List<Header> headers) {
         loadHeadersFromResource(R.xml.settings_headers, headers);
 
+        if (mMetaDataIntents == null) {
+            mMetaDataIntents = new HashMap<Integer, Intent>();
+            for (Header header : headers) {
+                final int id = (int) header.id;
+                if (id == R.id.operator_settings || id == R.id.manufacturer_settings ||
+                        id == R.id.advanced_settings) {
+                    mMetaDataIntents.put(id, header.intent);
+                }
+            }
+        }
+
         updateHeaderList(headers);
     }
 
+    @Override
+    public void onHeadersResolved(HeaderResolver.Resolved resolved) {
+        mResolved = resolved;
+        if (resolved.authHelper != null && resolved.authHelper != mAuthenticatorHelper) {
+            mAuthenticatorHelper = resolved.authHelper;
+            ListAdapter listAdapter = getListAdapter();
+            if (listAdapter instanceof HeaderAdapter) {
+                ((HeaderAdapter) listAdapter).setAuthenticatorHelper(mAuthenticatorHelper);
+            }
+        }
+        invalidateHeaders();
+    }
+
+    /**
+     * Filter the headers loaded from resources. Only uses what
+     * {@link HeaderResolver} has resolved so far, so this never blocks on
+     * another process; headers that depend on other packages stay hidden
+     * until resolved.
+     */
     private void updateHeaderList(List<Header> target) {
+        final HeaderResolver.Resolved resolved = mResolved;
+        mFirstHeader = null;
+        mHeaderIndexMap.clear();
         int i = 0;
         while (i < target.size()) {
             Header header = target.get(i);
@@ -386,48 +431,38 @@ public class Settings extends PreferenceActivity
                     target.remove(header);
             } else if (id == R.id.operator_settings || id == R.id.manufacturer_settings ||
                     id == R.id.advanced_settings) {
-                Utils.updateHeaderToSpecificActivityFromMetaDataOrRemove(this, target, header);
+                final HeaderResolver.MetaDataHeader metaData = resolved.metaDataHeaders.get(id);
+                if (metaData != null) {
+                    header.title = metaData.title;
+                    header.summary = metaData.summary;
+                    header.intent = metaData.intent;
+                } else {
+                    target.remove(header);
+                }
             } else if (id == R.id.launcher_settings) {
-                Intent launcherIntent = new Intent(Intent.ACTION_MAIN);
-                launcherIntent.addCategory(Intent.CATEGORY_HOME);
-                launcherIntent.addCategory(Intent.CATEGORY_DEFAULT);
-
-                Intent launcherPreferencesIntent = new Intent(Intent.ACTION_MAIN);
-                launcherPreferencesIntent.addCategory("com.cyanogenmod.category.LAUNCHER_PREFERENCES");
-
-                ActivityInfo defaultLauncher = getPackageManager().resolveActivity(launcherIntent, PackageManager.MATCH_DEFAULT_ONLY).activityInfo;
-                launcherPreferencesIntent.setPackage(defaultLauncher.packageName);
-                ResolveInfo launcherPreferences = getPackageManager().resolveActivity(launcherPreferencesIntent, 0);
-                if (launcherPreferences != null) {
-                    header.intent = new Intent().setClassName(launcherPreferences.activityInfo.packageName,
-                            launcherPreferences.activityInfo.name);
+                if (resolved.launcherPreferences != null) {
+                    header.intent = resolved.launcherPreferences;
                 } else {
                     target.remove(header);
                 }
             } else if (id == R.id.wifi_settings) {
                 // Remove WiFi Settings if WiFi service is not available.
-                if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_WIFI)) {
+                if (!resolved.hasWifi) {
                     target.remove(header);
                 }
             } else if (id == R.id.bluetooth_settings) {
                 // Remove Bluetooth Settings if Bluetooth service is not available.
-                if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH)) {
+                if (!resolved.hasBluetooth) {
                     target.remove(header);
                 }
             } else if (id == R.id.data_usage_settings) {
                 // Remove data usage when kernel module not enabled
-                final INetworkManagementService netManager = INetworkManagementService.Stub
-                        .asInterface(ServiceManager.getService(Context.NETWORKMANAGEMENT_SERVICE));
-                try {
-                    if (!netManager.isBandwidthControlEnabled()) {
-                        target.remove(header);
-                    }
-                } catch (RemoteException e) {
-                    // ignored
+                if (!resolved.bandwidthControlEnabled) {
+                    target.remove(header);
                 }
             } else if (id == R.id.account_settings) {
                 int headerIndex = i + 1;
-                i = insertAccountsHeaders(target, headerIndex);
+                i = insertAccountsHeaders(target, headerIndex, resolved);
             } else if (id == R.id.user_settings) {
                 if (!mEnableUserManagement
                         || !UserId.MU_ENABLED || UserId.myUserId() != 0
@@ -454,18 +489,14 @@ public class Settings extends PreferenceActivity
         }
     }
 
-    private int insertAccountsHeaders(List<Header> target, int headerIndex) {
-        String[] accountTypes = mAuthenticatorHelper.getEnabledAccountTypes();
-        List<Header> accountHeaders = new ArrayList<Header>(accountTypes.length);
-        for (String accountType : accountTypes) {
-            CharSequence label = mAuthenticatorHelper.getLabelForType(this, accountType);
-            if (label == null) {
-                continue;
-            }
-
-            Account[] accounts = AccountManager.get(this).getAccountsByType(accountType);
-            boolean skipToAccount = accounts.length == 1
-                    && !mAuthenticatorHelper.hasAccountPreferences(accountType);
+    private int insertAccountsHeaders(List<Header> target, int headerIndex,
+            HeaderResolver.Resolved resolved) {
+        List<Header> accountHeaders = new ArrayList<Header>(resolved.accountHeaders.size());
+        for (HeaderResolver.AccountHeader account : resolved.accountHeaders) {
+            final String accountType = account.accountType;
+            final CharSequence label = account.label;
+            final Account[] accounts = account.accounts;
+            boolean skipToAccount = accounts.length == 1 && !account.hasPreferences;
             Header accHeader = new Header();
             accHeader.title = label;
             if (accHeader.extras == null) {
@@ -497,19 +528,13 @@ public class Settings extends PreferenceActivity
             accountHeaders.add(accHeader);
         }
 
-        // Sort by label
-        Collections.sort(accountHeaders, new Comparator<Header>() {
-            @Override
-            public int compare(Header h1, Header h2) {
-                return h1.title.toString().compareTo(h2.title.toString());
-            }
-        });
-
+        // Already sorted by label
         for (Header header : accountHeaders) {
             target.add(headerIndex++, header);
         }
         if (!mListeningToAccountUpdates) {
-            AccountManager.get(this).addOnAccountsUpdatedListener(this, null, true);
+            // The resolver already has the current accounts
+            AccountManager.get(this).addOnAccountsUpdatedListener(this, null, false);
             mListeningToAccountUpdates = true;
         }
         return headerIndex;
@@ -625,6 +650,10 @@ public class Settings extends PreferenceActivity
             mProfileEnabler = new ProfileEnabler(context, null, new Switch(context));
         }
 
+        void setAuthenticatorHelper(AuthenticatorHelper authenticatorHelper) {
+            mAuthHelper = authenticatorHelper;
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
             HeaderViewHolder holder;
@@ -772,8 +801,8 @@ public class Settings extends PreferenceActivity
 
     @Override
     public void onAccountsUpdated(Account[] accounts) {
-        mAuthenticatorHelper.onAccountsUpdated(this, accounts);
-        invalidateHeaders();
+        // Headers are rebuilt once the resolver has caught up
+        mHeaderResolver.refreshAccounts();
     }
 
     /*
@@ -27,6 +27,7 @@ import android.os.RemoteException;
 import android.security.IKeyChainService;
 import android.security.KeyChain;
 import android.security.KeyChain.KeyChainConnection;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -39,18 +40,67 @@ import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TabHost;
 import android.widget.TextView;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.apache.harmony.xnet.provider.jsse.TrustedCertificateStore;
 
 public class TrustedCredentialsSettings extends Fragment {
 
     private static final String TAG = "TrustedCredentialsSettings";
 
+    // Same locations TrustedCertificateStore reads aliases from
+    private static final File CA_CERTS_DIR_SYSTEM
+            = new File(System.getenv("ANDROID_ROOT") + "/etc/security/cacerts");
+    private static final File CA_CERTS_DIR_ADDED
+            = new File(System.getenv("ANDROID_DATA") + "/misc/keychain/cacerts-added");
+    private static final String PREFIX_SYSTEM = "system:";
+    private static final String PREFIX_USER = "user:";
+
+    /** Rows shown before the rest of the list has been parsed. */
+    private static final int FIRST_BATCH = 12;
+    private static final int BATCH = 32;
+
+    private static final int MAX_THREADS = 2;
+
+    private static final ThreadPoolExecutor sExecutor = BackgroundExecutor.newPool(
+            "CertParser", MAX_THREADS);
+
+    // CertificateFactory is not documented as thread safe, so each worker has its own
+    private static final ThreadLocal<CertificateFactory> sCertFactory
+            = new ThreadLocal<CertificateFactory>() {
+        @Override protected CertificateFactory initialValue() {
+            try {
+                return CertificateFactory.getInstance("X.509");
+            } catch (CertificateException e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
+    /**
+     * Parsed certificates by alias, shared by both tabs and kept across
+     * visits. An entry is used for as long as the modification time of the
+     * file behind its alias is unchanged.
+     */
+    private static final HashMap<String, ParsedCert> sParsedCerts
+            = new HashMap<String, ParsedCert>();
+
     private enum Tab {
         SYSTEM("system",
                R.string.trusted_credentials_system_tab,
@@ -122,6 +172,10 @@ public class TrustedCredentialsSettings extends Fragment {
             throw new AssertionError();
         }
         private void postOperationUpdate(boolean ok, CertHolder certHolder) {
+            // the store changed, parse this one again next time
+            synchronized (sParsedCerts) {
+                sParsedCerts.remove(certHolder.mAlias);
+            }
             if (ok) {
                 if (certHolder.mTab.mCheckbox) {
                     certHolder.mDeleted = !certHolder.mDeleted;
@@ -136,7 +190,8 @@ public class TrustedCredentialsSettings extends Fragment {
         }
     }
 
-    // be careful not to use this on the UI thread since it is does file operations
+    // be careful not to use this on the UI thread since it is does file operations.
+    // The loaders of both tabs and their parser threads share it, so synchronize on it.
     private final TrustedCertificateStore mStore = new TrustedCertificateStore();
 
     private TabHost mTabHost;
@@ -170,12 +225,20 @@ public class TrustedCredentialsSettings extends Fragment {
     private class TrustedCertificateAdapter extends BaseAdapter {
         private final List<CertHolder> mCertHolders = new ArrayList<CertHolder>();
         private final Tab mTab;
+        // the loader whose rows are shown; only touched on the main thread
+        private AliasLoader mAliasLoader;
         private TrustedCertificateAdapter(Tab tab) {
             mTab = tab;
             load();
         }
         private void load() {
-            new AliasLoader().execute();
+            // a reload replaces the list, so rows still coming from an older one are dropped
+            if (mAliasLoader != null) {
+                mAliasLoader.cancel(false);
+            }
+            // the loader waits on the parser threads, keep it off the serial executor
+            mAliasLoader = new AliasLoader();
+            mAliasLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         }
         @Override public int getCount() {
             return mCertHolders.size();
@@ -211,9 +274,14 @@ public class TrustedCredentialsSettings extends Fragment {
             return view;
         };
 
-        private class AliasLoader extends AsyncTask<Void, Integer, List<CertHolder>> {
+        /**
+         * Streams rows in as their certificates are parsed: cached ones
+         * first, then the rest from {@link #sExecutor}, inserted in order.
+         */
+        private class AliasLoader extends AsyncTask<Void, CertHolder, Void> {
             ProgressBar mProgressBar;
             View mList;
+            boolean mFirstBatch = true;
             @Override protected void onPreExecute() {
                 View content = mTabHost.getTabContentView();
                 mProgressBar = (ProgressBar) content.findViewById(mTab.mProgress);
@@ -221,64 +289,174 @@ public class TrustedCredentialsSettings extends Fragment {
                 mProgressBar.setVisibility(View.VISIBLE);
                 mList.setVisibility(View.GONE);
             }
-            @Override protected List<CertHolder> doInBackground(Void... params) {
-                Set<String> aliases = mTab.getAliases(mStore);
-                int max = aliases.size();
-                int progress = 0;
-                List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
-                for (String alias : aliases) {
-                    X509Certificate cert = (X509Certificate) mStore.getCertificate(alias, true);
-                    certHolders.add(new CertHolder(mStore,
-                                                   TrustedCertificateAdapter.this,
-                                                   mTab,
-                                                   alias,
-                                                   cert));
-                    publishProgress(++progress, max);
+            @Override protected Void doInBackground(Void... params) {
+                Set<String> aliases;
+                synchronized (mStore) {
+                    aliases = mTab.getAliases(mStore);
+                }
+                List<CertHolder> batch = new ArrayList<CertHolder>(BATCH);
+                int batchSize = FIRST_BATCH;
+
+                ExecutorCompletionService<CertHolder> parser
+                        = new ExecutorCompletionService<CertHolder>(sExecutor);
+                int pending = 0;
+                for (final String alias : aliases) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    // resolved here so the parser threads never touch the store for it
+                    final boolean deleted;
+                    synchronized (mStore) {
+                        deleted = mTab.deleted(mStore, alias);
+                    }
+                    ParsedCert parsed = getCachedCert(alias);
+                    if (parsed != null) {
+                        batch.add(new CertHolder(TrustedCertificateAdapter.this, mTab,
+                                                 alias, parsed, deleted));
+                        continue;
+                    }
+                    parser.submit(new Callable<CertHolder>() {
+                        @Override public CertHolder call() {
+                            ParsedCert parsedCert = parseCert(alias);
+                            if (parsedCert == null) {
+                                return null;
+                            }
+                            return new CertHolder(TrustedCertificateAdapter.this, mTab,
+                                                  alias, parsedCert, deleted);
+                        }
+                    });
+                    pending++;
                 }
-                Collections.sort(certHolders);
-                return certHolders;
+
+                while (!isCancelled()) {
+                    if (batch.size() >= batchSize || (pending == 0 && !batch.isEmpty())) {
+                        publishProgress(batch.toArray(new CertHolder[batch.size()]));
+                        batch.clear();
+                        batchSize = BATCH;
+                    }
+                    if (pending == 0) {
+                        break;
+                    }
+                    try {
+                        CertHolder certHolder = parser.take().get();
+                        if (certHolder != null) {
+                            batch.add(certHolder);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    } catch (ExecutionException e) {
+                        Log.w(TAG, "Unable to parse certificate", e.getCause());
+                    }
+                    pending--;
+                }
+                return null;
             }
-            @Override protected void onProgressUpdate(Integer... progressAndMax) {
-                int progress = progressAndMax[0];
-                int max = progressAndMax[1];
-                if (max != mProgressBar.getMax()) {
-                    mProgressBar.setMax(max);
+            private void showList() {
+                if (mFirstBatch) {
+                    mFirstBatch = false;
+                    mCertHolders.clear();
+                    mProgressBar.setVisibility(View.GONE);
+                    mList.setVisibility(View.VISIBLE);
                 }
-                mProgressBar.setProgress(progress);
             }
-            @Override protected void onPostExecute(List<CertHolder> certHolders) {
-                mCertHolders.clear();
-                mCertHolders.addAll(certHolders);
+            @Override protected void onProgressUpdate(CertHolder... certHolders) {
+                if (mAliasLoader != this) {
+                    return;
+                }
+                showList();
+                for (CertHolder certHolder : certHolders) {
+                    int index = Collections.binarySearch(mCertHolders, certHolder);
+                    if (index < 0) {
+                        index = -index - 1;
+                    }
+                    mCertHolders.add(index, certHolder);
+                }
+                notifyDataSetChanged();
+            }
+            @Override protected void onPostExecute(Void result) {
+                if (mAliasLoader != this) {
+                    return;
+                }
+                mAliasLoader = null;
+                // nothing was published if there are no certificates
+                showList();
                 notifyDataSetChanged();
-                View content = mTabHost.getTabContentView();
-                mProgressBar.setVisibility(View.GONE);
-                mList.setVisibility(View.VISIBLE);
-                mProgressBar.setProgress(0);
             }
         }
     }
 
-    private static class CertHolder implements Comparable<CertHolder> {
-        private final TrustedCertificateStore mStore;
-        private final TrustedCertificateAdapter mAdapter;
-        private final Tab mTab;
-        private final String mAlias;
-        private final X509Certificate mX509Cert;
+    private static File fileForAlias(String alias) {
+        if (alias.startsWith(PREFIX_SYSTEM)) {
+            return new File(CA_CERTS_DIR_SYSTEM, alias.substring(PREFIX_SYSTEM.length()));
+        }
+        if (alias.startsWith(PREFIX_USER)) {
+            return new File(CA_CERTS_DIR_ADDED, alias.substring(PREFIX_USER.length()));
+        }
+        return null;
+    }
+
+    private static long lastModified(String alias) {
+        File file = fileForAlias(alias);
+        return file != null ? file.lastModified() : 0;
+    }
+
+    /** Returns the cached certificate, if its file hasn't changed since. */
+    private static ParsedCert getCachedCert(String alias) {
+        long modified = lastModified(alias);
+        synchronized (sParsedCerts) {
+            ParsedCert parsed = sParsedCerts.get(alias);
+            return parsed != null && parsed.mModified == modified ? parsed : null;
+        }
+    }
+
+    /** Parses and caches the certificate. Called from the worker threads. */
+    private ParsedCert parseCert(String alias) {
+        File file = fileForAlias(alias);
+        long modified = file != null ? file.lastModified() : 0;
+        X509Certificate cert = null;
+        if (file != null) {
+            InputStream is = null;
+            try {
+                is = new BufferedInputStream(new FileInputStream(file));
+                cert = (X509Certificate) sCertFactory.get().generateCertificate(is);
+            } catch (IOException e) {
+                // fall back to the store below
+            } catch (CertificateException e) {
+                // fall back to the store below
+            } finally {
+                if (is != null) {
+                    try {
+                        is.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        if (cert == null) {
+            synchronized (mStore) {
+                cert = (X509Certificate) mStore.getCertificate(alias, true);
+            }
+        }
+        if (cert == null) {
+            return null;
+        }
+        ParsedCert parsed = new ParsedCert(modified, cert);
+        synchronized (sParsedCerts) {
+            sParsedCerts.put(alias, parsed);
+        }
+        return parsed;
+    }
 
+    private static class ParsedCert {
+        private final long mModified;
+        private final X509Certificate mX509Cert;
         private final SslCertificate mSslCert;
         private final String mSubjectPrimary;
         private final String mSubjectSecondary;
-        private boolean mDeleted;
 
-        private CertHolder(TrustedCertificateStore store,
-                           TrustedCertificateAdapter adapter,
-                           Tab tab,
-                           String alias,
-                           X509Certificate x509Cert) {
-            mStore = store;
-            mAdapter = adapter;
-            mTab = tab;
-            mAlias = alias;
+        private ParsedCert(long modified, X509Certificate x509Cert) {
+            mModified = modified;
             mX509Cert = x509Cert;
 
             mSslCert = new SslCertificate(x509Cert);
@@ -306,7 +484,33 @@ public class TrustedCredentialsSettings extends Fragment {
                     mSubjectSecondary = "";
                 }
             }
-            mDeleted = mTab.deleted(mStore, mAlias);
+        }
+    }
+
+    private static class CertHolder implements Comparable<CertHolder> {
+        private final TrustedCertificateAdapter mAdapter;
+        private final Tab mTab;
+        private final String mAlias;
+        private final X509Certificate mX509Cert;
+
+        private final SslCertificate mSslCert;
+        private final String mSubjectPrimary;
+        private final String mSubjectSecondary;
+        private boolean mDeleted;
+
+        private CertHolder(TrustedCertificateAdapter adapter,
+                           Tab tab,
+                           String alias,
+                           ParsedCert parsed,
+                           boolean deleted) {
+            mAdapter = adapter;
+            mTab = tab;
+            mAlias = alias;
+            mX509Cert = parsed.mX509Cert;
+            mSslCert = parsed.mSslCert;
+            mSubjectPrimary = parsed.mSubjectPrimary;
+            mSubjectSecondary = parsed.mSubjectSecondary;
+            mDeleted = deleted;
         }
         @Override public int compareTo(CertHolder o) {
             int primary = this.mSubjectPrimary.compareToIgnoreCase(o.mSubjectPrimary);
@@ -20,20 +20,17 @@ package com.android.settings;
 
 import com.android.internal.app.IUsageStats;
 import com.android.settings.R;
+import com.android.settings.net.UidDetailCache;
 import android.app.Activity;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import com.android.internal.os.PkgUsageStats;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import android.util.Log;
@@ -58,7 +55,7 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
     private IUsageStats mUsageStatsService;
     private LayoutInflater mInflater;
     private UsageStatsAdapter mAdapter;
-    private PackageManager mPm;
+    private StatsLoader mLoader;
     
     public static class AppNameComparator implements Comparator<PkgUsageStats> {
         Map<String, CharSequence> mAppLabelList;
@@ -99,56 +96,69 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
         TextView usageTime;
     }
     
+    /** Return the indices of the given stats, sorted by the comparator. */
+    static int[] sortedOrder(final PkgUsageStats[] stats,
+            final Comparator<PkgUsageStats> comparator) {
+        final Integer[] boxed = new Integer[stats.length];
+        for (int i = 0; i < stats.length; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return comparator.compare(stats[a], stats[b]);
+            }
+        });
+        final int[] order = new int[stats.length];
+        for (int i = 0; i < stats.length; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    /**
+     * Shows the stats through one presorted index array per display order,
+     * so changing the order only swaps arrays.
+     */
     class UsageStatsAdapter extends BaseAdapter {
          // Constants defining order for display order
         private static final int _DISPLAY_ORDER_USAGE_TIME = 0;
         private static final int _DISPLAY_ORDER_LAUNCH_COUNT = 1;
         private static final int _DISPLAY_ORDER_APP_NAME = 2;
-        
+        private static final int _DISPLAY_ORDER_COUNT = 3;
+
         private int mDisplayOrder = _DISPLAY_ORDER_USAGE_TIME;
-        private List<PkgUsageStats> mUsageStats;
-        private LaunchCountComparator mLaunchCountComparator;
-        private UsageTimeComparator mUsageTimeComparator;
-        private AppNameComparator mAppLabelComparator;
-        private HashMap<String, CharSequence> mAppLabelMap;
-        
-        UsageStatsAdapter() {
-            mUsageStats = new ArrayList<PkgUsageStats>();
-            mAppLabelMap = new HashMap<String, CharSequence>();
-            PkgUsageStats[] stats;
-            try {
-                stats = mUsageStatsService.getAllPkgUsageStats();
-            } catch (RemoteException e) {
-                Log.e(TAG, "Failed initializing usage stats service");
-                return;
+        private PkgUsageStats[] mUsageStats = new PkgUsageStats[0];
+        private int[][] mOrders = new int[_DISPLAY_ORDER_COUNT][0];
+        /** Application labels by stats index, null until resolved. */
+        private CharSequence[] mAppLabels = new CharSequence[0];
+
+        void setUsageStats(PkgUsageStats[] stats, int[][] orders) {
+            mUsageStats = stats;
+            mOrders = orders;
+            mAppLabels = new CharSequence[stats.length];
+            notifyDataSetChanged();
+        }
+
+        void setAppLabels(int[] indices, CharSequence[] labels) {
+            for (int i = 0; i < indices.length; i++) {
+                mAppLabels[indices[i]] = labels[i];
             }
-           if (stats == null) {
-               return;
-           }
-           for (PkgUsageStats ps : stats) {
-               mUsageStats.add(ps);
-               // load application labels for each application
-               CharSequence label;
-               try {
-                   ApplicationInfo appInfo = mPm.getApplicationInfo(ps.packageName, 0);
-                   label = appInfo.loadLabel(mPm);
-                } catch (NameNotFoundException e) {
-                    label = ps.packageName;
-                }
-                mAppLabelMap.put(ps.packageName, label);
-           }
-           // Sort list
-           mLaunchCountComparator = new LaunchCountComparator();
-           mUsageTimeComparator = new UsageTimeComparator();
-           mAppLabelComparator = new AppNameComparator(mAppLabelMap);
-           sortList();
+            notifyDataSetChanged();
         }
+
+        void setOrder(int displayOrder, int[] order) {
+            mOrders[displayOrder] = order;
+            if (mDisplayOrder == displayOrder) {
+                notifyDataSetChanged();
+            }
+        }
+
         public int getCount() {
-            return mUsageStats.size();
+            return mUsageStats.length;
         }
 
         public Object getItem(int position) {
-            return mUsageStats.get(position);
+            return mUsageStats[mOrders[mDisplayOrder][position]];
         }
 
         public long getItemId(int position) {
@@ -180,10 +190,12 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
             }
 
             // Bind the data efficiently with the holder
-            PkgUsageStats pkgStats = mUsageStats.get(position);
+            final int index = mOrders[mDisplayOrder][position];
+            PkgUsageStats pkgStats = mUsageStats[index];
             if (pkgStats != null) {
-                CharSequence label = mAppLabelMap.get(pkgStats.packageName);
-                holder.pkgName.setText(label);
+                // show the package name until the label has been loaded
+                CharSequence label = mAppLabels[index];
+                holder.pkgName.setText(label != null ? label : pkgStats.packageName);
                 holder.launchCount.setText(String.valueOf(pkgStats.launchCount));
                 holder.usageTime.setText(String.valueOf(pkgStats.usageTime)+" ms");
             } else {
@@ -197,24 +209,90 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
                 // do nothing
                 return;
             }
-            mDisplayOrder= sortOrder;
-            sortList();
-        }
-        private void sortList() {
-            if (mDisplayOrder == _DISPLAY_ORDER_USAGE_TIME) {
-                if (localLOGV) Log.i(TAG, "Sorting by usage time");
-                Collections.sort(mUsageStats, mUsageTimeComparator);
-            } else if (mDisplayOrder == _DISPLAY_ORDER_LAUNCH_COUNT) {
-                if (localLOGV) Log.i(TAG, "Sorting launch count");
-                Collections.sort(mUsageStats, mLaunchCountComparator);
-            } else if (mDisplayOrder == _DISPLAY_ORDER_APP_NAME) {
-                if (localLOGV) Log.i(TAG, "Sorting by application name");
-                Collections.sort(mUsageStats, mAppLabelComparator);
-            }
+            if (localLOGV) Log.i(TAG, "Switching to display order " + sortOrder);
+            mDisplayOrder = sortOrder;
             notifyDataSetChanged();
         }
     }
 
+    /**
+     * Reads the usage stats off the main thread. The stats are published as
+     * soon as they are read, with the name order going by package name;
+     * labels then follow in batches, and the name order by label last.
+     */
+    private class StatsLoader extends AsyncTask<Void, Object, Void> {
+        private static final int UPDATE_STATS = 0;
+        private static final int UPDATE_LABELS = 1;
+        private static final int UPDATE_NAME_ORDER = 2;
+
+        private static final int LABEL_BATCH = 32;
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            PkgUsageStats[] stats;
+            try {
+                stats = mUsageStatsService.getAllPkgUsageStats();
+            } catch (RemoteException e) {
+                Log.e(TAG, "Failed initializing usage stats service");
+                return null;
+            }
+            if (stats == null || isCancelled()) {
+                return null;
+            }
+
+            final HashMap<String, CharSequence> labels = new HashMap<String, CharSequence>();
+            for (PkgUsageStats ps : stats) {
+                labels.put(ps.packageName, ps.packageName);
+            }
+            final int[][] orders = new int[UsageStatsAdapter._DISPLAY_ORDER_COUNT][];
+            orders[UsageStatsAdapter._DISPLAY_ORDER_USAGE_TIME] =
+                    sortedOrder(stats, new UsageTimeComparator());
+            orders[UsageStatsAdapter._DISPLAY_ORDER_LAUNCH_COUNT] =
+                    sortedOrder(stats, new LaunchCountComparator());
+            orders[UsageStatsAdapter._DISPLAY_ORDER_APP_NAME] =
+                    sortedOrder(stats, new AppNameComparator(labels));
+            publishProgress(UPDATE_STATS, stats, orders);
+
+            // load labels in the order the list first shows them
+            final UidDetailCache cache = UidDetailCache.getInstance(UsageStats.this);
+            final int[] order = orders[UsageStatsAdapter._DISPLAY_ORDER_USAGE_TIME];
+            for (int start = 0; start < order.length; start += LABEL_BATCH) {
+                if (isCancelled()) {
+                    return null;
+                }
+                final int count = Math.min(LABEL_BATCH, order.length - start);
+                final int[] indices = Arrays.copyOfRange(order, start, start + count);
+                final CharSequence[] batch = new CharSequence[count];
+                for (int i = 0; i < count; i++) {
+                    final String packageName = stats[indices[i]].packageName;
+                    batch[i] = cache.getPackageLabel(packageName, true);
+                    labels.put(packageName, batch[i]);
+                }
+                publishProgress(UPDATE_LABELS, indices, batch);
+            }
+
+            if (localLOGV) Log.i(TAG, "Sorting by application name");
+            publishProgress(UPDATE_NAME_ORDER, sortedOrder(stats, new AppNameComparator(labels)));
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Object... values) {
+            switch ((Integer) values[0]) {
+                case UPDATE_STATS:
+                    mAdapter.setUsageStats((PkgUsageStats[]) values[1], (int[][]) values[2]);
+                    break;
+                case UPDATE_LABELS:
+                    mAdapter.setAppLabels((int[]) values[1], (CharSequence[]) values[2]);
+                    break;
+                case UPDATE_NAME_ORDER:
+                    mAdapter.setOrder(UsageStatsAdapter._DISPLAY_ORDER_APP_NAME,
+                            (int[]) values[1]);
+                    break;
+            }
+        }
+    }
+
     /** Called when the activity is first created. */
     protected void onCreate(Bundle icicle) {
         super.onCreate(icicle);
@@ -224,7 +302,6 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
             return;
         }
         mInflater = (LayoutInflater)getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mPm = getPackageManager();
         
         setContentView(R.layout.usage_stats);
         mTypeSpinner = (Spinner) findViewById(R.id.typeSpinner);
@@ -235,6 +312,17 @@ public class UsageStats extends Activity implements OnItemSelectedListener {
         
         mAdapter = new UsageStatsAdapter();
         mListView.setAdapter(mAdapter);
+
+        mLoader = new StatsLoader();
+        mLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mLoader != null) {
+            mLoader.cancel(false);
+        }
+        super.onDestroy();
     }
 
     public void onItemSelected(AdapterView<?> parent, View view, int position,
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.android.settings.SettingsPreferenceFragment;
 import com.google.android.collect.Maps;
@@ -49,9 +50,13 @@ class AccountPreferenceBase extends SettingsPreferenceFragment
     protected static final String TAG = "AccountSettings";
     public static final String AUTHORITIES_FILTER_KEY = "authorities";
     public static final String ACCOUNT_TYPES_FILTER_KEY = "account_types";
+    /** How long sync status changes are gathered into one update, about a frame. */
+    private static final long SYNC_STATE_UPDATE_DELAY = 16;
     private final Handler mHandler = new Handler();
     private Object mStatusChangeListenerHandle;
     private HashMap<String, ArrayList<String>> mAccountTypeToAuthorities = null;
+    // The sync adapter list mAccountTypeToAuthorities was built from
+    private SyncAdapterType[] mAuthoritiesSource;
     private AuthenticatorHelper mAuthenticatorHelper = new AuthenticatorHelper();
     private java.text.DateFormat mDateFormat;
     private java.text.DateFormat mTimeFormat;
@@ -102,22 +107,35 @@ class AccountPreferenceBase extends SettingsPreferenceFragment
     public void onPause() {
         super.onPause();
         ContentResolver.removeStatusChangeListener(mStatusChangeListenerHandle);
+        mHandler.removeCallbacks(mSyncStateUpdater);
+        mSyncStateUpdatePending.set(false);
     }
 
+    private final AtomicBoolean mSyncStateUpdatePending = new AtomicBoolean();
+
+    private final Runnable mSyncStateUpdater = new Runnable() {
+        public void run() {
+            mSyncStateUpdatePending.set(false);
+            onSyncStateUpdated();
+        }
+    };
+
     private SyncStatusObserver mSyncStatusObserver = new SyncStatusObserver() {
         public void onStatusChanged(int which) {
-            mHandler.post(new Runnable() {
-                public void run() {
-                    onSyncStateUpdated();
-                }
-            });
+            // a sync storm reports many changes a second, update once for them
+            if (mSyncStateUpdatePending.compareAndSet(false, true)) {
+                mHandler.postDelayed(mSyncStateUpdater, SYNC_STATE_UPDATE_DELAY);
+            }
         }
     };
 
     public ArrayList<String> getAuthoritiesForAccountType(String type) {
-        if (mAccountTypeToAuthorities == null) {
+        // the cache hands out a new list whenever it asked SyncManager again
+        final SyncAdapterType[] syncAdapters =
+                SyncAdapterCache.getInstance(getActivity()).getSyncAdapterTypes(type);
+        if (mAccountTypeToAuthorities == null || mAuthoritiesSource != syncAdapters) {
             mAccountTypeToAuthorities = Maps.newHashMap();
-            SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
+            mAuthoritiesSource = syncAdapters;
             for (int i = 0, n = syncAdapters.length; i < n; i++) {
                 final SyncAdapterType sa = syncAdapters[i];
                 ArrayList<String> authorities = mAccountTypeToAuthorities.get(sa.accountType);
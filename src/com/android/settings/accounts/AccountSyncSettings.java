@@ -80,6 +80,42 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     private ArrayList<SyncStateCheckBoxPreference> mCheckBoxes =
                 new ArrayList<SyncStateCheckBoxPreference>();
     private ArrayList<String> mInvisibleAdapters = Lists.newArrayList();
+    // The accounts and authorities the check boxes were made for, null to make them again
+    private ArrayList<String> mCheckBoxKeys;
+    // What each check box shows, so refreshes only touch the ones that changed
+    private HashMap<SyncStateCheckBoxPreference, SyncState> mShownStates = Maps.newHashMap();
+    private boolean mShownSyncActive;
+    private ConnectivityManager mConnManager;
+
+    /**
+     * The sync state shown by one check box.
+     */
+    private static class SyncState {
+        int summary;
+        long lastSynced;
+        boolean active;
+        boolean pending;
+        boolean failed;
+        boolean oneTimeSyncMode;
+        boolean checked;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SyncState)) {
+                return false;
+            }
+            final SyncState other = (SyncState) o;
+            return summary == other.summary && lastSynced == other.lastSynced
+                    && active == other.active && pending == other.pending
+                    && failed == other.failed && oneTimeSyncMode == other.oneTimeSyncMode
+                    && checked == other.checked;
+        }
+
+        @Override
+        public int hashCode() {
+            return summary * 31 + (int) lastSynced;
+        }
+    }
 
     @Override
     public Dialog onCreateDialog(final int id) {
@@ -169,6 +205,7 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
+        mConnManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
 
         Bundle arguments = getArguments();
         if (arguments == null) {
@@ -353,12 +390,16 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     }
 
     private void setFeedsState() {
-        // iterate over all the preferences, setting the state properly for each
+        // The state every check box shares is fetched once per refresh
         Date date = new Date();
         List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncs();
+        final boolean masterSyncAutomatically = ContentResolver.getMasterSyncAutomatically();
+        final boolean backgroundDataEnabled = mConnManager.getBackgroundDataSetting();
+        final boolean oneTimeSyncMode = !masterSyncAutomatically || !backgroundDataEnabled;
         boolean syncIsFailing = false;
 
         // Refresh the sync status checkboxes - some syncs may have become active.
+        // Every remaining check box is for a syncable authority.
         updateAccountCheckboxes(mAccounts);
 
         for (int i = 0, count = getPreferenceScreen().getPreferenceCount(); i < count; i++) {
@@ -390,36 +431,52 @@ public class AccountSyncSettings extends AccountPreferenceBase {
                         " active = " + activelySyncing + " pend =" +  authorityIsPending);
             }
 
+            final SyncState state = new SyncState();
             final long successEndTime = (status == null) ? 0 : status.lastSuccessTime;
             if (!syncEnabled) {
-                syncPref.setSummary(R.string.sync_disabled);
+                state.summary = R.string.sync_disabled;
             } else if (activelySyncing) {
-                syncPref.setSummary(R.string.sync_in_progress);
+                state.summary = R.string.sync_in_progress;
             } else if (successEndTime != 0) {
-                date.setTime(successEndTime);
+                state.summary = R.string.last_synced;
+                state.lastSynced = successEndTime;
+            }
+            state.active = activelySyncing && !initialSync;
+            state.pending = authorityIsPending && !initialSync;
+            state.failed = lastSyncFailed;
+            state.oneTimeSyncMode = oneTimeSyncMode;
+            state.checked = oneTimeSyncMode || syncEnabled;
+
+            // a click may have toggled the check box behind our back
+            if (state.equals(mShownStates.get(syncPref))
+                    && syncPref.isChecked() == state.checked) {
+                continue;
+            }
+            mShownStates.put(syncPref, state);
+
+            if (state.summary == R.string.last_synced) {
+                date.setTime(state.lastSynced);
                 final String timeString = formatSyncDate(date);
                 syncPref.setSummary(getResources().getString(R.string.last_synced, timeString));
+            } else if (state.summary != 0) {
+                syncPref.setSummary(state.summary);
             } else {
                 syncPref.setSummary("");
             }
-            int syncState = ContentResolver.getIsSyncable(account, authority);
-
-            syncPref.setActive(activelySyncing && (syncState >= 0) &&
-                    !initialSync);
-            syncPref.setPending(authorityIsPending && (syncState >= 0) &&
-                    !initialSync);
-
-            syncPref.setFailed(lastSyncFailed);
-            ConnectivityManager connManager =
-                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-            final boolean masterSyncAutomatically = ContentResolver.getMasterSyncAutomatically();
-            final boolean backgroundDataEnabled = connManager.getBackgroundDataSetting();
-            final boolean oneTimeSyncMode = !masterSyncAutomatically || !backgroundDataEnabled;
-            syncPref.setOneTimeSyncMode(oneTimeSyncMode);
-            syncPref.setChecked(oneTimeSyncMode || syncEnabled);
+            syncPref.setActive(state.active);
+            syncPref.setPending(state.pending);
+            syncPref.setFailed(state.failed);
+            syncPref.setOneTimeSyncMode(state.oneTimeSyncMode);
+            syncPref.setChecked(state.checked);
         }
         mErrorInfoView.setVisibility(syncIsFailing ? View.VISIBLE : View.GONE);
-        getActivity().invalidateOptionsMenu();
+
+        // The menu only depends on whether anything is syncing
+        final boolean syncActive = !currentSyncs.isEmpty();
+        if (syncActive != mShownSyncActive) {
+            mShownSyncActive = syncActive;
+            getActivity().invalidateOptionsMenu();
+        }
     }
 
     @Override
@@ -433,7 +490,9 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     private void updateAccountCheckboxes(Account[] accounts) {
         mInvisibleAdapters.clear();
 
-        SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
+        final SyncAdapterCache cache = SyncAdapterCache.getInstance(getActivity());
+        SyncAdapterType[] syncAdapters = mAccount != null
+                ? cache.getSyncAdapterTypes(mAccount.type) : cache.getSyncAdapterTypes();
         HashMap<String, ArrayList<String>> accountTypeToAuthorities =
             Maps.newHashMap();
         for (int i = 0, n = syncAdapters.length; i < n; i++) {
@@ -456,11 +515,9 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             }
         }
 
-        for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
-            getPreferenceScreen().removePreference(mCheckBoxes.get(i));
-        }
-        mCheckBoxes.clear();
-
+        final ArrayList<Account> syncableAccounts = new ArrayList<Account>();
+        final ArrayList<String> syncableAuthorities = new ArrayList<String>();
+        final ArrayList<String> keys = new ArrayList<String>();
         for (int i = 0, n = accounts.length; i < n; i++) {
             final Account account = accounts[i];
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
@@ -476,12 +533,30 @@ public class AccountSyncSettings extends AccountPreferenceBase {
                         Log.d(TAG, "  found authority " + authority + " " + syncState);
                     }
                     if (syncState > 0) {
-                        addSyncStateCheckBox(account, authority);
+                        syncableAccounts.add(account);
+                        syncableAuthorities.add(authority);
+                        keys.add(account.type + "/" + account.name + "/" + authority);
                     }
                 }
             }
         }
 
+        // Only make the check boxes again when they are for something else
+        if (keys.equals(mCheckBoxKeys)) {
+            return;
+        }
+        mCheckBoxKeys = keys;
+
+        for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
+            getPreferenceScreen().removePreference(mCheckBoxes.get(i));
+        }
+        mCheckBoxes.clear();
+        mShownStates.clear();
+
+        for (int i = 0, n = syncableAccounts.size(); i < n; i++) {
+            addSyncStateCheckBox(syncableAccounts.get(i), syncableAuthorities.get(i));
+        }
+
         Collections.sort(mCheckBoxes);
         for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
             getPreferenceScreen().addPreference(mCheckBoxes.get(i));
@@ -495,6 +570,9 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     protected void onAuthDescriptionsUpdated() {
         super.onAuthDescriptionsUpdated();
         getPreferenceScreen().removeAll();
+        mCheckBoxes.clear();
+        mCheckBoxKeys = null;
+        mShownStates.clear();
         if (mAccount != null) {
             mProviderIcon.setImageDrawable(getDrawableForType(mAccount.type));
             mProviderId.setText(getLabelForType(mAccount.type));
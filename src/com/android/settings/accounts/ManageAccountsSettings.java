@@ -184,7 +184,8 @@ public class ManageAccountsSettings extends AccountPreferenceBase
     }
 
     private void requestOrCancelSyncForAccounts(boolean sync) {
-        SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
+        SyncAdapterType[] syncAdapters =
+                SyncAdapterCache.getInstance(getActivity()).getSyncAdapterTypes();
         Bundle extras = new Bundle();
         extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
         int count = getPreferenceScreen().getPreferenceCount();
@@ -221,7 +222,8 @@ public class ManageAccountsSettings extends AccountPreferenceBase
         Date date = new Date();
 
         // only track userfacing sync adapters when deciding if account is synced or not
-        final SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
+        final SyncAdapterType[] syncAdapters =
+                SyncAdapterCache.getInstance(getActivity()).getSyncAdapterTypes();
         HashSet<String> userFacing = new HashSet<String>();
         for (int k = 0, n = syncAdapters.length; k < n; k++) {
             final SyncAdapterType sa = syncAdapters[k];
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.accounts;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SyncAdapterType;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashSet;
+
+/**
+ * Process-wide cache of the sync adapters reported by
+ * {@link ContentResolver#getSyncAdapterTypes()}. Sync adapters come and go
+ * with their packages, so the list is only asked for again after a package
+ * has changed.
+ *
+ * <p>SyncManager updates its own list when it sees the same package
+ * broadcasts, so a list fetched right after one may still be the old one.
+ * Lookups for an account type the list has no adapter for ask again, once
+ * per account type for each package change; see
+ * {@link #getSyncAdapterTypes(String)}.
+ */
+class SyncAdapterCache {
+    /**
+     * The list is also dropped once more this long after a package change.
+     * This is only a best-effort heuristic: SyncManager gives no signal
+     * when it has caught up, and a slow update can take longer.
+     */
+    private static final long PACKAGE_SETTLE_DELAY = 2000;
+
+    private static final Object sGlobalLock = new Object();
+    private static SyncAdapterCache sInstance;
+
+    // All of the following are protected by synchronizing on 'this'.
+    private SyncAdapterType[] mSyncAdapters;
+    // Account types already asked for again since the last package change.
+    private final HashSet<String> mRefetchedTypes = new HashSet<String>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mClearRunnable = new Runnable() {
+        @Override
+        public void run() {
+            clear();
+        }
+    };
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            clear();
+            mHandler.removeCallbacks(mClearRunnable);
+            mHandler.postDelayed(mClearRunnable, PACKAGE_SETTLE_DELAY);
+        }
+    };
+
+    static SyncAdapterCache getInstance(Context context) {
+        synchronized (sGlobalLock) {
+            if (sInstance == null) {
+                sInstance = new SyncAdapterCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private SyncAdapterCache(Context context) {
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, packageFilter);
+
+        final IntentFilter externalFilter = new IntentFilter();
+        externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        context.registerReceiver(mPackageReceiver, externalFilter);
+    }
+
+    /**
+     * Return the sync adapters, asking for them only when they might have
+     * changed. The returned array is shared and must not be modified.
+     */
+    synchronized SyncAdapterType[] getSyncAdapterTypes() {
+        if (mSyncAdapters == null) {
+            mSyncAdapters = ContentResolver.getSyncAdapterTypes();
+        }
+        return mSyncAdapters;
+    }
+
+    /**
+     * Return the sync adapters like {@link #getSyncAdapterTypes()}, but if
+     * none of them is for the given account type, ask for them again first,
+     * in case the list predates SyncManager catching up with a package
+     * change. That is only done once per account type until the next
+     * package change, since many account types have no sync adapters.
+     */
+    synchronized SyncAdapterType[] getSyncAdapterTypes(String accountType) {
+        final SyncAdapterType[] syncAdapters = getSyncAdapterTypes();
+        for (SyncAdapterType sa : syncAdapters) {
+            if (sa.accountType.equals(accountType)) {
+                return syncAdapters;
+            }
+        }
+        if (mRefetchedTypes.add(accountType)) {
+            mSyncAdapters = ContentResolver.getSyncAdapterTypes();
+        }
+        return mSyncAdapters;
+    }
+
+    synchronized void clear() {
+        mSyncAdapters = null;
+        mRefetchedTypes.clear();
+    }
+}
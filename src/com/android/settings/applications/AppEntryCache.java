@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.format.Formatter;
+import android.util.Log;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Persistent cache of the label, icon and last known sizes of every
+ * AppEntry, so that a cold start of ApplicationsState can show a complete
+ * list without first asking the PackageManager about each package.
+ * Records are keyed by package name and the last modified time of the
+ * package's apk; the whole cache is dropped if the locale or display
+ * density it was written for no longer matches.
+ */
+class AppEntryCache {
+    static final String TAG = "AppEntryCache";
+    static final String FILE_NAME = "app_entries.cache";
+    static final int VERSION = 2;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static class Record {
+        String packageName;
+        long apkModified;
+        String label;
+        String normalizedLabel;
+        byte[] icon;
+
+        long size;
+        long internalSize;
+        long externalSize;
+        long cacheSize;
+        long codeSize;
+        long dataSize;
+        long externalCodeSize;
+        long externalDataSize;
+        long externalCacheSize;
+
+        Record() {
+            size = ApplicationsState.SIZE_UNKNOWN;
+        }
+
+        Record(Record other) {
+            packageName = other.packageName;
+            apkModified = other.apkModified;
+            label = other.label;
+            normalizedLabel = other.normalizedLabel;
+            icon = other.icon;
+            size = other.size;
+            internalSize = other.internalSize;
+            externalSize = other.externalSize;
+            cacheSize = other.cacheSize;
+            codeSize = other.codeSize;
+            dataSize = other.dataSize;
+            externalCodeSize = other.externalCodeSize;
+            externalDataSize = other.externalDataSize;
+            externalCacheSize = other.externalCacheSize;
+        }
+    }
+
+    final Context mContext;
+    final File mFile;
+    // All of the following are protected by synchronizing on 'this'.
+    final HashMap<String, Record> mRecords = new HashMap<String, Record>();
+    boolean mDirty;
+    // Bumped whenever records are dropped or read in behind update()'s back.
+    int mGeneration;
+
+    AppEntryCache(Context context) {
+        mContext = context;
+        mFile = new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    private String configKey() {
+        Resources res = mContext.getResources();
+        return res.getConfiguration().locale + "/" + res.getDisplayMetrics().densityDpi;
+    }
+
+    /**
+     * Reads the cache file.  Any error just leaves the cache empty.  The
+     * file is parsed without holding the lock, so lookups from other
+     * threads are not held up while it is read.
+     */
+    void load() {
+        HashMap<String, Record> records = new HashMap<String, Record>();
+        boolean valid = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() == VERSION && configKey().equals(in.readUTF())) {
+                int count = in.readInt();
+                for (int i=0; i<count; i++) {
+                    Record r = new Record();
+                    r.packageName = readString(in);
+                    r.apkModified = in.readLong();
+                    r.label = readString(in);
+                    r.normalizedLabel = readString(in);
+                    int iconLen = in.readInt();
+                    if (iconLen > 0) {
+                        r.icon = new byte[iconLen];
+                        in.readFully(r.icon);
+                    }
+                    r.size = in.readLong();
+                    r.internalSize = in.readLong();
+                    r.externalSize = in.readLong();
+                    r.cacheSize = in.readLong();
+                    r.codeSize = in.readLong();
+                    r.dataSize = in.readLong();
+                    r.externalCodeSize = in.readLong();
+                    r.externalDataSize = in.readLong();
+                    r.externalCacheSize = in.readLong();
+                    records.put(r.packageName, r);
+                }
+                valid = true;
+            }
+        } catch (FileNotFoundException e) {
+            // No cache yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + mFile, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        synchronized (this) {
+            if (valid) {
+                mRecords.putAll(records);
+                mGeneration++;
+            } else {
+                mDirty = true;
+            }
+        }
+    }
+
+    // Strings are written as a byte count and UTF-8 bytes, since labels
+    // are not bounded by the 64k limit of writeUTF().
+    private String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > mFile.length()) {
+            throw new IOException("Bad string length " + len);
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes the cache file if anything changed since it was last
+     * read or written.
+     */
+    synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(VERSION);
+            out.writeUTF(configKey());
+            out.writeInt(mRecords.size());
+            for (Record r : mRecords.values()) {
+                writeString(out, r.packageName);
+                out.writeLong(r.apkModified);
+                writeString(out, r.label);
+                writeString(out, r.normalizedLabel);
+                if (r.icon != null) {
+                    out.writeInt(r.icon.length);
+                    out.write(r.icon);
+                } else {
+                    out.writeInt(0);
+                }
+                out.writeLong(r.size);
+                out.writeLong(r.internalSize);
+                out.writeLong(r.externalSize);
+                out.writeLong(r.cacheSize);
+                out.writeLong(r.codeSize);
+                out.writeLong(r.dataSize);
+                out.writeLong(r.externalCodeSize);
+                out.writeLong(r.externalDataSize);
+                out.writeLong(r.externalCacheSize);
+            }
+            out.close();
+            out = null;
+            if (tmp.renameTo(mFile)) {
+                mDirty = false;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + mFile, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Returns the cached record for the package, or null if there is none
+     * or the apk has changed since it was recorded.
+     */
+    synchronized Record get(String packageName, File apkFile) {
+        Record r = mRecords.get(packageName);
+        if (r != null && r.apkModified != apkFile.lastModified()) {
+            mRecords.remove(packageName);
+            mDirty = true;
+            return null;
+        }
+        return r;
+    }
+
+    synchronized void clear() {
+        mRecords.clear();
+        mDirty = true;
+        mGeneration++;
+    }
+
+    synchronized void invalidate(String packageName) {
+        if (mRecords.remove(packageName) != null) {
+            mDirty = true;
+            mGeneration++;
+        }
+    }
+
+    /**
+     * Brings the records for the given entries up to date, dropping
+     * records of packages that are no longer present.  Icons are only
+     * re-encoded when the label or apk changed.  The new records are
+     * built without holding the lock, since encoding icons is slow, and
+     * swapped in at the end unless the cache was cleared, loaded or
+     * invalidated meanwhile; the next update catches up then.
+     */
+    void update(ArrayList<AppEntry> entries) {
+        HashMap<String, Record> old;
+        int generation;
+        synchronized (this) {
+            old = new HashMap<String, Record>(mRecords);
+            generation = mGeneration;
+        }
+        HashMap<String, Record> records = new HashMap<String, Record>();
+        boolean dirty = false;
+        for (int i=0; i<entries.size(); i++) {
+            AppEntry entry = entries.get(i);
+            if (!entry.mounted || entry.label == null) {
+                continue;
+            }
+            String pkgName = entry.info.packageName;
+            long modified = entry.apkFile.lastModified();
+            Record r = old.remove(pkgName);
+            if (r == null || r.apkModified != modified || !r.label.equals(entry.label)
+                    || (r.icon == null && entry.icon != null)) {
+                r = new Record();
+                r.packageName = pkgName;
+                r.apkModified = modified;
+                r.label = entry.label;
+                r.normalizedLabel = entry.getNormalizedLabel();
+                r.icon = encodeIcon(entry.icon);
+                dirty = true;
+            } else if (!entry.sizeStale) {
+                // Records handed out by get() are read without the lock,
+                // so sizes go into a copy.
+                r = new Record(r);
+            }
+            if (!entry.sizeStale && r.size != entry.size) {
+                dirty = true;
+            }
+            if (!entry.sizeStale) {
+                r.size = entry.size;
+                r.internalSize = entry.internalSize;
+                r.externalSize = entry.externalSize;
+                r.cacheSize = entry.cacheSize;
+                r.codeSize = entry.codeSize;
+                r.dataSize = entry.dataSize;
+                r.externalCodeSize = entry.externalCodeSize;
+                r.externalDataSize = entry.externalDataSize;
+                r.externalCacheSize = entry.externalCacheSize;
+            }
+            records.put(pkgName, r);
+        }
+        synchronized (this) {
+            if (mGeneration != generation) {
+                return;
+            }
+            mRecords.clear();
+            mRecords.putAll(records);
+            if (dirty || old.size() > 0) {
+                mDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Creates the AppEntry for an application, filling in its label, icon
+     * and last known sizes from the cache if possible, or falling back to
+     * loading the label from the PackageManager.  The cached icon is only
+     * decoded when decodeIcon is set; callers holding a lock should leave
+     * it to the icon loader.
+     */
+    AppEntry newEntry(ApplicationInfo info, long id, boolean decodeIcon) {
+        File apkFile = new File(info.sourceDir);
+        Record r = get(info.packageName, apkFile);
+        if (r == null || !apkFile.exists()) {
+            return new AppEntry(mContext, info, id);
+        }
+        AppEntry entry = new AppEntry(info, id, r);
+        if (decodeIcon) {
+            entry.icon = decodeIcon(r);
+            entry.iconCached = entry.icon != null;
+        }
+        entry.sizeStr = getSizeStr(entry.size);
+        entry.internalSizeStr = getSizeStr(entry.internalSize);
+        entry.externalSizeStr = getSizeStr(entry.externalSize);
+        return entry;
+    }
+
+    private String getSizeStr(long size) {
+        if (size >= 0) {
+            return Formatter.formatFileSize(mContext, size);
+        }
+        return null;
+    }
+
+    Drawable decodeIcon(Record r) {
+        if (r.icon == null) {
+            return null;
+        }
+        Bitmap bm = BitmapFactory.decodeByteArray(r.icon, 0, r.icon.length);
+        return bm != null ? new BitmapDrawable(mContext.getResources(), bm) : null;
+    }
+
+    private byte[] encodeIcon(Drawable icon) {
+        if (icon == null) {
+            return null;
+        }
+        int size = (int)mContext.getResources().getDimension(android.R.dimen.app_icon_size);
+        // Draw through a fresh instance so we don't disturb the bounds of
+        // the drawable that may currently be shown.
+        Drawable.ConstantState state = icon.getConstantState();
+        Drawable d = state != null ? state.newDrawable(mContext.getResources()) : icon;
+        Bitmap bm = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bm);
+        d.setBounds(0, 0, size, size);
+        d.draw(canvas);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bm.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bm.recycle();
+        return out.toByteArray();
+    }
+}
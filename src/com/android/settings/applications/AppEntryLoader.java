@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import com.android.settings.BackgroundExecutor;
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes AppEntry labels and icons on a small pool of worker threads.
+ * Work is split into fixed-size batches; each finished batch is handed
+ * back to the caller so it can be merged into shared state under a short
+ * lock, rather than holding that lock across PackageManager calls.
+ */
+class AppEntryLoader {
+    static final int BATCH_SIZE = 16;
+    static final int MAX_THREADS = 4;
+
+    interface Listener {
+        /**
+         * Called on a worker thread for every batch that has finished
+         * loading.  Batches may complete in any order.
+         */
+        void onBatchLoaded(ArrayList<AppEntry> batch);
+
+        /**
+         * Called on a worker thread once, after the last batch of a
+         * request has been delivered.
+         */
+        void onAllLoaded();
+    }
+
+    final Context mContext;
+    final PackageManager mPm;
+    final AppEntryCache mCache;
+    final Executor mExecutor;
+
+    AppEntryLoader(Context context, PackageManager pm, AppEntryCache cache) {
+        this(context, pm, cache, MAX_THREADS);
+    }
+
+    /**
+     * With a single thread, batches are loaded one after another, which is
+     * the serial loading mode.
+     */
+    AppEntryLoader(Context context, PackageManager pm, AppEntryCache cache, int numThreads) {
+        mContext = context;
+        mPm = pm;
+        mCache = cache;
+        // Let the workers go away while Manage apps is not being used.
+        mExecutor = BackgroundExecutor.newPool("ApplicationsState.Worker", numThreads);
+    }
+
+    /**
+     * Creates an AppEntry, including its label, for each of the given
+     * applications, using the persisted cache when there is one.  Entry
+     * ids are assigned sequentially from firstId in the order of the list.
+     */
+    void loadEntries(final List<ApplicationInfo> infos, final long firstId,
+            final Listener listener) {
+        final int numBatches = (infos.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        if (numBatches == 0) {
+            listener.onAllLoaded();
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(numBatches);
+        for (int b=0; b<numBatches; b++) {
+            final int start = b*BATCH_SIZE;
+            final int end = Math.min(start+BATCH_SIZE, infos.size());
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    ArrayList<AppEntry> batch = new ArrayList<AppEntry>(end-start);
+                    for (int i=start; i<end; i++) {
+                        ApplicationInfo info = infos.get(i);
+                        batch.add(mCache != null ? mCache.newEntry(info, firstId+i, true)
+                                : new AppEntry(mContext, info, firstId+i));
+                    }
+                    listener.onBatchLoaded(batch);
+                    if (remaining.decrementAndGet() == 0) {
+                        listener.onAllLoaded();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads the icon of each of the given entries.  Only entries whose
+     * icon actually changed are reported in a batch.
+     */
+    void loadIcons(final List<AppEntry> entries, final Listener listener) {
+        final int numBatches = (entries.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        if (numBatches == 0) {
+            listener.onAllLoaded();
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(numBatches);
+        for (int b=0; b<numBatches; b++) {
+            final int start = b*BATCH_SIZE;
+            final int end = Math.min(start+BATCH_SIZE, entries.size());
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    ArrayList<AppEntry> batch = new ArrayList<AppEntry>(end-start);
+                    for (int i=start; i<end; i++) {
+                        AppEntry entry = entries.get(i);
+                        synchronized (entry) {
+                            if (entry.ensureIconLocked(mContext, mPm)) {
+                                batch.add(entry);
+                            }
+                        }
+                    }
+                    if (batch.size() > 0) {
+                        listener.onBatchLoaded(batch);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        listener.onAllLoaded();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Index over the normalized labels and package names of all AppEntry
+ * objects, answering "which entries have a word starting with this
+ * prefix" without walking every entry.  Every word start of a label or
+ * package name contributes one token (the text from that point to the
+ * end), and tokens are kept sorted so a query is a binary search followed
+ * by a scan of the matching run.
+ *
+ * While entries are being bulk loaded, new tokens are simply appended and
+ * the sort is deferred until the next query; after that, single adds are
+ * inserted in place.
+ */
+class AppSearchIndex {
+    static final class Token implements Comparable<Token> {
+        final String text;
+        final long id;
+
+        Token(String text, long id) {
+            this.text = text;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Token another) {
+            return text.compareTo(another.text);
+        }
+    }
+
+    static final class Indexed {
+        final String label;
+        final Token[] tokens;
+
+        Indexed(String label, Token[] tokens) {
+            this.label = label;
+            this.tokens = tokens;
+        }
+    }
+
+    // All of the following are protected by synchronizing on 'this'.
+    final ArrayList<Token> mTokens = new ArrayList<Token>();
+    final HashMap<Long, Indexed> mEntries = new HashMap<Long, Indexed>();
+    boolean mSorted = true;
+
+    synchronized void add(AppEntry entry) {
+        if (mEntries.containsKey(entry.id)) {
+            return;
+        }
+        Token[] tokens = tokenize(entry);
+        mEntries.put(entry.id, new Indexed(entry.label, tokens));
+        if (mSorted && mTokens.size() > 0) {
+            for (Token token : tokens) {
+                int pos = Collections.binarySearch(mTokens, token);
+                mTokens.add(pos >= 0 ? pos : -pos - 1, token);
+            }
+        } else {
+            for (Token token : tokens) {
+                mTokens.add(token);
+            }
+            mSorted = mTokens.size() <= 1;
+        }
+    }
+
+    synchronized void remove(AppEntry entry) {
+        if (mEntries.remove(entry.id) == null) {
+            return;
+        }
+        int j = 0;
+        for (int i=0; i<mTokens.size(); i++) {
+            Token token = mTokens.get(i);
+            if (token.id != entry.id) {
+                mTokens.set(j++, token);
+            }
+        }
+        for (int i=mTokens.size()-1; i>=j; i--) {
+            mTokens.remove(i);
+        }
+    }
+
+    /**
+     * Re-indexes the entry if its label changed since it was added.
+     */
+    synchronized void update(AppEntry entry) {
+        Indexed indexed = mEntries.get(entry.id);
+        if (indexed != null && !indexed.label.equals(entry.label)) {
+            remove(entry);
+            add(entry);
+        }
+    }
+
+    synchronized void clear() {
+        mTokens.clear();
+        mEntries.clear();
+        mSorted = true;
+    }
+
+    /**
+     * Returns the ids of all entries with a label or package name word
+     * starting with the given normalized prefix.
+     */
+    synchronized HashSet<Long> query(String prefix) {
+        if (!mSorted) {
+            Collections.sort(mTokens);
+            mSorted = true;
+        }
+        HashSet<Long> ids = new HashSet<Long>();
+        int pos = Collections.binarySearch(mTokens, new Token(prefix, 0));
+        if (pos < 0) {
+            pos = -pos - 1;
+        } else {
+            // Back up to the first of any equal tokens.
+            while (pos > 0 && mTokens.get(pos-1).text.equals(prefix)) {
+                pos--;
+            }
+        }
+        for (int i=pos; i<mTokens.size(); i++) {
+            Token token = mTokens.get(i);
+            if (!token.text.startsWith(prefix)) {
+                break;
+            }
+            ids.add(token.id);
+        }
+        return ids;
+    }
+
+    private static Token[] tokenize(AppEntry entry) {
+        ArrayList<Token> tokens = new ArrayList<Token>();
+        addWordStarts(tokens, entry.getSearchLabel(), ' ', entry.id);
+        addWordStarts(tokens, entry.info.packageName.toLowerCase(), '.', entry.id);
+        return tokens.toArray(new Token[tokens.size()]);
+    }
+
+    private static void addWordStarts(ArrayList<Token> tokens, String text, char separator,
+            long id) {
+        boolean wordStart = true;
+        for (int i=0; i<text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == separator) {
+                wordStart = true;
+            } else if (wordStart) {
+                tokens.add(new Token(text.substring(i), id));
+                wordStart = false;
+            }
+        }
+    }
+}
@@ -22,14 +22,21 @@ import android.text.format.Formatter;
 import android.util.Log;
 
 import java.io.File;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -41,10 +48,31 @@ public class ApplicationsState {
     static final boolean DEBUG = false;
     static final boolean DEBUG_LOCKING = false;
 
+    // When set, labels and icons are decoded by several of mLoader's
+    // threads at once; otherwise its batches are loaded one at a time.
+    static final boolean PARALLEL_LOAD = true;
+
+    // Icon change notifications are coalesced to at most one per frame.
+    static final long ICON_CHANGED_DELAY = 16;
+
+    // Number of getPackageSizeInfo() calls kept outstanding at once.
+    static final int SIZE_WINDOW = 4;
+
+    // A size request that hasn't come back after this long is given up on
+    // and its package put back in the queue.
+    static final long SIZE_TIMEOUT = 20*1000;
+
     public static interface Callbacks {
         public void onRunningStateChanged(boolean running);
         public void onPackageListChanged();
         public void onRebuildComplete(ArrayList<AppEntry> apps);
+        /**
+         * Delivered instead of onPackageListChanged to incremental sessions
+         * when a single package was added, removed or resized.  apps is the
+         * updated sorted list; positions are the rows of it whose contents
+         * may have changed.
+         */
+        public void onEntriesChanged(ArrayList<AppEntry> apps, int[] positions);
         public void onPackageIconChanged();
         public void onPackageSizeChanged(String packageName);
         public void onAllSizesComputed();
@@ -67,6 +95,25 @@ public class ApplicationsState {
                 .replaceAll("").toLowerCase();
     }
 
+    static final Object sCollatorLock = new Object();
+    static Collator sCollator;
+    static Locale sCollatorLocale;
+
+    /**
+     * Returns a CollationKey for sorting by label.  Collators aren't thread
+     * safe, so keys are generated under a lock; comparing them is not.
+     */
+    static CollationKey getCollationKey(String label) {
+        synchronized (sCollatorLock) {
+            Locale locale = Locale.getDefault();
+            if (sCollator == null || !locale.equals(sCollatorLocale)) {
+                sCollator = Collator.getInstance(locale);
+                sCollatorLocale = locale;
+            }
+            return sCollator.getCollationKey(label);
+        }
+    }
+
     public static class SizeInfo {
         long cacheSize;
         long codeSize;
@@ -103,16 +150,57 @@ public class ApplicationsState {
             return normalizedLabel;
         }
 
+        // The normalized label with a leading space, so a single indexOf
+        // of " " + prefix matches the start of any word.
+        String getSearchLabel() {
+            if (searchLabel != null) {
+                return searchLabel;
+            }
+            searchLabel = " " + getNormalizedLabel();
+            return searchLabel;
+        }
+
+        CollationKey getLabelKey() {
+            if (labelKey != null) {
+                return labelKey;
+            }
+            labelKey = getCollationKey(label);
+            return labelKey;
+        }
+
+        // Builds the sort and search keys for the current label, so that
+        // comparators and filters don't have to.  Called wherever the
+        // label is set, which is always off the main thread.
+        void ensureSortKeys() {
+            getLabelKey();
+            getSearchLabel();
+        }
+
         // Need to synchronize on 'this' for the following.
         ApplicationInfo info;
         Drawable icon;
+        // Set while icon is the copy persisted by AppEntryCache, until the
+        // real icon has been loaded from the package.
+        boolean iconCached;
         String sizeStr;
         String internalSizeStr;
         String externalSizeStr;
         boolean sizeStale;
         long sizeLoadStart;
+        // Uptime at which the size was last measured, and how long that
+        // measurement took.
+        long sizeMeasured;
+        long sizeLoadTime;
+        // Increases every time the entry is shown, so that rows on screen
+        // get their sizes measured first.  shownSeq is written by the main
+        // thread without a lock; visibleSeq is the copy the size queue is
+        // ordered by, only updated under mEntriesMap while rebuilding it.
+        volatile long shownSeq;
+        long visibleSeq;
 
         String normalizedLabel;
+        String searchLabel;
+        CollationKey labelKey;
 
         AppEntry(Context context, ApplicationInfo info, long id) {
             apkFile = new File(info.sourceDir);
@@ -122,6 +210,28 @@ public class ApplicationsState {
             this.sizeStale = true;
             ensureLabel(context);
         }
+
+        // Creates an entry from what was persisted by AppEntryCache; the
+        // apk is known to be unchanged, so it must still be mounted.
+        AppEntry(ApplicationInfo info, long id, AppEntryCache.Record cached) {
+            apkFile = new File(info.sourceDir);
+            this.id = id;
+            this.info = info;
+            this.mounted = true;
+            this.label = cached.label;
+            this.normalizedLabel = cached.normalizedLabel;
+            this.size = cached.size;
+            this.internalSize = cached.internalSize;
+            this.externalSize = cached.externalSize;
+            this.cacheSize = cached.cacheSize;
+            this.codeSize = cached.codeSize;
+            this.dataSize = cached.dataSize;
+            this.externalCodeSize = cached.externalCodeSize;
+            this.externalDataSize = cached.externalDataSize;
+            this.externalCacheSize = cached.externalCacheSize;
+            this.sizeStale = true;
+            ensureSortKeys();
+        }
         
         void ensureLabel(Context context) {
             if (this.label == null || !this.mounted) {
@@ -133,6 +243,10 @@ public class ApplicationsState {
                     CharSequence label = info.loadLabel(context.getPackageManager());
                     this.label = label != null ? label.toString() : info.packageName;
                 }
+                this.labelKey = null;
+                this.normalizedLabel = null;
+                this.searchLabel = null;
+                ensureSortKeys();
             }
         }
         
@@ -140,18 +254,21 @@ public class ApplicationsState {
             if (this.icon == null) {
                 if (this.apkFile.exists()) {
                     this.icon = this.info.loadIcon(pm);
+                    this.iconCached = false;
                     return true;
                 } else {
                     this.mounted = false;
                     this.icon = context.getResources().getDrawable(
                             com.android.internal.R.drawable.sym_app_on_sd_unavailable_icon);
+                    this.iconCached = false;
                 }
-            } else if (!this.mounted) {
-                // If the app wasn't mounted but is now mounted, reload
-                // its icon.
+            } else if (!this.mounted || this.iconCached) {
+                // If the app wasn't mounted but is now mounted, or we are
+                // showing the cached copy, reload its icon.
                 if (this.apkFile.exists()) {
                     this.mounted = true;
                     this.icon = this.info.loadIcon(pm);
+                    this.iconCached = false;
                     return true;
                 }
             }
@@ -160,46 +277,57 @@ public class ApplicationsState {
     }
 
     public static final Comparator<AppEntry> ALPHA_COMPARATOR = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.info.enabled != object2.info.enabled) {
                 return object1.info.enabled ? -1 : 1;
             }
-            return sCollator.compare(object1.label, object2.label);
+            return object1.getLabelKey().compareTo(object2.getLabelKey());
         }
     };
 
     public static final Comparator<AppEntry> SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.size < object2.size) return 1;
             if (object1.size > object2.size) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.getLabelKey().compareTo(object2.getLabelKey());
         }
     };
 
     public static final Comparator<AppEntry> INTERNAL_SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.internalSize < object2.internalSize) return 1;
             if (object1.internalSize > object2.internalSize) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.getLabelKey().compareTo(object2.getLabelKey());
         }
     };
 
     public static final Comparator<AppEntry> EXTERNAL_SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.externalSize < object2.externalSize) return 1;
             if (object1.externalSize > object2.externalSize) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.getLabelKey().compareTo(object2.getLabelKey());
+        }
+    };
+
+    // Order in which stale sizes are measured: the most recently shown
+    // entries first, then the ones that were measured longest ago.
+    static final Comparator<AppEntry> SIZE_PRIORITY_COMPARATOR = new Comparator<AppEntry>() {
+        @Override
+        public int compare(AppEntry object1, AppEntry object2) {
+            if (object1.visibleSeq != object2.visibleSeq) {
+                return object1.visibleSeq > object2.visibleSeq ? -1 : 1;
+            }
+            if (object1.sizeMeasured != object2.sizeMeasured) {
+                return object1.sizeMeasured < object2.sizeMeasured ? -1 : 1;
+            }
+            return 0;
         }
     };
 
@@ -234,6 +362,8 @@ public class ApplicationsState {
 
     final Context mContext;
     final PackageManager mPm;
+    final AppEntryCache mCache;
+    final AppSearchIndex mSearchIndex = new AppSearchIndex();
     PackageIntentReceiver mPackageIntentReceiver;
 
     boolean mResumed;
@@ -246,8 +376,29 @@ public class ApplicationsState {
     final HashMap<String, AppEntry> mEntriesMap = new HashMap<String, AppEntry>();
     final ArrayList<AppEntry> mAppEntries = new ArrayList<AppEntry>();
     List<ApplicationInfo> mApplications = new ArrayList<ApplicationInfo>();
+    // Position of each package in mApplications.  Rebuilt on next use
+    // whenever the positions shift.
+    final HashMap<String, Integer> mApplicationIndex = new HashMap<String, Integer>();
+    boolean mApplicationIndexValid;
     long mCurId = 1;
-    String mCurComputingSizePkg;
+    // Entries with a lower id were loaded before the last configuration
+    // change and must not be merged back in.
+    long mMinValidId = 1;
+
+    // Size measurement scheduling.  Synchronize on mEntriesMap.
+    final PriorityQueue<AppEntry> mSizeQueue
+            = new PriorityQueue<AppEntry>(64, SIZE_PRIORITY_COMPARATOR);
+    final HashMap<String, AppEntry> mSizesInFlight = new HashMap<String, AppEntry>();
+    boolean mSizeQueueValid;
+    // Written by the main thread, so not protected by mEntriesMap.
+    final AtomicLong mVisibleSeq = new AtomicLong();
+    volatile boolean mVisibilityChanged;
+
+    // Timing of size measurements since the last resume.
+    int mSizeStatsCount;
+    long mSizeStatsTotalTime;
+    long mSizeStatsStart;
+    AppEntry mSlowestSizeEntry;
     boolean mSessionsChanged;
 
     // Temporary for dispatching session callbacks.  Only touched by main thread.
@@ -278,14 +429,17 @@ public class ApplicationsState {
              if (Intent.ACTION_PACKAGE_ADDED.equals(actionStr)) {
                  Uri data = intent.getData();
                  String pkgName = data.getEncodedSchemeSpecificPart();
+                 mCache.invalidate(pkgName);
                  addPackage(pkgName);
              } else if (Intent.ACTION_PACKAGE_REMOVED.equals(actionStr)) {
                  Uri data = intent.getData();
                  String pkgName = data.getEncodedSchemeSpecificPart();
+                 mCache.invalidate(pkgName);
                  removePackage(pkgName);
              } else if (Intent.ACTION_PACKAGE_CHANGED.equals(actionStr)) {
                  Uri data = intent.getData();
                  String pkgName = data.getEncodedSchemeSpecificPart();
+                 mCache.invalidate(pkgName);
                  invalidatePackage(pkgName);
              } else if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(actionStr) ||
                      Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(actionStr)) {
@@ -332,6 +486,7 @@ public class ApplicationsState {
         static final int MSG_PACKAGE_SIZE_CHANGED = 4;
         static final int MSG_ALL_SIZES_COMPUTED = 5;
         static final int MSG_RUNNING_STATE_CHANGED = 6;
+        static final int MSG_ENTRIES_CHANGED = 7;
 
         @Override
         public void handleMessage(Message msg) {
@@ -345,7 +500,26 @@ public class ApplicationsState {
                 } break;
                 case MSG_PACKAGE_LIST_CHANGED: {
                     for (int i=0; i<mActiveSessions.size(); i++) {
-                        mActiveSessions.get(i).mCallbacks.onPackageListChanged();
+                        Session s = mActiveSessions.get(i);
+                        if (!s.isIncrementalReady()) {
+                            s.mCallbacks.onPackageListChanged();
+                        }
+                    }
+                } break;
+                case MSG_ENTRIES_CHANGED: {
+                    EntriesDelta delta = (EntriesDelta)msg.obj;
+                    Session s = delta.session;
+                    if (mActiveSessions.contains(s)) {
+                        synchronized (s.mRebuildSync) {
+                            // A full rebuild may have superseded this change.
+                            // Changes to the same list are all delivered, in
+                            // order, as each one's positions are relative
+                            // to the list before it.
+                            if (s.mListGeneration != delta.generation) {
+                                break;
+                            }
+                        }
+                        s.mCallbacks.onEntriesChanged(delta.apps, delta.positions);
                     }
                 } break;
                 case MSG_PACKAGE_ICON_CHANGED: {
@@ -376,6 +550,21 @@ public class ApplicationsState {
 
     final MainHandler mMainHandler = new MainHandler();
 
+    static class EntriesDelta {
+        final Session session;
+        final int generation;
+        final ArrayList<AppEntry> apps;
+        final int[] positions;
+
+        EntriesDelta(Session session, int generation, ArrayList<AppEntry> apps,
+                int[] positions) {
+            this.session = session;
+            this.generation = generation;
+            this.apps = apps;
+            this.positions = positions;
+        }
+    }
+
     // --------------------------------------------------------------
 
     static final Object sLock = new Object();
@@ -397,7 +586,11 @@ public class ApplicationsState {
                 Process.THREAD_PRIORITY_BACKGROUND);
         mThread.start();
         mBackgroundHandler = new BackgroundHandler(mThread.getLooper());
-        
+        mCache = new AppEntryCache(mContext);
+        mLoader = new AppEntryLoader(mContext, mPm, mCache,
+                PARALLEL_LOAD ? AppEntryLoader.MAX_THREADS : 1);
+        mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_CACHE);
+
         /**
          * This is a trick to prevent the foreground thread from being delayed.
          * The problem is that Dalvik monitors are initially spin locks, to keep
@@ -432,11 +625,48 @@ public class ApplicationsState {
         Comparator<AppEntry> mRebuildComparator;
         ArrayList<AppEntry> mRebuildResult;
         ArrayList<AppEntry> mLastAppList;
+        // Bumped by every full rebuild, so changes to an older list can be
+        // told apart.
+        int mListGeneration;
+
+        // Filter, comparator and result of the last rebuild, kept so that
+        // single package changes can be applied to it in place.  Only
+        // touched by the background thread.
+        AppFilter mLastFilter;
+        Comparator<AppEntry> mLastComparator;
+        ArrayList<AppEntry> mSortedList;
+
+        // Set by the main thread; synchronize on mEntriesMap.
+        boolean mIncremental;
+
+        // Position of each entry id in the list last searched, so search
+        // results can be put in list order without walking the list.
+        // Synchronize on mSearchSync.
+        final Object mSearchSync = new Object();
+        ArrayList<AppEntry> mSearchList;
+        HashMap<Long, Integer> mSearchPositions;
 
         Session(Callbacks callbacks) {
             mCallbacks = callbacks;
         }
 
+        /**
+         * When incremental, single package adds, removes and size changes
+         * are applied to the last rebuilt list and reported through
+         * Callbacks.onEntriesChanged instead of onPackageListChanged.
+         */
+        public void setIncremental(boolean incremental) {
+            synchronized (mEntriesMap) {
+                mIncremental = incremental;
+            }
+        }
+
+        boolean isIncrementalReady() {
+            synchronized (mRebuildSync) {
+                return mIncremental && mLastAppList != null;
+            }
+        }
+
         public void resume() {
             if (DEBUG_LOCKING) Log.v(TAG, "resume about to acquire lock...");
             synchronized (mEntriesMap) {
@@ -534,6 +764,7 @@ public class ApplicationsState {
                         if (DEBUG_LOCKING) Log.v(TAG, "rebuild acquired lock");
                         AppEntry entry = getEntryLocked(info);
                         entry.ensureLabel(mContext);
+                        mSearchIndex.update(entry);
                         if (DEBUG) Log.i(TAG, "Using " + info.packageName + ": " + entry);
                         filteredApps.add(entry);
                         if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
@@ -545,7 +776,11 @@ public class ApplicationsState {
 
             synchronized (mRebuildSync) {
                 if (!mRebuildRequested) {
+                    mLastFilter = filter;
+                    mLastComparator = comparator;
+                    mSortedList = filteredApps;
                     mLastAppList = filteredApps;
+                    mListGeneration++;
                     if (!mRebuildAsync) {
                         mRebuildResult = filteredApps;
                         mRebuildSync.notifyAll();
@@ -562,6 +797,140 @@ public class ApplicationsState {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
         }
 
+        /**
+         * Returns the entries of apps, a list delivered by this session,
+         * whose label or package name has a word starting with prefix.
+         * The result keeps the order of apps.
+         */
+        public ArrayList<AppEntry> search(ArrayList<AppEntry> apps, String prefix) {
+            HashSet<Long> ids = mSearchIndex.query(normalize(prefix));
+            ArrayList<AppEntry> result = new ArrayList<AppEntry>(ids.size());
+            if (ids.size() == 0) {
+                return result;
+            }
+            if (ids.size() > apps.size() / 8) {
+                // Most entries match; a straight walk is cheaper.
+                for (int i=0; i<apps.size(); i++) {
+                    AppEntry entry = apps.get(i);
+                    if (ids.contains(entry.id)) {
+                        result.add(entry);
+                    }
+                }
+                return result;
+            }
+            synchronized (mSearchSync) {
+                if (mSearchList != apps) {
+                    mSearchPositions = new HashMap<Long, Integer>(apps.size() * 2);
+                    for (int i=0; i<apps.size(); i++) {
+                        mSearchPositions.put(apps.get(i).id, i);
+                    }
+                    mSearchList = apps;
+                }
+                int[] positions = new int[ids.size()];
+                int count = 0;
+                for (Long id : ids) {
+                    Integer pos = mSearchPositions.get(id);
+                    if (pos != null) {
+                        positions[count++] = pos;
+                    }
+                }
+                Arrays.sort(positions, 0, count);
+                for (int i=0; i<count; i++) {
+                    result.add(apps.get(positions[i]));
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Moves, inserts or removes a single package in the last rebuilt
+         * list, which is kept sorted, and reports the affected rows.  Sizes
+         * change in place while sizes are being computed, so a list sorted
+         * by size is only approximately in order until the owner rebuilds
+         * it on onAllSizesComputed.
+         */
+        void handleEntryChanged(String pkgName) {
+            ArrayList<AppEntry> oldList = mSortedList;
+            Comparator<AppEntry> comparator = mLastComparator;
+            if (oldList == null || comparator == null) {
+                return;
+            }
+            synchronized (mRebuildSync) {
+                if (mRebuildRequested) {
+                    // A full rebuild is coming, which will include this change.
+                    return;
+                }
+            }
+
+            AppEntry entry = null;
+            synchronized (mEntriesMap) {
+                if (DEBUG_LOCKING) Log.v(TAG, "handleEntryChanged acquired lock");
+                int idx = indexOfApplicationInfoLocked(pkgName);
+                if (idx >= 0) {
+                    ApplicationInfo info = mApplications.get(idx);
+                    if (mLastFilter == null || mLastFilter.filterApp(info)) {
+                        entry = getEntryLocked(info);
+                        entry.ensureLabel(mContext);
+                        mSearchIndex.update(entry);
+                    }
+                }
+                if (DEBUG_LOCKING) Log.v(TAG, "handleEntryChanged releasing lock");
+            }
+
+            // The list handed out to the main thread is never modified.
+            ArrayList<AppEntry> newList = new ArrayList<AppEntry>(oldList);
+            int oldPos = -1;
+            for (int i=0; i<newList.size(); i++) {
+                if (newList.get(i).info.packageName.equals(pkgName)) {
+                    oldPos = i;
+                    break;
+                }
+            }
+            if (oldPos >= 0) {
+                newList.remove(oldPos);
+            }
+            int newPos = -1;
+            if (entry != null) {
+                newPos = Collections.binarySearch(newList, entry, comparator);
+                if (newPos < 0) {
+                    newPos = -newPos - 1;
+                }
+                newList.add(newPos, entry);
+            }
+            if (oldPos < 0 && newPos < 0) {
+                return;
+            }
+
+            int first, last;
+            if (oldPos >= 0 && newPos >= 0) {
+                first = Math.min(oldPos, newPos);
+                last = Math.max(oldPos, newPos);
+            } else {
+                // Everything after an insertion or removal shifts.
+                first = oldPos >= 0 ? oldPos : newPos;
+                last = newList.size() - 1;
+            }
+            int[] positions;
+            if (first > last) {
+                positions = new int[0];
+            } else {
+                positions = new int[last - first + 1];
+                for (int i=0; i<positions.length; i++) {
+                    positions[i] = first + i;
+                }
+            }
+
+            mSortedList = newList;
+            int generation;
+            synchronized (mRebuildSync) {
+                mLastAppList = newList;
+                generation = mListGeneration;
+            }
+            Message msg = mMainHandler.obtainMessage(MainHandler.MSG_ENTRIES_CHANGED,
+                    new EntriesDelta(this, generation, newList, positions));
+            mMainHandler.sendMessage(msg);
+        }
+
         public void release() {
             pause();
             synchronized (mEntriesMap) {
@@ -598,7 +967,10 @@ public class ApplicationsState {
             // If an interesting part of the configuration has changed, we
             // should completely reload the app entries.
             mEntriesMap.clear();
+            mSearchIndex.clear();
             mAppEntries.clear();
+            mMinValidId = mCurId;
+            mCache.clear();
         } else {
             for (int i=0; i<mAppEntries.size(); i++) {
                 mAppEntries.get(i).sizeStale = true;
@@ -620,7 +992,13 @@ public class ApplicationsState {
                 entry.info = info;
             }
         }
-        mCurComputingSizePkg = null;
+        mApplicationIndexValid = false;
+        mSizesInFlight.clear();
+        mSizeQueueValid = false;
+        mSizeStatsCount = 0;
+        mSizeStatsTotalTime = 0;
+        mSizeStatsStart = SystemClock.uptimeMillis();
+        mSlowestSizeEntry = null;
         if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
             mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
         }
@@ -647,12 +1025,9 @@ public class ApplicationsState {
         synchronized (mEntriesMap) {
             AppEntry entry = mEntriesMap.get(packageName);
             if (entry == null) {
-                for (int i=0; i<mApplications.size(); i++) {
-                    ApplicationInfo info = mApplications.get(i);
-                    if (packageName.equals(info.packageName)) {
-                        entry = getEntryLocked(info);
-                        break;
-                    }
+                int idx = indexOfApplicationInfoLocked(packageName);
+                if (idx >= 0) {
+                    entry = getEntryLocked(mApplications.get(idx));
                 }
             }
             if (DEBUG_LOCKING) Log.v(TAG, "...getEntry releasing lock");
@@ -680,6 +1055,19 @@ public class ApplicationsState {
         }
     }
 
+    /**
+     * Called as an entry is bound to a visible row, so its size is
+     * measured ahead of entries that are off screen.  This only records
+     * the visit; the size queue is reordered on the background thread.
+     */
+    void noteVisible(AppEntry entry) {
+        if (!entry.sizeStale && entry.size != SIZE_UNKNOWN) {
+            return;
+        }
+        entry.shownSeq = mVisibleSeq.incrementAndGet();
+        mVisibilityChanged = true;
+    }
+
     long sumCacheSizes() {
         long sum = 0;
         if (DEBUG_LOCKING) Log.v(TAG, "sumCacheSizes about to acquire lock...");
@@ -694,12 +1082,15 @@ public class ApplicationsState {
     }
     
     int indexOfApplicationInfoLocked(String pkgName) {
-        for (int i=mApplications.size()-1; i>=0; i--) {
-            if (mApplications.get(i).packageName.equals(pkgName)) {
-                return i;
+        if (!mApplicationIndexValid) {
+            mApplicationIndex.clear();
+            for (int i=0; i<mApplications.size(); i++) {
+                mApplicationIndex.put(mApplications.get(i).packageName, i);
             }
+            mApplicationIndexValid = true;
         }
-        return -1;
+        Integer idx = mApplicationIndex.get(pkgName);
+        return idx != null ? idx : -1;
     }
 
     void addPackage(String pkgName) {
@@ -723,6 +1114,10 @@ public class ApplicationsState {
                         PackageManager.GET_UNINSTALLED_PACKAGES |
                         PackageManager.GET_DISABLED_COMPONENTS);
                 mApplications.add(info);
+                if (mApplicationIndexValid) {
+                    mApplicationIndex.put(pkgName, mApplications.size()-1);
+                }
+                scheduleEntryChangedLocked(pkgName);
                 if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
                     mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
                 }
@@ -745,9 +1140,12 @@ public class ApplicationsState {
                 if (DEBUG) Log.i(TAG, "removePackage: " + entry);
                 if (entry != null) {
                     mEntriesMap.remove(pkgName);
+                    mSearchIndex.remove(entry);
                     mAppEntries.remove(entry);
                 }
                 mApplications.remove(idx);
+                mApplicationIndexValid = false;
+                scheduleEntryChangedLocked(pkgName);
                 if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_LIST_CHANGED)) {
                     mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_LIST_CHANGED);
                 }
@@ -756,6 +1154,20 @@ public class ApplicationsState {
         }
     }
 
+    // Asks the background thread to apply a single package change to the
+    // lists of incremental sessions.
+    void scheduleEntryChangedLocked(String pkgName) {
+        for (int i=0; i<mSessions.size(); i++) {
+            Session s = mSessions.get(i);
+            if (s.mResumed && s.mIncremental) {
+                Message msg = mBackgroundHandler.obtainMessage(
+                        BackgroundHandler.MSG_ENTRY_CHANGED, pkgName);
+                mBackgroundHandler.sendMessage(msg);
+                return;
+            }
+        }
+    }
+
     void invalidatePackage(String pkgName) {
         removePackage(pkgName);
         addPackage(pkgName);
@@ -766,9 +1178,13 @@ public class ApplicationsState {
         if (DEBUG) Log.i(TAG, "Looking up entry of pkg " + info.packageName + ": " + entry);
         if (entry == null) {
             if (DEBUG) Log.i(TAG, "Creating AppEntry for " + info.packageName);
-            entry = new AppEntry(mContext, info, mCurId++);
+            // Don't decode the cached icon with the lock held; the icon
+            // loader will fill it in.
+            entry = mCache.newEntry(info, mCurId++, false);
             mEntriesMap.put(info.packageName, entry);
+            mSearchIndex.add(entry);
             mAppEntries.add(entry);
+            mSizeQueueValid = false;
         } else if (entry.info != info) {
             entry.info = info;
         }
@@ -799,26 +1215,96 @@ public class ApplicationsState {
         return null;
     }
 
+    void scheduleIconChanged() {
+        synchronized (mMainHandler) {
+            if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
+                mMainHandler.sendEmptyMessageDelayed(MainHandler.MSG_PACKAGE_ICON_CHANGED,
+                        ICON_CHANGED_DELAY);
+            }
+        }
+    }
+
     final HandlerThread mThread;
     final BackgroundHandler mBackgroundHandler;
+    final AppEntryLoader mLoader;
     class BackgroundHandler extends Handler {
         static final int MSG_REBUILD_LIST = 1;
         static final int MSG_LOAD_ENTRIES = 2;
         static final int MSG_LOAD_ICONS = 3;
         static final int MSG_LOAD_SIZES = 4;
+        static final int MSG_LOAD_ENTRIES_DONE = 5;
+        static final int MSG_LOAD_ICONS_DONE = 6;
+        static final int MSG_LOAD_CACHE = 7;
+        static final int MSG_SAVE_CACHE = 8;
+        static final int MSG_SIZES_TIMEOUT = 9;
+        static final int MSG_ENTRY_CHANGED = 10;
 
         boolean mRunning;
+        boolean mCacheLoaded;
+
+        // Set while a load is outstanding on mLoader.  Only
+        // touched by the background thread.
+        boolean mLoadingEntries;
+        boolean mLoadingIcons;
+
+        final AppEntryLoader.Listener mEntriesListener = new AppEntryLoader.Listener() {
+            public void onBatchLoaded(ArrayList<AppEntry> batch) {
+                synchronized (mEntriesMap) {
+                    if (DEBUG_LOCKING) Log.v(TAG, "onBatchLoaded acquired lock");
+                    for (int i=0; i<batch.size(); i++) {
+                        AppEntry entry = batch.get(i);
+                        String pkgName = entry.info.packageName;
+                        // The entry may have been created on demand while we
+                        // were loading, or the package may have gone away.
+                        if (entry.id >= mMinValidId && mEntriesMap.get(pkgName) == null
+                                && indexOfApplicationInfoLocked(pkgName) >= 0) {
+                            mEntriesMap.put(pkgName, entry);
+                            mSearchIndex.add(entry);
+                            mAppEntries.add(entry);
+                            mSizeQueueValid = false;
+                        }
+                    }
+                    if (DEBUG_LOCKING) Log.v(TAG, "onBatchLoaded releasing lock");
+                }
+            }
+
+            public void onAllLoaded() {
+                sendEmptyMessage(MSG_LOAD_ENTRIES_DONE);
+            }
+        };
+
+        final AppEntryLoader.Listener mIconsListener = new AppEntryLoader.Listener() {
+            public void onBatchLoaded(ArrayList<AppEntry> batch) {
+                scheduleIconChanged();
+            }
+
+            public void onAllLoaded() {
+                sendEmptyMessage(MSG_LOAD_ICONS_DONE);
+            }
+        };
 
         final IPackageStatsObserver.Stub mStatsObserver = new IPackageStatsObserver.Stub() {
             public void onGetStatsCompleted(PackageStats stats, boolean succeeded) {
                 boolean sizeChanged = false;
                 synchronized (mEntriesMap) {
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted acquired lock");
+                    long now = SystemClock.uptimeMillis();
+                    boolean scheduled = mSizesInFlight.remove(stats.packageName) != null;
                     AppEntry entry = mEntriesMap.get(stats.packageName);
                     if (entry != null) {
                         synchronized (entry) {
+                            if (scheduled && entry.sizeLoadStart != 0) {
+                                entry.sizeLoadTime = now - entry.sizeLoadStart;
+                                mSizeStatsCount++;
+                                mSizeStatsTotalTime += entry.sizeLoadTime;
+                                if (mSlowestSizeEntry == null
+                                        || entry.sizeLoadTime > mSlowestSizeEntry.sizeLoadTime) {
+                                    mSlowestSizeEntry = entry;
+                                }
+                            }
                             entry.sizeStale = false;
                             entry.sizeLoadStart = 0;
+                            entry.sizeMeasured = now;
                             long externalCodeSize = stats.externalCodeSize
                                     + stats.externalObbSize;
                             long externalDataSize = stats.externalDataSize
@@ -853,11 +1339,10 @@ public class ApplicationsState {
                             Message msg = mMainHandler.obtainMessage(
                                     MainHandler.MSG_PACKAGE_SIZE_CHANGED, stats.packageName);
                             mMainHandler.sendMessage(msg);
+                            scheduleEntryChangedLocked(stats.packageName);
                         }
                     }
-                    if (mCurComputingSizePkg == null
-                            || mCurComputingSizePkg.equals(stats.packageName)) {
-                        mCurComputingSizePkg = null;
+                    if (mSizesInFlight.size() < SIZE_WINDOW) {
                         sendEmptyMessage(MSG_LOAD_SIZES);
                     }
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted releasing lock");
@@ -871,6 +1356,9 @@ public class ApplicationsState {
 
         @Override
         public void handleMessage(Message msg) {
+            // Rebuilds must see the cache, so it is read before anything else.
+            ensureCacheLoaded();
+
             // Always try rebuilding list first thing, if needed.
             ArrayList<Session> rebuildingSessions = null;
             synchronized (mEntriesMap) {
@@ -888,92 +1376,88 @@ public class ApplicationsState {
             switch (msg.what) {
                 case MSG_REBUILD_LIST: {
                 } break;
-                case MSG_LOAD_ENTRIES: {
-                    int numDone = 0;
+                case MSG_ENTRY_CHANGED: {
+                    ArrayList<Session> sessions = new ArrayList<Session>();
                     synchronized (mEntriesMap) {
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES acquired lock");
-                        for (int i=0; i<mApplications.size() && numDone<6; i++) {
-                            if (!mRunning) {
-                                mRunning = true;
-                                Message m = mMainHandler.obtainMessage(
-                                        MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                mMainHandler.sendMessage(m);
-                            }
-                            ApplicationInfo info = mApplications.get(i);
-                            if (mEntriesMap.get(info.packageName) == null) {
-                                numDone++;
-                                getEntryLocked(info);
+                        for (int i=0; i<mSessions.size(); i++) {
+                            Session s = mSessions.get(i);
+                            if (s.mResumed && s.mIncremental) {
+                                sessions.add(s);
                             }
                         }
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES releasing lock");
                     }
-
-                    if (numDone >= 6) {
-                        sendEmptyMessage(MSG_LOAD_ENTRIES);
-                    } else {
-                        sendEmptyMessage(MSG_LOAD_ICONS);
+                    for (int i=0; i<sessions.size(); i++) {
+                        sessions.get(i).handleEntryChanged((String)msg.obj);
                     }
                 } break;
-                case MSG_LOAD_ICONS: {
-                    int numDone = 0;
+                case MSG_LOAD_CACHE: {
+                    // Already done by ensureCacheLoaded().
+                } break;
+                case MSG_SAVE_CACHE: {
+                    ArrayList<AppEntry> entries;
                     synchronized (mEntriesMap) {
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS acquired lock");
-                        for (int i=0; i<mAppEntries.size() && numDone<2; i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.icon == null || !entry.mounted) {
-                                synchronized (entry) {
-                                    if (entry.ensureIconLocked(mContext, mPm)) {
-                                        if (!mRunning) {
-                                            mRunning = true;
-                                            Message m = mMainHandler.obtainMessage(
-                                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                            mMainHandler.sendMessage(m);
-                                        }
-                                        numDone++;
-                                    }
-                                }
-                            }
-                        }
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
-                    }
-                    if (numDone > 0) {
-                        if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
-                            mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_ICON_CHANGED);
-                        }
-                    }
-                    if (numDone >= 2) {
-                        sendEmptyMessage(MSG_LOAD_ICONS);
-                    } else {
-                        sendEmptyMessage(MSG_LOAD_SIZES);
+                        entries = new ArrayList<AppEntry>(mAppEntries);
                     }
+                    mCache.update(entries);
+                    mCache.save();
                 } break;
-                case MSG_LOAD_SIZES: {
+                case MSG_LOAD_ENTRIES: {
+                    loadEntries();
+                } break;
+                case MSG_LOAD_ENTRIES_DONE: {
+                    mLoadingEntries = false;
+                    // Pick up anything added while the batches were running;
+                    // this moves on to icons once there is nothing left.
+                    sendEmptyMessage(MSG_LOAD_ENTRIES);
+                } break;
+                case MSG_LOAD_ICONS: {
+                    loadIcons();
+                } break;
+                case MSG_LOAD_ICONS_DONE: {
+                    mLoadingIcons = false;
+                    sendEmptyMessage(MSG_LOAD_SIZES);
+                } break;
+                case MSG_LOAD_SIZES:
+                case MSG_SIZES_TIMEOUT: {
                     synchronized (mEntriesMap) {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES acquired lock");
-                        if (mCurComputingSizePkg != null) {
-                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: currently computing");
-                            return;
+                        long now = SystemClock.uptimeMillis();
+                        expireSizeRequestsLocked(now);
+                        if (mVisibilityChanged) {
+                            mVisibilityChanged = false;
+                            mSizeQueueValid = false;
+                        }
+                        if (!mSizeQueueValid) {
+                            rebuildSizeQueueLocked();
                         }
 
-                        long now = SystemClock.uptimeMillis();
-                        for (int i=0; i<mAppEntries.size(); i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.size == SIZE_UNKNOWN || entry.sizeStale) {
-                                if (entry.sizeLoadStart == 0 ||
-                                        (entry.sizeLoadStart < (now-20*1000))) {
-                                    if (!mRunning) {
-                                        mRunning = true;
-                                        Message m = mMainHandler.obtainMessage(
-                                                MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                        mMainHandler.sendMessage(m);
-                                    }
-                                    entry.sizeLoadStart = now;
-                                    mCurComputingSizePkg = entry.info.packageName;
-                                    mPm.getPackageSizeInfo(mCurComputingSizePkg, mStatsObserver);
-                                }
-                                if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
-                                return;
+                        while (mSizesInFlight.size() < SIZE_WINDOW && mSizeQueue.size() > 0) {
+                            AppEntry entry = mSizeQueue.poll();
+                            String pkgName = entry.info.packageName;
+                            if ((entry.size != SIZE_UNKNOWN && !entry.sizeStale)
+                                    || mEntriesMap.get(pkgName) != entry
+                                    || mSizesInFlight.containsKey(pkgName)) {
+                                // Already measured, or no longer installed.
+                                continue;
                             }
+                            setRunning();
+                            entry.sizeLoadStart = now;
+                            mSizesInFlight.put(pkgName, entry);
+                            mPm.getPackageSizeInfo(pkgName, mStatsObserver);
+                        }
+                        if (mSizesInFlight.size() > 0) {
+                            removeMessages(MSG_SIZES_TIMEOUT);
+                            sendEmptyMessageDelayed(MSG_SIZES_TIMEOUT, SIZE_TIMEOUT);
+                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
+                            return;
+                        }
+                        removeMessages(MSG_SIZES_TIMEOUT);
+                        if (DEBUG && mSizeStatsCount > 0) {
+                            Log.i(TAG, "Measured " + mSizeStatsCount + " sizes in "
+                                    + (now - mSizeStatsStart) + "ms, window " + SIZE_WINDOW
+                                    + ", avg " + (mSizeStatsTotalTime / mSizeStatsCount)
+                                    + "ms, slowest " + mSlowestSizeEntry.info.packageName
+                                    + " " + mSlowestSizeEntry.sizeLoadTime + "ms");
                         }
                         if (!mMainHandler.hasMessages(MainHandler.MSG_ALL_SIZES_COMPUTED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_ALL_SIZES_COMPUTED);
@@ -981,6 +1465,7 @@ public class ApplicationsState {
                             Message m = mMainHandler.obtainMessage(
                                     MainHandler.MSG_RUNNING_STATE_CHANGED, 0);
                             mMainHandler.sendMessage(m);
+                            sendEmptyMessage(MSG_SAVE_CACHE);
                         }
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing lock");
                     }
@@ -988,5 +1473,103 @@ public class ApplicationsState {
             }
         }
 
+        private void ensureCacheLoaded() {
+            if (!mCacheLoaded) {
+                mCache.load();
+                mCacheLoaded = true;
+            }
+        }
+
+        private void setRunning() {
+            if (!mRunning) {
+                mRunning = true;
+                Message m = mMainHandler.obtainMessage(
+                        MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                mMainHandler.sendMessage(m);
+            }
+        }
+
+        // Puts back in the queue any package whose size request has been
+        // outstanding for too long.
+        private void expireSizeRequestsLocked(long now) {
+            if (mSizesInFlight.size() == 0) {
+                return;
+            }
+            Iterator<AppEntry> it = mSizesInFlight.values().iterator();
+            while (it.hasNext()) {
+                AppEntry entry = it.next();
+                if (entry.sizeLoadStart < (now-SIZE_TIMEOUT)) {
+                    if (DEBUG) Log.i(TAG, "Size request timed out: " + entry.info.packageName);
+                    it.remove();
+                    entry.sizeLoadStart = 0;
+                    mSizeQueue.add(entry);
+                }
+            }
+        }
+
+        private void rebuildSizeQueueLocked() {
+            mSizeQueue.clear();
+            for (int i=0; i<mAppEntries.size(); i++) {
+                AppEntry entry = mAppEntries.get(i);
+                entry.visibleSeq = entry.shownSeq;
+                if ((entry.size == SIZE_UNKNOWN || entry.sizeStale)
+                        && !mSizesInFlight.containsKey(entry.info.packageName)) {
+                    mSizeQueue.add(entry);
+                }
+            }
+            mSizeQueueValid = true;
+        }
+
+        private void loadEntries() {
+            if (mLoadingEntries) {
+                // MSG_LOAD_ENTRIES_DONE will bring us back here.
+                return;
+            }
+            ArrayList<ApplicationInfo> pending = new ArrayList<ApplicationInfo>();
+            long firstId;
+            synchronized (mEntriesMap) {
+                if (DEBUG_LOCKING) Log.v(TAG, "loadEntries acquired lock");
+                for (int i=0; i<mApplications.size(); i++) {
+                    ApplicationInfo info = mApplications.get(i);
+                    if (mEntriesMap.get(info.packageName) == null) {
+                        pending.add(info);
+                    }
+                }
+                firstId = mCurId;
+                mCurId += pending.size();
+                if (DEBUG_LOCKING) Log.v(TAG, "loadEntries releasing lock");
+            }
+            if (pending.size() == 0) {
+                sendEmptyMessage(MSG_LOAD_ICONS);
+                return;
+            }
+            setRunning();
+            mLoadingEntries = true;
+            mLoader.loadEntries(pending, firstId, mEntriesListener);
+        }
+
+        private void loadIcons() {
+            if (mLoadingIcons) {
+                return;
+            }
+            ArrayList<AppEntry> pending = new ArrayList<AppEntry>();
+            synchronized (mEntriesMap) {
+                if (DEBUG_LOCKING) Log.v(TAG, "loadIcons acquired lock");
+                for (int i=0; i<mAppEntries.size(); i++) {
+                    AppEntry entry = mAppEntries.get(i);
+                    if (entry.icon == null || !entry.mounted || entry.iconCached) {
+                        pending.add(entry);
+                    }
+                }
+                if (DEBUG_LOCKING) Log.v(TAG, "loadIcons releasing lock");
+            }
+            if (pending.size() == 0) {
+                sendEmptyMessage(MSG_LOAD_SIZES);
+                return;
+            }
+            setRunning();
+            mLoadingIcons = true;
+            mLoader.loadIcons(pending, mIconsListener);
+        }
     }
 }
@@ -467,6 +467,10 @@ public class InstalledAppDetails extends Fragment
     public void onRebuildComplete(ArrayList<AppEntry> apps) {
     }
 
+    @Override
+    public void onEntriesChanged(ArrayList<AppEntry> apps, int[] positions) {
+    }
+
     @Override
     public void onPackageSizeChanged(String packageName) {
         if (packageName.equals(mAppEntry.info.packageName)) {
@@ -553,6 +553,7 @@ public class ManageApplications extends Fragment implements
         public ApplicationsAdapter(ApplicationsState state, TabInfo tab, int filterMode) {
             mState = state;
             mSession = state.newSession(this);
+            mSession.setIncremental(true);
             mTab = tab;
             mContext = tab.mOwner.getActivity();
             mFilterMode = filterMode;
@@ -657,18 +658,7 @@ public class ManageApplications extends Fragment implements
             if (prefix == null || prefix.length() == 0) {
                 return origEntries;
             } else {
-                String prefixStr = ApplicationsState.normalize(prefix.toString());
-                final String spacePrefixStr = " " + prefixStr;
-                ArrayList<ApplicationsState.AppEntry> newEntries
-                        = new ArrayList<ApplicationsState.AppEntry>();
-                for (int i=0; i<origEntries.size(); i++) {
-                    ApplicationsState.AppEntry entry = origEntries.get(i);
-                    String nlabel = entry.getNormalizedLabel();
-                    if (nlabel.startsWith(prefixStr) || nlabel.indexOf(spacePrefixStr) != -1) {
-                        newEntries.add(entry);
-                    }
-                }
-                return newEntries;
+                return mSession.search(origEntries, prefix.toString());
             }
         }
 
@@ -713,22 +703,42 @@ public class ManageApplications extends Fragment implements
                     synchronized (holder.entry) {
                         holder.updateSizeText(mTab.mInvalidSizeStr, mWhichSize);
                     }
-                    if (holder.entry.info.packageName.equals(mTab.mOwner.mCurrentPkgName)
-                            && mLastSortMode == SORT_ORDER_SIZE) {
-                        // We got the size information for the last app the
-                        // user viewed, and are sorting by size...  they may
-                        // have cleared data, so we immediately want to resort
-                        // the list with the new size to reflect it to the user.
-                        rebuild(false);
-                    }
+                    // When sorting by size, the session moves the entry to
+                    // its new place itself and reports it through
+                    // onEntriesChanged, so no rebuild is needed here.
                     mTab.updateStorageUsage();
                     return;
                 }
             }
         }
 
+        @Override
+        public void onEntriesChanged(ArrayList<AppEntry> apps, int[] positions) {
+            boolean sameCount = mBaseEntries != null && mBaseEntries.size() == apps.size();
+            mBaseEntries = apps;
+            if (mCurFilterPrefix != null && mCurFilterPrefix.length() > 0) {
+                mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
+                notifyDataSetChanged();
+            } else {
+                mEntries = apps;
+                // Only relayout if one of the changed rows is on screen.
+                boolean visible = !sameCount;
+                int firstVisible = mTab.mListView.getFirstVisiblePosition();
+                int lastVisible = mTab.mListView.getLastVisiblePosition();
+                for (int i=0; i<positions.length && !visible; i++) {
+                    visible = positions[i] >= firstVisible && positions[i] <= lastVisible;
+                }
+                if (visible) {
+                    notifyDataSetChanged();
+                }
+            }
+            mTab.updateStorageUsage();
+        }
+
         @Override
         public void onAllSizesComputed() {
+            // Entries were moved one at a time while the sizes of the others
+            // were still changing, so put the whole list back in order.
             if (mLastSortMode == SORT_ORDER_SIZE) {
                 rebuild(false);
             }
@@ -759,6 +769,7 @@ public class ManageApplications extends Fragment implements
 
             // Bind the data efficiently with the holder
             ApplicationsState.AppEntry entry = mEntries.get(position);
+            mState.noteVisible(entry);
             synchronized (entry) {
                 holder.entry = entry;
                 if (entry.label != null) {
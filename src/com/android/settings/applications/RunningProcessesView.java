@@ -18,15 +18,20 @@ package com.android.settings.applications;
 
 import com.android.internal.util.MemInfoReader;
 import com.android.settings.R;
+import com.android.settings.net.UidDetailCache;
 
 import android.app.ActivityManager;
 import android.app.Dialog;
 import android.app.Fragment;
 import android.content.Context;
+import android.content.pm.PackageItemInfo;
 import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.preference.PreferenceActivity;
+import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.text.format.Formatter;
 import android.util.AttributeSet;
@@ -44,6 +49,8 @@ import android.widget.AbsListView.RecyclerListener;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class RunningProcessesView extends FrameLayout
         implements AdapterView.OnItemClickListener, RecyclerListener,
@@ -70,6 +77,7 @@ public class RunningProcessesView extends FrameLayout
     LinearColorBar mColorBar;
     TextView mBackgroundProcessText;
     TextView mForegroundProcessText;
+    TextView mMemoryText;
     
     int mLastNumBackgroundProcesses = -1;
     int mLastNumForegroundProcesses = -1;
@@ -78,6 +86,7 @@ public class RunningProcessesView extends FrameLayout
     long mLastForegroundProcessMemory = -1;
     long mLastServiceProcessMemory = -1;
     long mLastAvailMemory = -1;
+    long mLastMemoryAge = -1;
     
     Dialog mCurDialog;
 
@@ -140,6 +149,18 @@ public class RunningProcessesView extends FrameLayout
                 }
             }
         }
+
+        /**
+         * Picks up a new description or start time of the item this view
+         * is already showing, without binding it again from scratch.
+         */
+        void updateData(Context context, StringBuilder builder) {
+            if (!mItem.mBackground) {
+                mHolder.description.setText(mItem.mDescription);
+            }
+            mFirstRunTime = mItem.mActiveSince;
+            updateTime(context, builder);
+        }
     }
     
     public static class ViewHolder {
@@ -149,6 +170,8 @@ public class RunningProcessesView extends FrameLayout
         public TextView description;
         public TextView size;
         public TextView uptime;
+        // Component whose icon should be shown; set on the main thread.
+        PackageItemInfo mIconInfo;
         
         public ViewHolder(View v) {
             rootView = v;
@@ -183,14 +206,114 @@ public class RunningProcessesView extends FrameLayout
                     description.setText(item.mDescription);
                 }
                 item.mCurSizeStr = null;
-                if (item.mPackageInfo != null) {
-                    icon.setImageDrawable(item.mPackageInfo.loadIcon(pm));
-                }
+                bindIcon(item.mPackageInfo);
                 icon.setVisibility(View.VISIBLE);
                 ai.updateTime(rootView.getContext(), builder);
                 return ai;
             }
         }
+
+        /**
+         * Show the icon of the given component if it is cached, or queue it
+         * for {@link IconLoader}, so the main thread never waits on a load.
+         */
+        private void bindIcon(PackageItemInfo info) {
+            mIconInfo = info;
+            Drawable cached = null;
+            if (info != null) {
+                cached = UidDetailCache.getInstance(rootView.getContext()).getIcon(info, false);
+                icon.setImageDrawable(cached);
+            }
+            IconLoader.request(this, cached == null ? info : null);
+        }
+    }
+
+    /**
+     * Loads the icons of rows bound while their icon wasn't cached, one at a
+     * time on a single background task that finishes once nothing is queued.
+     * A row that is rebound replaces its request, so the queue never holds
+     * more than the rows that exist, and rows waiting for the same component
+     * are all served by one load.
+     */
+    static class IconLoader extends AsyncTask<Void, Object, Void> {
+        // All of the following are protected by synchronizing on sRequests.
+        private static final LinkedHashMap<ViewHolder, PackageItemInfo> sRequests
+                = new LinkedHashMap<ViewHolder, PackageItemInfo>();
+        private static IconLoader sLoader;
+
+        private final UidDetailCache mCache;
+
+        private IconLoader(UidDetailCache cache) {
+            mCache = cache;
+        }
+
+        /**
+         * Queue loading the icon of the given component for the row, or with
+         * a null component, forget what the row asked for before.
+         */
+        static void request(ViewHolder holder, PackageItemInfo info) {
+            synchronized (sRequests) {
+                sRequests.remove(holder);
+                if (info == null) {
+                    return;
+                }
+                sRequests.put(holder, info);
+                if (sLoader == null) {
+                    sLoader = new IconLoader(
+                            UidDetailCache.getInstance(holder.rootView.getContext()));
+                    sLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                }
+            }
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final ArrayList<ViewHolder> holders = new ArrayList<ViewHolder>();
+            while (true) {
+                final PackageItemInfo info;
+                synchronized (sRequests) {
+                    if (sRequests.isEmpty()) {
+                        sLoader = null;
+                        return null;
+                    }
+                    info = sRequests.values().iterator().next();
+                }
+                final Drawable icon = mCache.getIcon(info);
+                holders.clear();
+                synchronized (sRequests) {
+                    Iterator<Map.Entry<ViewHolder, PackageItemInfo>> it
+                            = sRequests.entrySet().iterator();
+                    while (it.hasNext()) {
+                        Map.Entry<ViewHolder, PackageItemInfo> request = it.next();
+                        if (sameComponent(request.getValue(), info)) {
+                            holders.add(request.getKey());
+                            it.remove();
+                        }
+                    }
+                }
+                for (int i=0; i<holders.size(); i++) {
+                    // each view gets a drawable of its own, now from the cache
+                    publishProgress(holders.get(i), info, i == 0 ? icon : mCache.getIcon(info));
+                }
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Object... values) {
+            final ViewHolder holder = (ViewHolder) values[0];
+            // the view may have been rebound meanwhile
+            if (sameComponent(holder.mIconInfo, (PackageItemInfo) values[1])) {
+                holder.icon.setImageDrawable((Drawable) values[2]);
+            }
+        }
+
+        private static boolean sameComponent(PackageItemInfo a, PackageItemInfo b) {
+            if (a == b) {
+                return true;
+            }
+            return a != null && b != null && a.packageName.equals(b.packageName)
+                    && TextUtils.equals(a.name, b.name);
+        }
     }
     
     static class TimeTicker extends TextView {
@@ -204,6 +327,7 @@ public class RunningProcessesView extends FrameLayout
         final LayoutInflater mInflater;
         boolean mShowBackground;
         ArrayList<RunningState.MergedItem> mItems;
+        int mLastDiffSeq;
         
         ServiceListAdapter(RunningState state) {
             mState = state;
@@ -227,14 +351,53 @@ public class RunningProcessesView extends FrameLayout
         }
 
         void refreshItems() {
-            ArrayList<RunningState.MergedItem> newItems =
-                mShowBackground ? mState.getCurrentBackgroundItems()
-                        : mState.getCurrentMergedItems();
-            if (mItems != newItems) {
-                mItems = newItems;
+            synchronized (mState.mLock) {
+                ArrayList<RunningState.MergedItem> newItems =
+                    mShowBackground ? mState.getCurrentBackgroundItems()
+                            : mState.getCurrentMergedItems();
+                if (mItems != newItems) {
+                    mItems = newItems;
+                }
+                if (mItems == null) {
+                    mItems = new ArrayList<RunningState.MergedItem>();
+                }
+                mLastDiffSeq = mState.getCurrentDiffLocked(mShowBackground).mSeq;
             }
-            if (mItems == null) {
-                mItems = new ArrayList<RunningState.MergedItem>();
+        }
+
+        /**
+         * Applies the changes made by the last update.  If the list kept
+         * its structure, only the visible rows that changed are updated;
+         * otherwise, or if we missed an update, the whole list is
+         * refreshed.
+         */
+        void applyChanges() {
+            synchronized (mState.mLock) {
+                RunningState.ItemsDiff diff = mState.getCurrentDiffLocked(mShowBackground);
+                if (diff.mSeq == mLastDiffSeq) {
+                    return;
+                }
+                if (diff.mSeq != mLastDiffSeq+1 || diff.hasStructuralChanges()) {
+                    refreshItems();
+                    notifyDataSetChanged();
+                    return;
+                }
+                refreshItems();
+                final int first = mListView.getFirstVisiblePosition();
+                final int last = mListView.getLastVisiblePosition();
+                for (int i=0; i<diff.mNumChanged; i++) {
+                    int position = diff.mChanged[i];
+                    if (position < first || position > last) {
+                        continue;
+                    }
+                    View view = mListView.getChildAt(position-first);
+                    ActiveItem ai = view != null ? mActiveItems.get(view) : null;
+                    if (ai != null && ai.mItem == mItems.get(position)) {
+                        ai.updateData(getContext(), mBuilder);
+                    } else if (view != null) {
+                        bindView(view, position);
+                    }
+                }
             }
         }
         
@@ -301,10 +464,12 @@ public class RunningProcessesView extends FrameLayout
     }
 
     void refreshUi(boolean dataChanged) {
+        ServiceListAdapter adapter = (ServiceListAdapter)(mListView.getAdapter());
         if (dataChanged) {
-            ServiceListAdapter adapter = (ServiceListAdapter)(mListView.getAdapter());
             adapter.refreshItems();
             adapter.notifyDataSetChanged();
+        } else {
+            adapter.applyChanges();
         }
         
         if (mDataAvail != null) {
@@ -353,6 +518,25 @@ public class RunningProcessesView extends FrameLayout
                 */
             }
             
+            // Memory of processes that aren't shown is only sampled every
+            // so often; say how old the totals may be once that is more
+            // than a couple of updates.
+            final long oldestPssTime = mState.getOldestPssTime();
+            long memoryAge = (SystemClock.uptimeMillis() - oldestPssTime) / 1000;
+            if (oldestPssTime == 0 || mState.getNumPssSkipped() == 0
+                    || memoryAge < 2*RunningState.CONTENTS_UPDATE_DELAY/1000) {
+                memoryAge = 0;
+            }
+            if (mLastMemoryAge != memoryAge) {
+                mLastMemoryAge = memoryAge;
+                if (memoryAge > 0) {
+                    mMemoryText.setText(getResources().getString(R.string.memory_stale,
+                            DateUtils.formatElapsedTime(mBuilder, memoryAge)));
+                } else {
+                    mMemoryText.setText(R.string.memory);
+                }
+            }
+
             float totalMem = mMemInfoReader.getTotalSize();
             float totalShownMem = availMem + mLastBackgroundProcessMemory
                     + mLastServiceProcessMemory;
@@ -418,6 +602,7 @@ public class RunningProcessesView extends FrameLayout
                 }
             }
         });
+        mMemoryText = (TextView)findViewById(R.id.memoryText);
         mForegroundProcessText = (TextView)findViewById(R.id.foregroundText);
         mForegroundProcessText.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -477,7 +662,9 @@ public class RunningProcessesView extends FrameLayout
                 updateTimes();
                 break;
             case REFRESH_STRUCTURE:
-                refreshUi(true);
+                // The diff of the last update tells us whether the list
+                // structure really needs to be refreshed.
+                refreshUi(false);
                 updateTimes();
                 break;
         }
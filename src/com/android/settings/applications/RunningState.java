@@ -33,6 +33,7 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
@@ -49,6 +50,9 @@ import java.util.List;
  * applications/processes/services.
  */
 public class RunningState {
+    static final String TAG = "RunningState";
+    static final boolean DEBUG = false;
+
     static Object sGlobalLock = new Object();
     static RunningState sInstance;
 
@@ -62,6 +66,14 @@ public class RunningState {
 
     static final int MAX_SERVICES = 100;
 
+    // Processes that are shown, or in the foreground, have their PSS
+    // sampled on every update; others only once per background period,
+    // backing off up to MAX_PSS_BACKOFF times that while their PSS stays
+    // within PSS_STABLE_PERCENT of the last sample.
+    static final long BACKGROUND_PSS_PERIOD = 10000;
+    static final int MAX_PSS_BACKOFF = 4;
+    static final int PSS_STABLE_PERCENT = 2;
+
     final Context mApplicationContext;
     final ActivityManager mAm;
     final PackageManager mPm;
@@ -101,7 +113,7 @@ public class RunningState {
     final ArrayList<ProcessItem> mAllProcessItems = new ArrayList<ProcessItem>();
 
     static class AppProcessInfo {
-        final ActivityManager.RunningAppProcessInfo info;
+        ActivityManager.RunningAppProcessInfo info;
         boolean hasServices;
         boolean hasForegroundServices;
 
@@ -113,6 +125,26 @@ public class RunningState {
     // Temporary structure used when updating above information.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
+    // AppProcessInfo objects from the last update, reused for the next one.
+    final ArrayList<AppProcessInfo> mAppProcessInfoPool = new ArrayList<AppProcessInfo>();
+
+    // Buffers reused across updates.
+    final ArrayList<ProcessItem> mSortedProcesses = new ArrayList<ProcessItem>();
+    final ArrayList<ProcessItem> mPssProcesses = new ArrayList<ProcessItem>();
+    int[] mPssPids = new int[0];
+
+    // Items that have been dropped from the lists.  These only go back in
+    // the pools once the UI has picked up a structure newer than
+    // mRetiredSeq, so nothing it may still be showing gets reused.
+    final ArrayList<ServiceItem> mRetiredServiceItems = new ArrayList<ServiceItem>();
+    final ArrayList<MergedItem> mRetiredMergedItems = new ArrayList<MergedItem>();
+    int mRetiredSeq;
+    final ArrayList<ServiceItem> mServiceItemPool = new ArrayList<ServiceItem>();
+    final ArrayList<MergedItem> mMergedItemPool = new ArrayList<MergedItem>();
+
+    // Used to mark items while diffing lists.
+    int mDiffStamp;
+
     int mSequence = 0;
     
     // ----- following protected by mLock -----
@@ -136,6 +168,20 @@ public class RunningState {
     int mNumServiceProcesses;
     long mServiceProcessMemory;
 
+    // Incremented every time new item lists are published; the UI
+    // structure sequence is the last one the UI has been told about.
+    int mStructureSeq;
+    int mUiStructureSeq;
+
+    // Uptime of the oldest PSS sample making up the memory totals, and
+    // how many processes kept an older sample in the last update.
+    // Synchronize on mLock; see getOldestPssTime() and getNumPssSkipped().
+    long mOldestPssTime;
+    int mNumPssSkipped;
+
+    final ItemsDiff mMergedDiff = new ItemsDiff();
+    final ItemsDiff mBackgroundDiff = new ItemsDiff();
+
     // ----- BACKGROUND MONITORING THREAD -----
 
     final HandlerThread mBackgroundThread;
@@ -181,10 +227,12 @@ public class RunningState {
                             : OnRefreshUiListener.REFRESH_DATA;
                     break;
                 case MSG_UPDATE_TIME:
+                    int structureSeq;
                     synchronized (mLock) {
                         if (!mResumed) {
                             return;
                         }
+                        structureSeq = mStructureSeq;
                     }
                     removeMessages(MSG_UPDATE_TIME);
                     Message m = obtainMessage(MSG_UPDATE_TIME);
@@ -194,6 +242,11 @@ public class RunningState {
                         //Log.i("foo", "Refresh UI: " + mNextUpdate
                         //        + " @ " + SystemClock.uptimeMillis());
                         mRefreshUiListener.onRefreshUi(mNextUpdate);
+                        if (mNextUpdate != OnRefreshUiListener.REFRESH_TIME) {
+                            synchronized (mLock) {
+                                mUiStructureSeq = structureSeq;
+                            }
+                        }
                         mNextUpdate = OnRefreshUiListener.REFRESH_TIME;
                     }
                     break;
@@ -227,22 +280,75 @@ public class RunningState {
         String mCurSizeStr;
         boolean mNeedDivider;
         boolean mBackground;
+
+        // The size mSizeStr was formatted from.
+        long mFormattedSize = -1;
+
+        // State used by ItemsDiff to find what changed between updates.
+        int mDiffStamp;
+        int mDiffPos;
+        String mDiffSizeStr;
+        String mDiffDescription;
+        long mDiffActiveSince;
         
         public BaseItem(boolean isProcess) {
             mIsProcess = isProcess;
         }
+
+        void formatSize(Context context) {
+            if (mSizeStr == null || mFormattedSize != mSize) {
+                mFormattedSize = mSize;
+                // We update the text in the current items on the next
+                // tick, so no need to say we changed here.
+                mSizeStr = Formatter.formatShortFileSize(context, mSize);
+            }
+        }
+
+        void reset() {
+            mPackageInfo = null;
+            mDisplayLabel = null;
+            mLabel = null;
+            mDescription = null;
+            mCurSeq = 0;
+            mActiveSince = 0;
+            mSize = 0;
+            mSizeStr = null;
+            mCurSizeStr = null;
+            mNeedDivider = false;
+            mBackground = false;
+            mFormattedSize = -1;
+            mDiffStamp = 0;
+            mDiffSizeStr = null;
+            mDiffDescription = null;
+            mDiffActiveSince = 0;
+        }
     }
 
     static class ServiceItem extends BaseItem {
         ActivityManager.RunningServiceInfo mRunningService;
         ServiceInfo mServiceInfo;
         boolean mShownAsStarted;
+
+        // The client mDescription was built for, if any.
+        String mClientPackage;
+        int mClientLabel;
         
         MergedItem mMergedItem;
         
         public ServiceItem() {
             super(false);
         }
+
+        @Override
+        void reset() {
+            super.reset();
+            mRunningService = null;
+            mServiceInfo = null;
+            mShownAsStarted = false;
+            mClientPackage = null;
+            mClientLabel = 0;
+            mMergedItem = null;
+        }
     }
 
     static class ProcessItem extends BaseItem {
@@ -257,6 +363,12 @@ public class RunningState {
         
         ProcessItem mClient;
         int mLastNumDependentProcesses;
+
+        // Last PSS sample, when it was taken, and how long to wait
+        // before taking the next one if the process isn't shown.
+        long mPss;
+        long mPssTime;
+        long mPssInterval;
         
         int mRunningSeq;
         ActivityManager.RunningAppProcessInfo mRunningProcessInfo;
@@ -351,14 +463,14 @@ public class RunningState {
         }
         
         boolean updateService(Context context,
-                ActivityManager.RunningServiceInfo service) {
+                ActivityManager.RunningServiceInfo service, ArrayList<ServiceItem> pool) {
             final PackageManager pm = context.getPackageManager();
             
             boolean changed = false;
             ServiceItem si = mServices.get(service.service);
             if (si == null) {
                 changed = true;
-                si = new ServiceItem();
+                si = pool.size() > 0 ? pool.remove(pool.size()-1) : new ServiceItem();
                 si.mRunningService = service;
                 try {
                     si.mServiceInfo = pm.getServiceInfo(service.service, 0);
@@ -382,38 +494,60 @@ public class RunningState {
                     si.mShownAsStarted = false;
                     changed = true;
                 }
-                try {
-                    Resources clientr = pm.getResourcesForApplication(service.clientPackage);
-                    String label = clientr.getString(service.clientLabel);
-                    si.mDescription = context.getResources().getString(
-                            R.string.service_client_name, label);
-                } catch (PackageManager.NameNotFoundException e) {
-                    si.mDescription = null;
+                if (!service.clientPackage.equals(si.mClientPackage)
+                        || service.clientLabel != si.mClientLabel) {
+                    si.mClientPackage = service.clientPackage;
+                    si.mClientLabel = service.clientLabel;
+                    try {
+                        Resources clientr = pm.getResourcesForApplication(service.clientPackage);
+                        String label = clientr.getString(service.clientLabel);
+                        si.mDescription = context.getResources().getString(
+                                R.string.service_client_name, label);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        si.mDescription = null;
+                    }
                 }
             } else {
                 if (!si.mShownAsStarted) {
                     si.mShownAsStarted = true;
                     changed = true;
                 }
-                si.mDescription = context.getResources().getString(
-                        R.string.service_started_by_app);
+                if (si.mClientPackage != null || si.mDescription == null) {
+                    si.mClientPackage = null;
+                    si.mClientLabel = 0;
+                    si.mDescription = context.getResources().getString(
+                            R.string.service_started_by_app);
+                }
             }
             
             return changed;
         }
         
+        boolean needsPssSample(long now, boolean shown, long period) {
+            if (shown || mPssTime == 0) {
+                return true;
+            }
+            if (mPssInterval < period || mPssInterval > period*MAX_PSS_BACKOFF) {
+                mPssInterval = period;
+            }
+            return now - mPssTime >= mPssInterval;
+        }
+
+        void notePss(long pss, long now, long period) {
+            if (mPssTime != 0 && Math.abs(pss - mPss)*100 <= mPss*PSS_STABLE_PERCENT) {
+                mPssInterval = Math.min(Math.max(mPssInterval, period)*2,
+                        period*MAX_PSS_BACKOFF);
+            } else {
+                mPssInterval = period;
+            }
+            mPss = pss;
+            mPssTime = now;
+        }
+
         boolean updateSize(Context context, long pss, int curSeq) {
             mSize = pss * 1024;
             if (mCurSeq == curSeq) {
-                String sizeStr = Formatter.formatShortFileSize(
-                        context, mSize);
-                if (!sizeStr.equals(mSizeStr)){
-                    mSizeStr = sizeStr;
-                    // We update this on the second tick where we update just
-                    // the text in the current items, so no need to say we
-                    // changed here.
-                    return false;
-                }
+                formatSize(context);
             }
             return false;
         }
@@ -461,9 +595,22 @@ public class RunningState {
         
         private int mLastNumProcesses = -1, mLastNumServices = -1;
 
+        // Set while the item is waiting to go back in the pool.
+        boolean mRetired;
+
         MergedItem() {
             super(false);
         }
+
+        @Override
+        void reset() {
+            super.reset();
+            mProcess = null;
+            mOtherProcesses.clear();
+            mServices.clear();
+            mLastNumProcesses = mLastNumServices = -1;
+            mRetired = false;
+        }
         
         boolean update(Context context, boolean background) {
             mPackageInfo = mProcess.mPackageInfo;
@@ -506,19 +653,72 @@ public class RunningState {
             for (int i=0; i<mOtherProcesses.size(); i++) {
                 mSize += mOtherProcesses.get(i).mSize;
             }
-            
-            String sizeStr = Formatter.formatShortFileSize(
-                    context, mSize);
-            if (!sizeStr.equals(mSizeStr)){
-                mSizeStr = sizeStr;
-                // We update this on the second tick where we update just
-                // the text in the current items, so no need to say we
-                // changed here.
-                return false;
-            }
+            formatSize(context);
             return false;
         }
     }
+
+    /**
+     * What changed in one of the published MergedItem lists during the
+     * last update, by position, so the UI can touch only the affected
+     * rows.  Added, moved and changed positions are in the new list;
+     * removed positions are in the old one.  An item is changed when the
+     * text it shows (size, description or start time) is different.
+     * The arrays are reused and only grow.
+     */
+    static class ItemsDiff {
+        int mSeq;
+        int mNumAdded;
+        int[] mAdded = new int[8];
+        int mNumRemoved;
+        int[] mRemoved = new int[8];
+        int mNumMoved;
+        int[] mMoved = new int[8];
+        int mNumChanged;
+        int[] mChanged = new int[8];
+
+        boolean hasStructuralChanges() {
+            return mNumAdded > 0 || mNumRemoved > 0 || mNumMoved > 0;
+        }
+
+        void clear() {
+            mNumAdded = mNumRemoved = mNumMoved = mNumChanged = 0;
+        }
+
+        void added(int pos) {
+            if (mNumAdded >= mAdded.length) {
+                mAdded = grow(mAdded);
+            }
+            mAdded[mNumAdded++] = pos;
+        }
+
+        void removed(int pos) {
+            if (mNumRemoved >= mRemoved.length) {
+                mRemoved = grow(mRemoved);
+            }
+            mRemoved[mNumRemoved++] = pos;
+        }
+
+        void moved(int pos) {
+            if (mNumMoved >= mMoved.length) {
+                mMoved = grow(mMoved);
+            }
+            mMoved[mNumMoved++] = pos;
+        }
+
+        void changed(int pos) {
+            if (mNumChanged >= mChanged.length) {
+                mChanged = grow(mChanged);
+            }
+            mChanged[mNumChanged++] = pos;
+        }
+
+        private static int[] grow(int[] array) {
+            int[] newArray = new int[array.length*2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            return newArray;
+        }
+    }
     
     static class ServiceProcessComparator implements Comparator<ProcessItem> {
         public int compare(ProcessItem object1, ProcessItem object2) {
@@ -648,6 +848,103 @@ public class RunningState {
         mAllProcessItems.clear();
     }
 
+    private void retireServiceItem(ServiceItem si) {
+        mRetiredServiceItems.add(si);
+    }
+
+    private MergedItem obtainMergedItem() {
+        final int N = mMergedItemPool.size();
+        return N > 0 ? mMergedItemPool.remove(N-1) : new MergedItem();
+    }
+
+    /**
+     * Moves the retired items to the pools if the UI has caught up with
+     * the structure that dropped them.
+     */
+    private void recycleRetiredItems() {
+        synchronized (mLock) {
+            if (mUiStructureSeq - mRetiredSeq < 0) {
+                return;
+            }
+        }
+        for (int i=mRetiredServiceItems.size()-1; i>=0; i--) {
+            ServiceItem si = mRetiredServiceItems.remove(i);
+            si.reset();
+            mServiceItemPool.add(si);
+        }
+        for (int i=mRetiredMergedItems.size()-1; i>=0; i--) {
+            MergedItem mi = mRetiredMergedItems.remove(i);
+            mi.reset();
+            mMergedItemPool.add(mi);
+        }
+    }
+
+    /**
+     * Retires every item of the old lists that is in neither of the new
+     * ones.
+     */
+    private void retireDroppedItemsLocked(ArrayList<MergedItem> oldMergedItems,
+            ArrayList<MergedItem> oldBackgroundItems) {
+        final int stamp = ++mDiffStamp;
+        for (int i=0; i<mMergedItems.size(); i++) {
+            mMergedItems.get(i).mDiffStamp = stamp;
+        }
+        for (int i=0; i<mBackgroundItems.size(); i++) {
+            mBackgroundItems.get(i).mDiffStamp = stamp;
+        }
+        retireUnstampedLocked(oldMergedItems, stamp);
+        retireUnstampedLocked(oldBackgroundItems, stamp);
+    }
+
+    private void retireUnstampedLocked(ArrayList<MergedItem> items, int stamp) {
+        for (int i=0; i<items.size(); i++) {
+            MergedItem mi = items.get(i);
+            if (mi.mDiffStamp != stamp && !mi.mRetired) {
+                mi.mRetired = true;
+                if (mi.mProcess != null && mi.mProcess.mMergedItem == mi) {
+                    mi.mProcess.mMergedItem = null;
+                }
+                mRetiredMergedItems.add(mi);
+            }
+        }
+    }
+
+    private void computeDiffLocked(ArrayList<MergedItem> oldItems,
+            ArrayList<MergedItem> newItems, ItemsDiff diff) {
+        diff.mSeq++;
+        diff.clear();
+        final int oldStamp = ++mDiffStamp;
+        final int newStamp = ++mDiffStamp;
+        for (int i=0; i<oldItems.size(); i++) {
+            MergedItem mi = oldItems.get(i);
+            mi.mDiffStamp = oldStamp;
+            mi.mDiffPos = i;
+        }
+        for (int i=0; i<newItems.size(); i++) {
+            MergedItem mi = newItems.get(i);
+            if (mi.mDiffStamp != oldStamp) {
+                diff.added(i);
+            } else {
+                if (mi.mDiffPos != i) {
+                    diff.moved(i);
+                }
+                if (mi.mDiffSizeStr != mi.mSizeStr || mi.mDiffDescription != mi.mDescription
+                        || mi.mDiffActiveSince != mi.mActiveSince) {
+                    diff.changed(i);
+                }
+            }
+            mi.mDiffStamp = newStamp;
+            mi.mDiffSizeStr = mi.mSizeStr;
+            mi.mDiffDescription = mi.mDescription;
+            mi.mDiffActiveSince = mi.mActiveSince;
+        }
+        for (int i=0; i<oldItems.size(); i++) {
+            if (oldItems.get(i).mDiffStamp == oldStamp) {
+                diff.removed(i);
+            }
+        }
+    }
+
     private boolean update(Context context, ActivityManager am) {
         final PackageManager pm = context.getPackageManager();
         
@@ -655,6 +952,12 @@ public class RunningState {
         
         boolean changed = false;
 
+        // Only this thread publishes new lists, so these can be read
+        // without the lock.
+        final ArrayList<MergedItem> oldMergedItems = mMergedItems;
+        final ArrayList<MergedItem> oldBackgroundItems = mBackgroundItems;
+        recycleRetiredItems();
+
         // Retrieve list of services, filtering out anything that definitely
         // won't be shown in the UI.
         List<ActivityManager.RunningServiceInfo> services 
@@ -687,10 +990,22 @@ public class RunningState {
         List<ActivityManager.RunningAppProcessInfo> processes
                 = am.getRunningAppProcesses();
         final int NP = processes != null ? processes.size() : 0;
+        for (int i=mTmpAppProcesses.size()-1; i>=0; i--) {
+            mAppProcessInfoPool.add(mTmpAppProcesses.valueAt(i));
+        }
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
-            mTmpAppProcesses.put(pi.pid, new AppProcessInfo(pi));
+            final int N = mAppProcessInfoPool.size();
+            AppProcessInfo ainfo;
+            if (N > 0) {
+                ainfo = mAppProcessInfoPool.remove(N-1);
+                ainfo.info = pi;
+                ainfo.hasServices = ainfo.hasForegroundServices = false;
+            } else {
+                ainfo = new AppProcessInfo(pi);
+            }
+            mTmpAppProcesses.put(pi.pid, ainfo);
         }
 
         // Initial iteration through running services to collect per-process
@@ -774,7 +1089,7 @@ public class RunningState {
                 proc.mDependentProcesses.clear();
                 proc.mCurSeq = mSequence;
             }
-            changed |= proc.updateService(context, si);
+            changed |= proc.updateService(context, si, mServiceItemPool);
         }
         
         // Now update the map of other processes that are running (but
@@ -890,6 +1205,9 @@ public class RunningState {
                     if (pi.mPid != 0) {
                         mServiceProcessesByPid.remove(pi.mPid);
                     }
+                    for (ServiceItem si : pi.mServices.values()) {
+                        retireServiceItem(si);
+                    }
                     continue;
                 }
                 Iterator<ServiceItem> sit = pi.mServices.values().iterator();
@@ -898,6 +1216,7 @@ public class RunningState {
                     if (si.mCurSeq != mSequence) {
                         changed = true;
                         sit.remove();
+                        retireServiceItem(si);
                     }
                 }
             }
@@ -912,7 +1231,8 @@ public class RunningState {
 
         if (changed) {
             // First determine an order for the services.
-            ArrayList<ProcessItem> sortedProcesses = new ArrayList<ProcessItem>();
+            final ArrayList<ProcessItem> sortedProcesses = mSortedProcesses;
+            sortedProcesses.clear();
             for (int i=0; i<mServiceProcessesByName.size(); i++) {
                 for (ProcessItem pi : mServiceProcessesByName.valueAt(i).values()) {
                     pi.mIsSystem = false;
@@ -956,7 +1276,7 @@ public class RunningState {
                 
                 // Now add the services running in it.
                 MergedItem mergedItem = null;
-                boolean haveAllMerged = false;
+                boolean haveAllMerged = true;
                 boolean needDivider = false;
                 for (ServiceItem si : pi.mServices.values()) {
                     si.mNeedDivider = needDivider;
@@ -972,17 +1292,31 @@ public class RunningState {
                     }
                 }
                 
-                if (!haveAllMerged || mergedItem == null
-                        || mergedItem.mServices.size() != pi.mServices.size()) {
-                    // Whoops, we need to build a new MergedItem!
-                    mergedItem = new MergedItem();
+                final int lastProc = mProcessItems.size()-1;
+                if (haveAllMerged && mergedItem != null && !mergedItem.mRetired
+                        && mergedItem.mProcess == pi
+                        && mergedItem.mOtherProcesses.size() == lastProc-firstProc) {
+                    for (int mpi=firstProc; mpi<lastProc; mpi++) {
+                        if (mergedItem.mOtherProcesses.get(mpi-firstProc)
+                                != mProcessItems.get(mpi)) {
+                            haveAllMerged = false;
+                            break;
+                        }
+                    }
+                } else {
+                    haveAllMerged = false;
+                }
+                if (!haveAllMerged || mergedItem.mServices.size() != pi.mServices.size()) {
+                    // Whoops, we need to build a new MergedItem!  The old one
+                    // is retired once it is no longer in any list.
+                    mergedItem = obtainMergedItem();
                     for (ServiceItem si : pi.mServices.values()) {
                         mergedItem.mServices.add(si);
                         si.mMergedItem = mergedItem;
                     }
                     mergedItem.mProcess = pi;
                     mergedItem.mOtherProcesses.clear();
-                    for (int mpi=firstProc; mpi<(mProcessItems.size()-1); mpi++) {
+                    for (int mpi=firstProc; mpi<lastProc; mpi++) {
                         mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
                     }
                 }
@@ -998,7 +1332,7 @@ public class RunningState {
                 ProcessItem proc = mInterestingProcesses.get(i);
                 if (proc.mClient == null && proc.mServices.size() <= 0) {
                     if (proc.mMergedItem == null) {
-                        proc.mMergedItem = new MergedItem();
+                        proc.mMergedItem = obtainMergedItem();
                         proc.mMergedItem.mProcess = proc;
                     }
                     proc.mMergedItem.update(context, false);
@@ -1035,7 +1369,7 @@ public class RunningState {
                     numForegroundProcesses++;
                     mAllProcessItems.add(proc);
                 } else {
-                    Log.i("RunningState", "Unknown non-service process: "
+                    Log.i(TAG, "Unknown non-service process: "
                             + proc.mProcessName + " #" + proc.mPid);
                 }
             } else {
@@ -1043,55 +1377,83 @@ public class RunningState {
             }
         }
         
+        // Pick the processes whose PSS we need to sample this time.
+        final long now = SystemClock.uptimeMillis();
+        final boolean watchingBackground;
+        synchronized (mLock) {
+            watchingBackground = mWatchingBackgroundItems;
+        }
+        final int numProc = mAllProcessItems.size();
+        mPssProcesses.clear();
+        for (int i=0; i<numProc; i++) {
+            ProcessItem proc = mAllProcessItems.get(i);
+            boolean shown = proc.mCurSeq == mSequence || watchingBackground
+                    || proc.mRunningProcessInfo.importance
+                            <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+            if (proc.needsPssSample(now, shown, BACKGROUND_PSS_PERIOD)) {
+                mPssProcesses.add(proc);
+            }
+        }
+        final int numSampled = mPssProcesses.size();
+        if (numSampled > 0) {
+            if (mPssPids.length != numSampled) {
+                mPssPids = new int[numSampled];
+            }
+            final int[] pids = mPssPids;
+            for (int i=0; i<numSampled; i++) {
+                pids[i] = mPssProcesses.get(i).mPid;
+            }
+            try {
+                long[] pss = ActivityManagerNative.getDefault()
+                        .getProcessPss(pids);
+                for (int i=0; i<numSampled; i++) {
+                    mPssProcesses.get(i).notePss(pss[i], now, BACKGROUND_PSS_PERIOD);
+                }
+            } catch (RemoteException e) {
+            }
+        }
+        if (DEBUG) Log.i(TAG, "Sampled PSS of " + numSampled + " of " + numProc
+                + " processes, skipped " + (numProc - numSampled));
+
         long backgroundProcessMemory = 0;
         long foregroundProcessMemory = 0;
         long serviceProcessMemory = 0;
+        long oldestPssTime = now;
         ArrayList<MergedItem> newBackgroundItems = null;
-        try {
-            final int numProc = mAllProcessItems.size();
-            int[] pids = new int[numProc];
-            for (int i=0; i<numProc; i++) {
-                pids[i] = mAllProcessItems.get(i).mPid;
-            }
-            long[] pss = ActivityManagerNative.getDefault()
-                    .getProcessPss(pids);
-            int bgIndex = 0;
-            for (int i=0; i<pids.length; i++) {
-                ProcessItem proc = mAllProcessItems.get(i);
-                changed |= proc.updateSize(context, pss[i], mSequence);
-                if (proc.mCurSeq == mSequence) {
-                    serviceProcessMemory += proc.mSize;
-                } else if (proc.mRunningProcessInfo.importance >=
-                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND) {
-                    backgroundProcessMemory += proc.mSize;
-                    MergedItem mergedItem;
-                    if (newBackgroundItems != null) {
-                        mergedItem = proc.mMergedItem = new MergedItem();
-                        proc.mMergedItem.mProcess = proc;
-                        newBackgroundItems.add(mergedItem);
-                    } else {
-                        if (bgIndex >= mBackgroundItems.size()
-                                || mBackgroundItems.get(bgIndex).mProcess != proc) {
-                            newBackgroundItems = new ArrayList<MergedItem>(numBackgroundProcesses);
-                            for (int bgi=0; bgi<bgIndex; bgi++) {
-                                newBackgroundItems.add(mBackgroundItems.get(bgi));
-                            }
-                            mergedItem = proc.mMergedItem = new MergedItem();
-                            proc.mMergedItem.mProcess = proc;
-                            newBackgroundItems.add(mergedItem);
-                        } else {
-                            mergedItem = mBackgroundItems.get(bgIndex);
-                        }
+        int bgIndex = 0;
+        for (int i=0; i<numProc; i++) {
+            ProcessItem proc = mAllProcessItems.get(i);
+            changed |= proc.updateSize(context, proc.mPss, mSequence);
+            if (proc.mPssTime != 0 && proc.mPssTime < oldestPssTime) {
+                oldestPssTime = proc.mPssTime;
+            }
+            if (proc.mCurSeq == mSequence) {
+                serviceProcessMemory += proc.mSize;
+            } else if (proc.mRunningProcessInfo.importance >=
+                    ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND) {
+                backgroundProcessMemory += proc.mSize;
+                MergedItem mergedItem = proc.mMergedItem;
+                if (mergedItem == null) {
+                    mergedItem = proc.mMergedItem = obtainMergedItem();
+                    mergedItem.mProcess = proc;
+                }
+                if (newBackgroundItems != null) {
+                    newBackgroundItems.add(mergedItem);
+                } else if (bgIndex >= mBackgroundItems.size()
+                        || mBackgroundItems.get(bgIndex) != mergedItem) {
+                    newBackgroundItems = new ArrayList<MergedItem>(numBackgroundProcesses);
+                    for (int bgi=0; bgi<bgIndex; bgi++) {
+                        newBackgroundItems.add(mBackgroundItems.get(bgi));
                     }
-                    mergedItem.update(context, true);
-                    mergedItem.updateSize(context);
-                    bgIndex++;
-                } else if (proc.mRunningProcessInfo.importance <=
-                        ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
-                    foregroundProcessMemory += proc.mSize;
+                    newBackgroundItems.add(mergedItem);
                 }
+                mergedItem.update(context, true);
+                mergedItem.updateSize(context);
+                bgIndex++;
+            } else if (proc.mRunningProcessInfo.importance <=
+                    ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
+                foregroundProcessMemory += proc.mSize;
             }
-        } catch (RemoteException e) {
         }
         
         if (newBackgroundItems == null) {
@@ -1115,12 +1477,23 @@ public class RunningState {
             mBackgroundProcessMemory = backgroundProcessMemory;
             mForegroundProcessMemory = foregroundProcessMemory;
             mServiceProcessMemory = serviceProcessMemory;
+            mOldestPssTime = oldestPssTime;
+            mNumPssSkipped = numProc - numSampled;
             if (newBackgroundItems != null) {
                 mBackgroundItems = newBackgroundItems;
                 if (mWatchingBackgroundItems) {
                     changed = true;
                 }
             }
+            if (mMergedItems != oldMergedItems || mBackgroundItems != oldBackgroundItems) {
+                mStructureSeq++;
+                retireDroppedItemsLocked(oldMergedItems, oldBackgroundItems);
+            }
+            if (mRetiredServiceItems.size() > 0 || mRetiredMergedItems.size() > 0) {
+                mRetiredSeq = mStructureSeq;
+            }
+            computeDiffLocked(oldMergedItems, mMergedItems, mMergedDiff);
+            computeDiffLocked(oldBackgroundItems, mBackgroundItems, mBackgroundDiff);
             if (!mHaveData) {
                 mHaveData = true;
                 mLock.notifyAll();
@@ -1142,6 +1515,22 @@ public class RunningState {
         }
     }
 
+    long getOldestPssTime() {
+        synchronized (mLock) {
+            return mOldestPssTime;
+        }
+    }
+
+    /**
+     * Return how many processes were not sampled in the last update and
+     * are counted with their previous PSS.
+     */
+    int getNumPssSkipped() {
+        synchronized (mLock) {
+            return mNumPssSkipped;
+        }
+    }
+
     ArrayList<MergedItem> getCurrentMergedItems() {
         synchronized (mLock) {
             return mMergedItems;
@@ -1153,4 +1542,12 @@ public class RunningState {
             return mBackgroundItems;
         }
     }
+
+    /**
+     * Returns how the merged or background list changed in the last
+     * update.  Only valid while holding mLock.
+     */
+    ItemsDiff getCurrentDiffLocked(boolean background) {
+        return background ? mBackgroundDiff : mMergedDiff;
+    }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cmstats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.util.EntityUtils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemProperties;
+import android.util.Log;
+
+/**
+ * Reports waiting to be sent to the stats server, kept on disk so they
+ * survive until they are delivered.
+ *
+ * Each report is stored gzip compressed under a key, and a newer report
+ * with the same key replaces the one still waiting. After a failed
+ * delivery, the next attempt is delayed exponentially.
+ */
+class ReportQueue {
+    static final String DEFAULT_URL = "http://stats.cyanogenmod.org/submit";
+    /** Points the queue at another server, for testing. */
+    private static final String URL_PROPERTY = "debug.cmstats.url";
+
+    static final long BACKOFF_BASE = 15 * 60 * 1000;
+    static final long BACKOFF_MAX = ReportingServiceManager.dMill;
+
+    private static final String ANONYMOUS_FAILED_ATTEMPTS = "pref_anonymous_failed_attempts";
+    private static final String ANONYMOUS_NEXT_ATTEMPT = "pref_anonymous_next_attempt";
+
+    private static final String SUFFIX = ".gz";
+
+    private final File mDir;
+    private final String mUrl;
+    private final SharedPreferences mPrefs;
+
+    ReportQueue(Context ctx) {
+        this(ctx.getDir("cmstats", 0), SystemProperties.get(URL_PROPERTY, DEFAULT_URL),
+                ctx.getSharedPreferences("CMStats", 0));
+    }
+
+    ReportQueue(File dir, String url, SharedPreferences prefs) {
+        mDir = dir;
+        mUrl = url;
+        mPrefs = prefs;
+    }
+
+    /** Queue a report, replacing any report with the same key. */
+    synchronized void enqueue(String key, List<NameValuePair> kv) throws IOException {
+        final byte[] body = URLEncodedUtils.format(kv, "UTF-8").getBytes("UTF-8");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(body);
+        gzip.close();
+
+        // Write aside and rename, so a report is never left half written
+        final File file = new File(mDir, Utilities.digest(key) + SUFFIX);
+        final File temp = new File(mDir, file.getName() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            bytes.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to queue report");
+        }
+    }
+
+    synchronized int size() {
+        return getReports().length;
+    }
+
+    /** Earliest time another delivery should be attempted, or 0. */
+    long getNextAttemptTime() {
+        return getNextAttemptTime(mPrefs);
+    }
+
+    /**
+     * Earliest time another delivery should be attempted, or 0 when no
+     * delivery has failed since the last one that went through. Reports
+     * are only left waiting after a failure, so this is also non-zero
+     * whenever the queue is, without listing the queue directory.
+     */
+    static long getNextAttemptTime(SharedPreferences prefs) {
+        return prefs.getLong(ANONYMOUS_NEXT_ATTEMPT, 0);
+    }
+
+    private File[] getReports() {
+        final File[] files = mDir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+        final File[] reports = Arrays.copyOf(files, count);
+        Arrays.sort(reports, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.valueOf(lhs.lastModified()).compareTo(rhs.lastModified());
+            }
+        });
+        return reports;
+    }
+
+    /**
+     * Send all waiting reports, oldest first, over one client. Stops at the
+     * first failure and backs off. Returns true when nothing is left.
+     */
+    synchronized boolean flush() {
+        final File[] reports = getReports();
+        if (reports.length == 0) {
+            return true;
+        }
+
+        final HttpClient httpclient = new DefaultHttpClient();
+        // Reports are small, don't wait for the server before sending them
+        HttpProtocolParams.setUseExpectContinue(httpclient.getParams(), false);
+        try {
+            for (File report : reports) {
+                if (!send(httpclient, report)) {
+                    backOff();
+                    return false;
+                }
+                report.delete();
+            }
+        } finally {
+            httpclient.getConnectionManager().shutdown();
+        }
+
+        mPrefs.edit().remove(ANONYMOUS_FAILED_ATTEMPTS).remove(ANONYMOUS_NEXT_ATTEMPT).apply();
+        return true;
+    }
+
+    private boolean send(HttpClient httpclient, File report) {
+        try {
+            final byte[] body = readFully(report);
+            final ByteArrayEntity entity = new ByteArrayEntity(body);
+            entity.setContentType("application/x-www-form-urlencoded");
+            entity.setContentEncoding("gzip");
+
+            final HttpPost httppost = new HttpPost(mUrl);
+            httppost.setEntity(entity);
+            final HttpResponse response = httpclient.execute(httppost);
+            if (response.getEntity() != null) {
+                // Release the connection for the next report
+                EntityUtils.toByteArray(response.getEntity());
+            }
+            final int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                Log.w(ReportingService.TAG, "Report rejected with status " + status);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(ReportingService.TAG, "Got Exception", e);
+            return false;
+        }
+    }
+
+    private void backOff() {
+        final int attempts = mPrefs.getInt(ANONYMOUS_FAILED_ATTEMPTS, 0) + 1;
+        final long delay = Math.min(BACKOFF_BASE << Math.min(attempts - 1, 16), BACKOFF_MAX);
+        Log.d(ReportingService.TAG, "Report failed " + attempts + " times, retrying in "
+                + delay / 60000 + " minutes");
+        mPrefs.edit().putInt(ANONYMOUS_FAILED_ATTEMPTS, attempts)
+                .putLong(ANONYMOUS_NEXT_ATTEMPT, System.currentTimeMillis() + delay).apply();
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int count;
+            while (offset < data.length
+                    && (count = in.read(data, offset, data.length - offset)) > 0) {
+                offset += count;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
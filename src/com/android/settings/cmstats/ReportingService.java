@@ -16,89 +16,90 @@
 
 package com.android.settings.cmstats;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 
+import android.app.IntentService;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.app.Service;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.os.IBinder;
+import android.content.SharedPreferences;
 import android.util.Log;
 
 import com.android.settings.R;
 import com.android.settings.Settings;
 
-public class ReportingService extends Service {
+public class ReportingService extends IntentService {
     protected static final String TAG = "CMStats";
 
-    @Override
-    public IBinder onBind(Intent intent) {
-        return null;
+    public ReportingService() {
+        super("ReportingService");
+        // Try again if the process dies before the queue was flushed
+        setIntentRedelivery(true);
     }
 
     @Override
-    public int onStartCommand (Intent intent, int flags, int startId) {
+    protected void onHandleIntent(Intent intent) {
         if (intent.getBooleanExtra("firstBoot", false)) {
             promptUser();
             Log.d(TAG, "Prompting user for opt-in.");
         } else {
             Log.d(TAG, "User has opted in -- reporting.");
-            Thread thread = new Thread() {
-                @Override
-                public void run() {
-                    report();
-                }
-            };
-            thread.start();
+            report();
         }
-        return Service.START_REDELIVER_INTENT;
     }
 
     private void report() {
-        String deviceId = Utilities.getUniqueID(getApplicationContext());
-        String deviceName = Utilities.getDevice();
-        String deviceVersion = Utilities.getModVersion();
-        String deviceCountry = Utilities.getCountryCode(getApplicationContext());
-        String deviceCarrier = Utilities.getCarrier(getApplicationContext());
-        String deviceCarrierId = Utilities.getCarrierId(getApplicationContext());
+        final ReportQueue queue = new ReportQueue(this);
+        final SharedPreferences prefs = getSharedPreferences("CMStats", 0);
+
+        // Queue a fresh report when one is due. It replaces any report for
+        // this device that couldn't be delivered yet.
+        long lastSynced = prefs.getLong(AnonymousStats.ANONYMOUS_LAST_CHECKED, 0);
+        if (lastSynced == 0
+                || System.currentTimeMillis() - lastSynced >= ReportingServiceManager.tFrame) {
+            String deviceId = Utilities.getUniqueID(getApplicationContext());
+            String deviceName = Utilities.getDevice();
+            String deviceVersion = Utilities.getModVersion();
+            String deviceCountry = Utilities.getCountryCode(getApplicationContext());
+            String deviceCarrier = Utilities.getCarrier(getApplicationContext());
+            String deviceCarrierId = Utilities.getCarrierId(getApplicationContext());
 
-        Log.d(TAG, "SERVICE: Device ID=" + deviceId);
-        Log.d(TAG, "SERVICE: Device Name=" + deviceName);
-        Log.d(TAG, "SERVICE: Device Version=" + deviceVersion);
-        Log.d(TAG, "SERVICE: Country=" + deviceCountry);
-        Log.d(TAG, "SERVICE: Carrier=" + deviceCarrier);
-        Log.d(TAG, "SERVICE: Carrier ID=" + deviceCarrierId);
+            Log.d(TAG, "SERVICE: Device ID=" + deviceId);
+            Log.d(TAG, "SERVICE: Device Name=" + deviceName);
+            Log.d(TAG, "SERVICE: Device Version=" + deviceVersion);
+            Log.d(TAG, "SERVICE: Country=" + deviceCountry);
+            Log.d(TAG, "SERVICE: Carrier=" + deviceCarrier);
+            Log.d(TAG, "SERVICE: Carrier ID=" + deviceCarrierId);
 
-        HttpClient httpclient = new DefaultHttpClient();
-        HttpPost httppost = new HttpPost("http://stats.cyanogenmod.org/submit");
-        try {
-            List<NameValuePair> kv = new ArrayList<NameValuePair>(5);
+            List<NameValuePair> kv = new ArrayList<NameValuePair>(6);
             kv.add(new BasicNameValuePair("device_hash", deviceId));
             kv.add(new BasicNameValuePair("device_name", deviceName));
             kv.add(new BasicNameValuePair("device_version", deviceVersion));
             kv.add(new BasicNameValuePair("device_country", deviceCountry));
             kv.add(new BasicNameValuePair("device_carrier", deviceCarrier));
             kv.add(new BasicNameValuePair("device_carrier_id", deviceCarrierId));
-            httppost.setEntity(new UrlEncodedFormEntity(kv));
-            httpclient.execute(httppost);
-            getSharedPreferences("CMStats", 0).edit().putLong(AnonymousStats.ANONYMOUS_LAST_CHECKED,
-                    System.currentTimeMillis()).apply();
-        } catch (Exception e) {
-            Log.e(TAG, "Got Exception", e);
+            try {
+                queue.enqueue(String.valueOf(deviceId), kv);
+                // Counts as checked in; delivery is retried from the queue
+                prefs.edit().putLong(AnonymousStats.ANONYMOUS_LAST_CHECKED,
+                        System.currentTimeMillis()).apply();
+            } catch (IOException e) {
+                Log.e(TAG, "Got Exception", e);
+            }
+        }
+
+        if (System.currentTimeMillis() >= queue.getNextAttemptTime()) {
+            queue.flush();
         }
         ReportingServiceManager.setAlarm(this);
-        stopSelf();
     }
 
     private void promptUser() {
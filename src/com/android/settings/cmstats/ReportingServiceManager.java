@@ -32,6 +32,11 @@ public class ReportingServiceManager extends BroadcastReceiver {
     public static final long dMill = 24 * 60 * 60 * 1000;
     public static final long tFrame = 7 * dMill;
 
+    /** How often the alarm looks again while a report is overdue. */
+    private static final long RETRY_INTERVAL = AlarmManager.INTERVAL_HOUR;
+
+    private static final String ACTION_REPORT = "com.android.settings.cmstats.ACTION_REPORT";
+
     @Override
     public void onReceive(Context ctx, Intent intent) {
         if (intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED)) {
@@ -53,11 +58,20 @@ public class ReportingServiceManager extends BroadcastReceiver {
         if (lastSynced == 0) {
             return;
         }
-        long timeLeft = (lastSynced + tFrame) - System.currentTimeMillis();
-        Intent sIntent = new Intent(ConnectivityManager.CONNECTIVITY_ACTION);
+        long nextSync = lastSynced + tFrame;
+        // Reports still waiting are retried once their backoff is over
+        long nextAttempt = ReportQueue.getNextAttemptTime(prefs);
+        if (nextAttempt != 0) {
+            nextSync = Math.min(nextSync, nextAttempt);
+        }
+        long timeLeft = nextSync - System.currentTimeMillis();
+        Intent sIntent = new Intent(ACTION_REPORT);
         sIntent.setComponent(new ComponentName(ctx.getPackageName(), ReportingServiceManager.class.getName()));
+        // Inexact and not waking the device, so the system can batch it with
+        // other alarms. It repeats until the report has gone out.
         AlarmManager alarmManager = (AlarmManager) ctx.getSystemService(Context.ALARM_SERVICE);
-        alarmManager.set(AlarmManager.RTC_WAKEUP, System.currentTimeMillis() + timeLeft, PendingIntent.getBroadcast(ctx, 0, sIntent, 0));
+        alarmManager.setInexactRepeating(AlarmManager.RTC, nextSync, RETRY_INTERVAL,
+                PendingIntent.getBroadcast(ctx, 0, sIntent, PendingIntent.FLAG_UPDATE_CURRENT));
         Log.d(ReportingService.TAG, "Next sync attempt in : " + timeLeft / dMill + " days");
         prefs.edit().putBoolean(AnonymousStats.ANONYMOUS_ALARM_SET, true).apply();
     }
@@ -71,15 +85,20 @@ public class ReportingServiceManager extends BroadcastReceiver {
             boolean firstBoot = prefs.getBoolean(AnonymousStats.ANONYMOUS_FIRST_BOOT, true);
             boolean optedIn = prefs.getBoolean(AnonymousStats.ANONYMOUS_OPT_IN, true);
             boolean alarmSet = prefs.getBoolean(AnonymousStats.ANONYMOUS_ALARM_SET, false);
-            if (alarmSet) {
-                return;
-            }
             boolean shouldSync = false;
             if (lastSynced == 0) {
                 shouldSync = true;
             } else if (System.currentTimeMillis() - lastSynced >= tFrame) {
                 shouldSync = true;
             }
+            // Reports that failed earlier are retried once their backoff is over
+            long nextAttempt = ReportQueue.getNextAttemptTime(prefs);
+            if (nextAttempt != 0 && System.currentTimeMillis() >= nextAttempt) {
+                shouldSync = true;
+            }
+            if (alarmSet && !shouldSync && !firstBoot) {
+                return;
+            }
             if ((shouldSync && optedIn) || firstBoot) {
                 Intent sIntent = new Intent();
                 sIntent.setComponent(new ComponentName(ctx.getPackageName(), ReportingService.class.getName()));
@@ -21,11 +21,30 @@ import java.net.NetworkInterface;
 import java.security.MessageDigest;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.SystemProperties;
 import android.telephony.TelephonyManager;
 
 public class Utilities {
+    private static final String ANONYMOUS_DEVICE_ID = "pref_anonymous_device_id";
+
+    /**
+     * Returns the hashed device id. It never changes, so it is only
+     * computed once and then kept with the other stats preferences.
+     */
     public static String getUniqueID(Context ctx) {
+        SharedPreferences prefs = ctx.getSharedPreferences("CMStats", 0);
+        String device_id = prefs.getString(ANONYMOUS_DEVICE_ID, null);
+        if (device_id == null) {
+            device_id = computeUniqueID(ctx);
+            if (device_id != null) {
+                prefs.edit().putString(ANONYMOUS_DEVICE_ID, device_id).apply();
+            }
+        }
+        return device_id;
+    }
+
+    private static String computeUniqueID(Context ctx) {
         TelephonyManager tm = (TelephonyManager) ctx
                 .getSystemService(Context.TELEPHONY_SERVICE);
 
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.content.Context;
+import android.content.pm.PackageItemInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.android.settings.R;
+import com.android.settings.net.UidDetailCache;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists applications for the user to pick one, one row per package, sorted
+ * by label.
+ *
+ * Labels are loaded and sorted off the main thread and the sorted list is
+ * published about once a frame while loading goes on. Icons are only loaded
+ * for the rows being shown, through {@link UidDetailCache}, one at a time by
+ * a single background task.
+ */
+public class AppPickerAdapter extends BaseAdapter {
+    /** Longest a load runs before publishing what it has. */
+    private static final long FRAME_MS = 16;
+
+    public static class AppItem {
+        public final String packageName;
+        public final CharSequence title;
+        final PackageItemInfo info;
+        final CollationKey sortKey;
+
+        AppItem(PackageItemInfo info, CharSequence title, CollationKey sortKey) {
+            this.packageName = info.packageName;
+            this.title = title;
+            this.info = info;
+            this.sortKey = sortKey;
+        }
+    }
+
+    private static final Comparator<AppItem> SORT_KEY_COMPARATOR = new Comparator<AppItem>() {
+        @Override
+        public int compare(AppItem lhs, AppItem rhs) {
+            return lhs.sortKey.compareTo(rhs.sortKey);
+        }
+    };
+
+    static class ViewHolder {
+        TextView title;
+        TextView summary;
+        ImageView icon;
+        AppItem item;
+    }
+
+    private final PackageManager mPm;
+    private final LayoutInflater mInflater;
+    private final UidDetailCache mIconCache;
+
+    private List<AppItem> mItems = Collections.emptyList();
+    private LoadTask mLoadTask;
+
+    /**
+     * Rows waiting for an icon, oldest first. A row that is rebound replaces
+     * its request, so there are never more requests than rows on screen.
+     * Guarded by itself, as is {@link #mIconLoader}.
+     */
+    private final LinkedHashMap<ViewHolder, AppItem> mIconRequests
+            = new LinkedHashMap<ViewHolder, AppItem>();
+    private IconLoader mIconLoader;
+
+    public AppPickerAdapter(Context context) {
+        mPm = context.getPackageManager();
+        mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        mIconCache = UidDetailCache.getInstance(context);
+    }
+
+    /**
+     * Replace the listed applications with the given components, keeping the
+     * first component of each package. Labels are loaded in the background.
+     */
+    public void load(List<? extends PackageItemInfo> infos) {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        mLoadTask = new LoadTask(new ArrayList<PackageItemInfo>(infos));
+        mLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /** Stop any load still running, and drop pending icon requests. */
+    public void cancel() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+            mLoadTask = null;
+        }
+        synchronized (mIconRequests) {
+            mIconRequests.clear();
+            if (mIconLoader != null) {
+                mIconLoader.cancel(false);
+                mIconLoader = null;
+            }
+        }
+    }
+
+    /**
+     * Loads labels, sorting them as it goes, and publishes a copy of the
+     * sorted list each time a frame's worth of time has passed.
+     */
+    private class LoadTask extends AsyncTask<Void, List<AppItem>, Void> {
+        private final List<PackageItemInfo> mInfos;
+
+        LoadTask(List<PackageItemInfo> infos) {
+            mInfos = infos;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final Collator collator = Collator.getInstance();
+            final HashSet<String> packages = new HashSet<String>();
+            final ArrayList<AppItem> sorted = new ArrayList<AppItem>(mInfos.size());
+            final ArrayList<AppItem> batch = new ArrayList<AppItem>();
+
+            long publishAt = SystemClock.uptimeMillis() + FRAME_MS;
+            final int count = mInfos.size();
+            for (int i = 0; i < count && !isCancelled(); i++) {
+                final PackageItemInfo info = mInfos.get(i);
+                if (!packages.add(info.packageName)) {
+                    continue;
+                }
+                final CharSequence title = info.loadLabel(mPm);
+                batch.add(new AppItem(info, title, collator.getCollationKey(title.toString())));
+
+                final long now = SystemClock.uptimeMillis();
+                if (now >= publishAt) {
+                    merge(sorted, batch);
+                    publishProgress(new ArrayList<AppItem>(sorted));
+                    publishAt = now + FRAME_MS;
+                }
+            }
+            if (!isCancelled()) {
+                merge(sorted, batch);
+                publishProgress(sorted);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(List<AppItem>... values) {
+            if (mLoadTask == this) {
+                mItems = values[0];
+                notifyDataSetChanged();
+            }
+        }
+    }
+
+    /** Merge the batch into the sorted list, and clear the batch. */
+    private static void merge(ArrayList<AppItem> sorted, ArrayList<AppItem> batch) {
+        Collections.sort(batch, SORT_KEY_COMPARATOR);
+        final ArrayList<AppItem> merged = new ArrayList<AppItem>(sorted.size() + batch.size());
+        int i = 0;
+        int j = 0;
+        while (i < sorted.size() && j < batch.size()) {
+            if (SORT_KEY_COMPARATOR.compare(sorted.get(i), batch.get(j)) <= 0) {
+                merged.add(sorted.get(i++));
+            } else {
+                merged.add(batch.get(j++));
+            }
+        }
+        merged.addAll(sorted.subList(i, sorted.size()));
+        merged.addAll(batch.subList(j, batch.size()));
+        sorted.clear();
+        sorted.addAll(merged);
+        batch.clear();
+    }
+
+    @Override
+    public int getCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public AppItem getItem(int position) {
+        return mItems.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).packageName.hashCode();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        ViewHolder holder;
+        if (convertView != null) {
+            holder = (ViewHolder) convertView.getTag();
+        } else {
+            convertView = mInflater.inflate(R.layout.preference_icon, null, false);
+            holder = new ViewHolder();
+            convertView.setTag(holder);
+            holder.title = (TextView) convertView.findViewById(com.android.internal.R.id.title);
+            holder.summary = (TextView) convertView
+                    .findViewById(com.android.internal.R.id.summary);
+            holder.icon = (ImageView) convertView.findViewById(R.id.icon);
+        }
+        final AppItem item = getItem(position);
+        holder.item = item;
+
+        if (holder.title != null) {
+            holder.title.setText(item.title);
+        }
+        if (holder.summary != null) {
+            holder.summary.setVisibility(View.GONE);
+        }
+        if (holder.icon != null) {
+            final Drawable icon = mIconCache.getIcon(item.info, false);
+            holder.icon.setImageDrawable(icon);
+            requestIcon(holder, icon == null ? item : null);
+        }
+        return convertView;
+    }
+
+    /**
+     * Queue loading the icon of the item now bound to the row, or with a
+     * null item, forget what the row asked for before.
+     */
+    private void requestIcon(ViewHolder holder, AppItem item) {
+        synchronized (mIconRequests) {
+            mIconRequests.remove(holder);
+            if (item == null) {
+                return;
+            }
+            mIconRequests.put(holder, item);
+            if (mIconLoader == null) {
+                mIconLoader = new IconLoader();
+                mIconLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+        }
+    }
+
+    private static class LoadedIcon {
+        final ViewHolder holder;
+        final AppItem item;
+        final Drawable icon;
+
+        LoadedIcon(ViewHolder holder, AppItem item, Drawable icon) {
+            this.holder = holder;
+            this.item = item;
+            this.icon = icon;
+        }
+    }
+
+    /**
+     * Loads the icons of the queued rows one after another, and finishes
+     * once the queue is empty.
+     */
+    private class IconLoader extends AsyncTask<Void, LoadedIcon, Void> {
+        @Override
+        protected Void doInBackground(Void... params) {
+            while (true) {
+                final ViewHolder holder;
+                final AppItem item;
+                synchronized (mIconRequests) {
+                    final Iterator<Map.Entry<ViewHolder, AppItem>> it
+                            = mIconRequests.entrySet().iterator();
+                    if (isCancelled() || !it.hasNext()) {
+                        if (mIconLoader == this) {
+                            mIconLoader = null;
+                        }
+                        return null;
+                    }
+                    final Map.Entry<ViewHolder, AppItem> request = it.next();
+                    holder = request.getKey();
+                    item = request.getValue();
+                    it.remove();
+                }
+                publishProgress(new LoadedIcon(holder, item, mIconCache.getIcon(item.info)));
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(LoadedIcon... values) {
+            final LoadedIcon loaded = values[0];
+            // the row may have been rebound to another item meanwhile; the
+            // icon is cached for when this item is bound again
+            if (!isCancelled() && loaded.holder.item == loaded.item) {
+                loaded.holder.icon.setImageDrawable(loaded.icon);
+            }
+        }
+    }
+}
@@ -24,8 +24,6 @@ import android.os.SystemProperties;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
-import com.android.settings.Utils;
-
 import java.util.Arrays;
 import java.util.List;
 
@@ -39,10 +37,14 @@ public class BootReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context ctx, Intent intent) {
+        // Everything is read at most once, and written together in a fixed order
+        final SysfsTunables tunables = new SysfsTunables();
+        final SysfsTunables.Batch batch = tunables.newBatch();
+
         if (SystemProperties.getBoolean(CPU_SETTINGS_PROP, false) == false
                 && intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED)) {
             SystemProperties.set(CPU_SETTINGS_PROP, "true");
-            configureCPU(ctx);
+            configureCPU(ctx, tunables, batch);
         } else {
             SystemProperties.set(CPU_SETTINGS_PROP, "false");
         }
@@ -50,23 +52,27 @@ public class BootReceiver extends BroadcastReceiver {
         if (SystemProperties.getBoolean(IOSCHED_SETTINGS_PROP, false) == false
                 && intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED)) {
             SystemProperties.set(IOSCHED_SETTINGS_PROP, "true");
-            configureIOSched(ctx);
+            configureIOSched(ctx, tunables, batch);
         } else {
             SystemProperties.set(IOSCHED_SETTINGS_PROP, "false");
         }
 
-        if (Utils.fileExists(MemoryManagement.KSM_RUN_FILE)) {
+        if (tunables.has(SysfsTunables.KSM_RUN)) {
             if (SystemProperties.getBoolean(KSM_SETTINGS_PROP, false) == false
                     && intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED)) {
                 SystemProperties.set(KSM_SETTINGS_PROP, "true");
-                configureKSM(ctx);
+                configureKSM(ctx, batch);
             } else {
                 SystemProperties.set(KSM_SETTINGS_PROP, "false");
             }
         }
+
+        if (!batch.isEmpty()) {
+            batch.apply();
+        }
     }
 
-    private void configureCPU(Context ctx) {
+    private void configureCPU(Context ctx, SysfsTunables tunables, SysfsTunables.Batch batch) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
 
         if (prefs.getBoolean(Processor.SOB_PREF, false) == false) {
@@ -77,8 +83,8 @@ public class BootReceiver extends BroadcastReceiver {
         String governor = prefs.getString(Processor.GOV_PREF, null);
         String minFrequency = prefs.getString(Processor.FREQ_MIN_PREF, null);
         String maxFrequency = prefs.getString(Processor.FREQ_MAX_PREF, null);
-        String availableFrequenciesLine = Utils.fileReadOneLine(Processor.FREQ_LIST_FILE);
-        String availableGovernorsLine = Utils.fileReadOneLine(Processor.GOV_LIST_FILE);
+        String availableFrequenciesLine = tunables.get(SysfsTunables.CPU_FREQ_LIST);
+        String availableGovernorsLine = tunables.get(SysfsTunables.CPU_GOVERNOR_LIST);
         boolean noSettings = ((availableGovernorsLine == null) || (governor == null)) &&
                              ((availableFrequenciesLine == null) || ((minFrequency == null) && (maxFrequency == null)));
         List<String> frequencies = null;
@@ -94,19 +100,20 @@ public class BootReceiver extends BroadcastReceiver {
                 frequencies = Arrays.asList(availableFrequenciesLine.split(" "));
             }
             if (governor != null && governors != null && governors.contains(governor)) {
-                Utils.fileWriteOneLine(Processor.GOV_FILE, governor);
+                batch.set(SysfsTunables.CPU_GOVERNOR, governor);
             }
             if (maxFrequency != null && frequencies != null && frequencies.contains(maxFrequency)) {
-                Utils.fileWriteOneLine(Processor.FREQ_MAX_FILE, maxFrequency);
+                batch.set(SysfsTunables.CPU_FREQ_MAX, maxFrequency);
             }
             if (minFrequency != null && frequencies != null && frequencies.contains(minFrequency)) {
-                Utils.fileWriteOneLine(Processor.FREQ_MIN_FILE, minFrequency);
+                batch.set(SysfsTunables.CPU_FREQ_MIN, minFrequency);
             }
             Log.d(TAG, "CPU settings restored.");
         }
     }
 
-    private void configureIOSched(Context ctx) {
+    private void configureIOSched(Context ctx, SysfsTunables tunables,
+            SysfsTunables.Batch batch) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
 
         if (prefs.getBoolean(IOScheduler.SOB_PREF, false) == false) {
@@ -115,7 +122,7 @@ public class BootReceiver extends BroadcastReceiver {
         }
 
         String ioscheduler = prefs.getString(IOScheduler.IOSCHED_PREF, null);
-        String availableIOSchedulersLine = Utils.fileReadOneLine(IOScheduler.IOSCHED_LIST_FILE);
+        String availableIOSchedulersLine = tunables.get(SysfsTunables.IO_SCHEDULER);
         boolean noSettings = ((availableIOSchedulersLine == null) || (ioscheduler == null));
         List<String> ioschedulers = null;
 
@@ -126,18 +133,18 @@ public class BootReceiver extends BroadcastReceiver {
                 ioschedulers = Arrays.asList(availableIOSchedulersLine.replace("[", "").replace("]", "").split(" "));
             }
             if (ioscheduler != null && ioschedulers != null && ioschedulers.contains(ioscheduler)) {
-                Utils.fileWriteOneLine(IOScheduler.IOSCHED_LIST_FILE, ioscheduler);
+                batch.set(SysfsTunables.IO_SCHEDULER, ioscheduler);
             }
             Log.d(TAG, "I/O scheduler settings restored.");
         }
     }
 
-    private void configureKSM(Context ctx) {
+    private void configureKSM(Context ctx, SysfsTunables.Batch batch) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
 
         boolean ksm = prefs.getBoolean(MemoryManagement.KSM_PREF, false);
 
-        Utils.fileWriteOneLine(MemoryManagement.KSM_RUN_FILE, ksm ? "1" : "0");
+        batch.set(SysfsTunables.KSM_RUN, ksm ? "1" : "0");
         Log.d(TAG, "KSM settings restored.");
     }
 }
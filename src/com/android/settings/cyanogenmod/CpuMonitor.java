@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Samples the current frequency and the time_in_state table of every CPU
+ * on a background thread, for as long as anybody is subscribed.
+ *
+ * Each node is opened once and re-read from offset 0 into a preallocated
+ * buffer, and the values are parsed in place, so taking a sample allocates
+ * nothing once the tables have their final size. Reading and parsing
+ * happen without the lock the getters take; only copying the finished
+ * sample out holds it. The last frequencies of each CPU are kept in a ring
+ * buffer, for drawing their history.
+ *
+ * CPUs that are offline have no cpufreq directory; opening their nodes is
+ * retried every {@link #REOPEN_SAMPLES} samples. The current frequency is
+ * read from cpuinfo_cur_freq on CPUs that have no scaling_cur_freq.
+ */
+class CpuMonitor {
+    private static final String TAG = "CpuMonitor";
+    private static final boolean DEBUG = false;
+
+    static final String CPU_DIR = "/sys/devices/system/cpu";
+    private static final String SCALING_CUR_FREQ_FILE = "cpufreq/scaling_cur_freq";
+    private static final String INFO_CUR_FREQ_FILE = "cpufreq/cpuinfo_cur_freq";
+    private static final String TIME_IN_STATE_FILE = "cpufreq/stats/time_in_state";
+
+    static final long DEFAULT_INTERVAL = 500;
+    static final int DEFAULT_HISTORY_SIZE = 120;
+    static final int REOPEN_SAMPLES = 10;
+
+    /** Frequency reported for a CPU that is offline or has no cpufreq. */
+    static final int OFFLINE = -1;
+
+    static Object sGlobalLock = new Object();
+    static CpuMonitor sInstance;
+
+    interface Listener {
+        /** Called on the main thread after every sample. */
+        void onCpuSample(CpuMonitor monitor);
+    }
+
+    private static class Subscriber {
+        final Listener listener;
+        final long interval;
+
+        Subscriber(Listener listener, long interval) {
+            this.listener = listener;
+            this.interval = interval;
+        }
+    }
+
+    /** Node of one CPU, kept open between samples. */
+    private static class Node {
+        final File file;
+        /** Read instead when the file does not exist, or null. */
+        final File fallback;
+        RandomAccessFile raf;
+        FileChannel channel;
+
+        Node(File file, File fallback) {
+            this.file = file;
+            this.fallback = fallback;
+        }
+
+        boolean open() {
+            if (channel != null) {
+                return true;
+            }
+            // Offline CPUs have neither, and a failed open would throw
+            if (open(file)) {
+                return true;
+            }
+            return fallback != null && open(fallback);
+        }
+
+        private boolean open(File f) {
+            if (!f.exists()) {
+                return false;
+            }
+            try {
+                raf = new RandomAccessFile(f, "r");
+                channel = raf.getChannel();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /** Read the whole node into the buffer, or return -1 if it went away. */
+        int read(ByteBuffer buffer) {
+            if (channel == null) {
+                return -1;
+            }
+            buffer.clear();
+            try {
+                int length = 0;
+                int count;
+                while (buffer.hasRemaining()
+                        && (count = channel.read(buffer, length)) > 0) {
+                    length += count;
+                }
+                return length;
+            } catch (IOException e) {
+                close();
+                return -1;
+            }
+        }
+
+        void close() {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                }
+            }
+            raf = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Open nodes and the last sample read from them. Only touched by the
+     * thread that samples with it; the result is copied out under the
+     * monitor's lock by {@link CpuMonitor#publish}.
+     */
+    private class Sampler implements Runnable {
+        final HandlerThread thread;
+        final Handler handler;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        int cpuCount = -1;
+        Node[] curFreqNodes;
+        Node[] timeInStateNodes;
+        int[] curFreqs;
+        int[][] stateFreqs;
+        long[][] stateTimes;
+        int[] stateCounts;
+        int samples;
+        boolean published;
+
+        /** Sampler for its own thread, or for the calling thread if null. */
+        Sampler(HandlerThread thread) {
+            this.thread = thread;
+            handler = thread != null ? new Handler(thread.getLooper()) : null;
+        }
+
+        @Override
+        public void run() {
+            synchronized (CpuMonitor.this) {
+                if (mSampler != this) {
+                    stop();
+                    return;
+                }
+            }
+            sample();
+            synchronized (CpuMonitor.this) {
+                if (mSampler != this) {
+                    // stopped while sampling
+                    stop();
+                    return;
+                }
+                publish(this);
+                handler.postDelayed(this, mInterval);
+            }
+            mMainHandler.post(mNotifyRunnable);
+        }
+
+        private void stop() {
+            close();
+            thread.quit();
+        }
+
+        private void setUp() {
+            final int count = countCpus();
+            curFreqNodes = new Node[count];
+            timeInStateNodes = new Node[count];
+            for (int i = 0; i < count; i++) {
+                final File cpu = new File(mCpuDir, "cpu" + i);
+                curFreqNodes[i] = new Node(new File(cpu, SCALING_CUR_FREQ_FILE),
+                        new File(cpu, INFO_CUR_FREQ_FILE));
+                timeInStateNodes[i] = new Node(new File(cpu, TIME_IN_STATE_FILE), null);
+            }
+            curFreqs = new int[count];
+            stateFreqs = new int[count][0];
+            stateTimes = new long[count][0];
+            stateCounts = new int[count];
+            cpuCount = count;
+            if (DEBUG) Log.d(TAG, "monitoring " + count + " cpus");
+        }
+
+        void sample() {
+            if (curFreqNodes == null) {
+                setUp();
+            }
+            final boolean reopen = samples % REOPEN_SAMPLES == 0;
+            final byte[] data = buffer.array();
+
+            for (int cpu = 0; cpu < cpuCount; cpu++) {
+                final Node curFreq = curFreqNodes[cpu];
+                final Node timeInState = timeInStateNodes[cpu];
+                if (reopen) {
+                    curFreq.open();
+                    timeInState.open();
+                }
+
+                final int length = curFreq.read(buffer);
+                curFreqs[cpu] = length > 0 ? (int) parseLong(data, 0, length) : OFFLINE;
+
+                readTimeInState(cpu, timeInState.read(buffer), data);
+            }
+            samples++;
+        }
+
+        /** Parse "freq time" lines; the table is only resized when it grows. */
+        private void readTimeInState(int cpu, int length, byte[] data) {
+            if (length <= 0) {
+                stateCounts[cpu] = 0;
+                return;
+            }
+            int count = 0;
+            int pos = 0;
+            while (pos < length) {
+                int end = pos;
+                while (end < length && data[end] != '\n') {
+                    end++;
+                }
+                int space = pos;
+                while (space < end && data[space] != ' ') {
+                    space++;
+                }
+                if (space < end) {
+                    if (count == stateFreqs[cpu].length) {
+                        stateFreqs[cpu] = Arrays.copyOf(stateFreqs[cpu], count + 8);
+                        stateTimes[cpu] = Arrays.copyOf(stateTimes[cpu], count + 8);
+                    }
+                    stateFreqs[cpu][count] = (int) parseLong(data, pos, space);
+                    stateTimes[cpu][count] = parseLong(data, space + 1, end);
+                    count++;
+                }
+                pos = end + 1;
+            }
+            stateCounts[cpu] = count;
+        }
+
+        void close() {
+            if (curFreqNodes == null) {
+                return;
+            }
+            for (int i = 0; i < curFreqNodes.length; i++) {
+                curFreqNodes[i].close();
+                timeInStateNodes[i].close();
+            }
+        }
+    }
+
+    private final File mCpuDir;
+    private final int mHistorySize;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on the main thread.
+    private final ArrayList<Subscriber> mSubscribers = new ArrayList<Subscriber>();
+
+    // Only touched by the thread calling sample() directly.
+    private Sampler mDirectSampler;
+
+    // The following are protected by synchronizing on 'this'.
+    private Sampler mSampler;
+    private long mInterval = DEFAULT_INTERVAL;
+    private int mCpuCount = -1;
+    private int[] mCurFreqs;
+    private int[][] mHistory;
+    private int mHistoryHead;
+    private int mHistoryCount;
+    private int[][] mStateFreqs;
+    private long[][] mStateTimes;
+    private int[] mStateCounts;
+
+    private final Runnable mNotifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < mSubscribers.size(); i++) {
+                mSubscribers.get(i).listener.onCpuSample(CpuMonitor.this);
+            }
+        }
+    };
+
+    static CpuMonitor getInstance() {
+        synchronized (sGlobalLock) {
+            if (sInstance == null) {
+                sInstance = new CpuMonitor(new File(CPU_DIR), DEFAULT_HISTORY_SIZE);
+            }
+            return sInstance;
+        }
+    }
+
+    CpuMonitor(File cpuDir, int historySize) {
+        mCpuDir = cpuDir;
+        mHistorySize = historySize;
+    }
+
+    /**
+     * Start receiving samples at the given interval, in milliseconds. The
+     * monitor samples at the shortest interval any subscriber asked for.
+     */
+    void subscribe(Listener listener, long interval) {
+        removeSubscriber(listener);
+        mSubscribers.add(new Subscriber(listener, interval));
+        updateSampling();
+    }
+
+    /** Stop receiving samples; sampling stops with the last subscriber. */
+    void unsubscribe(Listener listener) {
+        removeSubscriber(listener);
+        updateSampling();
+    }
+
+    private void removeSubscriber(Listener listener) {
+        for (int i = mSubscribers.size() - 1; i >= 0; i--) {
+            if (mSubscribers.get(i).listener == listener) {
+                mSubscribers.remove(i);
+            }
+        }
+    }
+
+    private void updateSampling() {
+        long interval = Long.MAX_VALUE;
+        for (int i = 0; i < mSubscribers.size(); i++) {
+            interval = Math.min(interval, mSubscribers.get(i).interval);
+        }
+
+        synchronized (this) {
+            if (mSubscribers.isEmpty()) {
+                if (mSampler != null) {
+                    if (DEBUG) Log.d(TAG, "stopping");
+                    // The sampler closes its nodes and quits on its own thread
+                    final Sampler sampler = mSampler;
+                    mSampler = null;
+                    sampler.handler.removeCallbacks(sampler);
+                    sampler.handler.post(sampler);
+                }
+                mMainHandler.removeCallbacks(mNotifyRunnable);
+                return;
+            }
+
+            mInterval = interval;
+            if (mSampler == null) {
+                if (DEBUG) Log.d(TAG, "starting at " + interval + "ms");
+                final HandlerThread thread = new HandlerThread("CpuMonitor",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                mSampler = new Sampler(thread);
+            }
+            // Sample right away, then at the new interval
+            mSampler.handler.removeCallbacks(mSampler);
+            mSampler.handler.post(mSampler);
+        }
+    }
+
+    /** Number of possible CPUs, or 0 before the first sample. */
+    synchronized int getCpuCount() {
+        return Math.max(mCpuCount, 0);
+    }
+
+    /** Last frequency of the CPU in kHz, or {@link #OFFLINE}. */
+    synchronized int getCurFrequency(int cpu) {
+        return cpu < mCpuCount ? mCurFreqs[cpu] : OFFLINE;
+    }
+
+    /**
+     * Copy the frequency history of the CPU into the array, oldest first,
+     * and return how many entries were copied.
+     */
+    synchronized int getHistory(int cpu, int[] out) {
+        if (cpu >= mCpuCount) {
+            return 0;
+        }
+        final int count = Math.min(mHistoryCount, out.length);
+        final int[] history = mHistory[cpu];
+        int index = (mHistoryHead - count + mHistorySize) % mHistorySize;
+        for (int i = 0; i < count; i++) {
+            out[i] = history[index];
+            index = (index + 1) % mHistorySize;
+        }
+        return count;
+    }
+
+    /** Number of frequencies in the time_in_state table of the CPU. */
+    synchronized int getStateCount(int cpu) {
+        return cpu < mCpuCount ? mStateCounts[cpu] : 0;
+    }
+
+    /**
+     * Copy the time_in_state table of the CPU into the arrays, and return
+     * how many entries were copied. Times are in units of 10ms.
+     */
+    synchronized int getTimeInState(int cpu, int[] freqs, long[] times) {
+        if (cpu >= mCpuCount) {
+            return 0;
+        }
+        final int count = Math.min(mStateCounts[cpu], Math.min(freqs.length, times.length));
+        System.arraycopy(mStateFreqs[cpu], 0, freqs, 0, count);
+        System.arraycopy(mStateTimes[cpu], 0, times, 0, count);
+        return count;
+    }
+
+    private int countCpus() {
+        final File[] cpus = mCpuDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().matches("cpu[0-9]+");
+            }
+        });
+        int count = 0;
+        if (cpus != null) {
+            for (File cpu : cpus) {
+                count = Math.max(count, Integer.parseInt(cpu.getName().substring(3)) + 1);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copy a finished sample out of the sampler. The history starts over
+     * with each new sampler, as CPUs are looked for again on every start.
+     */
+    private void publish(Sampler sampler) {
+        final int count = sampler.cpuCount;
+        if (!sampler.published) {
+            mCurFreqs = new int[count];
+            mHistory = new int[count][mHistorySize];
+            mHistoryHead = 0;
+            mHistoryCount = 0;
+            mStateFreqs = new int[count][0];
+            mStateTimes = new long[count][0];
+            mStateCounts = new int[count];
+            mCpuCount = count;
+            sampler.published = true;
+        }
+        for (int cpu = 0; cpu < count; cpu++) {
+            mCurFreqs[cpu] = sampler.curFreqs[cpu];
+            mHistory[cpu][mHistoryHead] = sampler.curFreqs[cpu];
+
+            final int states = sampler.stateCounts[cpu];
+            if (mStateFreqs[cpu].length < states) {
+                mStateFreqs[cpu] = new int[sampler.stateFreqs[cpu].length];
+                mStateTimes[cpu] = new long[sampler.stateTimes[cpu].length];
+            }
+            System.arraycopy(sampler.stateFreqs[cpu], 0, mStateFreqs[cpu], 0, states);
+            System.arraycopy(sampler.stateTimes[cpu], 0, mStateTimes[cpu], 0, states);
+            mStateCounts[cpu] = states;
+        }
+        mHistoryHead = (mHistoryHead + 1) % mHistorySize;
+        mHistoryCount = Math.min(mHistoryCount + 1, mHistorySize);
+    }
+
+    /**
+     * Take one sample of every CPU on the calling thread. Used by tests,
+     * which then read the results through the getters.
+     */
+    void sample() {
+        if (mDirectSampler == null) {
+            mDirectSampler = new Sampler(null);
+        }
+        mDirectSampler.sample();
+        synchronized (this) {
+            publish(mDirectSampler);
+        }
+    }
+
+    /** Parse the leading decimal digits, without allocating. */
+    private static long parseLong(byte[] data, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = data[i];
+            if (b < '0' || b > '9') {
+                break;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+}
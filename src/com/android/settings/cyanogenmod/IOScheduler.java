@@ -25,7 +25,6 @@ import android.preference.PreferenceScreen;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
-import com.android.settings.Utils;
 
 //
 // I/O Scheduler Related Settings
@@ -44,16 +43,16 @@ public class IOScheduler extends SettingsPreferenceFragment implements
 
     private ListPreference mIOSchedulerPref;
 
+    private final SysfsTunables mTunables = new SysfsTunables();
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         mIOSchedulerFormat = getString(R.string.io_sched_summary);
 
-        String[] availableIOSchedulers = new String[0];
-        String availableIOSchedulersLine;
-        int bropen, brclose;
-        String currentIOScheduler = null;
+        String[] availableIOSchedulers;
+        String currentIOScheduler;
 
         addPreferencesFromResource(R.xml.ioscheduler_settings);
 
@@ -63,16 +62,11 @@ public class IOScheduler extends SettingsPreferenceFragment implements
 
         /* I/O scheduler
         Some systems might not use I/O schedulers */
-        if (!Utils.fileExists(IOSCHED_LIST_FILE) ||
-            (availableIOSchedulersLine = Utils.fileReadOneLine(IOSCHED_LIST_FILE)) == null) {
+        if ((availableIOSchedulers = mTunables.getList(SysfsTunables.IO_SCHEDULER)) == null) {
             prefScreen.removePreference(mIOSchedulerPref);
 
         } else {
-            availableIOSchedulers = availableIOSchedulersLine.replace("[", "").replace("]", "").split(" ");
-            bropen = availableIOSchedulersLine.indexOf("[");
-            brclose = availableIOSchedulersLine.lastIndexOf("]");
-            if (bropen >= 0 && brclose >= 0)
-                currentIOScheduler = availableIOSchedulersLine.substring(bropen + 1, brclose);
+            currentIOScheduler = mTunables.getSelected(SysfsTunables.IO_SCHEDULER);
 
             mIOSchedulerPref.setEntryValues(availableIOSchedulers);
             mIOSchedulerPref.setEntries(availableIOSchedulers);
@@ -85,32 +79,31 @@ public class IOScheduler extends SettingsPreferenceFragment implements
 
     @Override
     public void onResume() {
-        String availableIOSchedulersLine;
-        int bropen, brclose;
         String currentIOScheduler;
 
         super.onResume();
 
-        if (Utils.fileExists(IOSCHED_LIST_FILE) &&
-            (availableIOSchedulersLine = Utils.fileReadOneLine(IOSCHED_LIST_FILE)) != null) {
-            bropen = availableIOSchedulersLine.indexOf("[");
-            brclose = availableIOSchedulersLine.lastIndexOf("]");
-            if (bropen >= 0 && brclose >= 0) {
-                currentIOScheduler = availableIOSchedulersLine.substring(bropen + 1, brclose);
-                mIOSchedulerPref.setSummary(String.format(mIOSchedulerFormat, currentIOScheduler));
-            }
+        // Values are read once per visit; onCreate has just read them the first time
+        if ((currentIOScheduler = mTunables.getSelected(SysfsTunables.IO_SCHEDULER)) != null) {
+            mIOSchedulerPref.setSummary(String.format(mIOSchedulerFormat, currentIOScheduler));
         }
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mTunables.invalidate();
+    }
+
     public boolean onPreferenceChange(Preference preference, Object newValue) {
-        String fname = "";
+        SysfsTunables.Node node = null;
 
         if (newValue != null) {
             if (preference == mIOSchedulerPref) {
-                fname = IOSCHED_LIST_FILE;
+                node = SysfsTunables.IO_SCHEDULER;
             }
 
-            if (Utils.fileWriteOneLine(fname, (String) newValue)) {
+            if (node != null && mTunables.write(node, (String) newValue)) {
                 if (preference == mIOSchedulerPref) {
                     mIOSchedulerPref.setSummary(String.format(mIOSchedulerFormat, (String) newValue));
                 }
@@ -28,7 +28,6 @@ import android.preference.PreferenceScreen;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
-import com.android.settings.Utils;
 
 public class MemoryManagement extends SettingsPreferenceFragment implements
         OnPreferenceChangeListener {
@@ -61,6 +60,8 @@ public class MemoryManagement extends SettingsPreferenceFragment implements
 
     private int swapAvailable = -1;
 
+    private final SysfsTunables mTunables = new SysfsTunables();
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -84,8 +85,9 @@ public class MemoryManagement extends SettingsPreferenceFragment implements
                 prefSet.removePreference(mzRAM);
             }
 
-            if (Utils.fileExists(KSM_RUN_FILE)) {
-                mKSMPref.setChecked(KSM_PREF_ENABLED.equals(Utils.fileReadOneLine(KSM_RUN_FILE)));
+            final String ksm = mTunables.get(SysfsTunables.KSM_RUN);
+            if (ksm != null) {
+                mKSMPref.setChecked(KSM_PREF_ENABLED.equals(ksm));
             } else {
                 prefSet.removePreference(mKSMPref);
             }
@@ -107,7 +109,7 @@ public class MemoryManagement extends SettingsPreferenceFragment implements
         }
 
         if (preference == mKSMPref) {
-            Utils.fileWriteOneLine(KSM_RUN_FILE, mKSMPref.isChecked() ? "1" : "0");
+            mTunables.write(SysfsTunables.KSM_RUN, mKSMPref.isChecked() ? "1" : "0");
             return true;
         }
 
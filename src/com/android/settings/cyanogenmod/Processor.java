@@ -17,26 +17,22 @@
 package com.android.settings.cyanogenmod;
 
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceScreen;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
-import com.android.settings.Utils;
 
 //
 // CPU Related Settings
 //
 public class Processor extends SettingsPreferenceFragment implements
-        Preference.OnPreferenceChangeListener {
+        Preference.OnPreferenceChangeListener, CpuMonitor.Listener {
 
     public static final String FREQ_CUR_PREF = "pref_cpu_freq_cur";
     public static final String SCALE_CUR_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq";
     public static final String FREQINFO_CUR_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/cpuinfo_cur_freq";
-    private static String FREQ_CUR_FILE = SCALE_CUR_FILE;
     public static final String GOV_PREF = "pref_cpu_gov";
     public static final String GOV_LIST_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/scaling_available_governors";
     public static final String GOV_FILE = "/sys/devices/system/cpu/cpu0/cpufreq/scaling_governor";
@@ -58,34 +54,10 @@ public class Processor extends SettingsPreferenceFragment implements
     private ListPreference mMinFrequencyPref;
     private ListPreference mMaxFrequencyPref;
 
-    private class CurCPUThread extends Thread {
-        private boolean mInterrupt = false;
+    private final SysfsTunables mTunables = new SysfsTunables();
 
-        public void interrupt() {
-            mInterrupt = true;
-        }
-
-        @Override
-        public void run() {
-            try {
-                while (!mInterrupt) {
-                    sleep(500);
-                    final String curFreq = Utils.fileReadOneLine(FREQ_CUR_FILE);
-                    if (curFreq != null)
-                        mCurCPUHandler.sendMessage(mCurCPUHandler.obtainMessage(0, curFreq));
-                }
-            } catch (InterruptedException e) {
-            }
-        }
-    };
-
-    private CurCPUThread mCurCPUThread = new CurCPUThread();
-
-    private Handler mCurCPUHandler = new Handler() {
-        public void handleMessage(Message msg) {
-            mCurFrequencyPref.setSummary(toMHz((String) msg.obj));
-        }
-    };
+    private CpuMonitor mCpuMonitor;
+    private final StringBuilder mCurFrequencyBuilder = new StringBuilder();
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -95,11 +67,9 @@ public class Processor extends SettingsPreferenceFragment implements
         mMinFrequencyFormat = getString(R.string.cpu_min_freq_summary);
         mMaxFrequencyFormat = getString(R.string.cpu_max_freq_summary);
 
-        String[] availableFrequencies = new String[0];
-        String[] availableGovernors = new String[0];
+        String[] availableFrequencies;
+        String[] availableGovernors;
         String[] frequencies;
-        String availableGovernorsLine;
-        String availableFrequenciesLine;
         String temp;
 
         addPreferencesFromResource(R.xml.processor_settings);
@@ -113,11 +83,11 @@ public class Processor extends SettingsPreferenceFragment implements
 
         /* Governor
         Some systems might not use governors */
-        if (!Utils.fileExists(GOV_LIST_FILE) || !Utils.fileExists(GOV_FILE) || (temp = Utils.fileReadOneLine(GOV_FILE)) == null || (availableGovernorsLine = Utils.fileReadOneLine(GOV_LIST_FILE)) == null) {
+        if ((temp = mTunables.get(SysfsTunables.CPU_GOVERNOR)) == null
+                || (availableGovernors = mTunables.getList(SysfsTunables.CPU_GOVERNOR_LIST)) == null) {
             prefScreen.removePreference(mGovernorPref);
 
         } else {
-            availableGovernors = availableGovernorsLine.split(" ");
 
             mGovernorPref.setEntryValues(availableGovernors);
             mGovernorPref.setEntries(availableGovernors);
@@ -127,12 +97,11 @@ public class Processor extends SettingsPreferenceFragment implements
         }
 
         // Disable the min/max list if we dont have a list file
-        if (!Utils.fileExists(FREQ_LIST_FILE) || (availableFrequenciesLine = Utils.fileReadOneLine(FREQ_LIST_FILE)) == null) {
+        if ((availableFrequencies = mTunables.getList(SysfsTunables.CPU_FREQ_LIST)) == null) {
             mMinFrequencyPref.setEnabled(false);
             mMaxFrequencyPref.setEnabled(false);
 
         } else {
-            availableFrequencies = availableFrequenciesLine.split(" ");
 
             frequencies = new String[availableFrequencies.length];
             for (int i = 0; i < frequencies.length; i++) {
@@ -140,7 +109,7 @@ public class Processor extends SettingsPreferenceFragment implements
             }
 
             // Min frequency
-            if (!Utils.fileExists(FREQ_MIN_FILE) || (temp = Utils.fileReadOneLine(FREQ_MIN_FILE)) == null) {
+            if ((temp = mTunables.get(SysfsTunables.CPU_FREQ_MIN)) == null) {
                 mMinFrequencyPref.setEnabled(false);
 
             } else {
@@ -152,7 +121,7 @@ public class Processor extends SettingsPreferenceFragment implements
             }
 
             // Max frequency
-            if (!Utils.fileExists(FREQ_MAX_FILE) || (temp = Utils.fileReadOneLine(FREQ_MAX_FILE)) == null) {
+            if ((temp = mTunables.get(SysfsTunables.CPU_FREQ_MAX)) == null) {
                 mMaxFrequencyPref.setEnabled(false);
 
             } else {
@@ -164,18 +133,18 @@ public class Processor extends SettingsPreferenceFragment implements
             }
         }
 
-        // Cur frequency
-        if (!Utils.fileExists(FREQ_CUR_FILE)) {
-            FREQ_CUR_FILE = FREQINFO_CUR_FILE;
+        // Cur frequency, from cpuinfo_cur_freq where there is no scaling_cur_freq
+        if ((temp = mTunables.get(SysfsTunables.CPU_FREQ_SCALING_CUR)) == null) {
+            temp = mTunables.get(SysfsTunables.CPU_FREQ_INFO_CUR);
         }
 
-        if (!Utils.fileExists(FREQ_CUR_FILE) || (temp = Utils.fileReadOneLine(FREQ_CUR_FILE)) == null) {
+        if (temp == null) {
             mCurFrequencyPref.setEnabled(false);
 
         } else {
             mCurFrequencyPref.setSummary(toMHz(temp));
 
-            mCurCPUThread.start();
+            mCpuMonitor = CpuMonitor.getInstance();
         }
     }
 
@@ -185,44 +154,70 @@ public class Processor extends SettingsPreferenceFragment implements
 
         super.onResume();
 
-        if (Utils.fileExists(FREQ_MIN_FILE) && (temp = Utils.fileReadOneLine(FREQ_MIN_FILE)) != null) {
+        if (mCpuMonitor != null) {
+            mCpuMonitor.subscribe(this, CpuMonitor.DEFAULT_INTERVAL);
+        }
+
+        // Values are read once per visit; onCreate has just read them the first time
+        if ((temp = mTunables.get(SysfsTunables.CPU_FREQ_MIN)) != null) {
             mMinFrequencyPref.setValue(temp);
             mMinFrequencyPref.setSummary(String.format(mMinFrequencyFormat, toMHz(temp)));
         }
 
-        if (Utils.fileExists(FREQ_MAX_FILE) && (temp = Utils.fileReadOneLine(FREQ_MAX_FILE)) != null) {
+        if ((temp = mTunables.get(SysfsTunables.CPU_FREQ_MAX)) != null) {
             mMaxFrequencyPref.setValue(temp);
             mMaxFrequencyPref.setSummary(String.format(mMaxFrequencyFormat, toMHz(temp)));
         }
 
-        if (Utils.fileExists(GOV_FILE) && (temp = Utils.fileReadOneLine(GOV_FILE)) != null) {
+        if ((temp = mTunables.get(SysfsTunables.CPU_GOVERNOR)) != null) {
             mGovernorPref.setSummary(String.format(mGovernorFormat, temp));
         }
     }
 
     @Override
-    public void onDestroy() {
-        super.onDestroy();
-        mCurCPUThread.interrupt();
-        try {
-            mCurCPUThread.join();
-        } catch (InterruptedException e) {
+    public void onPause() {
+        super.onPause();
+        mTunables.invalidate();
+        if (mCpuMonitor != null) {
+            mCpuMonitor.unsubscribe(this);
+        }
+    }
+
+    @Override
+    public void onCpuSample(CpuMonitor monitor) {
+        // Frequency of every core, in MHz
+        final StringBuilder builder = mCurFrequencyBuilder;
+        builder.setLength(0);
+        final int count = monitor.getCpuCount();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            final int freq = monitor.getCurFrequency(i);
+            if (freq == CpuMonitor.OFFLINE) {
+                builder.append(getString(R.string.cpu_cur_freq_offline));
+            } else {
+                builder.append(freq / 1000).append(" MHz");
+            }
+        }
+        if (count > 0) {
+            mCurFrequencyPref.setSummary(builder.toString());
         }
     }
 
     public boolean onPreferenceChange(Preference preference, Object newValue) {
-        String fname = "";
+        SysfsTunables.Node node = null;
 
         if (newValue != null) {
             if (preference == mGovernorPref) {
-                fname = GOV_FILE;
+                node = SysfsTunables.CPU_GOVERNOR;
             } else if (preference == mMinFrequencyPref) {
-                fname = FREQ_MIN_FILE;
+                node = SysfsTunables.CPU_FREQ_MIN;
             } else if (preference == mMaxFrequencyPref) {
-                fname = FREQ_MAX_FILE;
+                node = SysfsTunables.CPU_FREQ_MAX;
             }
 
-            if (Utils.fileWriteOneLine(fname, (String) newValue)) {
+            if (node != null && mTunables.write(node, (String) newValue)) {
                 if (preference == mGovernorPref) {
                     mGovernorPref.setSummary(String.format(mGovernorFormat, (String) newValue));
                 } else if (preference == mMinFrequencyPref) {
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Reads and writes the kernel tunables behind the performance settings.
+ *
+ * Each instance caches what it has read, so a screen reads every node at
+ * most once until {@link #invalidate()} is called or a write may have
+ * changed it, and a missing node costs a single failed open instead of a
+ * stat followed by a read. Writes can be collected in a {@link Batch} and
+ * are then applied in the order of the nodes in the registry below.
+ *
+ * All paths are resolved against a root directory, which is "/" on a device
+ * and a plain directory tree in tests.
+ */
+class SysfsTunables {
+    private static final String TAG = "SysfsTunables";
+
+    /** How a node's single line is interpreted. */
+    static final int TYPE_VALUE = 0;
+    /** Space separated list of values. */
+    static final int TYPE_LIST = 1;
+    /** Space separated list with the selected value in brackets. */
+    static final int TYPE_SELECTED_LIST = 2;
+
+    static class Node {
+        final String path;
+        final int type;
+        /** Position when a batch is applied; lower is written first. */
+        final int order;
+
+        Node(String path, int type, int order) {
+            this.path = path;
+            this.type = type;
+            this.order = order;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    // Registry. The governor goes first since it may reset the frequency
+    // limits, and max before min as on every boot until now.
+    static final Node CPU_GOVERNOR = new Node(Processor.GOV_FILE, TYPE_VALUE, 0);
+    static final Node CPU_FREQ_MAX = new Node(Processor.FREQ_MAX_FILE, TYPE_VALUE, 1);
+    static final Node CPU_FREQ_MIN = new Node(Processor.FREQ_MIN_FILE, TYPE_VALUE, 2);
+    static final Node IO_SCHEDULER = new Node(IOScheduler.IOSCHED_LIST_FILE,
+            TYPE_SELECTED_LIST, 3);
+    static final Node KSM_RUN = new Node(MemoryManagement.KSM_RUN_FILE, TYPE_VALUE, 4);
+
+    // Read only
+    static final Node CPU_GOVERNOR_LIST = new Node(Processor.GOV_LIST_FILE, TYPE_LIST, -1);
+    static final Node CPU_FREQ_LIST = new Node(Processor.FREQ_LIST_FILE, TYPE_LIST, -1);
+    static final Node CPU_FREQ_SCALING_CUR = new Node(Processor.SCALE_CUR_FILE,
+            TYPE_VALUE, -1);
+    static final Node CPU_FREQ_INFO_CUR = new Node(Processor.FREQINFO_CUR_FILE,
+            TYPE_VALUE, -1);
+
+    /** Marks a node that could not be read. */
+    private static final String MISSING = new String();
+
+    private final File mRoot;
+    private final HashMap<Node, String> mCache = new HashMap<Node, String>();
+    private byte[] mBuffer = new byte[256];
+
+    SysfsTunables() {
+        this(new File("/"));
+    }
+
+    SysfsTunables(File root) {
+        mRoot = root;
+    }
+
+    private File fileFor(Node node) {
+        return new File(mRoot, node.path);
+    }
+
+    /** Forget all cached values, so they are read again on next use. */
+    void invalidate() {
+        mCache.clear();
+    }
+
+    /** Whether the node exists, reading and caching its value if needed. */
+    boolean has(Node node) {
+        return get(node) != null;
+    }
+
+    /** First line of the node, or null if it can't be read. Cached. */
+    String get(Node node) {
+        String value = mCache.get(node);
+        if (value == null) {
+            value = read(node);
+            mCache.put(node, value != null ? value : MISSING);
+        }
+        return value != MISSING ? value : null;
+    }
+
+    /** The values of a list node, without any brackets, or null. */
+    String[] getList(Node node) {
+        final String value = get(node);
+        if (value == null) {
+            return null;
+        }
+        if (node.type == TYPE_SELECTED_LIST) {
+            return value.replace("[", "").replace("]", "").split(" ");
+        }
+        return value.split(" ");
+    }
+
+    /**
+     * The bracketed value of a {@link #TYPE_SELECTED_LIST} node, or the
+     * whole value of any other node. Null if there is none.
+     */
+    String getSelected(Node node) {
+        final String value = get(node);
+        if (value == null || node.type != TYPE_SELECTED_LIST) {
+            return value;
+        }
+        final int bropen = value.indexOf('[');
+        final int brclose = value.lastIndexOf(']');
+        if (bropen >= 0 && brclose > bropen) {
+            return value.substring(bropen + 1, brclose);
+        }
+        return null;
+    }
+
+    /** Read the first line of the node, bypassing the cache. */
+    String read(Node node) {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(fileFor(node));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            int length = 0;
+            int count;
+            while ((count = in.read(mBuffer, length, mBuffer.length - length)) > 0) {
+                length += count;
+                if (length == mBuffer.length) {
+                    final byte[] buffer = new byte[mBuffer.length * 2];
+                    System.arraycopy(mBuffer, 0, buffer, 0, length);
+                    mBuffer = buffer;
+                }
+            }
+            if (length == 0) {
+                return null;
+            }
+            int end = 0;
+            while (end < length && mBuffer[end] != '\n') {
+                end++;
+            }
+            return new String(mBuffer, 0, end, "US-ASCII");
+        } catch (IOException e) {
+            Log.e(TAG, "IO Exception when reading " + node, e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /** Write a single value now, updating the cache when it succeeds. */
+    boolean write(Node node, String value) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(fileFor(node));
+            out.write(value.getBytes("US-ASCII"));
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing to " + node, e);
+            mCache.remove(node);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        // Selected lists read back differently than they are written
+        if (node.type == TYPE_SELECTED_LIST) {
+            mCache.remove(node);
+        } else {
+            mCache.put(node, value);
+        }
+        // The kernel may reset or clamp the frequency limits after any of
+        // these, so they are read again instead of trusting the cache
+        if (node == CPU_GOVERNOR || node == CPU_FREQ_MAX || node == CPU_FREQ_MIN) {
+            mCache.remove(CPU_FREQ_MAX);
+            mCache.remove(CPU_FREQ_MIN);
+        }
+        return true;
+    }
+
+    Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Writes collected from several places, applied together in registry
+     * order. A value equal to what this instance last read is skipped.
+     */
+    class Batch {
+        private final ArrayList<Node> mNodes = new ArrayList<Node>();
+        private final HashMap<Node, String> mValues = new HashMap<Node, String>();
+
+        Batch set(Node node, String value) {
+            if (node.order < 0) {
+                throw new IllegalArgumentException(node + " is read only");
+            }
+            if (mValues.put(node, value) == null) {
+                mNodes.add(node);
+            }
+            return this;
+        }
+
+        boolean isEmpty() {
+            return mNodes.isEmpty();
+        }
+
+        /** Apply all values, and return how many were written successfully. */
+        int apply() {
+            Collections.sort(mNodes, new Comparator<Node>() {
+                @Override
+                public int compare(Node lhs, Node rhs) {
+                    return lhs.order - rhs.order;
+                }
+            });
+            int written = 0;
+            for (Node node : mNodes) {
+                final String value = mValues.get(node);
+                if (value.equals(mCache.get(node)) || write(node, value)) {
+                    written++;
+                }
+            }
+            mNodes.clear();
+            mValues.clear();
+            return written;
+        }
+    }
+}
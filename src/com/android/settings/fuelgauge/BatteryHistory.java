@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+/**
+ * BatteryStats history decoded once into parallel primitive arrays, so that
+ * BatteryHistoryChart can rebuild its paths at any size without iterating
+ * the stats again, and so the history can be handed to BatteryHistoryDetail
+ * without marshalling the whole BatteryStats.
+ *
+ * Only CMD_UPDATE records are kept, up to the last one. Any other record
+ * except CMD_OVERFLOW ends the current run of the chart, and is kept as an
+ * entry with a level of {@link #LEVEL_BREAK}.
+ */
+public class BatteryHistory implements Parcelable {
+    static final byte LEVEL_BREAK = -1;
+
+    /** Battery realtime since charged, in microseconds, when decoded. */
+    final long mStatsPeriod;
+
+    final long mHistStart;
+    final long mHistEnd;
+    final int mAggrStates;
+
+    final int mCount;
+    /** Time of each record, relative to {@link #mHistStart}. */
+    final long[] mTimes;
+    final byte[] mLevels;
+    final int[] mStates;
+
+    private BatteryHistory(long statsPeriod, long histStart, long histEnd, int aggrStates,
+            int count, long[] times, byte[] levels, int[] states) {
+        mStatsPeriod = statsPeriod;
+        mHistStart = histStart;
+        mHistEnd = histEnd;
+        mAggrStates = aggrStates;
+        mCount = count;
+        mTimes = times;
+        mLevels = levels;
+        mStates = states;
+    }
+
+    static BatteryHistory decode(BatteryStats stats) {
+        final long statsPeriod = stats.computeBatteryRealtime(
+                SystemClock.elapsedRealtime() * 1000, BatteryStats.STATS_SINCE_CHARGED);
+
+        int count = 0;
+        int lastInteresting = 0;
+        long histStart = 0;
+        long histEnd = 0;
+        int aggrStates = 0;
+        long[] times = new long[64];
+        byte[] levels = new byte[64];
+        int[] states = new int[64];
+
+        if (stats.startIteratingHistoryLocked()) {
+            final HistoryItem rec = new HistoryItem();
+            while (stats.getNextHistoryLocked(rec)) {
+                if (rec.cmd == HistoryItem.CMD_OVERFLOW) {
+                    continue;
+                }
+                final boolean update = rec.cmd == HistoryItem.CMD_UPDATE;
+                if (!update && count == 0) {
+                    // nothing to break yet
+                    continue;
+                }
+                if (count == times.length) {
+                    final int newLength = count * 2;
+                    final long[] newTimes = new long[newLength];
+                    final byte[] newLevels = new byte[newLength];
+                    final int[] newStates = new int[newLength];
+                    System.arraycopy(times, 0, newTimes, 0, count);
+                    System.arraycopy(levels, 0, newLevels, 0, count);
+                    System.arraycopy(states, 0, newStates, 0, count);
+                    times = newTimes;
+                    levels = newLevels;
+                    states = newStates;
+                }
+                if (update) {
+                    if (count == 0) {
+                        histStart = rec.time;
+                    }
+                    times[count] = rec.time - histStart;
+                    levels[count] = rec.batteryLevel;
+                    states[count] = rec.states;
+                    histEnd = rec.time;
+                    aggrStates |= rec.states;
+                    lastInteresting = count + 1;
+                } else {
+                    times[count] = count > 0 ? times[count - 1] : 0;
+                    levels[count] = LEVEL_BREAK;
+                    states[count] = 0;
+                }
+                count++;
+            }
+        }
+
+        if (histEnd <= histStart) histEnd = histStart + 1;
+        return new BatteryHistory(statsPeriod, histStart, histEnd, aggrStates, lastInteresting,
+                times, levels, states);
+    }
+
+    public int describeContents() {
+        return 0;
+    }
+
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mStatsPeriod);
+        dest.writeLong(mHistStart);
+        dest.writeLong(mHistEnd);
+        dest.writeInt(mAggrStates);
+        dest.writeInt(mCount);
+        for (int i = 0; i < mCount; i++) {
+            dest.writeLong(mTimes[i]);
+        }
+        dest.writeByteArray(mLevels, 0, mCount);
+        for (int i = 0; i < mCount; i++) {
+            dest.writeInt(mStates[i]);
+        }
+    }
+
+    public static final Creator<BatteryHistory> CREATOR = new Creator<BatteryHistory>() {
+        public BatteryHistory createFromParcel(Parcel in) {
+            final long statsPeriod = in.readLong();
+            final long histStart = in.readLong();
+            final long histEnd = in.readLong();
+            final int aggrStates = in.readInt();
+            final int count = in.readInt();
+            final long[] times = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = in.readLong();
+            }
+            final byte[] levels = in.createByteArray();
+            final int[] states = new int[count];
+            for (int i = 0; i < count; i++) {
+                states[i] = in.readInt();
+            }
+            return new BatteryHistory(statsPeriod, histStart, histEnd, aggrStates, count,
+                    times, levels, states);
+        }
+
+        public BatteryHistory[] newArray(int size) {
+            return new BatteryHistory[size];
+        }
+    };
+}
@@ -25,8 +25,6 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Typeface;
-import android.os.BatteryStats;
-import android.os.SystemClock;
 import android.os.BatteryStats.HistoryItem;
 import android.telephony.ServiceState;
 import android.text.TextPaint;
@@ -133,7 +131,9 @@ public class BatteryHistoryChart extends View {
     
     int mFontSize;
     
-    BatteryStats mStats;
+    BatteryHistory mHistory;
+    // Set when the size or history changed since the paths were built.
+    boolean mPathsStale = true;
     long mStatsPeriod;
     String mDurationString;
     String mTotalDurationString;
@@ -334,12 +334,13 @@ public class BatteryHistoryChart extends View {
         }
     }
     
-    void setStats(BatteryStats stats) {
-        mStats = stats;
-        
-        long uSecTime = mStats.computeBatteryRealtime(SystemClock.elapsedRealtime() * 1000,
-                BatteryStats.STATS_SINCE_CHARGED);
-        mStatsPeriod = uSecTime;
+    void setHistory(BatteryHistory history) {
+        if (mHistory == history) {
+            return;
+        }
+        mHistory = history;
+
+        mStatsPeriod = history.mStatsPeriod;
         String durationString = Utils.formatElapsedTime(getContext(), mStatsPeriod / 1000);
         mDurationString = getContext().getString(R.string.battery_stats_on_battery,
                 durationString);
@@ -350,39 +351,23 @@ public class BatteryHistoryChart extends View {
         mWakeLockLabel = getContext().getString(R.string.battery_stats_wake_lock_label);
         mPhoneSignalLabel = getContext().getString(R.string.battery_stats_phone_signal_label);
         
-        int pos = 0;
-        int lastInteresting = 0;
-        byte lastLevel = -1;
         mBatLow = 0;
         mBatHigh = 100;
-        int aggrStates = 0;
-        boolean first = true;
-        if (stats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (stats.getNextHistoryLocked(rec)) {
-                pos++;
-                if (rec.cmd == HistoryItem.CMD_UPDATE) {
-                    if (first) {
-                        first = false;
-                        mHistStart = rec.time;
-                    }
-                    if (rec.batteryLevel != lastLevel || pos == 1) {
-                        lastLevel = rec.batteryLevel;
-                    }
-                    lastInteresting = pos;
-                    mHistEnd = rec.time;
-                    aggrStates |= rec.states;
-                }
-            }
-        }
-        mNumHist = lastInteresting;
+        mHistStart = history.mHistStart;
+        mHistEnd = history.mHistEnd;
+        final int aggrStates = history.mAggrStates;
+        mNumHist = history.mCount;
         mHaveGps = (aggrStates&HistoryItem.STATE_GPS_ON_FLAG) != 0;
         mHaveWifi = (aggrStates&HistoryItem.STATE_WIFI_RUNNING_FLAG) != 0;
         if (!com.android.settings.Utils.isWifiOnly(getContext())) {
             mHavePhoneSignal = true;
         }
-        if (mHistEnd <= mHistStart) mHistEnd = mHistStart+1;
         mTotalDurationString = Utils.formatElapsedTime(getContext(), mHistEnd - mHistStart);
+
+        // the size may not change, so paths are rebuilt on the next draw
+        mPathsStale = true;
+        requestLayout();
+        invalidate();
     }
 
     @Override
@@ -432,7 +417,14 @@ public class BatteryHistoryChart extends View {
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        
+        mPathsStale = true;
+    }
+
+    /**
+     * Lay out the bars for the given size, and build the paths for the
+     * current history.
+     */
+    private void buildPaths(int w, int h) {
         int textHeight = mTextDescent - mTextAscent;
         mThinLineWidth = (int)TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
                 2, getResources().getDisplayMetrics());
@@ -504,7 +496,6 @@ public class BatteryHistoryChart extends View {
         mWakeLockPath.reset();
         mChargingPath.reset();
         
-        final long timeStart = mHistStart;
         final long timeChange = mHistEnd-mHistStart;
         
         final int batLow = mBatLow;
@@ -514,135 +505,134 @@ public class BatteryHistoryChart extends View {
         mLevelBottom = mLevelTop + levelh;
         
         int x = 0, y = 0, startX = 0, lastX = -1, lastY = -1;
-        int i = 0;
         Path curLevelPath = null;
         Path lastLinePath = null;
         boolean lastCharging = false, lastScreenOn = false, lastGpsOn = false;
         boolean lastWifiRunning = false, lastWakeLock = false;
         final int N = mNumHist;
-        if (mStats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (mStats.getNextHistoryLocked(rec) && i < N) {
-                if (rec.cmd == BatteryStats.HistoryItem.CMD_UPDATE) {
-                    x = (int)(((rec.time-timeStart)*w)/timeChange);
-                    y = mLevelTop + levelh - ((rec.batteryLevel-batLow)*(levelh-1))/batChange;
-
-                    if (lastX != x) {
-                        // We have moved by at least a pixel.
-                        if (lastY != y) {
-                            // Don't plot changes within a pixel.
-                            Path path;
-                            byte value = rec.batteryLevel;
-                            if (value <= BATTERY_CRITICAL) path = mBatCriticalPath;
-                            else if (value <= BATTERY_WARN) path = mBatWarnPath;
-                            else path = mBatGoodPath;
-
-                            if (path != lastLinePath) {
-                                if (lastLinePath != null) {
-                                    lastLinePath.lineTo(x, y);
-                                }
-                                path.moveTo(x, y);
-                                lastLinePath = path;
-                            } else {
-                                path.lineTo(x, y);
+        final long[] times = mHistory != null ? mHistory.mTimes : null;
+        final byte[] levels = mHistory != null ? mHistory.mLevels : null;
+        final int[] allStates = mHistory != null ? mHistory.mStates : null;
+        for (int i = 0; i < N; i++) {
+            final byte level = levels[i];
+            final int states = allStates[i];
+            if (level != BatteryHistory.LEVEL_BREAK) {
+                x = (int)((times[i]*w)/timeChange);
+                y = mLevelTop + levelh - ((level-batLow)*(levelh-1))/batChange;
+
+                if (lastX != x) {
+                    // We have moved by at least a pixel.
+                    if (lastY != y) {
+                        // Don't plot changes within a pixel.
+                        Path path;
+                        byte value = level;
+                        if (value <= BATTERY_CRITICAL) path = mBatCriticalPath;
+                        else if (value <= BATTERY_WARN) path = mBatWarnPath;
+                        else path = mBatGoodPath;
+
+                        if (path != lastLinePath) {
+                            if (lastLinePath != null) {
+                                lastLinePath.lineTo(x, y);
                             }
-
-                            if (curLevelPath == null) {
-                                curLevelPath = mBatLevelPath;
-                                curLevelPath.moveTo(x, y);
-                                startX = x;
-                            } else {
-                                curLevelPath.lineTo(x, y);
-                            }
-                            lastX = x;
-                            lastY = y;
+                            path.moveTo(x, y);
+                            lastLinePath = path;
+                        } else {
+                            path.lineTo(x, y);
                         }
 
-                        final boolean charging =
-                            (rec.states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0;
-                        if (charging != lastCharging) {
-                            if (charging) {
-                                mChargingPath.moveTo(x, h-mChargingOffset);
-                            } else {
-                                mChargingPath.lineTo(x, h-mChargingOffset);
-                            }
-                            lastCharging = charging;
+                        if (curLevelPath == null) {
+                            curLevelPath = mBatLevelPath;
+                            curLevelPath.moveTo(x, y);
+                            startX = x;
+                        } else {
+                            curLevelPath.lineTo(x, y);
                         }
+                        lastX = x;
+                        lastY = y;
+                    }
 
-                        final boolean screenOn =
-                            (rec.states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0;
-                        if (screenOn != lastScreenOn) {
-                            if (screenOn) {
-                                mScreenOnPath.moveTo(x, h-mScreenOnOffset);
-                            } else {
-                                mScreenOnPath.lineTo(x, h-mScreenOnOffset);
-                            }
-                            lastScreenOn = screenOn;
+                    final boolean charging =
+                        (states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0;
+                    if (charging != lastCharging) {
+                        if (charging) {
+                            mChargingPath.moveTo(x, h-mChargingOffset);
+                        } else {
+                            mChargingPath.lineTo(x, h-mChargingOffset);
                         }
+                        lastCharging = charging;
+                    }
 
-                        final boolean gpsOn =
-                            (rec.states&HistoryItem.STATE_GPS_ON_FLAG) != 0;
-                        if (gpsOn != lastGpsOn) {
-                            if (gpsOn) {
-                                mGpsOnPath.moveTo(x, h-mGpsOnOffset);
-                            } else {
-                                mGpsOnPath.lineTo(x, h-mGpsOnOffset);
-                            }
-                            lastGpsOn = gpsOn;
+                    final boolean screenOn =
+                        (states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0;
+                    if (screenOn != lastScreenOn) {
+                        if (screenOn) {
+                            mScreenOnPath.moveTo(x, h-mScreenOnOffset);
+                        } else {
+                            mScreenOnPath.lineTo(x, h-mScreenOnOffset);
                         }
+                        lastScreenOn = screenOn;
+                    }
 
-                        final boolean wifiRunning =
-                            (rec.states&HistoryItem.STATE_WIFI_RUNNING_FLAG) != 0;
-                        if (wifiRunning != lastWifiRunning) {
-                            if (wifiRunning) {
-                                mWifiRunningPath.moveTo(x, h-mWifiRunningOffset);
-                            } else {
-                                mWifiRunningPath.lineTo(x, h-mWifiRunningOffset);
-                            }
-                            lastWifiRunning = wifiRunning;
+                    final boolean gpsOn =
+                        (states&HistoryItem.STATE_GPS_ON_FLAG) != 0;
+                    if (gpsOn != lastGpsOn) {
+                        if (gpsOn) {
+                            mGpsOnPath.moveTo(x, h-mGpsOnOffset);
+                        } else {
+                            mGpsOnPath.lineTo(x, h-mGpsOnOffset);
                         }
+                        lastGpsOn = gpsOn;
+                    }
 
-                        final boolean wakeLock =
-                            (rec.states&HistoryItem.STATE_WAKE_LOCK_FLAG) != 0;
-                        if (wakeLock != lastWakeLock) {
-                            if (wakeLock) {
-                                mWakeLockPath.moveTo(x, h-mWakeLockOffset);
-                            } else {
-                                mWakeLockPath.lineTo(x, h-mWakeLockOffset);
-                            }
-                            lastWakeLock = wakeLock;
+                    final boolean wifiRunning =
+                        (states&HistoryItem.STATE_WIFI_RUNNING_FLAG) != 0;
+                    if (wifiRunning != lastWifiRunning) {
+                        if (wifiRunning) {
+                            mWifiRunningPath.moveTo(x, h-mWifiRunningOffset);
+                        } else {
+                            mWifiRunningPath.lineTo(x, h-mWifiRunningOffset);
                         }
+                        lastWifiRunning = wifiRunning;
+                    }
 
-                        if (mLargeMode && mHavePhoneSignal) {
-                            int bin;
-                            if (((rec.states&HistoryItem.STATE_PHONE_STATE_MASK)
-                                    >> HistoryItem.STATE_PHONE_STATE_SHIFT)
-                                    == ServiceState.STATE_POWER_OFF) {
-                                bin = 0;
-                            } else if ((rec.states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
-                                bin = 1;
-                            } else {
-                                bin = (rec.states&HistoryItem.STATE_SIGNAL_STRENGTH_MASK)
-                                        >> HistoryItem.STATE_SIGNAL_STRENGTH_SHIFT;
-                                bin += 2;
-                            }
-                            mPhoneSignalChart.addTick(x, bin);
+                    final boolean wakeLock =
+                        (states&HistoryItem.STATE_WAKE_LOCK_FLAG) != 0;
+                    if (wakeLock != lastWakeLock) {
+                        if (wakeLock) {
+                            mWakeLockPath.moveTo(x, h-mWakeLockOffset);
+                        } else {
+                            mWakeLockPath.lineTo(x, h-mWakeLockOffset);
                         }
+                        lastWakeLock = wakeLock;
                     }
 
-                } else if (rec.cmd != BatteryStats.HistoryItem.CMD_OVERFLOW) {
-                    if (curLevelPath != null) {
-                        finishPaths(x+1, h, levelh, startX, lastY, curLevelPath, lastX,
-                                lastCharging, lastScreenOn, lastGpsOn, lastWifiRunning,
-                                lastWakeLock, lastLinePath);
-                        lastX = lastY = -1;
-                        curLevelPath = null;
-                        lastLinePath = null;
-                        lastCharging = lastScreenOn = lastGpsOn = lastWakeLock = false;
+                    if (mLargeMode && mHavePhoneSignal) {
+                        int bin;
+                        if (((states&HistoryItem.STATE_PHONE_STATE_MASK)
+                                >> HistoryItem.STATE_PHONE_STATE_SHIFT)
+                                == ServiceState.STATE_POWER_OFF) {
+                            bin = 0;
+                        } else if ((states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
+                            bin = 1;
+                        } else {
+                            bin = (states&HistoryItem.STATE_SIGNAL_STRENGTH_MASK)
+                                    >> HistoryItem.STATE_SIGNAL_STRENGTH_SHIFT;
+                            bin += 2;
+                        }
+                        mPhoneSignalChart.addTick(x, bin);
                     }
                 }
-                
-                i++;
+
+            } else {
+                if (curLevelPath != null) {
+                    finishPaths(x+1, h, levelh, startX, lastY, curLevelPath, lastX,
+                            lastCharging, lastScreenOn, lastGpsOn, lastWifiRunning,
+                            lastWakeLock, lastLinePath);
+                    lastX = lastY = -1;
+                    curLevelPath = null;
+                    lastLinePath = null;
+                    lastCharging = lastScreenOn = lastGpsOn = lastWakeLock = false;
+                }
             }
         }
         
@@ -654,6 +644,11 @@ public class BatteryHistoryChart extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+
+        if (mPathsStale) {
+            mPathsStale = false;
+            buildPaths(getWidth(), getHeight());
+        }
         
         final int width = getWidth();
         final int height = getHeight();
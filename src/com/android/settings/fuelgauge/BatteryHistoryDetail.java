@@ -18,28 +18,21 @@ package com.android.settings.fuelgauge;
 
 import android.app.Fragment;
 import android.os.Bundle;
-import android.os.Parcel;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import com.android.internal.os.BatteryStatsImpl;
 import com.android.settings.R;
 
 public class BatteryHistoryDetail extends Fragment {
-    public static final String EXTRA_STATS = "stats";
+    public static final String EXTRA_HISTORY = "history";
 
-    private BatteryStatsImpl mStats;
+    private BatteryHistory mHistory;
 
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
-        byte[] data = getArguments().getByteArray(EXTRA_STATS);
-        Parcel parcel = Parcel.obtain();
-        parcel.unmarshall(data, 0, data.length);
-        parcel.setDataPosition(0);
-        mStats = com.android.internal.os.BatteryStatsImpl.CREATOR
-                .createFromParcel(parcel);
+        mHistory = getArguments().getParcelable(EXTRA_HISTORY);
     }
     
     @Override
@@ -47,7 +40,7 @@ public class BatteryHistoryDetail extends Fragment {
         View view = inflater.inflate(R.layout.preference_batteryhistory, null);
         BatteryHistoryChart chart = (BatteryHistoryChart)view.findViewById(
                 R.id.battery_history_chart);
-        chart.setStats(mStats);
+        chart.setHistory(mHistory);
         return view;
     }
 }
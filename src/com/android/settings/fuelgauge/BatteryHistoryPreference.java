@@ -18,7 +18,6 @@ package com.android.settings.fuelgauge;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
-import android.os.BatteryStats;
 import android.preference.Preference;
 import android.view.View;
 import android.widget.ImageView;
@@ -33,16 +32,16 @@ import com.android.settings.R;
  */
 public class BatteryHistoryPreference extends Preference {
 
-    private BatteryStats mStats;
+    private BatteryHistory mHistory;
 
-    public BatteryHistoryPreference(Context context, BatteryStats stats) {
+    public BatteryHistoryPreference(Context context, BatteryHistory history) {
         super(context);
         setLayoutResource(R.layout.preference_batteryhistory);
-        mStats = stats;
+        mHistory = history;
     }
 
-    BatteryStats getStats() {
-        return mStats;
+    BatteryHistory getHistory() {
+        return mHistory;
     }
 
     @Override
@@ -51,6 +50,6 @@ public class BatteryHistoryPreference extends Preference {
 
         BatteryHistoryChart chart = (BatteryHistoryChart)view.findViewById(
                 R.id.battery_history_chart);
-        chart.setStats(mStats);
+        chart.setHistory(mHistory);
     }
 }
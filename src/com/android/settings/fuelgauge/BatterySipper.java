@@ -18,22 +18,21 @@ package com.android.settings.fuelgauge;
 import com.android.settings.R;
 import com.android.settings.fuelgauge.PowerUsageDetail.DrainType;
 
+import com.android.settings.net.UidDetail;
+import com.android.settings.net.UidDetailCache;
+
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.BatteryStats.Uid;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.ArrayDeque;
 
 class BatterySipper implements Comparable<BatterySipper> {
     final Context mContext;
-    final HashMap<String,UidToDetail> mUidCache = new HashMap<String,UidToDetail>();
-    final ArrayList<BatterySipper> mRequestQueue;
+    final UidDetailCache mUidCache;
+    final ArrayDeque<BatterySipper> mRequestQueue;
     final Handler mHandler;
     String name;
     Drawable icon;
@@ -54,16 +53,11 @@ class BatterySipper implements Comparable<BatterySipper> {
     double noCoveragePercent;
     String defaultPackageName;
 
-    static class UidToDetail {
-        String name;
-        String packageName;
-        Drawable icon;
-    }
-
-    BatterySipper(Context context, ArrayList<BatterySipper> requestQueue,
+    BatterySipper(Context context, ArrayDeque<BatterySipper> requestQueue,
             Handler handler, String label, DrainType drainType,
             int iconId, Uid uid, double[] values) {
         mContext = context;
+        mUidCache = UidDetailCache.getInstance(context);
         mRequestQueue = requestQueue;
         mHandler = handler;
         this.values = values;
@@ -98,16 +92,12 @@ class BatterySipper implements Comparable<BatterySipper> {
 
     void getQuickNameIconForUid(Uid uidObj) {
         final int uid = uidObj.getUid();
-        final String uidString = Integer.toString(uid);
-        if (mUidCache.containsKey(uidString)) {
-            UidToDetail utd = mUidCache.get(uidString);
-            defaultPackageName = utd.packageName;
-            name = utd.name;
-            icon = utd.icon;
+        final UidDetail detail = mUidCache.getUidDetail(uid, false);
+        if (detail != null && (detail.packageLabel || detail.packageName != null)) {
+            setNameIcon(detail);
             return;
         }
         PackageManager pm = mContext.getPackageManager();
-        final Drawable defaultActivityIcon = pm.getDefaultActivityIcon();
         String[] packages = pm.getPackagesForUid(uid);
         icon = pm.getDefaultActivityIcon();
         if (packages == null) {
@@ -129,72 +119,19 @@ class BatterySipper implements Comparable<BatterySipper> {
     }
 
     /**
-     * Sets name and icon
-     * @param uid Uid of the application
+     * Sets name and icon, loading them through the shared cache if needed.
      */
     void getNameIcon() {
-        PackageManager pm = mContext.getPackageManager();
-        final int uid = uidObj.getUid();
-        final Drawable defaultActivityIcon = pm.getDefaultActivityIcon();
-        String[] packages = pm.getPackagesForUid(uid);
-        if (packages == null) {
-            name = Integer.toString(uid);
-            return;
-        }
-
-        String[] packageLabels = new String[packages.length];
-        System.arraycopy(packages, 0, packageLabels, 0, packages.length);
-
-        int preferredIndex = -1;
-        // Convert package names to user-facing labels where possible
-        for (int i = 0; i < packageLabels.length; i++) {
-            // Check if package matches preferred package
-            if (packageLabels[i].equals(name)) preferredIndex = i;
-            try {
-                ApplicationInfo ai = pm.getApplicationInfo(packageLabels[i], 0);
-                CharSequence label = ai.loadLabel(pm);
-                if (label != null) {
-                    packageLabels[i] = label.toString();
-                }
-                if (ai.icon != 0) {
-                    defaultPackageName = packages[i];
-                    icon = ai.loadIcon(pm);
-                    break;
-                }
-            } catch (NameNotFoundException e) {
-            }
-        }
-        if (icon == null) icon = defaultActivityIcon;
+        setNameIcon(mUidCache.getUidDetail(uidObj.getUid(), true));
+        mHandler.sendMessage(mHandler.obtainMessage(PowerUsageState.MSG_UPDATE_NAME_ICON, this));
+    }
 
-        if (packageLabels.length == 1) {
-            name = packageLabels[0];
-        } else {
-            // Look for an official name for this UID.
-            for (String pkgName : packages) {
-                try {
-                    final PackageInfo pi = pm.getPackageInfo(pkgName, 0);
-                    if (pi.sharedUserLabel != 0) {
-                        final CharSequence nm = pm.getText(pkgName,
-                                pi.sharedUserLabel, pi.applicationInfo);
-                        if (nm != null) {
-                            name = nm.toString();
-                            if (pi.applicationInfo.icon != 0) {
-                                defaultPackageName = pkgName;
-                                icon = pi.applicationInfo.loadIcon(pm);
-                            }
-                            break;
-                        }
-                    }
-                } catch (PackageManager.NameNotFoundException e) {
-                }
-            }
+    private void setNameIcon(UidDetail detail) {
+        // Keep the process name unless a package or shared user named the uid.
+        if (detail.packageLabel) {
+            name = detail.label.toString();
         }
-        final String uidString = Integer.toString(uidObj.getUid());
-        UidToDetail utd = new UidToDetail();
-        utd.name = name;
-        utd.icon = icon;
-        utd.packageName = defaultPackageName;
-        mUidCache.put(uidString, utd);
-        mHandler.sendMessage(mHandler.obtainMessage(PowerUsageSummary.MSG_UPDATE_NAME_ICON, this));
+        defaultPackageName = detail.packageName;
+        icon = detail.icon;
     }
-}
\ No newline at end of file
+}
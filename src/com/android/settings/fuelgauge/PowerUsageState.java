@@ -0,0 +1,599 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.hardware.SensorManager;
+import android.os.BatteryStats;
+import android.os.BatteryStats.Uid;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Parcel;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.telephony.SignalStrength;
+import android.util.Log;
+
+import com.android.internal.app.IBatteryStats;
+import com.android.internal.os.BatteryStatsImpl;
+import com.android.internal.os.PowerProfile;
+import com.android.settings.R;
+import com.android.settings.fuelgauge.PowerUsageDetail.DrainType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads battery stats and computes the power used by each app and
+ * subsystem on a background thread, publishing the results to the UI as
+ * immutable {@link Snapshot}s. The last snapshot is kept, so that a repeat
+ * visit shortly after, or a configuration change, can show it right away,
+ * and so a reload whose battery realtime has not moved (while charging)
+ * can skip the power computation.
+ */
+class PowerUsageState {
+    static final String TAG = "PowerUsageState";
+    static final boolean DEBUG = false;
+
+    /** How long a snapshot is shown again without reloading stats. */
+    static final long SNAPSHOT_REUSE_MILLIS = 30 * 1000;
+
+    static final int MSG_UPDATE_NAME_ICON = 1;
+    static final int MSG_SNAPSHOT = 2;
+
+    static final int MSG_LOAD = 1;
+
+    static Object sGlobalLock = new Object();
+    static PowerUsageState sInstance;
+
+    /**
+     * Result of one stats load. The sippers are not modified once published,
+     * except for their name and icon, which are filled in as they load.
+     */
+    static class Snapshot {
+        final BatteryStatsImpl stats;
+        final BatteryHistory history;
+        final int statsType;
+        /** Battery realtime of the stats when computed, in microseconds. */
+        final long batteryRealtime;
+        /** Elapsed realtime when this snapshot was computed, in milliseconds. */
+        final long computedTime;
+        final boolean powerAvailable;
+        final long statsPeriod;
+        final double maxPower;
+        final double totalPower;
+        /** Sorted by descending power. */
+        final List<BatterySipper> usageList;
+
+        Snapshot(BatteryStatsImpl stats, BatteryHistory history, int statsType,
+                long batteryRealtime, boolean powerAvailable, long statsPeriod, double maxPower,
+                double totalPower, List<BatterySipper> usageList) {
+            this.stats = stats;
+            this.history = history;
+            this.statsType = statsType;
+            this.batteryRealtime = batteryRealtime;
+            this.computedTime = SystemClock.elapsedRealtime();
+            this.powerAvailable = powerAvailable;
+            this.statsPeriod = statsPeriod;
+            this.maxPower = maxPower;
+            this.totalPower = totalPower;
+            this.usageList = usageList;
+        }
+    }
+
+    interface Callback {
+        /** Called on the main thread with each new or reused snapshot. */
+        void onSnapshot(Snapshot snapshot);
+
+        /** Called on the main thread once a sipper has its real name and icon. */
+        void onSipperChanged(BatterySipper sipper);
+    }
+
+    final Context mContext;
+    final PowerProfile mPowerProfile;
+    final IBatteryStats mBatteryInfo;
+
+    final HandlerThread mBackgroundThread;
+    final BackgroundHandler mBackgroundHandler;
+
+    final Handler mMainHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_UPDATE_NAME_ICON: {
+                    if (mCallback != null) {
+                        mCallback.onSipperChanged((BatterySipper) msg.obj);
+                    }
+                } break;
+                case MSG_SNAPSHOT: {
+                    if (mCallback != null) {
+                        mCallback.onSnapshot((Snapshot) msg.obj);
+                    }
+                } break;
+            }
+        }
+    };
+
+    // Only touched on the main thread.
+    Callback mCallback;
+
+    /** Last published snapshot; protected by synchronizing on 'this'. */
+    Snapshot mSnapshot;
+
+    /** Queue for fetching name and icon for an application */
+    final ArrayDeque<BatterySipper> mRequestQueue = new ArrayDeque<BatterySipper>();
+    // The following are protected by synchronizing on mRequestQueue.
+    Thread mRequestThread;
+    boolean mAbort;
+
+    // The following are only used on the background thread, while computing
+    // a snapshot.
+    private BatteryStatsImpl mStats;
+    private int mStatsType;
+    private final List<BatterySipper> mUsageList = new ArrayList<BatterySipper>();
+    private final List<BatterySipper> mWifiSippers = new ArrayList<BatterySipper>();
+    private final List<BatterySipper> mBluetoothSippers = new ArrayList<BatterySipper>();
+    private long mStatsPeriod = 0;
+    private double mMaxPower = 1;
+    private double mTotalPower;
+    private double mWifiPower;
+    private double mBluetoothPower;
+
+    // How much the apps together have left WIFI running.
+    private long mAppWifiRunning;
+
+    final class BackgroundHandler extends Handler {
+        public BackgroundHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_LOAD: {
+                    final Snapshot snapshot = loadSnapshot(msg.arg1, (Long) msg.obj);
+                    if (snapshot != null) {
+                        mMainHandler.sendMessage(mMainHandler.obtainMessage(
+                                MSG_SNAPSHOT, snapshot));
+                        startNameIconLoading();
+                    }
+                } break;
+            }
+        }
+    }
+
+    static PowerUsageState getInstance(Context context) {
+        synchronized (sGlobalLock) {
+            if (sInstance == null) {
+                sInstance = new PowerUsageState(context);
+            }
+            return sInstance;
+        }
+    }
+
+    private PowerUsageState(Context context) {
+        mContext = context.getApplicationContext();
+        mPowerProfile = new PowerProfile(mContext);
+        mBatteryInfo = IBatteryStats.Stub.asInterface(
+                ServiceManager.getService("batteryinfo"));
+        mBackgroundThread = new HandlerThread("PowerUsageState:Background",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mBackgroundThread.start();
+        mBackgroundHandler = new BackgroundHandler(mBackgroundThread.getLooper());
+    }
+
+    /**
+     * Start delivering snapshots to the given callback; called from the
+     * main thread.
+     */
+    void resume(Callback callback) {
+        mCallback = callback;
+        synchronized (mRequestQueue) {
+            mAbort = false;
+        }
+        startNameIconLoading();
+    }
+
+    void pause() {
+        mCallback = null;
+        synchronized (mRequestQueue) {
+            mAbort = true;
+        }
+        mMainHandler.removeMessages(MSG_UPDATE_NAME_ICON);
+        mMainHandler.removeMessages(MSG_SNAPSHOT);
+    }
+
+    synchronized Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Ask for a snapshot of the given stats type, reusing the last one if it
+     * is no older than maxAge milliseconds. The result is delivered to the
+     * current callback.
+     */
+    void requestSnapshot(int statsType, long maxAge) {
+        mBackgroundHandler.removeMessages(MSG_LOAD);
+        mBackgroundHandler.sendMessage(mBackgroundHandler.obtainMessage(
+                MSG_LOAD, statsType, 0, maxAge));
+    }
+
+    private Snapshot loadSnapshot(int statsType, long maxAge) {
+        Snapshot last = getSnapshot();
+        if (last != null && last.statsType == statsType
+                && SystemClock.elapsedRealtime() - last.computedTime <= maxAge) {
+            if (DEBUG) Log.i(TAG, "Reusing snapshot from " + last.computedTime);
+            return last;
+        }
+
+        final BatteryStatsImpl stats = load();
+        if (stats == null) {
+            return null;
+        }
+        final long batteryRealtime = stats.computeBatteryRealtime(
+                SystemClock.elapsedRealtime() * 1000, BatteryStats.STATS_SINCE_CHARGED);
+
+        Snapshot snapshot;
+        if (last != null && last.statsType == statsType
+                && last.batteryRealtime == batteryRealtime) {
+            // Nothing has been drawn from the battery since; keep the sippers.
+            if (DEBUG) Log.i(TAG, "Battery realtime unchanged, reusing sippers");
+            snapshot = new Snapshot(stats, BatteryHistory.decode(stats), statsType,
+                    batteryRealtime, last.powerAvailable, last.statsPeriod, last.maxPower,
+                    last.totalPower, last.usageList);
+        } else {
+            snapshot = compute(stats, statsType, batteryRealtime);
+        }
+        synchronized (this) {
+            mSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    private Snapshot compute(BatteryStatsImpl stats, int statsType, long batteryRealtime) {
+        final long start = DEBUG ? SystemClock.uptimeMillis() : 0;
+        final BatteryHistory history = BatteryHistory.decode(stats);
+
+        mStats = stats;
+        mStatsType = statsType;
+        mMaxPower = 0;
+        mTotalPower = 0;
+        mWifiPower = 0;
+        mBluetoothPower = 0;
+        mAppWifiRunning = 0;
+        mUsageList.clear();
+        mWifiSippers.clear();
+        mBluetoothSippers.clear();
+
+        final boolean powerAvailable =
+                mPowerProfile.getAveragePower(PowerProfile.POWER_SCREEN_FULL) >= 10;
+        if (powerAvailable) {
+            processAppUsage();
+            processMiscUsage();
+            Collections.sort(mUsageList);
+            for (BatterySipper sipper : mUsageList) {
+                sipper.percent = (sipper.getSortValue() / mTotalPower) * 100;
+            }
+        }
+
+        final Snapshot snapshot = new Snapshot(stats, history, statsType, batteryRealtime,
+                powerAvailable, mStatsPeriod, mMaxPower, mTotalPower,
+                Collections.unmodifiableList(new ArrayList<BatterySipper>(mUsageList)));
+        mStats = null;
+        mUsageList.clear();
+        mWifiSippers.clear();
+        mBluetoothSippers.clear();
+        if (DEBUG) Log.i(TAG, "Computed snapshot in " + (SystemClock.uptimeMillis() - start)
+                + "ms");
+        return snapshot;
+    }
+
+    private void startNameIconLoading() {
+        synchronized (mRequestQueue) {
+            if (!mRequestQueue.isEmpty() && !mAbort && mRequestThread == null) {
+                mRequestThread = new Thread("BatteryUsage Icon Loader") {
+                    @Override
+                    public void run() {
+                        loadNameIcons();
+                    }
+                };
+                mRequestThread.setPriority(Thread.MIN_PRIORITY);
+                mRequestThread.start();
+            }
+        }
+    }
+
+    private void loadNameIcons() {
+        while (true) {
+            BatterySipper bs;
+            synchronized (mRequestQueue) {
+                if (mRequestQueue.isEmpty() || mAbort) {
+                    mRequestThread = null;
+                    return;
+                }
+                bs = mRequestQueue.poll();
+            }
+            bs.getNameIcon();
+        }
+    }
+
+    private void processAppUsage() {
+        SensorManager sensorManager = (SensorManager)mContext.getSystemService(
+                Context.SENSOR_SERVICE);
+        final int which = mStatsType;
+        final UidPowerModel.Params params = UidPowerModel.Params.create(mPowerProfile,
+                getAverageDataCost());
+        long uSecTime = mStats.computeBatteryRealtime(SystemClock.elapsedRealtime() * 1000, which);
+        long appWakelockTime = 0;
+        BatterySipper osApp = null;
+        mStatsPeriod = uSecTime;
+
+        // Copy out of the stats here, then run the model on every core.
+        final UidPowerModel.UidStats[] uids = UidPowerModel.flatten(mStats, which, uSecTime,
+                params.speedSteps, sensorManager);
+        final UidPowerModel.Result[] results = UidPowerModel.computeAll(uids, params);
+
+        for (int iu = 0; iu < uids.length; iu++) {
+            final Uid u = uids[iu].uidObj;
+            final UidPowerModel.Result r = results[iu];
+            final double power = r.power;
+            appWakelockTime += r.wakelockTime;
+            mAppWifiRunning += r.wifiRunningTimeMs;
+
+            if (DEBUG) Log.i(TAG, "UID " + u.getUid() + ": power=" + power);
+
+            // Add the app to the list if it is consuming power
+            if (power != 0 || u.getUid() == 0) {
+                BatterySipper app = new BatterySipper(mContext, mRequestQueue, mMainHandler,
+                        r.packageWithHighestDrain, DrainType.APP, 0, u,
+                        new double[] {power});
+                app.cpuTime = r.cpuTime;
+                app.gpsTime = r.gpsTime;
+                app.wifiRunningTime = r.wifiRunningTimeMs;
+                app.cpuFgTime = r.cpuFgTime;
+                app.wakeLockTime = r.wakelockTime;
+                app.tcpBytesReceived = uids[iu].tcpBytesReceived;
+                app.tcpBytesSent = uids[iu].tcpBytesSent;
+                if (u.getUid() == Process.WIFI_UID) {
+                    mWifiSippers.add(app);
+                } else if (u.getUid() == Process.BLUETOOTH_GID) {
+                    mBluetoothSippers.add(app);
+                } else {
+                    mUsageList.add(app);
+                }
+                if (u.getUid() == 0) {
+                    osApp = app;
+                }
+            }
+            if (u.getUid() == Process.WIFI_UID) {
+                mWifiPower += power;
+            } else if (u.getUid() == Process.BLUETOOTH_GID) {
+                mBluetoothPower += power;
+            } else {
+                if (power > mMaxPower) mMaxPower = power;
+                mTotalPower += power;
+            }
+            if (DEBUG) Log.i(TAG, "Added power = " + power);
+        }
+
+        // The device has probably been awake for longer than the screen on
+        // time and application wake lock time would account for.  Assign
+        // this remainder to the OS, if possible.
+        if (osApp != null) {
+            long wakeTimeMillis = mStats.computeBatteryUptime(
+                    SystemClock.uptimeMillis() * 1000, which) / 1000;
+            wakeTimeMillis -= appWakelockTime + (mStats.getScreenOnTime(
+                    SystemClock.elapsedRealtime(), which) / 1000);
+            if (wakeTimeMillis > 0) {
+                double power = (wakeTimeMillis
+                        * mPowerProfile.getAveragePower(PowerProfile.POWER_CPU_AWAKE)) / 1000;
+                if (DEBUG) Log.i(TAG, "OS wakeLockTime " + wakeTimeMillis + " power " + power);
+                osApp.wakeLockTime += wakeTimeMillis;
+                osApp.value += power;
+                osApp.values[0] += power;
+                if (osApp.value > mMaxPower) mMaxPower = osApp.value;
+                mTotalPower += power;
+            }
+        }
+    }
+
+    private void addPhoneUsage(long uSecNow) {
+        long phoneOnTimeMs = mStats.getPhoneOnTime(uSecNow, mStatsType) / 1000;
+        double phoneOnPower = mPowerProfile.getAveragePower(PowerProfile.POWER_RADIO_ACTIVE)
+                * phoneOnTimeMs / 1000;
+        addEntry(mContext.getString(R.string.power_phone), DrainType.PHONE, phoneOnTimeMs,
+                R.drawable.ic_settings_voice_calls, phoneOnPower);
+    }
+
+    private void addScreenUsage(long uSecNow) {
+        double power = 0;
+        long screenOnTimeMs = mStats.getScreenOnTime(uSecNow, mStatsType) / 1000;
+        power += screenOnTimeMs * mPowerProfile.getAveragePower(PowerProfile.POWER_SCREEN_ON);
+        final double screenFullPower =
+                mPowerProfile.getAveragePower(PowerProfile.POWER_SCREEN_FULL);
+        for (int i = 0; i < BatteryStats.NUM_SCREEN_BRIGHTNESS_BINS; i++) {
+            double screenBinPower = screenFullPower * (i + 0.5f)
+                    / BatteryStats.NUM_SCREEN_BRIGHTNESS_BINS;
+            long brightnessTime = mStats.getScreenBrightnessTime(i, uSecNow, mStatsType) / 1000;
+            power += screenBinPower * brightnessTime;
+            if (DEBUG) {
+                Log.i(TAG, "Screen bin power = " + (int) screenBinPower + ", time = "
+                        + brightnessTime);
+            }
+        }
+        power /= 1000; // To seconds
+        addEntry(mContext.getString(R.string.power_screen), DrainType.SCREEN, screenOnTimeMs,
+                R.drawable.ic_settings_display, power);
+    }
+
+    private void addRadioUsage(long uSecNow) {
+        double power = 0;
+        final int BINS = SignalStrength.NUM_SIGNAL_STRENGTH_BINS;
+        long signalTimeMs = 0;
+        for (int i = 0; i < BINS; i++) {
+            long strengthTimeMs = mStats.getPhoneSignalStrengthTime(i, uSecNow, mStatsType) / 1000;
+            power += strengthTimeMs / 1000
+                    * mPowerProfile.getAveragePower(PowerProfile.POWER_RADIO_ON, i);
+            signalTimeMs += strengthTimeMs;
+        }
+        long scanningTimeMs = mStats.getPhoneSignalScanningTime(uSecNow, mStatsType) / 1000;
+        power += scanningTimeMs / 1000 * mPowerProfile.getAveragePower(
+                PowerProfile.POWER_RADIO_SCANNING);
+        BatterySipper bs =
+                addEntry(mContext.getString(R.string.power_cell), DrainType.CELL,
+                        signalTimeMs, R.drawable.ic_settings_cell_standby, power);
+        if (signalTimeMs != 0) {
+            bs.noCoveragePercent = mStats.getPhoneSignalStrengthTime(0, uSecNow, mStatsType)
+                    / 1000 * 100.0 / signalTimeMs;
+        }
+    }
+
+    private void aggregateSippers(BatterySipper bs, List<BatterySipper> from, String tag) {
+        for (int i=0; i<from.size(); i++) {
+            BatterySipper wbs = from.get(i);
+            if (DEBUG) Log.i(TAG, tag + " adding sipper " + wbs + ": cpu=" + wbs.cpuTime);
+            bs.cpuTime += wbs.cpuTime;
+            bs.gpsTime += wbs.gpsTime;
+            bs.wifiRunningTime += wbs.wifiRunningTime;
+            bs.cpuFgTime += wbs.cpuFgTime;
+            bs.wakeLockTime += wbs.wakeLockTime;
+            bs.tcpBytesReceived += wbs.tcpBytesReceived;
+            bs.tcpBytesSent += wbs.tcpBytesSent;
+        }
+    }
+
+    private void addWiFiUsage(long uSecNow) {
+        long onTimeMs = mStats.getWifiOnTime(uSecNow, mStatsType) / 1000;
+        long runningTimeMs = mStats.getGlobalWifiRunningTime(uSecNow, mStatsType) / 1000;
+        if (DEBUG) Log.i(TAG, "WIFI runningTime=" + runningTimeMs
+                + " app runningTime=" + mAppWifiRunning);
+        runningTimeMs -= mAppWifiRunning;
+        if (runningTimeMs < 0) runningTimeMs = 0;
+        double wifiPower = (onTimeMs * 0 /* TODO */
+                * mPowerProfile.getAveragePower(PowerProfile.POWER_WIFI_ON)
+            + runningTimeMs * mPowerProfile.getAveragePower(PowerProfile.POWER_WIFI_ON)) / 1000;
+        if (DEBUG) Log.i(TAG, "WIFI power=" + wifiPower + " from procs=" + mWifiPower);
+        BatterySipper bs = addEntry(mContext.getString(R.string.power_wifi), DrainType.WIFI,
+                runningTimeMs, R.drawable.ic_settings_wifi, wifiPower + mWifiPower);
+        aggregateSippers(bs, mWifiSippers, "WIFI");
+    }
+
+    private void addIdleUsage(long uSecNow) {
+        long idleTimeMs = (uSecNow - mStats.getScreenOnTime(uSecNow, mStatsType)) / 1000;
+        double idlePower = (idleTimeMs * mPowerProfile.getAveragePower(PowerProfile.POWER_CPU_IDLE))
+                / 1000;
+        addEntry(mContext.getString(R.string.power_idle), DrainType.IDLE, idleTimeMs,
+                R.drawable.ic_settings_phone_idle, idlePower);
+    }
+
+    private void addBluetoothUsage(long uSecNow) {
+        long btOnTimeMs = mStats.getBluetoothOnTime(uSecNow, mStatsType) / 1000;
+        double btPower = btOnTimeMs * mPowerProfile.getAveragePower(PowerProfile.POWER_BLUETOOTH_ON)
+                / 1000;
+        int btPingCount = mStats.getBluetoothPingCount();
+        btPower += (btPingCount
+                * mPowerProfile.getAveragePower(PowerProfile.POWER_BLUETOOTH_AT_CMD)) / 1000;
+        BatterySipper bs = addEntry(mContext.getString(R.string.power_bluetooth),
+                DrainType.BLUETOOTH, btOnTimeMs, R.drawable.ic_settings_bluetooth,
+                btPower + mBluetoothPower);
+        aggregateSippers(bs, mBluetoothSippers, "Bluetooth");
+    }
+
+    private double getAverageDataCost() {
+        final long WIFI_BPS = 1000000; // TODO: Extract average bit rates from system 
+        final long MOBILE_BPS = 200000; // TODO: Extract average bit rates from system
+        final double WIFI_POWER = mPowerProfile.getAveragePower(PowerProfile.POWER_WIFI_ACTIVE)
+                / 3600;
+        final double MOBILE_POWER = mPowerProfile.getAveragePower(PowerProfile.POWER_RADIO_ACTIVE)
+                / 3600;
+        final long mobileData = mStats.getMobileTcpBytesReceived(mStatsType) +
+                mStats.getMobileTcpBytesSent(mStatsType);
+        final long wifiData = mStats.getTotalTcpBytesReceived(mStatsType) +
+                mStats.getTotalTcpBytesSent(mStatsType) - mobileData;
+        final long radioDataUptimeMs = mStats.getRadioDataUptime() / 1000;
+        final long mobileBps = radioDataUptimeMs != 0
+                ? mobileData * 8 * 1000 / radioDataUptimeMs
+                : MOBILE_BPS;
+
+        double mobileCostPerByte = MOBILE_POWER / (mobileBps / 8);
+        double wifiCostPerByte = WIFI_POWER / (WIFI_BPS / 8);
+        if (wifiData + mobileData != 0) {
+            return (mobileCostPerByte * mobileData + wifiCostPerByte * wifiData)
+                    / (mobileData + wifiData);
+        } else {
+            return 0;
+        }
+    }
+
+    private void processMiscUsage() {
+        final int which = mStatsType;
+        long uSecTime = SystemClock.elapsedRealtime() * 1000;
+        final long uSecNow = mStats.computeBatteryRealtime(uSecTime, which);
+        final long timeSinceUnplugged = uSecNow;
+        if (DEBUG) {
+            Log.i(TAG, "Uptime since last unplugged = " + (timeSinceUnplugged / 1000));
+        }
+
+        addPhoneUsage(uSecNow);
+        addScreenUsage(uSecNow);
+        addWiFiUsage(uSecNow);
+        addBluetoothUsage(uSecNow);
+        addIdleUsage(uSecNow); // Not including cellular idle power
+        // Don't compute radio usage if it's a wifi-only device
+        if (!com.android.settings.Utils.isWifiOnly(mContext)) {
+            addRadioUsage(uSecNow);
+        }
+    }
+
+    private BatterySipper addEntry(String label, DrainType drainType, long time, int iconId,
+            double power) {
+        if (power > mMaxPower) mMaxPower = power;
+        mTotalPower += power;
+        BatterySipper bs = new BatterySipper(mContext, mRequestQueue, mMainHandler,
+                label, drainType, iconId, null, new double[] {power});
+        bs.usageTime = time;
+        bs.iconId = iconId;
+        mUsageList.add(bs);
+        return bs;
+    }
+
+    private BatteryStatsImpl load() {
+        try {
+            byte[] data = mBatteryInfo.getStatistics();
+            Parcel parcel = Parcel.obtain();
+            try {
+                parcel.unmarshall(data, 0, data.length);
+                parcel.setDataPosition(0);
+                BatteryStatsImpl stats = com.android.internal.os.BatteryStatsImpl.CREATOR
+                        .createFromParcel(parcel);
+                stats.distributeWorkLocked(BatteryStats.STATS_SINCE_CHARGED);
+                return stats;
+            } finally {
+                parcel.recycle();
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "RemoteException:", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.os.BatteryStats;
+import android.os.BatteryStats.Uid;
+import android.util.SparseArray;
+
+import com.android.internal.os.PowerProfile;
+import com.android.settings.BackgroundExecutor;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Power model for a single UID, split into a flattening step that copies
+ * what the model needs out of {@link BatteryStats} into primitive arrays,
+ * and a pure computation over the flattened form. BatteryStats is not
+ * thread safe, so flattening happens on one thread; the computation can
+ * then run on several cores at once.
+ */
+class UidPowerModel {
+    private static final int MAX_THREADS = 4;
+
+    /** Below this many UIDs per thread, splitting the work isn't worth it. */
+    private static final int MIN_UIDS_PER_THREAD = 32;
+
+    private static final ThreadPoolExecutor sExecutor = BackgroundExecutor.newPool(
+            "UidPowerModel", MAX_THREADS);
+
+    /** Device constants the model needs, read once from {@link PowerProfile}. */
+    static class Params {
+        final int speedSteps;
+        final double[] powerCpuNormal;
+        final double powerCpuAwake;
+        final double powerWifiOn;
+        final double powerGpsOn;
+        final double averageCostPerByte;
+
+        Params(int speedSteps, double[] powerCpuNormal, double powerCpuAwake,
+                double powerWifiOn, double powerGpsOn, double averageCostPerByte) {
+            this.speedSteps = speedSteps;
+            this.powerCpuNormal = powerCpuNormal;
+            this.powerCpuAwake = powerCpuAwake;
+            this.powerWifiOn = powerWifiOn;
+            this.powerGpsOn = powerGpsOn;
+            this.averageCostPerByte = averageCostPerByte;
+        }
+
+        static Params create(PowerProfile profile, double averageCostPerByte) {
+            final int speedSteps = profile.getNumSpeedSteps();
+            final double[] powerCpuNormal = new double[speedSteps];
+            for (int p = 0; p < speedSteps; p++) {
+                powerCpuNormal[p] = profile.getAveragePower(PowerProfile.POWER_CPU_ACTIVE, p);
+            }
+            return new Params(speedSteps, powerCpuNormal,
+                    profile.getAveragePower(PowerProfile.POWER_CPU_AWAKE),
+                    profile.getAveragePower(PowerProfile.POWER_WIFI_ON),
+                    profile.getAveragePower(PowerProfile.POWER_GPS_ON), averageCostPerByte);
+        }
+    }
+
+    /** What the model reads from one {@link Uid}, in iteration order. */
+    static class UidStats {
+        Uid uidObj;
+        int uid;
+
+        int numProcs;
+        String[] procNames;
+        long[] procUserTime;
+        long[] procSystemTime;
+        long[] procForegroundTime;
+        /** Time at each CPU speed step, numProcs by speedSteps. */
+        long[] procSpeedStepTimes;
+
+        /** Partial wake lock time, in microseconds. */
+        long wakelockTime;
+        long tcpBytesReceived;
+        long tcpBytesSent;
+        /** Wifi running time, in microseconds. */
+        long wifiRunningTime;
+
+        int numSensors;
+        boolean[] sensorIsGps;
+        double[] sensorPower;
+        /** Time each sensor was on, in milliseconds. */
+        long[] sensorTime;
+    }
+
+    /** Output of the model for one UID. */
+    static class Result {
+        double power;
+        String packageWithHighestDrain;
+        long cpuTime;
+        long cpuFgTime;
+        long wakelockTime;
+        long gpsTime;
+        long wifiRunningTimeMs;
+    }
+
+    /**
+     * Copy everything the model needs out of each UID of the given stats.
+     * Must be called with the stats not being modified concurrently.
+     */
+    static UidStats[] flatten(BatteryStats stats, int which, long uSecTime, int speedSteps,
+            SensorManager sensorManager) {
+        final SparseArray<? extends Uid> uidStats = stats.getUidStats();
+        final int NU = uidStats.size();
+        final UidStats[] result = new UidStats[NU];
+        final SparseArray<Double> sensorPowers = new SparseArray<Double>();
+        for (int iu = 0; iu < NU; iu++) {
+            final Uid u = uidStats.valueAt(iu);
+            final UidStats us = new UidStats();
+            us.uidObj = u;
+            us.uid = u.getUid();
+
+            final Map<String, ? extends BatteryStats.Uid.Proc> processStats =
+                    u.getProcessStats();
+            us.numProcs = processStats.size();
+            us.procNames = new String[us.numProcs];
+            us.procUserTime = new long[us.numProcs];
+            us.procSystemTime = new long[us.numProcs];
+            us.procForegroundTime = new long[us.numProcs];
+            us.procSpeedStepTimes = new long[us.numProcs * speedSteps];
+            int ip = 0;
+            for (Map.Entry<String, ? extends BatteryStats.Uid.Proc> ent
+                    : processStats.entrySet()) {
+                final Uid.Proc ps = ent.getValue();
+                us.procNames[ip] = ent.getKey();
+                us.procUserTime[ip] = ps.getUserTime(which);
+                us.procSystemTime[ip] = ps.getSystemTime(which);
+                us.procForegroundTime[ip] = ps.getForegroundTime(which);
+                for (int step = 0; step < speedSteps; step++) {
+                    us.procSpeedStepTimes[ip * speedSteps + step] =
+                            ps.getTimeAtCpuSpeedStep(step, which);
+                }
+                ip++;
+            }
+
+            final Map<String, ? extends BatteryStats.Uid.Wakelock> wakelockStats =
+                    u.getWakelockStats();
+            for (Map.Entry<String, ? extends BatteryStats.Uid.Wakelock> wakelockEntry
+                    : wakelockStats.entrySet()) {
+                // Only care about partial wake locks since full wake locks
+                // are canceled when the user turns the screen off.
+                BatteryStats.Timer timer = wakelockEntry.getValue().getWakeTime(
+                        BatteryStats.WAKE_TYPE_PARTIAL);
+                if (timer != null) {
+                    us.wakelockTime += timer.getTotalTimeLocked(uSecTime, which);
+                }
+            }
+
+            us.tcpBytesReceived = u.getTcpBytesReceived(which);
+            us.tcpBytesSent = u.getTcpBytesSent(which);
+            us.wifiRunningTime = u.getWifiRunningTime(uSecTime, which);
+
+            final Map<Integer, ? extends BatteryStats.Uid.Sensor> sensorStats =
+                    u.getSensorStats();
+            us.numSensors = sensorStats.size();
+            us.sensorIsGps = new boolean[us.numSensors];
+            us.sensorPower = new double[us.numSensors];
+            us.sensorTime = new long[us.numSensors];
+            int is = 0;
+            for (Map.Entry<Integer, ? extends BatteryStats.Uid.Sensor> sensorEntry
+                    : sensorStats.entrySet()) {
+                final Uid.Sensor sensor = sensorEntry.getValue();
+                final int sensorType = sensor.getHandle();
+                us.sensorTime[is] = sensor.getSensorTime().getTotalTimeLocked(uSecTime, which)
+                        / 1000;
+                if (sensorType == Uid.Sensor.GPS) {
+                    us.sensorIsGps[is] = true;
+                } else {
+                    Double power = sensorPowers.get(sensorType);
+                    if (power == null) {
+                        final Sensor sensorData = sensorManager.getDefaultSensor(sensorType);
+                        power = sensorData != null ? (double) sensorData.getPower() : 0;
+                        sensorPowers.put(sensorType, power);
+                    }
+                    us.sensorPower[is] = power;
+                }
+                is++;
+            }
+            result[iu] = us;
+        }
+        return result;
+    }
+
+    /**
+     * Compute the power used by one UID. Only reads its arguments.
+     */
+    static Result compute(UidStats us, Params params) {
+        final Result r = new Result();
+        final int speedSteps = params.speedSteps;
+        double power = 0;
+        double highestDrain = 0;
+        String packageWithHighestDrain = null;
+        long cpuTime = 0;
+        long cpuFgTime = 0;
+
+        // Process CPU time
+        for (int ip = 0; ip < us.numProcs; ip++) {
+            final String procName = us.procNames[ip];
+            cpuFgTime += us.procForegroundTime[ip] * 10; // convert to millis
+            final long tmpCpuTime = (us.procUserTime[ip] + us.procSystemTime[ip]) * 10;
+            int totalTimeAtSpeeds = 0;
+            // Get the total first
+            final int base = ip * speedSteps;
+            for (int step = 0; step < speedSteps; step++) {
+                totalTimeAtSpeeds += us.procSpeedStepTimes[base + step];
+            }
+            if (totalTimeAtSpeeds == 0) totalTimeAtSpeeds = 1;
+            // Then compute the ratio of time spent at each speed
+            double processPower = 0;
+            for (int step = 0; step < speedSteps; step++) {
+                double ratio = (double) us.procSpeedStepTimes[base + step] / totalTimeAtSpeeds;
+                processPower += ratio * tmpCpuTime * params.powerCpuNormal[step];
+            }
+            cpuTime += tmpCpuTime;
+            power += processPower;
+            if (packageWithHighestDrain == null
+                    || packageWithHighestDrain.startsWith("*")) {
+                highestDrain = processPower;
+                packageWithHighestDrain = procName;
+            } else if (highestDrain < processPower
+                    && !procName.startsWith("*")) {
+                highestDrain = processPower;
+                packageWithHighestDrain = procName;
+            }
+        }
+        if (cpuFgTime > cpuTime) {
+            cpuTime = cpuFgTime; // Statistics may not have been gathered yet.
+        }
+        power /= 1000;
+
+        // Add cost of holding a wake lock
+        final long wakelockTime = us.wakelockTime / 1000; // convert to millis
+        power += (wakelockTime * params.powerCpuAwake) / 1000;
+
+        // Add cost of data traffic
+        power += (us.tcpBytesReceived + us.tcpBytesSent) * params.averageCostPerByte;
+
+        // Add cost of keeping WIFI running.
+        final long wifiRunningTimeMs = us.wifiRunningTime / 1000;
+        power += (wifiRunningTimeMs * params.powerWifiOn) / 1000;
+
+        // Process Sensor usage
+        long gpsTime = 0;
+        for (int is = 0; is < us.numSensors; is++) {
+            final long sensorTime = us.sensorTime[is];
+            double multiplier;
+            if (us.sensorIsGps[is]) {
+                multiplier = params.powerGpsOn;
+                gpsTime = sensorTime;
+            } else {
+                multiplier = us.sensorPower[is];
+            }
+            power += (multiplier * sensorTime) / 1000;
+        }
+
+        r.power = power;
+        r.packageWithHighestDrain = packageWithHighestDrain;
+        r.cpuTime = cpuTime;
+        r.cpuFgTime = cpuFgTime;
+        r.wakelockTime = wakelockTime;
+        r.gpsTime = gpsTime;
+        r.wifiRunningTimeMs = wifiRunningTimeMs;
+        return r;
+    }
+
+    /**
+     * Compute the power used by each of the given UIDs, spreading the work
+     * over the available cores. Results are in the same order as the input.
+     */
+    static Result[] computeAll(final UidStats[] uids, final Params params) {
+        final Result[] results = new Result[uids.length];
+        final int numThreads = Math.max(1, Math.min(sExecutor.getMaximumPoolSize(),
+                uids.length / MIN_UIDS_PER_THREAD));
+        final int chunk = (uids.length + numThreads - 1) / Math.max(1, numThreads);
+
+        final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        // The calling thread takes the first chunk itself.
+        for (int t = 1; t < numThreads; t++) {
+            final int start = t * chunk;
+            final int end = Math.min(start + chunk, uids.length);
+            futures.add(sExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = start; i < end; i++) {
+                        results[i] = compute(uids[i], params);
+                    }
+                }
+            }));
+        }
+        final int end = Math.min(chunk, uids.length);
+        for (int i = 0; i < end; i++) {
+            results[i] = compute(uids[i], params);
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+}
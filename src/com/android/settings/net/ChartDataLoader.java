@@ -30,20 +30,65 @@ import android.net.NetworkStatsHistory;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.android.settings.BackgroundExecutor;
 import com.android.settings.DataUsageSummary.AppItem;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
 /**
  * Loader for historical chart data for both network and UID details.
  */
 public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
+    private static final String TAG = "ChartDataLoader";
+    private static final boolean LOGD = false;
+
     private static final String KEY_TEMPLATE = "template";
     private static final String KEY_APP = "app";
     private static final String KEY_FIELDS = "fields";
 
+    /** Max number of per-UID history queries in flight at once. */
+    private static final int MAX_THREADS = 4;
+
+    private static final ThreadPoolExecutor sExecutor = BackgroundExecutor.newPool(
+            "ChartDataLoader", MAX_THREADS);
+
+    /**
+     * State of a single {@link #loadInBackground()} pass, so that
+     * {@link #cancelLoad()} can abandon its outstanding queries.
+     */
+    private static class LoadState {
+        final ArrayList<Future<NetworkStatsHistory>> pending = new ArrayList<
+                Future<NetworkStatsHistory>>();
+        volatile boolean canceled;
+
+        synchronized void add(Future<NetworkStatsHistory> future) {
+            if (canceled) {
+                future.cancel(false);
+            }
+            pending.add(future);
+        }
+
+        synchronized void cancel() {
+            canceled = true;
+            for (Future<NetworkStatsHistory> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
     private final INetworkStatsSession mSession;
     private final Bundle mArgs;
 
+    private volatile LoadState mState;
+
     public static Bundle buildArgs(NetworkTemplate template, AppItem app) {
         return buildArgs(template, app, FIELD_RX_BYTES | FIELD_TX_BYTES);
     }
@@ -85,18 +130,30 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
 
     private ChartData loadInBackground(NetworkTemplate template, AppItem app, int fields)
             throws RemoteException {
+        final long startTime = SystemClock.elapsedRealtime();
+        final LoadState state = new LoadState();
+        mState = state;
+
         final ChartData data = new ChartData();
         data.network = mSession.getHistoryForNetwork(template, fields);
 
         if (app != null) {
             // load stats for current uid and template
             final int size = app.uids.size();
-            for (int i = 0; i < size; i++) {
-                final int uid = app.uids.keyAt(i);
-                data.detailDefault = collectHistoryForUid(
-                        template, uid, SET_DEFAULT, data.detailDefault);
-                data.detailForeground = collectHistoryForUid(
-                        template, uid, SET_FOREGROUND, data.detailForeground);
+            if (size > 1) {
+                if (!collectHistoryForUids(template, app, data, state)) {
+                    if (LOGD) Log.d(TAG, "canceled after "
+                            + (SystemClock.elapsedRealtime() - startTime) + "ms");
+                    return null;
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    final int uid = app.uids.keyAt(i);
+                    data.detailDefault = collectHistoryForUid(
+                            template, uid, SET_DEFAULT, data.detailDefault);
+                    data.detailForeground = collectHistoryForUid(
+                            template, uid, SET_FOREGROUND, data.detailForeground);
+                }
             }
 
             if (size > 0) {
@@ -108,11 +165,79 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
                 data.detailForeground = new NetworkStatsHistory(HOUR_IN_MILLIS);
                 data.detail = new NetworkStatsHistory(HOUR_IN_MILLIS);
             }
+
+            if (LOGD) Log.d(TAG, "loaded " + size + " uids in "
+                    + (SystemClock.elapsedRealtime() - startTime) + "ms");
         }
 
         return data;
     }
 
+    @Override
+    public boolean cancelLoad() {
+        final LoadState state = mState;
+        if (state != null) {
+            state.cancel();
+        }
+        return super.cancelLoad();
+    }
+
+    /**
+     * Collect {@link NetworkStatsHistory} for all UIDs of the given
+     * {@link AppItem}, querying them in parallel on {@link #sExecutor} and
+     * merging into histories sized after the network history. Returns
+     * {@code false} if canceled part-way through.
+     */
+    private boolean collectHistoryForUids(final NetworkTemplate template, AppItem app,
+            ChartData data, LoadState state) throws RemoteException {
+        final int size = app.uids.size();
+        for (int i = 0; i < size; i++) {
+            final int uid = app.uids.keyAt(i);
+            for (final int set : new int[] { SET_DEFAULT, SET_FOREGROUND }) {
+                state.add(sExecutor.submit(new Callable<NetworkStatsHistory>() {
+                    @Override
+                    public NetworkStatsHistory call() throws RemoteException {
+                        return mSession.getHistoryForUid(
+                                template, uid, set, TAG_NONE, FIELD_RX_BYTES | FIELD_TX_BYTES);
+                    }
+                }));
+            }
+        }
+
+        final long bucketDuration = data.network != null
+                ? data.network.getBucketDuration() : HOUR_IN_MILLIS;
+        final int bucketCount = data.network != null ? data.network.size() : 10;
+        final NetworkStatsHistory detailDefault = new NetworkStatsHistory(
+                bucketDuration, bucketCount, FIELD_RX_BYTES | FIELD_TX_BYTES);
+        final NetworkStatsHistory detailForeground = new NetworkStatsHistory(
+                bucketDuration, bucketCount, FIELD_RX_BYTES | FIELD_TX_BYTES);
+
+        // futures alternate default and foreground, in submission order
+        for (int i = 0; i < size * 2; i++) {
+            if (state.canceled) return false;
+            final NetworkStatsHistory history;
+            try {
+                history = state.pending.get(i).get();
+            } catch (CancellationException e) {
+                return false;
+            } catch (InterruptedException e) {
+                state.cancel();
+                return false;
+            } catch (ExecutionException e) {
+                state.cancel();
+                if (e.getCause() instanceof RemoteException) {
+                    throw (RemoteException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+            ((i % 2 == 0) ? detailDefault : detailForeground).recordEntireHistory(history);
+        }
+
+        data.detailDefault = detailDefault;
+        data.detailForeground = detailForeground;
+        return true;
+    }
+
     @Override
     protected void onStopLoading() {
         super.onStopLoading();
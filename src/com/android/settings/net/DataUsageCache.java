@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.AsyncTask;
+import android.os.RemoteException;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.settings.DataUsageSummary;
+import com.android.settings.DataUsageSummary.AppItem;
+
+import java.util.ArrayList;
+
+import libcore.util.Objects;
+
+/**
+ * Cache of aggregated {@link AppItem} lists for each {@link NetworkTemplate}
+ * and inspection range, and of network {@link ChartData} for each template,
+ * so flipping between cycles and tabs doesn't go back to
+ * {@link INetworkStatsSession}. Entries are evicted in LRU order once their
+ * estimated size exceeds a memory budget, and everything is dropped when new
+ * stats arrive.
+ */
+public class DataUsageCache {
+    private static final String TAG = "DataUsageCache";
+    private static final boolean LOGD = false;
+
+    private static final int MEMORY_BUDGET = 512 * 1024;
+
+    private static class Key {
+        final NetworkTemplate template;
+        final long start;
+        final long end;
+
+        Key(NetworkTemplate template, long start, long end) {
+            this.template = template;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                final Key another = (Key) o;
+                return start == another.start && end == another.end
+                        && Objects.equal(template, another.template);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = template != null ? template.hashCode() : 0;
+            result = 31 * result + (int) (start ^ (start >>> 32));
+            result = 31 * result + (int) (end ^ (end >>> 32));
+            return result;
+        }
+    }
+
+    /** Values are either {@code ArrayList<AppItem>} or {@link ChartData}. */
+    private final LruCache<Key, Object> mCache = new LruCache<Key, Object>(MEMORY_BUDGET) {
+        @Override
+        protected int sizeOf(Key key, Object value) {
+            if (value instanceof ChartData) {
+                return sizeOf(((ChartData) value).network);
+            }
+            int size = 0;
+            for (AppItem item : (ArrayList<AppItem>) value) {
+                size += 32 + item.uids.size() * 8;
+            }
+            return size;
+        }
+
+        private int sizeOf(NetworkStatsHistory history) {
+            // bucket start and rx/tx bytes for every bucket
+            return history != null ? history.size() * 24 : 0;
+        }
+    };
+
+    /** Bumped on every invalidation, so in-flight loads can be dropped. */
+    private int mGeneration;
+
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Drop everything; called when new stats may have arrived.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    public ArrayList<AppItem> getSummary(NetworkTemplate template, long start, long end) {
+        return (ArrayList<AppItem>) mCache.get(new Key(template, start, end));
+    }
+
+    /**
+     * Remember the given summary, unless the cache was invalidated since
+     * the given generation.
+     */
+    public synchronized void putSummary(int generation, NetworkTemplate template, long start,
+            long end, ArrayList<AppItem> items) {
+        if (generation == mGeneration && items != null) {
+            mCache.put(new Key(template, start, end), items);
+        }
+    }
+
+    public ChartData getChartData(NetworkTemplate template) {
+        return (ChartData) mCache.get(new Key(template, Long.MIN_VALUE, Long.MIN_VALUE));
+    }
+
+    public synchronized void putChartData(int generation, NetworkTemplate template,
+            ChartData data) {
+        if (generation == mGeneration && data != null && data.network != null) {
+            mCache.put(new Key(template, Long.MIN_VALUE, Long.MIN_VALUE), data);
+        }
+    }
+
+    /**
+     * Load and aggregate the summary for the given range in the background,
+     * unless it is already cached.
+     */
+    public void precomputeSummary(final INetworkStatsSession session,
+            final NetworkTemplate template, final long start, final long end) {
+        if (getSummary(template, start, end) != null) return;
+
+        final int generation = getGeneration();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                if (generation != getGeneration()
+                        || getSummary(template, start, end) != null) {
+                    return null;
+                }
+                try {
+                    final NetworkStats stats = session.getSummaryForAllUid(
+                            template, start, end, false);
+                    putSummary(generation, template, start, end,
+                            DataUsageSummary.collectAppItems(stats));
+                    if (LOGD) Log.d(TAG, "precomputed " + template + " [" + start + ", " + end
+                            + "]");
+                } catch (RemoteException e) {
+                    Log.w(TAG, "problem precomputing summary", e);
+                } catch (IllegalStateException e) {
+                    // session was closed while we were queued
+                }
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+}
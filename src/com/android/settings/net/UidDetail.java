@@ -22,4 +22,8 @@ public class UidDetail {
     public CharSequence label;
     public CharSequence[] detailLabels;
     public Drawable icon;
+    /** Package the icon was taken from, if any. */
+    public String packageName;
+    /** Set when the label came from a package or shared user label. */
+    public boolean packageLabel;
 }
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageItemInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.HashSet;
+
+/**
+ * Process-wide cache of the labels and icons that PackageManager reports
+ * for a UID, a package or a package component, shared by the data usage,
+ * battery, running services and usage stats screens so each is loaded once
+ * per process. Entries are evicted in LRU order by the estimated size of
+ * their icon, concurrent lookups of the same key wait for a single load,
+ * and entries are dropped when packages change.
+ */
+public class UidDetailCache {
+    private static final String TAG = "UidDetailCache";
+    private static final boolean LOGD = false;
+
+    private static final int MEMORY_BUDGET = 2 * 1024 * 1024;
+
+    private static final Object sGlobalLock = new Object();
+    private static UidDetailCache sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPm;
+
+    /**
+     * Keys are either {@link Integer} UIDs or {@link String} components, where
+     * a component with an empty class name stands for the package itself.
+     */
+    private final LruCache<Object, UidDetail> mCache = new LruCache<Object, UidDetail>(
+            MEMORY_BUDGET) {
+        @Override
+        protected int sizeOf(Object key, UidDetail value) {
+            return 64 + sizeOf(value.icon);
+        }
+
+        private int sizeOf(Drawable icon) {
+            if (icon instanceof BitmapDrawable) {
+                final Bitmap bitmap = ((BitmapDrawable) icon).getBitmap();
+                if (bitmap != null) {
+                    return bitmap.getRowBytes() * bitmap.getHeight();
+                }
+            }
+            return icon != null
+                    ? Math.max(0, icon.getIntrinsicWidth() * icon.getIntrinsicHeight() * 4) : 0;
+        }
+    };
+
+    // The following are protected by synchronizing on 'this'.
+    private final HashSet<Object> mPending = new HashSet<Object>();
+    /** Bumped on every invalidation, so loads that raced with it are dropped. */
+    private int mGeneration;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+            if (LOGD) Log.d(TAG, "invalidating for " + action);
+            final String packageName = intent.getData() != null
+                    ? intent.getData().getSchemeSpecificPart() : null;
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            if (packageName != null && uid != -1) {
+                invalidate(uid, packageName);
+            } else {
+                clear();
+            }
+        }
+    };
+
+    public static UidDetailCache getInstance(Context context) {
+        synchronized (sGlobalLock) {
+            if (sInstance == null) {
+                sInstance = new UidDetailCache(context);
+            }
+            return sInstance;
+        }
+    }
+
+    private UidDetailCache(Context context) {
+        mContext = context.getApplicationContext();
+        mPm = mContext.getPackageManager();
+
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, packageFilter);
+
+        final IntentFilter globalFilter = new IntentFilter();
+        globalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        globalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        globalFilter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        mContext.registerReceiver(mPackageReceiver, globalFilter);
+    }
+
+    public synchronized void clear() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    private synchronized void invalidate(int uid, String packageName) {
+        mGeneration++;
+        mCache.remove(uid);
+        for (Object key : mCache.snapshot().keySet()) {
+            if (key instanceof String && ((String) key).startsWith(packageName + "/")) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Return the label and icon PackageManager reports for the packages
+     * running as the given UID. When not blocking, returns null unless
+     * already cached. The returned detail and its icon belong to the caller.
+     */
+    public UidDetail getUidDetail(int uid, boolean blocking) {
+        final UidDetail cached = get(uid, null, blocking);
+        if (cached == null) {
+            return null;
+        }
+        final UidDetail detail = new UidDetail();
+        detail.label = cached.label;
+        detail.detailLabels = cached.detailLabels;
+        detail.icon = newDrawable(cached.icon);
+        detail.packageName = cached.packageName;
+        detail.packageLabel = cached.packageLabel;
+        return detail;
+    }
+
+    /**
+     * Return the icon of the given package component, loading it if needed.
+     * The returned drawable shares its bitmap with the cached one, but can be
+     * attached to its own view.
+     */
+    public Drawable getIcon(PackageItemInfo info) {
+        return getIcon(info, true);
+    }
+
+    /**
+     * Return the icon of the given package component like
+     * {@link #getIcon(PackageItemInfo)}. When not blocking, returns null
+     * unless already cached.
+     */
+    public Drawable getIcon(PackageItemInfo info, boolean blocking) {
+        final UidDetail detail = get(info.packageName + "/" + info.name, info, blocking);
+        return detail != null ? newDrawable(detail.icon) : null;
+    }
+
+    /** Return a drawable sharing the bitmap of the given one, for a new view. */
+    private Drawable newDrawable(Drawable icon) {
+        final Drawable.ConstantState state = icon != null ? icon.getConstantState() : null;
+        return state != null ? state.newDrawable(mContext.getResources()) : icon;
+    }
+
+    /**
+     * Return the application label of the given package, or the package
+     * name when it is not installed. When not blocking, returns null unless
+     * already cached.
+     */
+    public CharSequence getPackageLabel(String packageName, boolean blocking) {
+        final UidDetail detail = get(packageName + "/", null, blocking);
+        return detail != null ? detail.label : null;
+    }
+
+    private UidDetail get(Object key, PackageItemInfo info, boolean blocking) {
+        final int generation;
+        synchronized (this) {
+            UidDetail detail = mCache.get(key);
+            if (detail != null || !blocking) {
+                return detail;
+            }
+            // wait for anyone already loading this key
+            while (mPending.contains(key)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                }
+                detail = mCache.get(key);
+                if (detail != null) {
+                    return detail;
+                }
+            }
+            mPending.add(key);
+            generation = mGeneration;
+        }
+
+        UidDetail detail = null;
+        try {
+            if (info != null) {
+                detail = new UidDetail();
+                detail.label = info.packageName;
+                detail.packageName = info.packageName;
+                detail.icon = info.loadIcon(mPm);
+            } else if (key instanceof String) {
+                final String component = (String) key;
+                detail = buildPackageDetail(component.substring(0, component.length() - 1));
+            } else {
+                detail = buildUidDetail((Integer) key);
+            }
+        } finally {
+            synchronized (this) {
+                mPending.remove(key);
+                if (detail != null && generation == mGeneration) {
+                    mCache.put(key, detail);
+                }
+                notifyAll();
+            }
+        }
+        return detail;
+    }
+
+    private UidDetail buildPackageDetail(String packageName) {
+        final UidDetail detail = new UidDetail();
+        detail.label = packageName;
+        try {
+            final ApplicationInfo info = mPm.getApplicationInfo(packageName, 0);
+            detail.label = info.loadLabel(mPm).toString();
+            detail.packageName = packageName;
+            detail.packageLabel = true;
+        } catch (NameNotFoundException e) {
+        }
+        return detail;
+    }
+
+    private UidDetail buildUidDetail(int uid) {
+        final UidDetail detail = new UidDetail();
+        detail.label = mPm.getNameForUid(uid);
+        detail.icon = mPm.getDefaultActivityIcon();
+
+        final String[] packageNames = mPm.getPackagesForUid(uid);
+        final int length = packageNames != null ? packageNames.length : 0;
+
+        try {
+            if (length == 1) {
+                final ApplicationInfo info = mPm.getApplicationInfo(packageNames[0], 0);
+                detail.label = info.loadLabel(mPm).toString();
+                detail.icon = info.loadIcon(mPm);
+                detail.packageName = packageNames[0];
+                detail.packageLabel = true;
+            } else if (length > 1) {
+                detail.detailLabels = new CharSequence[length];
+                ApplicationInfo firstWithIcon = null;
+                for (int i = 0; i < length; i++) {
+                    final String packageName = packageNames[i];
+                    final PackageInfo packageInfo = mPm.getPackageInfo(packageName, 0);
+                    final ApplicationInfo appInfo = mPm.getApplicationInfo(packageName, 0);
+
+                    detail.detailLabels[i] = appInfo.loadLabel(mPm).toString();
+                    if (firstWithIcon == null && appInfo.icon != 0) {
+                        firstWithIcon = appInfo;
+                    }
+                    if (packageInfo.sharedUserLabel != 0) {
+                        detail.label = mPm.getText(packageName, packageInfo.sharedUserLabel,
+                                packageInfo.applicationInfo).toString();
+                        detail.icon = appInfo.loadIcon(mPm);
+                        detail.packageName = packageName;
+                        detail.packageLabel = true;
+                    }
+                }
+                if (!detail.packageLabel && firstWithIcon != null) {
+                    // no shared user label; show the first package with an icon
+                    detail.icon = firstWithIcon.loadIcon(mPm);
+                    detail.packageName = firstWithIcon.packageName;
+                }
+            }
+        } catch (NameNotFoundException e) {
+        }
+
+        if (TextUtils.isEmpty(detail.label)) {
+            detail.label = Integer.toString(uid);
+        }
+
+        return detail;
+    }
+}
@@ -18,15 +18,15 @@
 package com.android.settings.notificationlight;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ComposeShader;
 import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.Point;
-import android.graphics.PorterDuff;
 import android.graphics.RectF;
 import android.graphics.Shader;
+import android.graphics.Bitmap.Config;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
 import android.graphics.Shader.TileMode;
@@ -93,10 +93,21 @@ public class ColorPickerView extends View {
 
     private Paint mBorderPaint;
 
-    private Shader mValShader;
-    private Shader mSatShader;
     private Shader mHueShader;
-    private Shader mAlphaShader;
+
+    /*
+     * The sat/val and alpha panels are rendered into bitmaps when the size
+     * changes, so drawing them never allocates, however the color changes.
+     */
+    private Bitmap mSatValBitmap;
+    private Bitmap mAlphaBitmap;
+
+    /*
+     * Scratch objects reused by every frame.
+     */
+    private final float[] mHsv = new float[3];
+    private final Point mTrackerPoint = new Point();
+    private final RectF mTrackerRect = new RectF();
 
     private int mAlpha = 0xff;
     private float mHue = 360f;
@@ -233,21 +244,16 @@ public class ColorPickerView extends View {
                     rect.bottom + BORDER_WIDTH_PX, mBorderPaint);
         }
 
-        if (mValShader == null) {
-            mValShader = new LinearGradient(rect.left, rect.top, rect.left, rect.bottom,
-                    0xffffffff, 0xff000000, TileMode.CLAMP);
-        }
-
-        int rgb = Color.HSVToColor(new float[] {
-                mHue, 1f, 1f
-        });
-
-        mSatShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
-                0xffffffff, rgb, TileMode.CLAMP);
-        ComposeShader mShader = new ComposeShader(mValShader, mSatShader, PorterDuff.Mode.MULTIPLY);
-        mSatValPaint.setShader(mShader);
+        mHsv[0] = mHue;
+        mHsv[1] = 1f;
+        mHsv[2] = 1f;
+        mSatValPaint.setColor(Color.HSVToColor(mHsv));
 
+        // the pure hue, whitened to the left and darkened to the bottom
         canvas.drawRect(rect, mSatValPaint);
+        if (mSatValBitmap != null) {
+            canvas.drawBitmap(mSatValBitmap, null, rect, null);
+        }
 
         Point p = satValToPoint(mSat, mVal);
 
@@ -273,19 +279,13 @@ public class ColorPickerView extends View {
                     mBorderPaint);
         }
 
-        if (mHueShader == null) {
-            mHueShader = new LinearGradient(rect.left, rect.top, rect.left, rect.bottom,
-                    buildHueColorArray(), null, TileMode.CLAMP);
-            mHuePaint.setShader(mHueShader);
-        }
-
         canvas.drawRect(rect, mHuePaint);
 
         float rectHeight = 4 * mDensity / 2;
 
         Point p = hueToPoint(mHue);
 
-        RectF r = new RectF();
+        RectF r = mTrackerRect;
         r.left = rect.left - RECTANGLE_TRACKER_OFFSET;
         r.right = rect.right + RECTANGLE_TRACKER_OFFSET;
         r.top = p.y - rectHeight;
@@ -297,7 +297,8 @@ public class ColorPickerView extends View {
 
     private void drawAlphaPanel(Canvas canvas) {
 
-        if (!mShowAlphaPanel || mAlphaRect == null || mAlphaPattern == null)
+        if (!mShowAlphaPanel || mAlphaRect == null || mAlphaPattern == null
+                || mAlphaBitmap == null)
             return;
 
         final RectF rect = mAlphaRect;
@@ -313,18 +314,12 @@ public class ColorPickerView extends View {
 
         mAlphaPattern.draw(canvas);
 
-        float[] hsv = new float[] {
-                mHue, mSat, mVal
-        };
-        int color = Color.HSVToColor(hsv);
-        int acolor = Color.HSVToColor(0, hsv);
-
-        mAlphaShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
-                color, acolor, TileMode.CLAMP);
-
-        mAlphaPaint.setShader(mAlphaShader);
-
-        canvas.drawRect(rect, mAlphaPaint);
+        // the alpha ramp only has alpha, the paint supplies the color
+        mHsv[0] = mHue;
+        mHsv[1] = mSat;
+        mHsv[2] = mVal;
+        mAlphaPaint.setColor(Color.HSVToColor(mHsv));
+        canvas.drawBitmap(mAlphaBitmap, null, rect, mAlphaPaint);
 
         if (mAlphaSliderText != null && mAlphaSliderText != "") {
             canvas.drawText(mAlphaSliderText, rect.centerX(), rect.centerY() + 4 * mDensity,
@@ -335,7 +330,7 @@ public class ColorPickerView extends View {
 
         Point p = alphaToPoint(mAlpha);
 
-        RectF r = new RectF();
+        RectF r = mTrackerRect;
         r.left = p.x - rectWidth;
         r.right = p.x + rectWidth;
         r.top = rect.top - RECTANGLE_TRACKER_OFFSET;
@@ -350,7 +345,7 @@ public class ColorPickerView extends View {
         final RectF rect = mHueRect;
         final float height = rect.height();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.y = (int) (height - (hue * height / 360f) + rect.top);
         p.x = (int) rect.left;
@@ -364,7 +359,7 @@ public class ColorPickerView extends View {
         final float height = rect.height();
         final float width = rect.width();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.x = (int) (sat * width + rect.left);
         p.y = (int) ((1f - val) * height + rect.top);
@@ -377,7 +372,7 @@ public class ColorPickerView extends View {
         final RectF rect = mAlphaRect;
         final float width = rect.width();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.x = (int) (width - (alpha * width / 0xff) + rect.left);
         p.y = (int) rect.top;
@@ -545,9 +540,7 @@ public class ColorPickerView extends View {
         if (update) {
 
             if (mListener != null) {
-                mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[] {
-                        mHue, mSat, mVal
-                }));
+                mListener.onColorChanged(getColor());
             }
 
             invalidate();
@@ -591,9 +584,7 @@ public class ColorPickerView extends View {
         if (update) {
 
             if (mListener != null) {
-                mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[] {
-                        mHue, mSat, mVal
-                }));
+                mListener.onColorChanged(getColor());
             }
 
             invalidate();
@@ -737,9 +728,65 @@ public class ColorPickerView extends View {
         mDrawingRect.top = mDrawingOffset + getPaddingTop();
         mDrawingRect.bottom = h - mDrawingOffset - getPaddingBottom();
 
+        setUpPanels();
+    }
+
+    private void setUpPanels() {
         setUpSatValRect();
         setUpHueRect();
         setUpAlphaRect();
+
+        mHueShader = new LinearGradient(mHueRect.left, mHueRect.top, mHueRect.left,
+                mHueRect.bottom, buildHueColorArray(), null, TileMode.CLAMP);
+        mHuePaint.setShader(mHueShader);
+
+        mSatValBitmap = buildSatValBitmap(mSatValRect);
+        mAlphaBitmap = mShowAlphaPanel ? buildAlphaBitmap(mAlphaRect) : null;
+    }
+
+    /**
+     * Render the overlay that turns a fill of the pure hue into the sat/val
+     * panel: opaque white on the left fading out to the right, and black
+     * fading in towards the bottom. It does not depend on the hue, so it is
+     * only rendered again when the size changes.
+     */
+    private static Bitmap buildSatValBitmap(RectF rect) {
+        final int width = Math.round(rect.width());
+        final int height = Math.round(rect.height());
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        final Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, 0,
+                0xffffffff, 0x00ffffff, TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+        paint.setShader(new LinearGradient(0, 0, 0, height,
+                0x00000000, 0xff000000, TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+        return bitmap;
+    }
+
+    /**
+     * Render the alpha panel ramp, opaque on the left and transparent on the
+     * right. It is an alpha only bitmap, drawn in the color of the paint.
+     */
+    private static Bitmap buildAlphaBitmap(RectF rect) {
+        final int width = Math.round(rect.width());
+        final int height = Math.round(rect.height());
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Config.ALPHA_8);
+        final Canvas canvas = new Canvas(bitmap);
+        final Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, 0,
+                0xff000000, 0x00000000, TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+        return bitmap;
     }
 
     private void setUpSatValRect() {
@@ -825,9 +872,10 @@ public class ColorPickerView extends View {
      * @return the current color.
      */
     public int getColor() {
-        return Color.HSVToColor(mAlpha, new float[] {
-                mHue, mSat, mVal
-        });
+        mHsv[0] = mHue;
+        mHsv[1] = mSat;
+        mHsv[2] = mVal;
+        return Color.HSVToColor(mAlpha, mHsv);
     }
 
     /**
@@ -863,9 +911,7 @@ public class ColorPickerView extends View {
         mVal = hsv[2];
 
         if (callback && mListener != null) {
-            mListener.onColorChanged(Color.HSVToColor(mAlpha, new float[] {
-                    mHue, mSat, mVal
-            }));
+            mListener.onColorChanged(getColor());
         }
 
         invalidate();
@@ -895,14 +941,12 @@ public class ColorPickerView extends View {
             mShowAlphaPanel = visible;
 
             /*
-             * Reset all shader to force a recreation. Otherwise they will not
-             * look right after the size of the view has changed.
+             * The panels are laid out differently, so render them again even
+             * if the size of the view does not change.
              */
-            mValShader = null;
-            mSatShader = null;
-            mHueShader = null;
-            mAlphaShader = null;
-            ;
+            if (mDrawingRect != null) {
+                setUpPanels();
+            }
 
             requestLayout();
         }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notificationlight;
+
+import android.content.ContentResolver;
+import android.provider.Settings;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+/**
+ * The per-application light settings kept in
+ * {@link Settings.System#NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES}, keyed by
+ * package name.
+ *
+ * The setting stays in the "package=color;on;off|..." form the notification
+ * service parses. Every entry keeps its own encoded text, so a reload only
+ * parses the entries whose text changed, and a save only encodes the entry
+ * that was edited.
+ */
+class LightConfigStore {
+    static class Entry {
+        final String packageName;
+        int color;
+        int timeOn;
+        int timeOff;
+        String encoded;
+
+        Entry(String packageName, int color, int timeOn, int timeOff) {
+            this.packageName = packageName;
+            set(color, timeOn, timeOff);
+        }
+
+        /** Returns false if the values were already set. */
+        boolean set(int color, int timeOn, int timeOff) {
+            if (encoded != null && this.color == color && this.timeOn == timeOn
+                    && this.timeOff == timeOff) {
+                return false;
+            }
+            this.color = color;
+            this.timeOn = timeOn;
+            this.timeOff = timeOff;
+            encoded = packageName + "=" + color + ";" + timeOn + ";" + timeOff;
+            return true;
+        }
+
+        static Entry fromString(String value) {
+            final int equals = value.indexOf('=');
+            if (equals <= 0) {
+                return null;
+            }
+            final String[] values = value.substring(equals + 1).split(";", -1);
+            if (values.length != 3) {
+                return null;
+            }
+            try {
+                final Entry entry = new Entry(value.substring(0, equals),
+                        Integer.parseInt(values[0]), Integer.parseInt(values[1]),
+                        Integer.parseInt(values[2]));
+                entry.encoded = value;
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /** Package names of the entries a reload found changed. */
+    static class Changes {
+        final ArrayList<String> added = new ArrayList<String>();
+        final ArrayList<String> updated = new ArrayList<String>();
+        final ArrayList<String> removed = new ArrayList<String>();
+    }
+
+    private final ContentResolver mResolver;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+    /** The setting as last read or written. */
+    private String mValue;
+
+    LightConfigStore(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Read the setting again, returning what changed since it was last read
+     * or written, or null if nothing did.
+     */
+    Changes reload() {
+        final String value = Settings.System.getString(mResolver,
+                Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES);
+        if (TextUtils.equals(mValue, value)) {
+            return null;
+        }
+        mValue = value;
+        return parse(value);
+    }
+
+    /** Replace the entries with the given setting text, returning the changes. */
+    Changes parse(String value) {
+        final Changes changes = new Changes();
+        final LinkedHashMap<String, Entry> old = new LinkedHashMap<String, Entry>(mEntries);
+        mEntries.clear();
+
+        if (value != null) {
+            for (String item : TextUtils.split(value, "\\|")) {
+                if (TextUtils.isEmpty(item)) {
+                    continue;
+                }
+                final int equals = item.indexOf('=');
+                final Entry previous = equals > 0 ? old.remove(item.substring(0, equals)) : null;
+                if (previous != null && item.equals(previous.encoded)) {
+                    mEntries.put(previous.packageName, previous);
+                    continue;
+                }
+                final Entry entry = Entry.fromString(item);
+                if (entry == null) {
+                    if (previous != null) {
+                        old.put(previous.packageName, previous);
+                    }
+                    continue;
+                }
+                if (previous != null) {
+                    changes.updated.add(entry.packageName);
+                } else if (!mEntries.containsKey(entry.packageName)) {
+                    changes.added.add(entry.packageName);
+                }
+                mEntries.put(entry.packageName, entry);
+            }
+        }
+        changes.removed.addAll(old.keySet());
+        changes.removed.removeAll(mEntries.keySet());
+        return changes;
+    }
+
+    Entry get(String packageName) {
+        return mEntries.get(packageName);
+    }
+
+    Collection<Entry> getEntries() {
+        return mEntries.values();
+    }
+
+    /**
+     * Set the values of an application, adding it if needed. Writes the
+     * setting only when something changed.
+     */
+    Entry put(String packageName, int color, int timeOn, int timeOff) {
+        Entry entry = mEntries.get(packageName);
+        if (entry == null) {
+            entry = new Entry(packageName, color, timeOn, timeOff);
+            mEntries.put(packageName, entry);
+        } else if (!entry.set(color, timeOn, timeOff)) {
+            return entry;
+        }
+        save();
+        return entry;
+    }
+
+    /** Remove an application, returning false if it had no entry. */
+    boolean remove(String packageName) {
+        if (mEntries.remove(packageName) == null) {
+            return false;
+        }
+        save();
+        return true;
+    }
+
+    /** The setting text for the current entries. */
+    String encode() {
+        final StringBuilder builder = new StringBuilder();
+        for (Entry entry : mEntries.values()) {
+            if (builder.length() > 0) {
+                builder.append('|');
+            }
+            builder.append(entry.encoded);
+        }
+        return builder.toString();
+    }
+
+    private void save() {
+        mValue = encode();
+        Settings.System.putString(mResolver,
+                Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES, mValue);
+    }
+}
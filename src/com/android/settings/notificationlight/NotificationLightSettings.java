@@ -17,12 +17,9 @@
 package com.android.settings.notificationlight;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -34,38 +31,33 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
 import android.preference.CheckBoxPreference;
 import android.preference.Preference;
 import android.preference.PreferenceGroup;
 import android.preference.PreferenceScreen;
 import android.provider.Settings;
 import android.telephony.TelephonyManager;
-import android.text.TextUtils;
-import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.BaseAdapter;
-import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
+import com.android.settings.cyanogenmod.AppPickerAdapter;
+import com.android.settings.net.UidDetailCache;
 
 public class NotificationLightSettings extends SettingsPreferenceFragment implements
         Preference.OnPreferenceChangeListener, View.OnLongClickListener {
@@ -104,9 +96,11 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
     private ApplicationLightPreference mVoicemailPref;
     private CheckBoxPreference mCustomEnabledPref;
     private Menu mMenu;
-    AppAdapter mAppAdapter;
-    private String mApplicationList;
-    private Map<String, Application> mApplications;
+    AppPickerAdapter mAppAdapter;
+    private LightConfigStore mStore;
+    /** Preferences of the configured applications, by package name. */
+    private final Map<String, ApplicationLightPreference> mAppPrefs =
+            new HashMap<String, ApplicationLightPreference>();
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -126,10 +120,14 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
         final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
         mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
         mInstalledApps = mPackageManager.queryIntentActivities(mainIntent, 0);
-        mAppAdapter = new AppAdapter(mInstalledApps);
-        mAppAdapter.update();
+        final List<ActivityInfo> activities = new ArrayList<ActivityInfo>(mInstalledApps.size());
+        for (ResolveInfo info : mInstalledApps) {
+            activities.add(info.activityInfo);
+        }
+        mAppAdapter = new AppPickerAdapter(getActivity());
+        mAppAdapter.load(activities);
 
-        mApplications = new HashMap<String, Application>();
+        mStore = new LightConfigStore(getContentResolver());
 
         // Determine if the device has voice capabilities
         mVoiceCapable = (((TelephonyManager) getActivity().getSystemService(Context.TELEPHONY_SERVICE)).getPhoneType()
@@ -138,6 +136,12 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
         setHasOptionsMenu(true);
     }
 
+    @Override
+    public void onDestroy() {
+        mAppAdapter.cancel();
+        super.onDestroy();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -206,49 +210,66 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
 
     }
 
+    /**
+     * Bring the application preferences up to date with the setting, only
+     * touching the preferences of applications whose values changed.
+     */
     private void refreshCustomApplications() {
-        Context context = getActivity();
-
-        if (!parseApplicationList()) {
+        final LightConfigStore.Changes changes = mStore.reload();
+        if (changes == null) {
             return;
         }
 
-        // Add the Application Preferences
-        final PreferenceScreen prefSet = getPreferenceScreen();
-        final PackageManager pm = getPackageManager();
-        final PreferenceGroup appList = (PreferenceGroup) prefSet.findPreference("applications_list");
+        final PreferenceGroup appList =
+                (PreferenceGroup) getPreferenceScreen().findPreference("applications_list");
+        if (appList == null) {
+            return;
+        }
+        // keep the applications sorted by title as they are added
+        appList.setOrderingAsAdded(false);
 
-        if (appList != null) {
-            final Map<CharSequence, ApplicationLightPreference> prefs =
-                    new TreeMap<CharSequence, ApplicationLightPreference>();
-
-            appList.removeAll();
-
-            for (Application i : mApplications.values()) {
-                try {
-                    PackageInfo info = pm.getPackageInfo(i.name, PackageManager.GET_META_DATA);
-                    ApplicationLightPreference pref =
-                            new ApplicationLightPreference(context, this, i.color, i.timeon, i.timeoff);
-                    final CharSequence label = info.applicationInfo.loadLabel(pm);
-
-                    pref.setKey(i.name);
-                    pref.setTitle(label);
-                    pref.setIcon(info.applicationInfo.loadIcon(pm));
-                    // Does not fit on low res devices, we need it so we hide the view in the preference
-                    pref.setSummary(i.name);
-                    pref.setPersistent(false);
-                    pref.setOnPreferenceChangeListener(this);
-
-                    prefs.put(label, pref);
-                } catch (NameNotFoundException e) {
-                    // Do nothing
-                }
+        for (String packageName : changes.removed) {
+            final ApplicationLightPreference pref = mAppPrefs.remove(packageName);
+            if (pref != null) {
+                appList.removePreference(pref);
             }
-
-            for (ApplicationLightPreference pref : prefs.values()) {
-                appList.addPreference(pref);
+        }
+        for (String packageName : changes.updated) {
+            final ApplicationLightPreference pref = mAppPrefs.get(packageName);
+            final LightConfigStore.Entry entry = mStore.get(packageName);
+            if (pref != null) {
+                pref.setAllValues(entry.color, entry.timeOn, entry.timeOff);
+            } else {
+                addApplicationPreference(appList, entry);
             }
         }
+        for (String packageName : changes.added) {
+            addApplicationPreference(appList, mStore.get(packageName));
+        }
+    }
+
+    private void addApplicationPreference(PreferenceGroup appList, LightConfigStore.Entry entry) {
+        final ApplicationInfo info;
+        try {
+            info = getPackageManager().getApplicationInfo(entry.packageName, 0);
+        } catch (NameNotFoundException e) {
+            // Do nothing
+            return;
+        }
+        final UidDetailCache cache = UidDetailCache.getInstance(getActivity());
+        ApplicationLightPreference pref = new ApplicationLightPreference(getActivity(), this,
+                entry.color, entry.timeOn, entry.timeOff);
+
+        pref.setKey(entry.packageName);
+        pref.setTitle(cache.getPackageLabel(entry.packageName, true));
+        pref.setIcon(cache.getIcon(info));
+        // Does not fit on low res devices, we need it so we hide the view in the preference
+        pref.setSummary(entry.packageName);
+        pref.setPersistent(false);
+        pref.setOnPreferenceChangeListener(this);
+
+        mAppPrefs.put(entry.packageName, pref);
+        appList.addPreference(pref);
     }
 
     private void setCustomEnabled() {
@@ -271,60 +292,26 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
     }
 
     private void addCustomApplication(String packageName) {
-        Application app = mApplications.get(packageName);
-        if (app == null) {
-            app = new Application(packageName, mDefaultColor, mDefaultLedOn, mDefaultLedOff);
-            mApplications.put(packageName, app);
-            saveApplicationList(false);
-            refreshCustomApplications();
+        if (mStore.get(packageName) == null) {
+            final LightConfigStore.Entry entry =
+                    mStore.put(packageName, mDefaultColor, mDefaultLedOn, mDefaultLedOff);
+            final PreferenceGroup appList =
+                    (PreferenceGroup) getPreferenceScreen().findPreference("applications_list");
+            if (appList != null) {
+                addApplicationPreference(appList, entry);
+            }
         }
     }
 
     private void removeCustomApplication(String packageName) {
-        if (mApplications.remove(packageName) != null) {
-            saveApplicationList(false);
-            refreshCustomApplications();
-        }
-    }
-
-    private boolean parseApplicationList() {
-        final String baseString = Settings.System.getString(getContentResolver(),
-                Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES);
-
-        if (TextUtils.equals(mApplicationList, baseString)) {
-            return false;
-        }
-
-        mApplicationList = baseString;
-        mApplications.clear();
-
-        if (baseString != null) {
-            final String[] array = TextUtils.split(baseString, "\\|");
-            for (String item : array) {
-                if (TextUtils.isEmpty(item)) {
-                    continue;
-                }
-                Application app = Application.fromString(item);
-                if (app != null) {
-                    mApplications.put(app.name, app);
-                }
+        if (mStore.remove(packageName)) {
+            final ApplicationLightPreference pref = mAppPrefs.remove(packageName);
+            final PreferenceGroup appList =
+                    (PreferenceGroup) getPreferenceScreen().findPreference("applications_list");
+            if (pref != null && appList != null) {
+                appList.removePreference(pref);
             }
         }
-
-        return true;
-    }
-
-    private void saveApplicationList(boolean preferencesUpdated) {
-        List<String> settings = new ArrayList<String>();
-        for (Application app : mApplications.values()) {
-            settings.add(app.toString());
-        }
-        final String value = TextUtils.join("|", settings);
-        if (preferencesUpdated) {
-            mApplicationList = value;
-        }
-        Settings.System.putString(getContentResolver(),
-                                  Settings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES, value);
     }
 
     /**
@@ -358,13 +345,9 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
             return;
         }
 
-        // Find the custom app and sets its new values
-        Application app = mApplications.get(application);
-        if (app != null) {
-            app.color = color;
-            app.timeon = timeon;
-            app.timeoff = timeoff;
-            saveApplicationList(true);
+        // Find the custom app and set its new values, the preference already shows them
+        if (mStore.get(application) != null) {
+            mStore.put(application, color, timeon, timeoff);
         }
     }
 
@@ -452,7 +435,8 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
                     @Override
                     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                         // Add empty application definition, the user will be able to edit it later
-                        AppItem info = (AppItem) parent.getItemAtPosition(position);
+                        AppPickerAdapter.AppItem info =
+                                (AppPickerAdapter.AppItem) parent.getItemAtPosition(position);
                         addCustomApplication(info.packageName);
                         dialog.cancel();
                     }
@@ -463,176 +447,4 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
         }
         return dialog;
     }
-
-    /**
-     * Application class
-     */
-    private static class Application {
-        public String name;
-        public Integer color;
-        public Integer timeon;
-        public Integer timeoff;
-
-        /**
-         * Stores all the application values in one call
-         * @param name
-         * @param color
-         * @param timeon
-         * @param timeoff
-         */
-        public Application(String name, Integer color, Integer timeon, Integer timeoff) {
-            this.name = name;
-            this.color = color;
-            this.timeon = timeon;
-            this.timeoff = timeoff;
-        }
-
-        public Application() {
-        }
-
-        public String toString() {
-            StringBuilder builder = new StringBuilder();
-            builder.append(name);
-            builder.append("=");
-            builder.append(color);
-            builder.append(";");
-            builder.append(timeon);
-            builder.append(";");
-            builder.append(timeoff);
-            return builder.toString();
-        }
-
-        public static Application fromString(String value) {
-            if (TextUtils.isEmpty(value)) {
-                return null;
-            }
-            String[] app = value.split("=", -1);
-            if (app.length != 2)
-                return null;
-
-            String[] values = app[1].split(";", -1);
-            if (values.length != 3)
-                return null;
-
-            try {
-                Application item = new Application(app[0], Integer.parseInt(values[0]), Integer
-                        .parseInt(values[1]), Integer.parseInt(values[2]));
-                return item;
-            } catch (NumberFormatException e) {
-                return null;
-            }
-        }
-
-    };
-
-    /**
-     * AppItem class
-     */
-    class AppItem implements Comparable<AppItem> {
-        CharSequence title;
-        String packageName;
-        Drawable icon;
-
-        @Override
-        public int compareTo(AppItem another) {
-            return this.title.toString().compareTo(another.title.toString());
-        }
-    }
-
-    /**
-     * AppAdapter class
-     */
-    class AppAdapter extends BaseAdapter {
-        protected List<ResolveInfo> mInstalledAppInfo;
-        protected List<AppItem> mInstalledApps = new LinkedList<AppItem>();
-
-        private void reloadList() {
-            final Handler handler = new Handler();
-            new Thread(new Runnable() {
-
-                @Override
-                public void run() {
-                    synchronized (mInstalledApps) {
-                        mInstalledApps.clear();
-                        for (ResolveInfo info : mInstalledAppInfo) {
-                            final AppItem item = new AppItem();
-                            item.title = info.loadLabel(mPackageManager);
-                            item.icon = info.loadIcon(mPackageManager);
-                            item.packageName = info.activityInfo.packageName;
-                            handler.post(new Runnable() {
-
-                                @Override
-                                public void run() {
-                                    int index = Collections.binarySearch(mInstalledApps, item);
-                                    if (index < 0) {
-                                        index = -index - 1;
-                                        mInstalledApps.add(index, item);
-                                    }
-                                    notifyDataSetChanged();
-                                }
-                            });
-                        }
-                    }
-                }
-            }).start();
-        }
-
-        public AppAdapter(List<ResolveInfo> installedAppsInfo) {
-            mInstalledAppInfo = installedAppsInfo;
-        }
-
-        public void update() {
-            reloadList();
-        }
-
-        @Override
-        public int getCount() {
-            return mInstalledApps.size();
-        }
-
-        @Override
-        public AppItem getItem(int position) {
-            return mInstalledApps.get(position);
-        }
-
-        @Override
-        public long getItemId(int position) {
-            return mInstalledApps.get(position).packageName.hashCode();
-        }
-
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            ViewHolder holder;
-            if (convertView != null) {
-                holder = (ViewHolder) convertView.getTag();
-            } else {
-                final LayoutInflater layoutInflater = (LayoutInflater) getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-                convertView = layoutInflater.inflate(R.layout.preference_icon, null, false);
-                holder = new ViewHolder();
-                convertView.setTag(holder);
-                holder.title = (TextView) convertView.findViewById(com.android.internal.R.id.title);
-                holder.summary = (TextView) convertView.findViewById(com.android.internal.R.id.summary);
-                holder.icon = (ImageView) convertView.findViewById(R.id.icon);
-            }
-            AppItem applicationInfo = getItem(position);
-
-            if (holder.title != null) {
-                holder.title.setText(applicationInfo.title);
-            }
-            if (holder.summary != null) {
-                holder.summary.setVisibility(View.GONE);
-            }
-            if (holder.icon != null) {
-                Drawable loadIcon = applicationInfo.icon;
-                holder.icon.setImageDrawable(loadIcon);
-            }
-            return convertView;
-        }
-    }
-
-    static class ViewHolder {
-        TextView title;
-        TextView summary;
-        ImageView icon;
-    }
 }
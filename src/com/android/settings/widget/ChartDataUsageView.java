@@ -368,6 +368,24 @@ public class ChartDataUsageView extends ChartView {
         }
     }
 
+    /**
+     * Return the inspection start that {@link #setVisibleRange(long, long)}
+     * selects by default for the given visible range.
+     */
+    public long getDefaultInspectStart(long visibleStart, long visibleEnd) {
+        return Math.max(visibleStart,
+                getDefaultInspectEnd(visibleStart, visibleEnd) - DateUtils.WEEK_IN_MILLIS);
+    }
+
+    /**
+     * Return the inspection end that {@link #setVisibleRange(long, long)}
+     * selects by default for the given visible range.
+     */
+    public long getDefaultInspectEnd(long visibleStart, long visibleEnd) {
+        final long historyEnd = getHistoryEnd();
+        return historyEnd == Long.MIN_VALUE ? visibleEnd : Math.min(visibleEnd, historyEnd);
+    }
+
     public long getInspectStart() {
         return mSweepLeft.getValue();
     }
@@ -421,9 +439,8 @@ public class ChartDataUsageView extends ChartView {
         }
 
         // default sweeps to last week of data
-        final long halfRange = (visibleEnd + visibleStart) / 2;
-        final long sweepMax = validEnd;
-        final long sweepMin = Math.max(visibleStart, (sweepMax - DateUtils.WEEK_IN_MILLIS));
+        final long sweepMax = getDefaultInspectEnd(visibleStart, visibleEnd);
+        final long sweepMin = getDefaultInspectStart(visibleStart, visibleEnd);
 
         mSweepLeft.setValue(sweepMin);
         mSweepRight.setValue(sweepMax);
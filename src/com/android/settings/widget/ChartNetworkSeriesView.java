@@ -75,6 +75,36 @@ public class ChartNetworkSeriesView extends View {
     private long mMax;
     private long mMaxEstimate;
 
+    /**
+     * Bucket end times and running totals of {@link #mStats}, so that any
+     * range total is a subtraction and any time is a binary search away.
+     */
+    private NetworkStatsHistory mSumStats;
+    private long[] mSumEnd;
+    private long[] mSumTotal;
+
+    /**
+     * Decimated series outline, with X in screen points and Y still as raw
+     * data totals, so that a change of only the vertical axis is a rescale.
+     * Negative totals mark the bottom of the graph. Valid while
+     * {@link #verticesCurrent()} holds.
+     */
+    private float[] mVertexX = new float[64];
+    private long[] mVertexTotal = new long[64];
+    private int mVertexCount;
+    private boolean mVerticesValid = false;
+
+    /** Everything the vertices were generated from, other than the vertical axis. */
+    private NetworkStatsHistory mVerticesStats;
+    private ChartAxis mVerticesHoriz;
+    private long mVerticesHorizLeft;
+    private long mVerticesHorizRight;
+    private long mVerticesStart;
+    private long mVerticesEnd;
+    private long mVerticesEndTime;
+    private int mVerticesWidth;
+    private long mVerticesLastTime;
+
     public ChartNetworkSeriesView(Context context) {
         this(context, null, 0);
     }
@@ -136,6 +166,7 @@ public class ChartNetworkSeriesView extends View {
 
     public void bindNetworkStats(NetworkStatsHistory stats) {
         mStats = stats;
+        mVerticesValid = false;
         invalidatePath();
         invalidate();
     }
@@ -157,86 +188,203 @@ public class ChartNetworkSeriesView extends View {
 
     public void invalidatePath() {
         mPathValid = false;
-        mMax = 0;
+        if (mHoriz == null || !verticesCurrent()) {
+            // max is only known again once vertices are regenerated
+            mMax = 0;
+        }
         invalidate();
     }
 
     /**
-     * Erase any existing {@link Path} and generate series outline based on
-     * currently bound {@link NetworkStatsHistory} data.
+     * Test if the decimated vertices were generated from the current data,
+     * bounds, width and horizontal axis. The axis is mutable, so the values
+     * it mapped both edges of the view to are compared as well.
      */
-    private void generatePath() {
-        if (LOGD) Log.d(TAG, "generatePath()");
+    private boolean verticesCurrent() {
+        final int width = getWidth();
+        return mVerticesValid && mVerticesStats == mStats && mVerticesHoriz == mHoriz
+                && mVerticesHorizLeft == mHoriz.convertToValue(0)
+                && mVerticesHorizRight == mHoriz.convertToValue(width)
+                && mVerticesStart == mStart && mVerticesEnd == mEnd
+                && mVerticesEndTime == mEndTime && mVerticesWidth == width;
+    }
 
-        mMax = 0;
-        mPathStroke.reset();
-        mPathFill.reset();
-        mPathEstimate.reset();
-        mPathValid = true;
+    private void saveVerticesState() {
+        final int width = getWidth();
+        mVerticesStats = mStats;
+        mVerticesHoriz = mHoriz;
+        mVerticesHorizLeft = mHoriz.convertToValue(0);
+        mVerticesHorizRight = mHoriz.convertToValue(width);
+        mVerticesStart = mStart;
+        mVerticesEnd = mEnd;
+        mVerticesEndTime = mEndTime;
+        mVerticesWidth = width;
+        mVerticesValid = true;
+    }
 
-        // bail when not enough stats to render
-        if (mStats == null || mStats.size() < 2) {
+    /**
+     * Rebuild {@link #mSumEnd} and {@link #mSumTotal} when the bound
+     * {@link NetworkStatsHistory} changed.
+     */
+    private void ensureSums() {
+        if (mSumStats == mStats && mSumEnd != null && mSumEnd.length == mStats.size()) {
             return;
         }
+        final int size = mStats.size();
+        mSumStats = mStats;
+        mSumEnd = new long[size];
+        mSumTotal = new long[size];
 
-        final int width = getWidth();
-        final int height = getHeight();
+        NetworkStatsHistory.Entry entry = null;
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            entry = mStats.getValues(i, entry);
+            total += entry.rxBytes + entry.txBytes;
+            mSumEnd[i] = entry.bucketStart + entry.bucketDuration;
+            mSumTotal[i] = total;
+        }
+    }
 
-        boolean started = false;
-        float lastX = 0;
-        float lastY = height;
-        long lastTime = mHoriz.convertToValue(lastX);
+    /**
+     * Return index of last bucket in {@code [from, to]} ending before the
+     * given time, or {@code from - 1} when none.
+     */
+    private int findLastEndingBefore(long time, int from, int to) {
+        int low = from;
+        int high = to;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (mSumEnd[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
 
-        // move into starting position
-        mPathStroke.moveTo(lastX, lastY);
-        mPathFill.moveTo(lastX, lastY);
+    private void addVertex(float x, long total) {
+        if (mVertexCount == mVertexX.length) {
+            final int newLength = mVertexCount * 2;
+            final float[] newX = new float[newLength];
+            final long[] newTotal = new long[newLength];
+            System.arraycopy(mVertexX, 0, newX, 0, mVertexCount);
+            System.arraycopy(mVertexTotal, 0, newTotal, 0, mVertexCount);
+            mVertexX = newX;
+            mVertexTotal = newTotal;
+        }
+        mVertexX[mVertexCount] = x;
+        mVertexTotal[mVertexCount] = total;
+        mVertexCount++;
+    }
 
-        // TODO: count fractional data from first bucket crossing start;
-        // currently it only accepts first full bucket.
+    /**
+     * Walk the bound {@link NetworkStatsHistory} one screen column at a
+     * time, collapsing every bucket that ends inside a column into the
+     * first and last of them. Since the series is cumulative, those two
+     * points cover everything drawn in that column.
+     */
+    private void generateVertices() {
+        mVertexCount = 0;
+        saveVerticesState();
+        mMax = 0;
 
-        long totalData = 0;
+        long lastTime = mHoriz.convertToValue(0);
+        long lastTotal = -1;
+        mVerticesLastTime = lastTime;
 
-        NetworkStatsHistory.Entry entry = null;
+        // bail when not enough stats to render
+        if (mStats == null || mStats.size() < 2) {
+            return;
+        }
+        ensureSums();
+
+        // TODO: count fractional data from first bucket crossing start;
+        // currently it only accepts first full bucket.
 
         final int start = mStats.getIndexBefore(mStart);
         final int end = mStats.getIndexAfter(mEnd);
-        for (int i = start; i <= end; i++) {
-            entry = mStats.getValues(i, entry);
 
-            final long startTime = entry.bucketStart;
-            final long endTime = startTime + entry.bucketDuration;
+        // skip until we find first stats on screen
+        int i = findLastEndingBefore(mHoriz.convertToValue(0), start, end) + 1;
+        final long base = i > 0 ? mSumTotal[i - 1] : 0;
+        long totalData = 0;
 
-            final float startX = mHoriz.convertToPoint(startTime);
+        while (i <= end) {
+            final long endTime = mSumEnd[i];
+            final long startTime = endTime - mStats.getBucketDuration();
             final float endX = mHoriz.convertToPoint(endTime);
 
-            // skip until we find first stats on screen
-            if (endX < 0) continue;
-
-            // increment by current bucket total
-            totalData += entry.rxBytes + entry.txBytes;
-
-            final float startY = lastY;
-            final float endY = mVert.convertToPoint(totalData);
-
             if (lastTime != startTime) {
                 // gap in buckets; line to start of current bucket
-                mPathStroke.lineTo(startX, startY);
-                mPathFill.lineTo(startX, startY);
+                addVertex(mHoriz.convertToPoint(startTime), lastTotal);
+            }
+
+            // find last bucket ending in the same screen column
+            final float columnEndX = (float) Math.floor(endX) + 1;
+            final int last = Math.max(i,
+                    findLastEndingBefore(mHoriz.convertToValue(columnEndX), i, end));
+
+            if (last > i) {
+                addVertex(endX, mSumTotal[i] - base);
             }
 
-            // always draw to end of current bucket
-            mPathStroke.lineTo(endX, endY);
-            mPathFill.lineTo(endX, endY);
+            // always draw to end of last bucket in column
+            totalData = mSumTotal[last] - base;
+            addVertex(mHoriz.convertToPoint(mSumEnd[last]), totalData);
 
-            lastX = endX;
-            lastY = endY;
-            lastTime = endTime;
+            lastTotal = totalData;
+            lastTime = mSumEnd[last];
+            i = last + 1;
         }
 
         // when data falls short, extend to requested end time
         if (lastTime < mEndTime) {
-            lastX = mHoriz.convertToPoint(mEndTime);
+            addVertex(mHoriz.convertToPoint(mEndTime), lastTotal);
+        }
 
+        mVerticesLastTime = lastTime;
+        mMax = totalData;
+    }
+
+    /**
+     * Erase any existing {@link Path} and generate series outline based on
+     * currently bound {@link NetworkStatsHistory} data, reusing the decimated
+     * vertices when only the vertical axis changed.
+     */
+    private void generatePath() {
+        if (LOGD) Log.d(TAG, "generatePath()");
+
+        mPathStroke.reset();
+        mPathFill.reset();
+        mPathEstimate.reset();
+        mPathValid = true;
+
+        if (!verticesCurrent()) {
+            generateVertices();
+        }
+
+        // bail when not enough stats to render
+        if (mStats == null || mStats.size() < 2) {
+            return;
+        }
+
+        final int width = getWidth();
+        final int height = getHeight();
+
+        float lastX = 0;
+        float lastY = height;
+        long lastTime = mVerticesLastTime;
+        long totalData = mMax;
+
+        // move into starting position
+        mPathStroke.moveTo(lastX, lastY);
+        mPathFill.moveTo(lastX, lastY);
+
+        for (int i = 0; i < mVertexCount; i++) {
+            final long total = mVertexTotal[i];
+            lastX = mVertexX[i];
+            lastY = total < 0 ? height : mVert.convertToPoint(total);
             mPathStroke.lineTo(lastX, lastY);
             mPathFill.lineTo(lastX, lastY);
         }
@@ -252,9 +400,9 @@ public class ChartNetworkSeriesView extends View {
         mPathFill.lineTo(lastX, height);
         mPathFill.lineTo(0, height);
 
-        mMax = totalData;
-
         if (ESTIMATE_ENABLED) {
+            NetworkStatsHistory.Entry entry = null;
+
             // build estimated data
             mPathEstimate.moveTo(lastX, lastY);
 
@@ -314,6 +462,14 @@ public class ChartNetworkSeriesView extends View {
         }
     }
 
+    /**
+     * Return the number of decimated vertices the last drawn path was
+     * built from.
+     */
+    int getVertexCount() {
+        return mVertexCount;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         int save;
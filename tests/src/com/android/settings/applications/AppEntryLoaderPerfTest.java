@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.pm.ApplicationInfo;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time-to-full-list for N synthetic AppEntry items, with the
+ * loader's batches run one at a time versus on several threads.
+ */
+@LargeTest
+public class AppEntryLoaderPerfTest extends AndroidTestCase {
+    private static final String TAG = "AppEntryLoaderPerfTest";
+    private static final int NUM_ENTRIES = 400;
+
+    private ArrayList<ApplicationInfo> makeInfos(int count) {
+        ApplicationInfo base = getContext().getApplicationInfo();
+        ArrayList<ApplicationInfo> infos = new ArrayList<ApplicationInfo>(count);
+        for (int i=0; i<count; i++) {
+            ApplicationInfo info = new ApplicationInfo(base);
+            info.packageName = base.packageName + ".synthetic" + i;
+            infos.add(info);
+        }
+        return infos;
+    }
+
+    /** Load labels and then icons for all entries, and return the time taken. */
+    private long timeFullList(int numThreads) throws InterruptedException {
+        ArrayList<ApplicationInfo> infos = makeInfos(NUM_ENTRIES);
+        AppEntryLoader loader = new AppEntryLoader(getContext(),
+                getContext().getPackageManager(), null, numThreads);
+        final ArrayList<AppEntry> entries = new ArrayList<AppEntry>();
+        final CountDownLatch entriesDone = new CountDownLatch(1);
+        long start = SystemClock.uptimeMillis();
+        loader.loadEntries(infos, 0, new AppEntryLoader.Listener() {
+            public void onBatchLoaded(ArrayList<AppEntry> batch) {
+                synchronized (entries) {
+                    entries.addAll(batch);
+                }
+            }
+            public void onAllLoaded() {
+                entriesDone.countDown();
+            }
+        });
+        assertTrue(entriesDone.await(60, TimeUnit.SECONDS));
+        synchronized (entries) {
+            assertEquals(NUM_ENTRIES, entries.size());
+        }
+
+        final CountDownLatch iconsDone = new CountDownLatch(1);
+        loader.loadIcons(entries, new AppEntryLoader.Listener() {
+            public void onBatchLoaded(ArrayList<AppEntry> batch) {
+            }
+            public void onAllLoaded() {
+                iconsDone.countDown();
+            }
+        });
+        assertTrue(iconsDone.await(60, TimeUnit.SECONDS));
+        long elapsed = SystemClock.uptimeMillis()-start;
+        for (AppEntry entry : entries) {
+            assertNotNull(entry.icon);
+        }
+        return elapsed;
+    }
+
+    public void testSerialLoad() throws InterruptedException {
+        Log.i(TAG, "serial: " + NUM_ENTRIES + " entries in " + timeFullList(1) + "ms");
+    }
+
+    public void testParallelLoad() throws InterruptedException {
+        Log.i(TAG, "parallel: " + NUM_ENTRIES + " entries in "
+                + timeFullList(AppEntryLoader.MAX_THREADS) + "ms");
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.pm.ApplicationInfo;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that AppEntryLoader loads every entry exactly once, whatever order
+ * its batches complete in.
+ */
+@MediumTest
+public class AppEntryLoaderTest extends AndroidTestCase {
+    private static final int NUM_ENTRIES = 3 * AppEntryLoader.BATCH_SIZE + 5;
+    private static final long FIRST_ID = 100;
+
+    private AppEntryLoader mLoader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLoader = new AppEntryLoader(getContext(), getContext().getPackageManager(), null);
+    }
+
+    private ArrayList<ApplicationInfo> makeInfos(int count) {
+        ApplicationInfo base = getContext().getApplicationInfo();
+        ArrayList<ApplicationInfo> infos = new ArrayList<ApplicationInfo>(count);
+        for (int i=0; i<count; i++) {
+            ApplicationInfo info = new ApplicationInfo(base);
+            info.packageName = base.packageName + ".synthetic" + i;
+            infos.add(info);
+        }
+        return infos;
+    }
+
+    /**
+     * Collects the batches of one request.  Listener calls come from worker
+     * threads, so misordered calls are recorded and checked in await().
+     */
+    private static class Collector implements AppEntryLoader.Listener {
+        final ArrayList<AppEntry> mEntries = new ArrayList<AppEntry>();
+        final CountDownLatch mDone = new CountDownLatch(1);
+        int mBatches;
+        int mBatchesAfterDone;
+
+        public void onBatchLoaded(ArrayList<AppEntry> batch) {
+            synchronized (mEntries) {
+                if (mDone.getCount() == 0) {
+                    mBatchesAfterDone++;
+                }
+                mEntries.addAll(batch);
+                mBatches++;
+            }
+        }
+
+        public void onAllLoaded() {
+            mDone.countDown();
+        }
+
+        ArrayList<AppEntry> await() throws InterruptedException {
+            assertTrue(mDone.await(60, TimeUnit.SECONDS));
+            synchronized (mEntries) {
+                assertEquals(0, mBatchesAfterDone);
+                return new ArrayList<AppEntry>(mEntries);
+            }
+        }
+    }
+
+    public void testLoadEntries() throws InterruptedException {
+        ArrayList<ApplicationInfo> infos = makeInfos(NUM_ENTRIES);
+        Collector collector = new Collector();
+        mLoader.loadEntries(infos, FIRST_ID, collector);
+        ArrayList<AppEntry> entries = collector.await();
+
+        assertEquals(NUM_ENTRIES, entries.size());
+        HashMap<String, AppEntry> byPackage = new HashMap<String, AppEntry>();
+        for (AppEntry entry : entries) {
+            assertNull(byPackage.put(entry.info.packageName, entry));
+            assertNotNull(entry.label);
+            assertNotNull(entry.getLabelKey());
+        }
+        for (int i=0; i<infos.size(); i++) {
+            AppEntry entry = byPackage.get(infos.get(i).packageName);
+            assertSame(infos.get(i), entry.info);
+            assertEquals(FIRST_ID + i, entry.id);
+        }
+    }
+
+    public void testLoadNothing() throws InterruptedException {
+        Collector collector = new Collector();
+        mLoader.loadEntries(new ArrayList<ApplicationInfo>(), FIRST_ID, collector);
+        assertEquals(0, collector.await().size());
+        assertEquals(0, collector.mBatches);
+    }
+
+    public void testLoadIconsReportsOnlyChanges() throws InterruptedException {
+        Collector entriesCollector = new Collector();
+        mLoader.loadEntries(makeInfos(NUM_ENTRIES), FIRST_ID, entriesCollector);
+        ArrayList<AppEntry> entries = entriesCollector.await();
+
+        Collector first = new Collector();
+        mLoader.loadIcons(entries, first);
+        assertEquals(NUM_ENTRIES, first.await().size());
+        for (AppEntry entry : entries) {
+            assertNotNull(entry.icon);
+        }
+
+        // Nothing changed, so the second load reports no batches at all.
+        Collector second = new Collector();
+        mLoader.loadIcons(entries, second);
+        assertEquals(0, second.await().size());
+        assertEquals(0, second.mBatches);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.pm.ApplicationInfo;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Measures the cost of sorting and prefix filtering 1k to 10k entries
+ * with precomputed collation keys and the search index, against comparing
+ * raw labels with a Collator and walking every search label.
+ */
+@LargeTest
+public class AppEntrySortPerfTest extends AndroidTestCase {
+    private static final String TAG = "AppEntrySortPerfTest";
+    private static final int[] SIZES = { 1000, 5000, 10000 };
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+    private static final String[] WORDS = {
+        "Mail", "Caf\u00e9", "Maps", "\u00dcber", "Notes",
+        "Camera", "\u00c9lan", "Music", "Clock", "Search"
+    };
+
+    private ArrayList<AppEntry> makeEntries(int count) {
+        Random random = new Random(count);
+        ApplicationInfo base = getContext().getApplicationInfo();
+        ArrayList<AppEntry> entries = new ArrayList<AppEntry>(count);
+        for (int i=0; i<count; i++) {
+            ApplicationInfo info = new ApplicationInfo(base);
+            info.packageName = "com.example.app" + i;
+            AppEntryCache.Record r = new AppEntryCache.Record();
+            r.label = WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            r.size = random.nextInt(100000000);
+            entries.add(new AppEntry(info, i, r));
+        }
+        return entries;
+    }
+
+    private long timeSort(ArrayList<AppEntry> entries, Comparator<AppEntry> comparator) {
+        long total = 0;
+        for (int i=0; i<WARMUP+ITERATIONS; i++) {
+            ArrayList<AppEntry> copy = new ArrayList<AppEntry>(entries);
+            Collections.shuffle(copy, new Random(i));
+            long start = System.nanoTime();
+            Collections.sort(copy, comparator);
+            if (i >= WARMUP) {
+                total += System.nanoTime() - start;
+            }
+        }
+        return total / ITERATIONS;
+    }
+
+    public void testSort() {
+        final Collator collator = Collator.getInstance();
+        Comparator<AppEntry> rawComparator = new Comparator<AppEntry>() {
+            @Override
+            public int compare(AppEntry object1, AppEntry object2) {
+                return collator.compare(object1.label, object2.label);
+            }
+        };
+        for (int size : SIZES) {
+            ArrayList<AppEntry> entries = makeEntries(size);
+            long raw = timeSort(entries, rawComparator);
+            long keyed = timeSort(entries, ApplicationsState.ALPHA_COMPARATOR);
+            long bySize = timeSort(entries, ApplicationsState.SIZE_COMPARATOR);
+            Log.i(TAG, "sort " + size + ": collator " + raw / 1000 + "us, keys "
+                    + keyed / 1000 + "us, size " + bySize / 1000 + "us");
+        }
+    }
+
+    public void testFilter() {
+        for (int size : SIZES) {
+            ArrayList<AppEntry> entries = makeEntries(size);
+            AppSearchIndex index = new AppSearchIndex();
+            for (int j=0; j<entries.size(); j++) {
+                index.add(entries.get(j));
+            }
+            String normalized = ApplicationsState.normalize("ca");
+            String prefix = " " + normalized;
+            long walkTotal = 0;
+            long indexTotal = 0;
+            int matches = 0;
+            int indexMatches = 0;
+            for (int i=0; i<WARMUP+ITERATIONS; i++) {
+                long start = System.nanoTime();
+                matches = 0;
+                for (int j=0; j<entries.size(); j++) {
+                    if (entries.get(j).getSearchLabel().indexOf(prefix) != -1) {
+                        matches++;
+                    }
+                }
+                long walked = System.nanoTime();
+                indexMatches = index.query(normalized).size();
+                if (i >= WARMUP) {
+                    walkTotal += walked - start;
+                    indexTotal += System.nanoTime() - walked;
+                }
+            }
+            assertTrue(matches > 0);
+            // No package name segment starts with "ca", so both see the same entries.
+            assertEquals(matches, indexMatches);
+            Log.i(TAG, "filter " + size + ": walk " + walkTotal / ITERATIONS / 1000
+                    + "us, index " + indexTotal / ITERATIONS / 1000 + "us, "
+                    + matches + " matches");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.pm.ApplicationInfo;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Tests that sorting with the precomputed collation keys gives the same
+ * order as comparing the raw labels, and that the search index matches
+ * word starts only.
+ */
+@SmallTest
+public class AppEntrySortTest extends AndroidTestCase {
+    private static final int NUM_ENTRIES = 500;
+    private static final String[] WORDS = {
+        "Mail", "Caf\u00e9", "maps", "\u00dcber", "Notes",
+        "Camera", "\u00c9lan", "music", "Clock", "Search"
+    };
+
+    private ArrayList<AppEntry> makeEntries(int count) {
+        Random random = new Random(count);
+        ApplicationInfo base = getContext().getApplicationInfo();
+        ArrayList<AppEntry> entries = new ArrayList<AppEntry>(count);
+        for (int i=0; i<count; i++) {
+            ApplicationInfo info = new ApplicationInfo(base);
+            info.packageName = "com.example.app" + i;
+            info.enabled = true;
+            AppEntryCache.Record r = new AppEntryCache.Record();
+            r.label = WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            // Few distinct sizes, so that ties fall back to the label.
+            r.size = random.nextInt(8) * 1000;
+            entries.add(new AppEntry(info, i, r));
+        }
+        Collections.shuffle(entries, new Random(count + 1));
+        return entries;
+    }
+
+    private static void assertSameOrder(ArrayList<AppEntry> expected,
+            ArrayList<AppEntry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i=0; i<expected.size(); i++) {
+            assertSame("at " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    public void testAlphaOrderMatchesCollator() {
+        final Collator collator = Collator.getInstance();
+        ArrayList<AppEntry> expected = makeEntries(NUM_ENTRIES);
+        ArrayList<AppEntry> actual = new ArrayList<AppEntry>(expected);
+        Collections.sort(expected, new Comparator<AppEntry>() {
+            @Override
+            public int compare(AppEntry object1, AppEntry object2) {
+                return collator.compare(object1.label, object2.label);
+            }
+        });
+        Collections.sort(actual, ApplicationsState.ALPHA_COMPARATOR);
+        assertSameOrder(expected, actual);
+    }
+
+    public void testDisabledSortLast() {
+        ArrayList<AppEntry> entries = makeEntries(NUM_ENTRIES);
+        for (int i=0; i<entries.size(); i+=3) {
+            entries.get(i).info.enabled = false;
+        }
+        Collections.sort(entries, ApplicationsState.ALPHA_COMPARATOR);
+        boolean seenDisabled = false;
+        for (AppEntry entry : entries) {
+            if (!entry.info.enabled) {
+                seenDisabled = true;
+            } else {
+                assertFalse(entry.label, seenDisabled);
+            }
+        }
+    }
+
+    public void testSizeOrder() {
+        final Collator collator = Collator.getInstance();
+        ArrayList<AppEntry> expected = makeEntries(NUM_ENTRIES);
+        ArrayList<AppEntry> actual = new ArrayList<AppEntry>(expected);
+        Collections.sort(expected, new Comparator<AppEntry>() {
+            @Override
+            public int compare(AppEntry object1, AppEntry object2) {
+                if (object1.size != object2.size) {
+                    return object1.size > object2.size ? -1 : 1;
+                }
+                return collator.compare(object1.label, object2.label);
+            }
+        });
+        Collections.sort(actual, ApplicationsState.SIZE_COMPARATOR);
+        assertSameOrder(expected, actual);
+    }
+
+    private static boolean matches(AppSearchIndex index, AppEntry entry, String prefix) {
+        return index.query(ApplicationsState.normalize(prefix)).contains(entry.id);
+    }
+
+    public void testPrefixFilterMatchesWordStarts() {
+        ApplicationInfo info = new ApplicationInfo(getContext().getApplicationInfo());
+        info.packageName = "com.example.app";
+        AppEntryCache.Record r = new AppEntryCache.Record();
+        r.label = "Caf\u00e9 \u00dcber Maps 3";
+        AppEntry entry = new AppEntry(info, 0, r);
+        AppSearchIndex index = new AppSearchIndex();
+        index.add(entry);
+
+        assertTrue(matches(index, entry, "ca"));
+        assertTrue(matches(index, entry, "CAFE"));
+        assertTrue(matches(index, entry, "caf\u00e9"));
+        assertTrue(matches(index, entry, "uber"));
+        assertTrue(matches(index, entry, "maps 3"));
+        assertTrue(matches(index, entry, "3"));
+
+        // Only the start of a word matches.
+        assertFalse(matches(index, entry, "afe"));
+        assertFalse(matches(index, entry, "aps"));
+        assertFalse(matches(index, entry, "x"));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.pm.ApplicationInfo;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.util.HashSet;
+
+/**
+ * Tests word-start queries on {@link AppSearchIndex}, both right after a
+ * bulk load and as entries are removed and relabeled.
+ */
+@SmallTest
+public class AppSearchIndexTest extends AndroidTestCase {
+    private AppSearchIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = new AppSearchIndex();
+    }
+
+    private AppEntry makeEntry(long id, String label, String packageName) {
+        ApplicationInfo info = new ApplicationInfo(getContext().getApplicationInfo());
+        info.packageName = packageName;
+        AppEntryCache.Record r = new AppEntryCache.Record();
+        r.label = label;
+        return new AppEntry(info, id, r);
+    }
+
+    private HashSet<Long> query(String prefix) {
+        return mIndex.query(ApplicationsState.normalize(prefix));
+    }
+
+    private static void assertIds(HashSet<Long> actual, long... expected) {
+        assertEquals(actual.toString(), expected.length, actual.size());
+        for (long id : expected) {
+            assertTrue(actual + " has no " + id, actual.contains(id));
+        }
+    }
+
+    public void testLabelWordStarts() {
+        mIndex.add(makeEntry(1, "Google Maps", "com.example.one"));
+        mIndex.add(makeEntry(2, "Street View", "com.example.two"));
+
+        assertIds(query("goo"), 1);
+        assertIds(query("maps"), 1);
+        assertIds(query("google m"), 1);
+        assertIds(query("VIEW"), 2);
+        assertIds(query("oogle"));
+        assertIds(query("iew"));
+    }
+
+    public void testPackageSegmentStarts() {
+        mIndex.add(makeEntry(1, "Mail", "com.google.android.gm"));
+        mIndex.add(makeEntry(2, "Music", "com.android.music"));
+
+        assertIds(query("com"), 1, 2);
+        assertIds(query("andr"), 1, 2);
+        assertIds(query("gm"), 1);
+        assertIds(query("android.mu"), 2);
+        // mid-segment text and the separator itself do not match
+        assertIds(query("oogle"));
+        assertIds(query(".music"));
+    }
+
+    public void testQueryAfterBulkAddWithoutSort() {
+        // nothing is queried until every entry has been added
+        for (int i = 0; i < 100; i++) {
+            mIndex.add(makeEntry(i, (i % 2 == 0 ? "Even " : "Odd ") + i, "com.example.app" + i));
+        }
+        assertFalse(mIndex.mSorted);
+
+        HashSet<Long> even = query("even");
+        assertTrue(mIndex.mSorted);
+        assertEquals(50, even.size());
+        for (long id : even) {
+            assertEquals(0, id % 2);
+        }
+        assertIds(query("odd 9"), 9, 91, 93, 95, 97, 99);
+        assertIds(query("app42"), 42);
+    }
+
+    public void testAddAfterQueryStaysSorted() {
+        mIndex.add(makeEntry(1, "Camera", "com.example.camera"));
+        mIndex.add(makeEntry(2, "Clock", "com.example.clock"));
+        assertIds(query("c"), 1, 2);
+
+        mIndex.add(makeEntry(3, "Calculator", "com.example.calculator"));
+        assertTrue(mIndex.mSorted);
+        assertIds(query("ca"), 1, 3);
+        assertIds(query("cl"), 2);
+    }
+
+    public void testRemove() {
+        AppEntry camera = makeEntry(1, "Camera", "com.example.camera");
+        AppEntry calendar = makeEntry(2, "Calendar", "com.example.calendar");
+        AppEntry clock = makeEntry(3, "Clock", "com.example.clock");
+        mIndex.add(camera);
+        mIndex.add(calendar);
+        mIndex.add(clock);
+        assertIds(query("ca"), 1, 2);
+        final int tokens = mIndex.mTokens.size();
+
+        mIndex.remove(calendar);
+        assertIds(query("ca"), 1);
+        assertIds(query("cl"), 3);
+        // "Calendar" and "com", "example", "calendar" of the package
+        assertEquals(tokens - 4, mIndex.mTokens.size());
+
+        // removing again is a no-op
+        mIndex.remove(calendar);
+        assertEquals(tokens - 4, mIndex.mTokens.size());
+
+        mIndex.remove(camera);
+        mIndex.remove(clock);
+        assertEquals(0, mIndex.mTokens.size());
+        assertIds(query("c"));
+    }
+
+    public void testUpdate() {
+        mIndex.add(makeEntry(1, "Browser", "com.example.web"));
+        assertIds(query("bro"), 1);
+
+        // the same app, relabeled
+        AppEntry relabeled = makeEntry(1, "Internet", "com.example.web");
+        mIndex.update(relabeled);
+        assertIds(query("bro"));
+        assertIds(query("inter"), 1);
+        assertIds(query("web"), 1);
+
+        // an unchanged label leaves the tokens alone
+        final int tokens = mIndex.mTokens.size();
+        mIndex.update(relabeled);
+        assertEquals(tokens, mIndex.mTokens.size());
+        assertIds(query("inter"), 1);
+
+        // entries that were never added are not indexed by an update
+        mIndex.update(makeEntry(2, "Email", "com.example.email"));
+        assertIds(query("email"));
+    }
+
+    public void testDuplicateTokens() {
+        // many entries share tokens equal to the whole query
+        for (int i = 0; i < 20; i++) {
+            mIndex.add(makeEntry(i, "Notes", "com.example.notes" + i));
+        }
+        mIndex.add(makeEntry(20, "Notes Plus", "com.example.plus"));
+        mIndex.add(makeEntry(21, "Nothing", "com.example.nothing"));
+
+        HashSet<Long> notes = query("notes");
+        assertEquals(21, notes.size());
+        for (long id = 0; id <= 20; id++) {
+            assertTrue(notes.contains(id));
+        }
+        assertIds(query("not"), 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+                17, 18, 19, 20, 21);
+        assertIds(query("notes plus"), 20);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cmstats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+/**
+ * Tests {@link ReportQueue} against a stand-in stats server on localhost.
+ */
+@MediumTest
+public class ReportQueueTest extends AndroidTestCase {
+    private File mDir;
+    private SharedPreferences mPrefs;
+    private StandInServer mServer;
+
+    /** Answers every request with a fixed status and keeps the bodies. */
+    private static class StandInServer extends Thread {
+        final ServerSocket socket;
+        final List<String> bodies = new ArrayList<String>();
+        volatile int status = 200;
+
+        StandInServer() throws IOException {
+            socket = new ServerSocket(0);
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + socket.getLocalPort() + "/submit";
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket client = socket.accept();
+                    try {
+                        handle(client);
+                    } finally {
+                        client.close();
+                    }
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void handle(Socket client) throws IOException {
+            final DataInputStream in = new DataInputStream(client.getInputStream());
+            int length = 0;
+            boolean gzip = false;
+            String line;
+            while ((line = readLine(in)).length() > 0) {
+                final String lower = line.toLowerCase();
+                if (lower.startsWith("content-length:")) {
+                    length = Integer.parseInt(line.substring(15).trim());
+                } else if (lower.startsWith("content-encoding:")) {
+                    gzip = lower.contains("gzip");
+                }
+            }
+            final byte[] body = new byte[length];
+            in.readFully(body);
+
+            InputStream bodyIn = new ByteArrayInputStream(body);
+            if (gzip) {
+                bodyIn = new GZIPInputStream(bodyIn);
+            }
+            final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[512];
+            int count;
+            while ((count = bodyIn.read(buffer)) > 0) {
+                decoded.write(buffer, 0, count);
+            }
+            synchronized (bodies) {
+                bodies.add((gzip ? "gzip:" : "") + decoded.toString("UTF-8"));
+            }
+
+            final OutputStream out = client.getOutputStream();
+            out.write(("HTTP/1.1 " + status + " Status\r\nContent-Length: 0\r\n"
+                    + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        private static String readLine(DataInputStream in) throws IOException {
+            final StringBuilder builder = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (c != '\r') {
+                    builder.append((char) c);
+                }
+            }
+            return builder.toString();
+        }
+
+        List<String> getBodies() {
+            synchronized (bodies) {
+                return new ArrayList<String>(bodies);
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(getContext().getCacheDir(), "cmstats-test");
+        deleteRecursive(mDir);
+        mDir.mkdirs();
+        mPrefs = getContext().getSharedPreferences("CMStatsTest", 0);
+        mPrefs.edit().clear().commit();
+        mServer = new StandInServer();
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.socket.close();
+        mServer.join();
+        deleteRecursive(mDir);
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    private static void deleteRecursive(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static List<NameValuePair> report(String hash, String version) {
+        final List<NameValuePair> kv = new ArrayList<NameValuePair>(2);
+        kv.add(new BasicNameValuePair("device_hash", hash));
+        kv.add(new BasicNameValuePair("device_version", version));
+        return kv;
+    }
+
+    public void testDeliversCompressedReport() throws IOException {
+        final ReportQueue queue = new ReportQueue(mDir, mServer.getUrl(), mPrefs);
+        queue.enqueue("device", report("device", "10"));
+        assertEquals(1, queue.size());
+
+        assertTrue(queue.flush());
+        assertEquals(0, queue.size());
+        final List<String> bodies = mServer.getBodies();
+        assertEquals(1, bodies.size());
+        assertEquals("gzip:device_hash=device&device_version=10", bodies.get(0));
+    }
+
+    public void testCoalescesDuplicateReports() throws IOException {
+        final ReportQueue queue = new ReportQueue(mDir, mServer.getUrl(), mPrefs);
+        queue.enqueue("device", report("device", "9"));
+        queue.enqueue("device", report("device", "10"));
+        queue.enqueue("other", report("other", "10"));
+        assertEquals(2, queue.size());
+
+        assertTrue(queue.flush());
+        final List<String> bodies = mServer.getBodies();
+        assertEquals(2, bodies.size());
+        assertTrue(bodies.contains("gzip:device_hash=device&device_version=10"));
+        assertTrue(bodies.contains("gzip:device_hash=other&device_version=10"));
+    }
+
+    public void testKeepsReportsAndBacksOff() throws IOException {
+        final ReportQueue queue = new ReportQueue(mDir, mServer.getUrl(), mPrefs);
+        queue.enqueue("device", report("device", "10"));
+        mServer.status = 503;
+
+        long before = System.currentTimeMillis();
+        assertFalse(queue.flush());
+        assertEquals(1, queue.size());
+        final long firstDelay = queue.getNextAttemptTime() - before;
+        assertTrue(firstDelay >= ReportQueue.BACKOFF_BASE);
+
+        before = System.currentTimeMillis();
+        assertFalse(queue.flush());
+        final long secondDelay = queue.getNextAttemptTime() - before;
+        assertTrue(secondDelay >= 2 * ReportQueue.BACKOFF_BASE);
+        assertTrue(secondDelay <= ReportQueue.BACKOFF_MAX);
+
+        // a survivor of the failures is delivered once the server is back
+        mServer.status = 200;
+        assertTrue(new ReportQueue(mDir, mServer.getUrl(), mPrefs).flush());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getNextAttemptTime());
+    }
+}
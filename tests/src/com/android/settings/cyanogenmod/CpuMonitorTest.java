@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Tests {@link CpuMonitor} against a fake cpu directory with two cores,
+ * one of which some tests take offline.
+ */
+@SmallTest
+public class CpuMonitorTest extends AndroidTestCase {
+    private static final int HISTORY_SIZE = 4;
+
+    private File mCpuDir;
+    private CpuMonitor mMonitor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCpuDir = new File(getContext().getCacheDir(), "cpu");
+        deleteRecursive(mCpuDir);
+
+        writeNode(0, "cpufreq/scaling_cur_freq", "1024000\n");
+        writeNode(0, "cpufreq/stats/time_in_state", "384000 100\n1024000 250\n");
+        writeNode(1, "cpufreq/scaling_cur_freq", "384000\n");
+        writeNode(1, "cpufreq/stats/time_in_state", "384000 50\n1024000 10\n");
+        // not a cpu
+        new File(mCpuDir, "cpufreq").mkdirs();
+
+        mMonitor = new CpuMonitor(mCpuDir, HISTORY_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursive(mCpuDir);
+        super.tearDown();
+    }
+
+    private void writeNode(int cpu, String path, String value) throws IOException {
+        final File file = new File(new File(mCpuDir, "cpu" + cpu), path);
+        file.getParentFile().mkdirs();
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(value);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void deleteRecursive(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testSamplesEveryCpu() {
+        mMonitor.sample();
+        assertEquals(2, mMonitor.getCpuCount());
+        assertEquals(1024000, mMonitor.getCurFrequency(0));
+        assertEquals(384000, mMonitor.getCurFrequency(1));
+        assertEquals(CpuMonitor.OFFLINE, mMonitor.getCurFrequency(2));
+    }
+
+    public void testTimeInState() {
+        mMonitor.sample();
+        final int[] freqs = new int[8];
+        final long[] times = new long[8];
+        assertEquals(2, mMonitor.getStateCount(0));
+        assertEquals(2, mMonitor.getTimeInState(0, freqs, times));
+        assertEquals(384000, freqs[0]);
+        assertEquals(100, times[0]);
+        assertEquals(1024000, freqs[1]);
+        assertEquals(250, times[1]);
+    }
+
+    public void testRereadsOpenNodes() throws IOException {
+        mMonitor.sample();
+        writeNode(0, "cpufreq/scaling_cur_freq", "768000\n");
+        mMonitor.sample();
+        assertEquals(768000, mMonitor.getCurFrequency(0));
+    }
+
+    public void testOfflineCpuComesBack() throws IOException {
+        deleteRecursive(new File(mCpuDir, "cpu1/cpufreq"));
+        new File(mCpuDir, "cpu1").mkdirs();
+        mMonitor.sample();
+        assertEquals(CpuMonitor.OFFLINE, mMonitor.getCurFrequency(1));
+        assertEquals(0, mMonitor.getStateCount(1));
+
+        writeNode(1, "cpufreq/scaling_cur_freq", "384000\n");
+        for (int i = 0; i < CpuMonitor.REOPEN_SAMPLES; i++) {
+            mMonitor.sample();
+        }
+        assertEquals(384000, mMonitor.getCurFrequency(1));
+    }
+
+    public void testFallsBackToCpuInfoCurFreq() throws IOException {
+        new File(mCpuDir, "cpu1/cpufreq/scaling_cur_freq").delete();
+        writeNode(1, "cpufreq/cpuinfo_cur_freq", "768000\n");
+        mMonitor.sample();
+        assertEquals(1024000, mMonitor.getCurFrequency(0));
+        assertEquals(768000, mMonitor.getCurFrequency(1));
+    }
+
+    public void testHistoryRing() throws IOException {
+        final int[] history = new int[HISTORY_SIZE];
+        assertEquals(0, mMonitor.getHistory(0, history));
+
+        for (int i = 1; i <= HISTORY_SIZE + 2; i++) {
+            writeNode(0, "cpufreq/scaling_cur_freq", i + "000\n");
+            mMonitor.sample();
+        }
+
+        // oldest first, the first two have been overwritten
+        assertEquals(HISTORY_SIZE, mMonitor.getHistory(0, history));
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            assertEquals((i + 3) * 1000, history[i]);
+        }
+    }
+
+    public void testSampleDoesNotAllocate() {
+        // the first samples open the nodes and size the tables
+        for (int i = 0; i < CpuMonitor.REOPEN_SAMPLES + 1; i++) {
+            mMonitor.sample();
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < CpuMonitor.REOPEN_SAMPLES * 10; i++) {
+                mMonitor.sample();
+            }
+            assertEquals(0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public void testOfflineCpuDoesNotAllocate() {
+        // an offline core keeps its directory but loses cpufreq
+        deleteRecursive(new File(mCpuDir, "cpu1/cpufreq"));
+        for (int i = 0; i < CpuMonitor.REOPEN_SAMPLES + 1; i++) {
+            mMonitor.sample();
+        }
+        assertEquals(CpuMonitor.OFFLINE, mMonitor.getCurFrequency(1));
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            // includes several attempts to reopen the missing nodes
+            for (int i = 0; i < CpuMonitor.REOPEN_SAMPLES * 10; i++) {
+                mMonitor.sample();
+            }
+            assertEquals(0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link SysfsTunables} against a temporary directory tree standing
+ * in for the root file system.
+ */
+@SmallTest
+public class SysfsTunablesTest extends TestCase {
+    private File mRoot;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRoot = File.createTempFile("sysfs", null);
+        mRoot.delete();
+
+        writeNode(SysfsTunables.CPU_GOVERNOR, "ondemand\n");
+        writeNode(SysfsTunables.CPU_GOVERNOR_LIST, "ondemand performance powersave \n");
+        writeNode(SysfsTunables.CPU_FREQ_LIST, "245760 368640 768000 1024000\n");
+        writeNode(SysfsTunables.CPU_FREQ_MIN, "245760\n");
+        writeNode(SysfsTunables.CPU_FREQ_MAX, "1024000\n");
+        writeNode(SysfsTunables.IO_SCHEDULER, "noop deadline [cfq]\n");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursive(mRoot);
+        super.tearDown();
+    }
+
+    private void writeNode(SysfsTunables.Node node, String value) throws IOException {
+        final File file = new File(mRoot, node.path);
+        file.getParentFile().mkdirs();
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(value);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void deleteRecursive(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testReadsFirstLine() {
+        final SysfsTunables tunables = new SysfsTunables(mRoot);
+        assertEquals("ondemand", tunables.get(SysfsTunables.CPU_GOVERNOR));
+        assertEquals(4, tunables.getList(SysfsTunables.CPU_FREQ_LIST).length);
+        assertEquals("1024000", tunables.getList(SysfsTunables.CPU_FREQ_LIST)[3]);
+    }
+
+    public void testMissingNode() {
+        final SysfsTunables tunables = new SysfsTunables(mRoot);
+        assertFalse(tunables.has(SysfsTunables.KSM_RUN));
+        assertNull(tunables.get(SysfsTunables.KSM_RUN));
+        assertNull(tunables.getList(SysfsTunables.CPU_FREQ_SCALING_CUR));
+    }
+
+    public void testSelectedList() {
+        final SysfsTunables tunables = new SysfsTunables(mRoot);
+        final String[] schedulers = tunables.getList(SysfsTunables.IO_SCHEDULER);
+        assertEquals(3, schedulers.length);
+        assertEquals("cfq", schedulers[2]);
+        assertEquals("cfq", tunables.getSelected(SysfsTunables.IO_SCHEDULER));
+    }
+
+    public void testCachedUntilInvalidated() throws IOException {
+        final SysfsTunables tunables = new SysfsTunables(mRoot);
+        assertEquals("245760", tunables.get(SysfsTunables.CPU_FREQ_MIN));
+
+        writeNode(SysfsTunables.CPU_FREQ_MIN, "368640\n");
+        assertEquals("245760", tunables.get(SysfsTunables.CPU_FREQ_MIN));
+        assertEquals("368640", tunables.read(SysfsTunables.CPU_FREQ_MIN));
+
+        tunables.invalidate();
+        assertEquals("368640", tunables.get(SysfsTunables.CPU_FREQ_MIN));
+    }
+
+    public void testWriteUpdatesCache() {
+        final SysfsTunables tunables = new SysfsTunables(mRoot);
+        assertTrue(tunables.write(SysfsTunables.CPU_GOVERNOR, "performance"));
+        assertEquals("performance", tunables.get(SysfsTunables.CPU_GOVERNOR));
+        assertEquals("performance", tunables.read(SysfsTunables.CPU_GOVERNOR));
+    }
+
+    public void testLimitsReadAgainAfterGovernorWrite() throws IOException {
+        final SysfsTunables tunables = new SysfsTunables(mRoot);
+        assertEquals("245760", tunables.get(SysfsTunables.CPU_FREQ_MIN));
+        assertEquals("1024000", tunables.get(SysfsTunables.CPU_FREQ_MAX));
+
+        assertTrue(tunables.write(SysfsTunables.CPU_GOVERNOR, "powersave"));
+        // what a governor change may do to the limits
+        writeNode(SysfsTunables.CPU_FREQ_MIN, "368640\n");
+        writeNode(SysfsTunables.CPU_FREQ_MAX, "768000\n");
+        assertEquals("368640", tunables.get(SysfsTunables.CPU_FREQ_MIN));
+        assertEquals("768000", tunables.get(SysfsTunables.CPU_FREQ_MAX));
+        assertEquals("powersave", tunables.get(SysfsTunables.CPU_GOVERNOR));
+    }
+
+    public void testMinReadAgainAfterMaxWrite() throws IOException {
+        final SysfsTunables tunables = new SysfsTunables(mRoot);
+        assertEquals("245760", tunables.get(SysfsTunables.CPU_FREQ_MIN));
+
+        assertTrue(tunables.write(SysfsTunables.CPU_FREQ_MAX, "245760"));
+        // the kernel clamps the new max to the current min
+        writeNode(SysfsTunables.CPU_FREQ_MAX, "368640\n");
+        writeNode(SysfsTunables.CPU_FREQ_MIN, "368640\n");
+        assertEquals("368640", tunables.get(SysfsTunables.CPU_FREQ_MIN));
+        assertEquals("368640", tunables.get(SysfsTunables.CPU_FREQ_MAX));
+    }
+
+    public void testBatchAppliesInRegistryOrder() {
+        final ArrayList<SysfsTunables.Node> written = new ArrayList<SysfsTunables.Node>();
+        final SysfsTunables tunables = new SysfsTunables(mRoot) {
+            @Override
+            boolean write(Node node, String value) {
+                written.add(node);
+                return super.write(node, value);
+            }
+        };
+
+        final SysfsTunables.Batch batch = tunables.newBatch();
+        batch.set(SysfsTunables.IO_SCHEDULER, "deadline");
+        batch.set(SysfsTunables.CPU_FREQ_MIN, "368640");
+        batch.set(SysfsTunables.CPU_FREQ_MAX, "768000");
+        batch.set(SysfsTunables.CPU_GOVERNOR, "powersave");
+        assertEquals(4, batch.apply());
+
+        assertEquals(4, written.size());
+        assertSame(SysfsTunables.CPU_GOVERNOR, written.get(0));
+        assertSame(SysfsTunables.CPU_FREQ_MAX, written.get(1));
+        assertSame(SysfsTunables.CPU_FREQ_MIN, written.get(2));
+        assertSame(SysfsTunables.IO_SCHEDULER, written.get(3));
+        assertTrue(batch.isEmpty());
+    }
+
+    public void testBatchSkipsUnchangedValues() {
+        final ArrayList<SysfsTunables.Node> written = new ArrayList<SysfsTunables.Node>();
+        final SysfsTunables tunables = new SysfsTunables(mRoot) {
+            @Override
+            boolean write(Node node, String value) {
+                written.add(node);
+                return super.write(node, value);
+            }
+        };
+
+        assertEquals("ondemand", tunables.get(SysfsTunables.CPU_GOVERNOR));
+        final SysfsTunables.Batch batch = tunables.newBatch();
+        batch.set(SysfsTunables.CPU_GOVERNOR, "ondemand");
+        batch.set(SysfsTunables.CPU_FREQ_MAX, "768000");
+        assertEquals(2, batch.apply());
+        assertEquals(1, written.size());
+        assertSame(SysfsTunables.CPU_FREQ_MAX, written.get(0));
+    }
+
+    public void testReadOnlyNodeRejected() {
+        final SysfsTunables.Batch batch = new SysfsTunables(mRoot).newBatch();
+        try {
+            batch.set(SysfsTunables.CPU_FREQ_LIST, "245760");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Measures the per-UID power model over synthetic stats of 1k to 10k UIDs,
+ * computed one UID at a time and spread over the available cores, and
+ * checks both give identical results.
+ */
+@LargeTest
+public class UidPowerModelPerfTest extends AndroidTestCase {
+    private static final String TAG = "UidPowerModelPerfTest";
+    private static final int[] SIZES = { 1000, 5000, 10000 };
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+    private static final int SPEED_STEPS = 8;
+
+    private static UidPowerModel.Params makeParams() {
+        final double[] powerCpuNormal = new double[SPEED_STEPS];
+        for (int i = 0; i < SPEED_STEPS; i++) {
+            powerCpuNormal[i] = 50 + i * 25;
+        }
+        return new UidPowerModel.Params(SPEED_STEPS, powerCpuNormal, 40, 30, 50, 0.0001);
+    }
+
+    private static UidPowerModel.UidStats[] makeUids(int count) {
+        final Random random = new Random(count);
+        final UidPowerModel.UidStats[] uids = new UidPowerModel.UidStats[count];
+        for (int i = 0; i < count; i++) {
+            final UidPowerModel.UidStats us = new UidPowerModel.UidStats();
+            us.uid = 10000 + i;
+            us.numProcs = 1 + random.nextInt(4);
+            us.procNames = new String[us.numProcs];
+            us.procUserTime = new long[us.numProcs];
+            us.procSystemTime = new long[us.numProcs];
+            us.procForegroundTime = new long[us.numProcs];
+            us.procSpeedStepTimes = new long[us.numProcs * SPEED_STEPS];
+            for (int p = 0; p < us.numProcs; p++) {
+                us.procNames[p] = (p == 0 ? "*wakelock*" : "com.example.app") + i + ":" + p;
+                us.procUserTime[p] = random.nextInt(100000);
+                us.procSystemTime[p] = random.nextInt(50000);
+                us.procForegroundTime[p] = random.nextInt(50000);
+                for (int s = 0; s < SPEED_STEPS; s++) {
+                    us.procSpeedStepTimes[p * SPEED_STEPS + s] = random.nextInt(10000);
+                }
+            }
+            us.wakelockTime = random.nextInt(1000000000);
+            us.tcpBytesReceived = random.nextInt(100000000);
+            us.tcpBytesSent = random.nextInt(10000000);
+            us.wifiRunningTime = random.nextInt(1000000000);
+            us.numSensors = random.nextInt(3);
+            us.sensorIsGps = new boolean[us.numSensors];
+            us.sensorPower = new double[us.numSensors];
+            us.sensorTime = new long[us.numSensors];
+            for (int s = 0; s < us.numSensors; s++) {
+                us.sensorIsGps[s] = random.nextBoolean();
+                us.sensorPower[s] = random.nextDouble();
+                us.sensorTime[s] = random.nextInt(1000000);
+            }
+            uids[i] = us;
+        }
+        return uids;
+    }
+
+    public void testComputeAll() {
+        final UidPowerModel.Params params = makeParams();
+        for (int size : SIZES) {
+            final UidPowerModel.UidStats[] uids = makeUids(size);
+            UidPowerModel.Result[] serial = null;
+            UidPowerModel.Result[] parallel = null;
+            long serialTime = 0;
+            long parallelTime = 0;
+            for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+                long start = System.nanoTime();
+                serial = new UidPowerModel.Result[size];
+                for (int j = 0; j < size; j++) {
+                    serial[j] = UidPowerModel.compute(uids[j], params);
+                }
+                long mid = System.nanoTime();
+                parallel = UidPowerModel.computeAll(uids, params);
+                long end = System.nanoTime();
+                if (i >= WARMUP) {
+                    serialTime += mid - start;
+                    parallelTime += end - mid;
+                }
+            }
+            for (int j = 0; j < size; j++) {
+                assertEquals(serial[j].power, parallel[j].power);
+                assertEquals(serial[j].packageWithHighestDrain,
+                        parallel[j].packageWithHighestDrain);
+                assertEquals(serial[j].cpuTime, parallel[j].cpuTime);
+                assertEquals(serial[j].wakelockTime, parallel[j].wakelockTime);
+                assertEquals(serial[j].gpsTime, parallel[j].gpsTime);
+            }
+            Log.i(TAG, "compute " + size + " uids: serial " + serialTime / ITERATIONS / 1000
+                    + "us, parallel " + parallelTime / ITERATIONS / 1000 + "us");
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Random;
+
+/**
+ * Tests that the per-UID power model gives the same results as the loop
+ * PowerUsageSummary used to run over BatteryStats, whether UIDs are
+ * computed one at a time or spread over several threads.
+ */
+@SmallTest
+public class UidPowerModelTest extends AndroidTestCase {
+    private static final int SPEED_STEPS = 8;
+    private static final int NUM_UIDS = 1000;
+    private static final double DELTA = 1e-9;
+
+    private static UidPowerModel.Params makeParams() {
+        final double[] powerCpuNormal = new double[SPEED_STEPS];
+        for (int i = 0; i < SPEED_STEPS; i++) {
+            powerCpuNormal[i] = 50 + i * 25;
+        }
+        return new UidPowerModel.Params(SPEED_STEPS, powerCpuNormal, 40, 30, 50, 0.0001);
+    }
+
+    private static UidPowerModel.UidStats makeUid(int uid, int numProcs, int numSensors,
+            int speedSteps) {
+        final UidPowerModel.UidStats us = new UidPowerModel.UidStats();
+        us.uid = uid;
+        us.numProcs = numProcs;
+        us.procNames = new String[numProcs];
+        us.procUserTime = new long[numProcs];
+        us.procSystemTime = new long[numProcs];
+        us.procForegroundTime = new long[numProcs];
+        us.procSpeedStepTimes = new long[numProcs * speedSteps];
+        us.numSensors = numSensors;
+        us.sensorIsGps = new boolean[numSensors];
+        us.sensorPower = new double[numSensors];
+        us.sensorTime = new long[numSensors];
+        return us;
+    }
+
+    private static UidPowerModel.UidStats[] makeUids(int count) {
+        final Random random = new Random(count);
+        final UidPowerModel.UidStats[] uids = new UidPowerModel.UidStats[count];
+        for (int i = 0; i < count; i++) {
+            final UidPowerModel.UidStats us = makeUid(10000 + i, random.nextInt(5),
+                    random.nextInt(3), SPEED_STEPS);
+            for (int p = 0; p < us.numProcs; p++) {
+                us.procNames[p] = (random.nextInt(3) == 0 ? "*wakelock*" : "com.example.app")
+                        + i + ":" + p;
+                us.procUserTime[p] = random.nextInt(100000);
+                us.procSystemTime[p] = random.nextInt(50000);
+                us.procForegroundTime[p] = random.nextInt(50000);
+                for (int s = 0; s < SPEED_STEPS; s++) {
+                    // some processes have no speed step times at all
+                    us.procSpeedStepTimes[p * SPEED_STEPS + s] =
+                            random.nextInt(4) == 0 ? 0 : random.nextInt(10000);
+                }
+            }
+            us.wakelockTime = random.nextInt(1000000000);
+            us.tcpBytesReceived = random.nextInt(100000000);
+            us.tcpBytesSent = random.nextInt(10000000);
+            us.wifiRunningTime = random.nextInt(1000000000);
+            for (int s = 0; s < us.numSensors; s++) {
+                us.sensorIsGps[s] = random.nextBoolean();
+                us.sensorPower[s] = random.nextDouble();
+                us.sensorTime[s] = random.nextInt(1000000);
+            }
+            uids[i] = us;
+        }
+        return uids;
+    }
+
+    /**
+     * The body of the old PowerUsageSummary.processAppUsage() loop for one
+     * UID, with the BatteryStats reads replaced by the flattened values.
+     */
+    private static UidPowerModel.Result computeLegacy(UidPowerModel.UidStats u,
+            UidPowerModel.Params params) {
+        final int speedSteps = params.speedSteps;
+        final long[] cpuSpeedStepTimes = new long[speedSteps];
+        double power = 0;
+        double highestDrain = 0;
+        String packageWithHighestDrain = null;
+        long cpuTime = 0;
+        long cpuFgTime = 0;
+        long wakelockTime = 0;
+        long gpsTime = 0;
+        if (u.numProcs > 0) {
+            // Process CPU time
+            for (int ip = 0; ip < u.numProcs; ip++) {
+                final long userTime = u.procUserTime[ip];
+                final long systemTime = u.procSystemTime[ip];
+                final long foregroundTime = u.procForegroundTime[ip];
+                cpuFgTime += foregroundTime * 10; // convert to millis
+                final long tmpCpuTime = (userTime + systemTime) * 10; // convert to millis
+                int totalTimeAtSpeeds = 0;
+                // Get the total first
+                for (int step = 0; step < speedSteps; step++) {
+                    cpuSpeedStepTimes[step] = u.procSpeedStepTimes[ip * speedSteps + step];
+                    totalTimeAtSpeeds += cpuSpeedStepTimes[step];
+                }
+                if (totalTimeAtSpeeds == 0) totalTimeAtSpeeds = 1;
+                // Then compute the ratio of time spent at each speed
+                double processPower = 0;
+                for (int step = 0; step < speedSteps; step++) {
+                    double ratio = (double) cpuSpeedStepTimes[step] / totalTimeAtSpeeds;
+                    processPower += ratio * tmpCpuTime * params.powerCpuNormal[step];
+                }
+                cpuTime += tmpCpuTime;
+                power += processPower;
+                if (packageWithHighestDrain == null
+                        || packageWithHighestDrain.startsWith("*")) {
+                    highestDrain = processPower;
+                    packageWithHighestDrain = u.procNames[ip];
+                } else if (highestDrain < processPower
+                        && !u.procNames[ip].startsWith("*")) {
+                    highestDrain = processPower;
+                    packageWithHighestDrain = u.procNames[ip];
+                }
+            }
+        }
+        if (cpuFgTime > cpuTime) {
+            cpuTime = cpuFgTime; // Statistics may not have been gathered yet.
+        }
+        power /= 1000;
+
+        // Process wake lock usage
+        wakelockTime = u.wakelockTime;
+        wakelockTime /= 1000; // convert to millis
+
+        // Add cost of holding a wake lock
+        power += (wakelockTime * params.powerCpuAwake) / 1000;
+
+        // Add cost of data traffic
+        power += (u.tcpBytesReceived + u.tcpBytesSent) * params.averageCostPerByte;
+
+        // Add cost of keeping WIFI running.
+        long wifiRunningTimeMs = u.wifiRunningTime / 1000;
+        power += (wifiRunningTimeMs * params.powerWifiOn) / 1000;
+
+        // Process Sensor usage
+        for (int is = 0; is < u.numSensors; is++) {
+            long sensorTime = u.sensorTime[is];
+            double multiplier = 0;
+            if (u.sensorIsGps[is]) {
+                multiplier = params.powerGpsOn;
+                gpsTime = sensorTime;
+            } else {
+                multiplier = u.sensorPower[is];
+            }
+            power += (multiplier * sensorTime) / 1000;
+        }
+
+        final UidPowerModel.Result r = new UidPowerModel.Result();
+        r.power = power;
+        r.packageWithHighestDrain = packageWithHighestDrain;
+        r.cpuTime = cpuTime;
+        r.cpuFgTime = cpuFgTime;
+        r.wakelockTime = wakelockTime;
+        r.gpsTime = gpsTime;
+        r.wifiRunningTimeMs = wifiRunningTimeMs;
+        return r;
+    }
+
+    private static void assertSameResult(String uid, UidPowerModel.Result expected,
+            UidPowerModel.Result actual) {
+        assertEquals(uid, expected.power, actual.power);
+        assertEquals(uid, expected.packageWithHighestDrain, actual.packageWithHighestDrain);
+        assertEquals(uid, expected.cpuTime, actual.cpuTime);
+        assertEquals(uid, expected.cpuFgTime, actual.cpuFgTime);
+        assertEquals(uid, expected.wakelockTime, actual.wakelockTime);
+        assertEquals(uid, expected.gpsTime, actual.gpsTime);
+        assertEquals(uid, expected.wifiRunningTimeMs, actual.wifiRunningTimeMs);
+    }
+
+    public void testComputeMatchesHandCalculation() {
+        final UidPowerModel.Params params = new UidPowerModel.Params(2,
+                new double[] { 100, 200 }, 40, 30, 50, 0.001);
+        final UidPowerModel.UidStats us = makeUid(10000, 2, 2, 2);
+        // 100ms split evenly over both steps: 0.5 * 100 * 100 + 0.5 * 100 * 200
+        us.procNames[0] = "*wakelock*";
+        us.procUserTime[0] = 10;
+        us.procSpeedStepTimes[0] = 1;
+        us.procSpeedStepTimes[1] = 1;
+        // 400ms all at the fast step: 400 * 200
+        us.procNames[1] = "com.example";
+        us.procUserTime[1] = 20;
+        us.procSystemTime[1] = 20;
+        us.procForegroundTime[1] = 50;
+        us.procSpeedStepTimes[3] = 4;
+        us.wakelockTime = 2000000;
+        us.tcpBytesReceived = 1000;
+        us.tcpBytesSent = 1000;
+        us.wifiRunningTime = 3000000;
+        us.sensorIsGps[0] = true;
+        us.sensorTime[0] = 1000;
+        us.sensorPower[1] = 2;
+        us.sensorTime[1] = 500;
+
+        final UidPowerModel.Result r = UidPowerModel.compute(us, params);
+        // cpu 95, wake lock 80, data 2, wifi 90, gps 50, other sensor 1
+        assertEquals(318, r.power, DELTA);
+        assertEquals("com.example", r.packageWithHighestDrain);
+        assertEquals(500, r.cpuTime);
+        assertEquals(500, r.cpuFgTime);
+        assertEquals(2000, r.wakelockTime);
+        assertEquals(1000, r.gpsTime);
+        assertEquals(3000, r.wifiRunningTimeMs);
+    }
+
+    public void testHighestDrainSkipsWakelockNames() {
+        final UidPowerModel.Params params = new UidPowerModel.Params(1,
+                new double[] { 100 }, 40, 30, 50, 0.001);
+        final UidPowerModel.UidStats us = makeUid(10000, 3, 0, 1);
+        us.procNames[0] = "com.example";
+        us.procUserTime[0] = 1;
+        us.procNames[1] = "*sync*";
+        us.procUserTime[1] = 100;
+        us.procNames[2] = "com.example:remote";
+        us.procUserTime[2] = 2;
+
+        assertEquals("com.example:remote",
+                UidPowerModel.compute(us, params).packageWithHighestDrain);
+    }
+
+    public void testForegroundTimeRaisesCpuTime() {
+        final UidPowerModel.Params params = makeParams();
+        final UidPowerModel.UidStats us = makeUid(10000, 1, 0, SPEED_STEPS);
+        us.procNames[0] = "com.example";
+        us.procUserTime[0] = 5;
+        us.procForegroundTime[0] = 20;
+
+        final UidPowerModel.Result r = UidPowerModel.compute(us, params);
+        assertEquals(200, r.cpuFgTime);
+        assertEquals(200, r.cpuTime);
+    }
+
+    public void testComputeMatchesLegacyLoop() {
+        final UidPowerModel.Params params = makeParams();
+        final UidPowerModel.UidStats[] uids = makeUids(NUM_UIDS);
+        for (UidPowerModel.UidStats us : uids) {
+            assertSameResult("uid " + us.uid, computeLegacy(us, params),
+                    UidPowerModel.compute(us, params));
+        }
+    }
+
+    public void testComputeAllKeepsOrder() {
+        final UidPowerModel.Params params = makeParams();
+        for (int size : new int[] { 0, 1, 31, NUM_UIDS }) {
+            final UidPowerModel.UidStats[] uids = makeUids(size);
+            final UidPowerModel.Result[] results = UidPowerModel.computeAll(uids, params);
+            assertEquals(size, results.length);
+            for (int i = 0; i < size; i++) {
+                assertSameResult("uid " + uids[i].uid, computeLegacy(uids[i], params),
+                        results[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notificationlight;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.view.View.MeasureSpec;
+
+/**
+ * Tests that drawing a {@link ColorPickerView} frame does not allocate while
+ * the color is being dragged around.
+ */
+@SmallTest
+public class ColorPickerViewTest extends AndroidTestCase {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 400;
+    private static final int FRAMES = 60;
+
+    private Canvas mCanvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    private ColorPickerView createView(boolean alphaSlider) {
+        final ColorPickerView view = new ColorPickerView(getContext());
+        view.setAlphaSliderVisible(alphaSlider);
+        view.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+        return view;
+    }
+
+    /** Draw frames while sweeping hue, saturation and value, counting allocations. */
+    private int countFrameAllocations(ColorPickerView view) {
+        final float[] hsv = new float[3];
+        int allocations = 0;
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                hsv[0] = 360f * i / FRAMES;
+                hsv[1] = (float) i / FRAMES;
+                hsv[2] = 1f - (float) i / FRAMES;
+                view.setColor(Color.HSVToColor(0xff - i, hsv));
+
+                Debug.resetThreadAllocCount();
+                view.onDraw(mCanvas);
+                allocations += Debug.getThreadAllocCount();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return allocations;
+    }
+
+    public void testDragDoesNotAllocate() {
+        final ColorPickerView view = createView(false);
+        // the first frame may still warm up
+        view.onDraw(mCanvas);
+        assertEquals(0, countFrameAllocations(view));
+    }
+
+    public void testDragWithAlphaSliderDoesNotAllocate() {
+        final ColorPickerView view = createView(true);
+        view.onDraw(mCanvas);
+        assertEquals(0, countFrameAllocations(view));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.widget;
+
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.net.NetworkStatsHistory;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.settings.widget.ChartDataUsageView.DataAxis;
+import com.android.settings.widget.ChartDataUsageView.TimeAxis;
+
+import java.util.Random;
+
+/**
+ * Measures frame times of {@link ChartNetworkSeriesView} over a year of
+ * hourly buckets, while the vertical axis is rescaled as during a sweep
+ * drag, and while the visible range is moved. Also checks that the
+ * decimated outline keeps at most two vertices per pixel column, however
+ * many buckets fall inside it.
+ */
+@LargeTest
+public class ChartNetworkSeriesViewPerfTest extends AndroidTestCase {
+    private static final String TAG = "ChartNetworkSeriesViewPerfTest";
+    private static final int BUCKETS = 365 * 24;
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 400;
+    private static final int WARMUP = 10;
+    private static final int FRAMES = 120;
+
+    private ChartNetworkSeriesView mSeries;
+    private TimeAxis mHoriz;
+    private DataAxis mVert;
+    private Canvas mCanvas;
+    private Bitmap mBitmap;
+    private long mStart;
+    private long mEnd;
+    private long mTotal;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mEnd = System.currentTimeMillis() / HOUR_IN_MILLIS * HOUR_IN_MILLIS;
+        mStart = mEnd - BUCKETS * HOUR_IN_MILLIS;
+
+        final Random random = new Random(BUCKETS);
+        final NetworkStatsHistory stats = new NetworkStatsHistory(HOUR_IN_MILLIS, BUCKETS);
+        for (long time = mStart; time < mEnd; time += HOUR_IN_MILLIS) {
+            final long rx = random.nextInt(10 * 1024 * 1024);
+            final long tx = random.nextInt(1024 * 1024);
+            stats.recordData(time, time + HOUR_IN_MILLIS, rx, tx);
+            mTotal += rx + tx;
+        }
+
+        mHoriz = new TimeAxis();
+        mVert = new DataAxis();
+        mHoriz.setSize(WIDTH);
+        mVert.setSize(HEIGHT);
+        mHoriz.setBounds(mStart, mEnd);
+        mVert.setBounds(0, mTotal);
+
+        mSeries = new ChartNetworkSeriesView(getContext());
+        mSeries.init(mHoriz, new InvertedChartAxis(mVert));
+        mSeries.measure(WIDTH, HEIGHT);
+        mSeries.layout(0, 0, WIDTH, HEIGHT);
+        mSeries.setBounds(mStart, mEnd);
+        mSeries.setEndTime(mEnd);
+        mSeries.bindNetworkStats(stats);
+
+        mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    private void logFrames(String name, long[] frames) {
+        long total = 0;
+        long max = 0;
+        for (int i = WARMUP; i < frames.length; i++) {
+            total += frames[i];
+            max = Math.max(max, frames[i]);
+        }
+        Log.i(TAG, name + ": average " + total / FRAMES / 1000 + "us, worst " + max / 1000
+                + "us per frame");
+    }
+
+    /**
+     * Each screen column contributes the first and last bucket ending in
+     * it. The data has no gaps, so the only other vertices are the line in
+     * from the left edge and the extension to the end time.
+     */
+    private void assertDecimated(int visibleBuckets) {
+        final int vertices = mSeries.getVertexCount();
+        assertTrue("no vertices", vertices > 0);
+        assertTrue(vertices + " vertices for " + WIDTH + " columns",
+                vertices <= 2 * (WIDTH + 1) + 2);
+        assertTrue(vertices + " vertices for " + visibleBuckets + " buckets",
+                vertices < visibleBuckets);
+    }
+
+    public void testVerticalRescale() {
+        final long[] frames = new long[WARMUP + FRAMES];
+        for (int i = 0; i < frames.length; i++) {
+            final long start = System.nanoTime();
+            // grow and shrink axis as a sweep is dragged past the top
+            mVert.setBounds(0, mTotal + mTotal * (i % 20) / 40);
+            mSeries.invalidatePath();
+            mSeries.draw(mCanvas);
+            frames[i] = System.nanoTime() - start;
+        }
+        assertEquals(mTotal, mSeries.getMaxVisible());
+        assertDecimated(BUCKETS);
+        logFrames("vertical rescale", frames);
+    }
+
+    public void testHorizontalPan() {
+        final long[] frames = new long[WARMUP + FRAMES];
+        final long window = (mEnd - mStart) / 4;
+        for (int i = 0; i < frames.length; i++) {
+            final long start = System.nanoTime();
+            final long visibleEnd = mEnd - (mEnd - mStart - window) * (i % 20) / 20;
+            mHoriz.setBounds(visibleEnd - window, visibleEnd);
+            mSeries.setBounds(visibleEnd - window, visibleEnd);
+            mSeries.invalidatePath();
+            mSeries.draw(mCanvas);
+            frames[i] = System.nanoTime() - start;
+        }
+        assertTrue(mSeries.getMaxVisible() > 0);
+        assertDecimated((int) (window / HOUR_IN_MILLIS));
+        logFrames("horizontal pan", frames);
+    }
+}
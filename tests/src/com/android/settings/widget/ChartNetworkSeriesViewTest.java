@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.widget;
+
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.NetworkStatsHistory;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.settings.widget.ChartDataUsageView.DataAxis;
+import com.android.settings.widget.ChartDataUsageView.TimeAxis;
+
+import java.util.Random;
+
+/**
+ * Tests that a {@link ChartNetworkSeriesView} reusing its decimated vertices
+ * while the axes change draws the same as a view built from scratch.
+ */
+@MediumTest
+public class ChartNetworkSeriesViewTest extends AndroidTestCase {
+    private static final int BUCKETS = 60 * 24;
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 240;
+    private static final int STEPS = 12;
+
+    private NetworkStatsHistory mStats;
+    private long mStart;
+    private long mEnd;
+    private long mTotal;
+
+    private TimeAxis mHoriz;
+    private DataAxis mVert;
+    private ChartNetworkSeriesView mSeries;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mEnd = System.currentTimeMillis() / HOUR_IN_MILLIS * HOUR_IN_MILLIS;
+        mStart = mEnd - BUCKETS * HOUR_IN_MILLIS;
+
+        final Random random = new Random(BUCKETS);
+        mStats = new NetworkStatsHistory(HOUR_IN_MILLIS, BUCKETS);
+        for (long time = mStart; time < mEnd; time += HOUR_IN_MILLIS) {
+            // leave some gaps, which are drawn differently
+            if (random.nextInt(10) == 0) continue;
+            final long rx = random.nextInt(10 * 1024 * 1024);
+            final long tx = random.nextInt(1024 * 1024);
+            mStats.recordData(time, time + HOUR_IN_MILLIS, rx, tx);
+            mTotal += rx + tx;
+        }
+
+        mHoriz = new TimeAxis();
+        mVert = new DataAxis();
+        mSeries = createSeries(mHoriz, mVert, mStart, mEnd);
+    }
+
+    private ChartNetworkSeriesView createSeries(TimeAxis horiz, DataAxis vert, long start,
+            long end) {
+        horiz.setSize(WIDTH);
+        vert.setSize(HEIGHT);
+        horiz.setBounds(start, end);
+        final ChartNetworkSeriesView series = new ChartNetworkSeriesView(getContext());
+        series.setChartColor(Color.RED, Color.GREEN, Color.BLUE);
+        series.init(horiz, new InvertedChartAxis(vert));
+        series.measure(WIDTH, HEIGHT);
+        series.layout(0, 0, WIDTH, HEIGHT);
+        series.setBounds(start, end);
+        series.setEndTime(mEnd);
+        series.setPrimaryRange(start, end);
+        series.bindNetworkStats(mStats);
+        return series;
+    }
+
+    private static Bitmap render(ChartNetworkSeriesView series) {
+        final Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        series.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    /** Draw the reused view and a fresh one with the same state, and compare. */
+    private void assertMatchesFresh(String state, long start, long end, long vertMax) {
+        final Bitmap actual = render(mSeries);
+        final DataAxis vert = new DataAxis();
+        vert.setBounds(0, vertMax);
+        final ChartNetworkSeriesView fresh = createSeries(new TimeAxis(), vert, start, end);
+        final Bitmap expected = render(fresh);
+        try {
+            assertEquals(state, fresh.getMaxVisible(), mSeries.getMaxVisible());
+            assertTrue(state, expected.sameAs(actual));
+        } finally {
+            actual.recycle();
+            expected.recycle();
+        }
+    }
+
+    public void testVerticalRescale() {
+        for (int i = 0; i < STEPS; i++) {
+            // grow and shrink axis as a sweep is dragged past the top
+            final long max = mTotal + mTotal * i / STEPS;
+            mVert.setBounds(0, max);
+            mSeries.invalidatePath();
+            assertMatchesFresh("rescale " + i, mStart, mEnd, max);
+        }
+        assertEquals(mTotal, mSeries.getMaxVisible());
+    }
+
+    public void testHorizontalPan() {
+        mVert.setBounds(0, mTotal);
+        final long window = (mEnd - mStart) / 4;
+        for (int i = 0; i < STEPS; i++) {
+            final long visibleEnd = mEnd - (mEnd - mStart - window) * i / STEPS;
+            final long visibleStart = visibleEnd - window;
+            // only the axis moves, through the same ChartAxis instance
+            mHoriz.setBounds(visibleStart, visibleEnd);
+            mSeries.setBounds(visibleStart, visibleEnd);
+            mSeries.setPrimaryRange(visibleStart, visibleEnd);
+            mSeries.invalidatePath();
+            assertMatchesFresh("pan " + i, visibleStart, visibleEnd, mTotal);
+        }
+    }
+
+    public void testRebindStats() {
+        mVert.setBounds(0, mTotal);
+        render(mSeries).recycle();
+
+        mStats = new NetworkStatsHistory(HOUR_IN_MILLIS, BUCKETS);
+        mStats.recordData(mStart, mEnd, 1024, 1024);
+        mTotal = 2048;
+        mSeries.bindNetworkStats(mStats);
+        mVert.setBounds(0, mTotal);
+        assertMatchesFresh("rebind", mStart, mEnd, mTotal);
+        assertEquals(mTotal, mSeries.getMaxVisible());
+    }
+}